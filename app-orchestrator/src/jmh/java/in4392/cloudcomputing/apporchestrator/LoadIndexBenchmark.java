@@ -0,0 +1,68 @@
+package in4392.cloudcomputing.apporchestrator;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Time it takes to select the least loaded instance and to update the load of an instance, for thousands of
+ * instances. Both should grow logarithmically, not linearly, with the amount of instances.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LoadIndexBenchmark {
+	@Param({"100", "1000", "10000"})
+	public int instances;
+	/**
+	 * The share of instances that is excluded from the selection, like failed or downscaling instances
+	 */
+	@Param({"0", "0.01"})
+	public double excludedShare;
+	private LoadIndex loadIndex;
+	private Target[] targets;
+	private int excludedInstances;
+
+	@Setup(Level.Trial)
+	public void fillIndex() {
+		loadIndex = new LoadIndex();
+		targets = new Target[instances];
+		for (int i = 0; i < instances; i++) {
+			// spread the instances over a realistic range of loads, with many ties
+			targets[i] = new Target(null, ThreadLocalRandom.current().nextInt(10));
+			loadIndex.add(instanceId(i), targets[i]);
+		}
+		excludedInstances = (int) (instances * excludedShare);
+	}
+
+	@Benchmark
+	public String selectLeastLoaded() {
+		return loadIndex.selectLeastLoaded((instanceId) -> Integer.parseInt(instanceId.substring(2)) < excludedInstances);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public String selectAndUpdateConcurrently() {
+		String selected = selectLeastLoaded();
+		int i = Integer.parseInt(selected.substring(2));
+		targets[i].incrementCurrentAmountOfRequests();
+		loadIndex.update(selected, targets[i]);
+		targets[i].decrementCurrentAmountofRequests();
+		loadIndex.update(selected, targets[i]);
+		return selected;
+	}
+
+	private static String instanceId(int i) {
+		return "i-" + i;
+	}
+}
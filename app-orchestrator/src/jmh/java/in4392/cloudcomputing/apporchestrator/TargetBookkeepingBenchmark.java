@@ -0,0 +1,80 @@
+package in4392.cloudcomputing.apporchestrator;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import com.amazonaws.services.ec2.model.Instance;
+
+/**
+ * Throughput of counting requests for the application instances, as done by the request threads, with an
+ * increasing amount of request threads. With concurrent bookkeeping the throughput should grow with the threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TargetBookkeepingBenchmark {
+	@Param({"16", "256"})
+	public int targets;
+	private final Map<String, URI> targetURIs = new HashMap<>();
+
+	@Setup(Level.Trial)
+	public void addTargets() {
+		for (int i = 0; i < targets; i++) {
+			String instanceId = "i-benchmark-" + i;
+			String hostname = "app-" + instanceId;
+			AppOrchestrator.addTarget(instanceId, new Target(new Instance().withInstanceId(instanceId).withPublicDnsName(hostname), 0));
+			targetURIs.put(instanceId, URI.create("http://" + hostname + ":8080"));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void removeTargets() {
+		for (String instanceId : targetURIs.keySet()) {
+			AppOrchestrator.removeTarget(instanceId);
+		}
+		targetURIs.clear();
+	}
+
+	@Benchmark
+	@Threads(1)
+	public int oneRequestThread() throws Exception {
+		return countRequest();
+	}
+
+	@Benchmark
+	@Threads(4)
+	public int fourRequestThreads() throws Exception {
+		return countRequest();
+	}
+
+	@Benchmark
+	@Threads(16)
+	public int sixteenRequestThreads() throws Exception {
+		return countRequest();
+	}
+
+	/**
+	 * Select the least loaded instance, count a request for it and count it as completed again.
+	 */
+	private int countRequest() throws Exception {
+		String instanceId = AppOrchestrator.findLeastLoadedAppInstance(Collections.emptyList());
+		int requests = AppOrchestrator.incrementRequests(instanceId);
+		AppOrchestrator.decrementRequests(targetURIs.get(instanceId));
+		return requests;
+	}
+}
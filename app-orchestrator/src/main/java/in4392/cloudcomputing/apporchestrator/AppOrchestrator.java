@@ -5,52 +5,107 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Paths;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.inject.Named;
-import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.core.UriBuilder;
 
 import com.amazonaws.services.ec2.model.Instance;
 import com.amazonaws.util.EC2MetadataUtils;
-import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
 
+/**
+ * Deploy the load balancer and the application instances, and keep them running.
+ *
+ * The control loop runs separate tasks, each on its own interval that can be configured with a system property
+ * (in milliseconds):
+ * <ul>
+ * <li>liveness: deploy or restore the instances and recover the instances that are no longer alive
+ * ("control.livenessInterval", default 15 seconds)</li>
+ * <li>scaling: add or remove application instances as decided by the scaling policy ("control.scalingInterval",
+ * default 1 minute)</li>
+ * <li>backup: replicate the complete restore state to the main instance again, in case it missed changes
+ * ("control.backupInterval", default 1 minute)</li>
+ * </ul>
+ * The app orchestrator sends heartbeats to the main instance, so it detects a failure within seconds.
+ *
+ * The liveness task is triggered right away when an instance becomes unhealthy, and the health checks are repeated
+ * right away when the load balancer reports a failed request. The scaling task is triggered right away when the least
+ * loaded application instance has more than "control.queueDepthTrigger" requests in progress (default 5).
+ */
 @Named
 public class AppOrchestrator {
-	private static final int MINIMUM_INSTANCES = 2;
-	private static final int ITERATION_WAIT_TIME = 60 * 1000;
-	private static final double MAX_REQUESTS_PER_INSTANCE = 5;
-	private static final int MIN_REQUESTS_PER_INSTANCE = 3;
-	private static final String INSTANCE_TYPE_LOAD_BALANCER = "loadBalancer";
-	private static final String INSTANCE_TYPE_APPLICATIONS = "applications";
+	private static final String TASK_LIVENESS = "liveness";
+	private static final String TASK_SCALING = "scaling";
+	private static final String TASK_BACKUP = "backup";
+	private static final long LIVENESS_INTERVAL = Long.getLong("control.livenessInterval", 15 * 1000);
+	private static final long SCALING_INTERVAL = Long.getLong("control.scalingInterval", 60 * 1000);
+	private static final long BACKUP_INTERVAL = Long.getLong("control.backupInterval", 60 * 1000);
+	private static final int QUEUE_DEPTH_TRIGGER = Integer.getInteger("control.queueDepthTrigger", 5);
 	/**
-	 * Wait at least this many iterations before downscaling again
+	 * The amount of load samples that are kept, so they can be replayed against a scaling policy offline
 	 */
-	private static final int DOWNSCALE_WAIT_ITERATIONS= 5;
+	private static final int LOAD_TRACE_LENGTH = Integer.getInteger("scaling.traceLength", 24 * 60);
+	private static final String INSTANCE_TYPE_LOAD_BALANCER = "loadBalancer";
+	private static final String INSTANCE_TYPE_APPLICATIONS = "applications";
 	private static final String AWS_KEYPAIR_NAME = "accessibleFromAppOrchestrator";
 	
-	private static boolean keepAlive;
-	private static boolean started;
-	private static Instance loadBalancer;
-	private static Map<String, Target> applicationTargets = new HashMap<>();
-	private static List<String> toBeDownscaledInstances = new ArrayList<>();
-	private static Instance appOrchestrator;
-	private static int downscaleIterationWaitCounter;
-	private static Map<String, List<String>> appOrchestratorRestoreState = new HashMap<>();
-	private static Map<String, Integer> appOrchestratorRestoreApplicationCounters = new HashMap<>();
-	private static String mainInstanceHostname;
+	private static volatile boolean keepAlive;
+	private static volatile boolean started;
+	private static volatile Instance loadBalancer;
+	/*
+	 * The targets and their counters are read and updated by request threads while the control loop adds and 
+	 * removes targets, so these are only kept in concurrent collections
+	 */
+	private static final Map<String, Target> applicationTargets = new ConcurrentHashMap<>();
+	private static final List<String> toBeDownscaledInstances = new CopyOnWriteArrayList<>();
+	private static final LoadIndex loadIndex = new LoadIndex();
+	private static volatile Instance appOrchestrator;
+	private static volatile ScalingPolicy scalingPolicy = createScalingPolicy(System.getProperty("scaling.policy", ForecastScalingPolicy.NAME));
+	private static final LongAdder arrivals = new LongAdder();
+	private static final LongAdder completions = new LongAdder();
+	private static final Deque<LoadSample> loadTrace = new ArrayDeque<>();
+	private static long previousSampleTime = System.currentTimeMillis();
+	private static final Map<String, List<String>> appOrchestratorRestoreState = new ConcurrentHashMap<>();
+	private static final Map<String, Integer> appOrchestratorRestoreApplicationCounters = new ConcurrentHashMap<>();
+	private static volatile String mainInstanceHostname;
+	private static final MetricsRegistry.Histogram leastLoadedDuration = MetricsRegistry.histogram("apporchestrator_least_loaded_duration_seconds",
+			"Time it took to select the least loaded application instance, in seconds.", MetricsRegistry.LATENCY_BUCKETS);
+	private static final MetricsRegistry.Histogram loadBalancerDeployDuration = MetricsRegistry.histogram("apporchestrator_deploy_duration_seconds",
+			"Time it took to deploy an instance, in seconds.", MetricsRegistry.LATENCY_BUCKETS, "type", INSTANCE_TYPE_LOAD_BALANCER);
+	private static final MetricsRegistry.Counter failedRequests = MetricsRegistry.counter("apporchestrator_failed_requests_total",
+			"Amount of requests that the load balancer reported as failed on an application instance.");
+	
+	static {
+		MetricsRegistry.gauge("apporchestrator_application_instances", "Amount of application instances.", applicationTargets::size);
+		MetricsRegistry.gauge("apporchestrator_downscaling_instances", "Amount of application instances that are being downscaled.", toBeDownscaledInstances::size);
+		MetricsRegistry.gauge("apporchestrator_requests_in_progress", "Amount of requests in progress on all application instances.", () -> {
+			int requests = 0;
+			for (Target target : applicationTargets.values()) {
+				requests += target.getCurrentAmountOfRequests();
+			}
+			return requests;
+		});
+	}
 	
 	
 	private static void deployLoadBalancer() throws IOException, NoSuchAlgorithmException, URISyntaxException {
 		System.out.println("Starting Load Balancer deployment");
-		Instance deployedInstance = EC2.deployDefaultEC2("Load Balancer", AWS_KEYPAIR_NAME);
+		long deployStart = System.nanoTime();
+		Instance deployedInstance = EC2.deployDefaultEC2("Load Balancer", AWS_KEYPAIR_NAME, getLoadBalancerUserData());
 		System.out.println("Load Balancer deployed, waiting for instance to run");
 		EC2.waitForInstanceToRun(deployedInstance.getInstanceId());
 		deployedInstance = EC2.retrieveEC2InstanceWithId(deployedInstance.getInstanceId());
@@ -60,6 +115,7 @@ public class AppOrchestrator {
 		EC2.startDeployedApplication(deployedInstance, "load-balancer");
 		System.out.println("Load Balancer application started");
 		waitForApplicationToStart();
+		loadBalancerDeployDuration.observeSince(deployStart);
 		loadBalancer = deployedInstance;
 		backupLoadBalancer();
 		sendAppOrchestratorURIToLoadBalancer();
@@ -73,66 +129,129 @@ public class AppOrchestrator {
 		}
 	}
 	
-	private static void deployApplication() throws IOException, NoSuchAlgorithmException, URISyntaxException {
-		System.out.println("Starting User Application deployment");
-		Instance applicationInstance = EC2.deployDefaultEC2("User Application", AWS_KEYPAIR_NAME, getApplicationUserData());
-		System.out.println("User Application deployed, waiting for instance to run");
-		EC2.waitForInstanceToRun(applicationInstance.getInstanceId());
-		Instance deployedInstance = EC2.retrieveEC2InstanceWithId(applicationInstance.getInstanceId());
-		System.out.println("Copying User Application application");
-		EC2.copyApplicationToDeployedInstance(Paths.get("/home/ubuntu/application.jar").toFile(), deployedInstance);
-		System.out.println("Starting User Application application");
-		EC2.startDeployedApplication(deployedInstance, "application");
-		System.out.println("User Application application started");
-		waitForApplicationToStart();
-		applicationInstance = deployedInstance;
-		applicationTargets.put(applicationInstance.getInstanceId(), new Target(applicationInstance, 0));
+	/**
+	 * Start application instances from the warm pool, and launch the rest in the background. Each instance is 
+	 * added to the targets once it is ready.
+	 */
+	private static void deployApplications(int amount) {
+		int fromWarmPool = WarmPool.take(amount, AppOrchestrator::addProvisionedApplication);
+		if (fromWarmPool == amount) {
+			return;
+		}
+		System.out.println("Starting deployment of " + (amount - fromWarmPool) + " User Application instances");
+		try {
+			ApplicationProvisioner.provision(amount - fromWarmPool, "User Application", AWS_KEYPAIR_NAME, getApplicationUserData(), AppOrchestrator::addProvisionedApplication);
+		} catch (NoSuchAlgorithmException | RuntimeException e) {
+			System.out.println("Could not launch User Application instances: " + e.getMessage());
+		}
+	}
+
+	private static void addProvisionedApplication(Instance applicationInstance) {
+		addTarget(applicationInstance.getInstanceId(), new Target(applicationInstance, 0));
 		backupApplicationIds();
 	}
 
+	/**
+	 * The load balancer needs ffmpeg to split videos into segments and join the converted segments
+	 */
+	private static String getLoadBalancerUserData() {
+		String loadBalancerInstallScript = EC2.getDefaultInstallScript();
+		loadBalancerInstallScript = loadBalancerInstallScript + "apt install -y ffmpeg\n";
+		return EC2.getUserData(loadBalancerInstallScript);
+	}
+
 	private static String getApplicationUserData() {
+		return EC2.getUserData(getApplicationInstallScript());
+	}
+
+	private static String getApplicationInstallScript() {
 		String applicationInstallScript = EC2.getDefaultInstallScript();
 		applicationInstallScript = applicationInstallScript + "apt install -y ffmpeg\n";
-		return EC2.getUserData(applicationInstallScript);
+		return applicationInstallScript;
 	}
 
+	/**
+	 * Add or remove application instances as decided by the scaling policy, based on the load since the previous
+	 * run. Instances are removed one at a time, by no longer sending requests to the least loaded instance
+	 * so it can be terminated once its requests are completed.
+	 */
 	public static void scaleUpOrDown() throws NoSuchAlgorithmException, IOException, URISyntaxException {
-		// ensure that we wait at least the amount of iterations specified in DOWNSCALE_WAIT_ITERATIONS
-		// before we check to scale down again. This should allow the average amount of requests to
-		// stabilize to a new value before we check it again.
+		LoadSample sample = takeLoadSample();
+		int decision = scalingPolicy.decide(sample, ApplicationProvisioner.getPendingInstances());
+		if (decision > 0) {
+			System.out.println("Upscale application instances by " + decision + " with the " + scalingPolicy.getName() + " policy");
+			deployApplications(decision);
+		}
+		else if (decision < 0 && toBeDownscaledInstances.isEmpty()) {
+			System.out.println("Downscale application instances");
+			String instanceIdOfLeastLoadedApplication = findLeastLoadedAppInstance(Collections.emptyList());
+			if (instanceIdOfLeastLoadedApplication != null) {
+				toBeDownscaledInstances.add(instanceIdOfLeastLoadedApplication);
+			}
+		}
+	}
+
+	/**
+	 * Measure the load since the previous sample and add it to the load trace.
+	 */
+	static LoadSample takeLoadSample() {
+		long now = System.currentTimeMillis();
 		int totalRequests = 0;
-		double meanRequests = 0;
 		for (Target target : applicationTargets.values()) {
 			totalRequests = totalRequests + target.getCurrentAmountOfRequests();
-		}	
-		if (applicationTargets.size() > 0){
-			meanRequests = ((double) totalRequests)/applicationTargets.size();
-		}
-		
-		if (applicationTargets.size() < MINIMUM_INSTANCES || meanRequests > MAX_REQUESTS_PER_INSTANCE) {
-			/*
-			 * upscale by deploying 1 new application instance 
-			 */
-			deployApplication();
-		}
-		else {
-			if (toBeDownscaledInstances.isEmpty() && downscaleIterationWaitCounter < DOWNSCALE_WAIT_ITERATIONS) {
-				downscaleIterationWaitCounter++;
-				return;
-			}
-			if (toBeDownscaledInstances.isEmpty() &&
-					applicationTargets.size() > MINIMUM_INSTANCES && 
-					meanRequests < MIN_REQUESTS_PER_INSTANCE) {
-				System.out.println("Downscale application instances");
-				/*
-				 * downscale by marking the least used application so it is no longer used
-				 * (and can be removed once it's completely unused)
-				 */
-				String instanceIdOfLeastLoadedApplication = findLeastLoadedAppInstance(Collections.emptyList());
-				toBeDownscaledInstances.add(instanceIdOfLeastLoadedApplication);
-				downscaleIterationWaitCounter = 0;
+		}
+		int instances = Math.max(0, applicationTargets.size() - toBeDownscaledInstances.size());
+		LoadSample sample = new LoadSample(now, now - previousSampleTime, instances, totalRequests, arrivals.sumThenReset(), completions.sumThenReset());
+		previousSampleTime = now;
+		synchronized (loadTrace) {
+			loadTrace.addLast(sample);
+			while (loadTrace.size() > LOAD_TRACE_LENGTH) {
+				loadTrace.removeFirst();
 			}
-		}		
+		}
+		return sample;
+	}
+
+	public static ScalingPolicy getScalingPolicy() {
+		return scalingPolicy;
+	}
+
+	/**
+	 * Change the policy that decides how many application instances are added or removed.
+	 *
+	 * @param name is the name of the scaling policy
+	 * @throws IllegalArgumentException if there is no scaling policy with this name
+	 */
+	public static void setScalingPolicy(String name) {
+		scalingPolicy = createScalingPolicy(name);
+		System.out.println("Scaling application instances with the " + scalingPolicy.getName() + " policy");
+	}
+
+	/**
+	 * Create a new instance of the scaling policy with the provided name, which has not seen any load yet.
+	 *
+	 * @throws IllegalArgumentException if there is no scaling policy with this name
+	 */
+	public static ScalingPolicy createScalingPolicy(String name) {
+		switch (name.trim().toLowerCase()) {
+			case ThresholdScalingPolicy.NAME:
+				return new ThresholdScalingPolicy();
+			case ForecastScalingPolicy.NAME:
+				return new ForecastScalingPolicy();
+			case TargetTrackingScalingPolicy.NAME:
+				return new TargetTrackingScalingPolicy();
+			default:
+				throw new IllegalArgumentException("Unknown scaling policy: " + name);
+		}
+	}
+
+	/**
+	 * @return the load samples of the latest iterations, oldest first
+	 */
+	public static List<LoadSample> getLoadTrace() {
+		synchronized (loadTrace) {
+			return new ArrayList<>(loadTrace);
+		}
 	}
 	
 	/**
@@ -147,26 +266,38 @@ public class AppOrchestrator {
 //	}
 
 	/**
-	 * LoadBalancing policy. find the target appInstance with the minimum number of current requests
+	 * LoadBalancing policy. find the target appInstance with the minimum number of current requests. Instances
+	 * with the same amount of requests are selected in turn.
 	 * 
 	 * @param failedApplicationHostnames is a list of application host names that failed to work. They are guaranteed
-	 * not to be returned as least loaded app instance.
-	 * @return
+	 * not to be returned as least loaded app instance, just like instances that are being downscaled or failed their
+	 * health checks.
+	 * @return the instance id of the least loaded app instance, or null if no app instance is available
 	 * @throws IOException 
 	 * @throws NoSuchAlgorithmException 
 	 */
 	public static String findLeastLoadedAppInstance(List<String> failedApplicationHostnames) throws NoSuchAlgorithmException, IOException {		
-		Map<Integer, String> instanceUtilizations = new HashMap<>();
-		for(Entry<String, Target> targetEntry : applicationTargets.entrySet()) {
-			if(!toBeDownscaledInstances.contains(targetEntry.getKey()) ||
-					!failedApplicationHostnames.contains(targetEntry.getValue().getTargetInstance().getPublicDnsName())) {
-				Target target = targetEntry.getValue();
-				instanceUtilizations.put(target.getCurrentAmountOfRequests(), target.getTargetInstance().getInstanceId());
-			}
-		}
-		Integer leastLoadedApplicationUtilizationValue = Collections.min(instanceUtilizations.keySet());
-		String leastLoadedApplicationInstanceId = instanceUtilizations.get(leastLoadedApplicationUtilizationValue);
-		return leastLoadedApplicationInstanceId;
+		long selectionStart = System.nanoTime();
+		String leastLoadedInstanceId = loadIndex.selectLeastLoaded((instanceId) -> {
+			Target target = applicationTargets.get(instanceId);
+			return target == null ||
+					target.getTargetInstance() == null ||
+					toBeDownscaledInstances.contains(instanceId) ||
+					!HealthRegistry.isHealthy(instanceId) ||
+					failedApplicationHostnames.contains(target.getTargetInstance().getPublicDnsName());
+		});
+		leastLoadedDuration.observeSince(selectionStart);
+		return leastLoadedInstanceId;
+	}
+
+	static void addTarget(String instanceId, Target target) {
+		applicationTargets.put(instanceId, target);
+		loadIndex.add(instanceId, target);
+	}
+
+	static void removeTarget(String instanceId) {
+		applicationTargets.remove(instanceId);
+		loadIndex.remove(instanceId);
 	}
 
 	private static void updateEC2InstanceForLoadBalancer() {
@@ -200,35 +331,86 @@ public class AppOrchestrator {
 		}
 	}
 	
-	private static boolean isLoadBalancerAlive() throws URISyntaxException {
+	/**
+	 * The health of the load balancer is probed by the {@link HealthChecker}, so this only checks the latest result.
+	 */
+	private static boolean isLoadBalancerAlive() {
 		updateEC2InstanceForLoadBalancer();
 		if (loadBalancer == null) {
 			return false;
 		}
-		try {
-			URI loadBalancerURI = new URI("http", loadBalancer.getPublicDnsName(), null, null);
-			URI loadBalancerHealth = UriBuilder.fromUri(loadBalancerURI).port(8080).path("load-balancer").path("health").build();
-			int httpStatus = ClientBuilder.newClient().target(loadBalancerHealth).request().get().getStatus();
-			return loadBalancer.getState().getCode() == EC2.INSTANCE_RUNNING && httpStatus == 204;
-		} catch(Exception e) {
+		boolean alive = loadBalancer.getState().getCode() == EC2.INSTANCE_RUNNING && HealthRegistry.isHealthy(loadBalancer.getInstanceId());
+		if (!alive) {
 			System.out.println("Load Balancer not alive");
-			return false;
 		}
+		return alive;
 	}
 	
-	public static boolean isAppInstanceAlive(Instance appInstance) throws NoSuchAlgorithmException, IOException, URISyntaxException {
+	/**
+	 * The health of the application instances is probed by the {@link HealthChecker}, so this only checks the latest result.
+	 */
+	public static boolean isAppInstanceAlive(Instance appInstance) {
 		if (appInstance == null) {
 			return false;
 		}
-		try {
-			URI appInstanceURI = new URI("http", appInstance.getPublicDnsName(), null, null);
-			URI appInstanceHealth = UriBuilder.fromUri(appInstanceURI).port(8080).path("application").path("health").build();
-			int httpStatus = ClientBuilder.newClient().target(appInstanceHealth).request().get().getStatus();
-			return appInstance.getState().getCode() == EC2.INSTANCE_RUNNING && httpStatus == 204;
-		}catch(Exception e) {
+		boolean alive = appInstance.getState().getCode() == EC2.INSTANCE_RUNNING && HealthRegistry.isHealthy(appInstance.getInstanceId());
+		if (!alive) {
 			System.out.println("AppInstance not Alive");
-			return false;
 		}
+		return alive;
+	}
+
+	/**
+	 * @return the health endpoint of the load balancer and each application instance, keyed by instance id
+	 */
+	static Map<String, URI> getHealthEndpoints() {
+		Map<String, URI> healthEndpoints = new HashMap<>();
+		Instance currentLoadBalancer = loadBalancer;
+		if (currentLoadBalancer != null && hasPublicDnsName(currentLoadBalancer)) {
+			healthEndpoints.put(currentLoadBalancer.getInstanceId(), UriBuilder.fromPath("")
+					.scheme("http")
+					.host(currentLoadBalancer.getPublicDnsName())
+					.port(8080)
+					.path("load-balancer")
+					.path("health")
+					.build());
+		}
+		for (Entry<String, Target> targetEntry : applicationTargets.entrySet()) {
+			Instance applicationInstance = targetEntry.getValue().getTargetInstance();
+			if (applicationInstance == null || !hasPublicDnsName(applicationInstance)) {
+				continue;
+			}
+			healthEndpoints.put(targetEntry.getKey(), UriBuilder.fromPath("")
+					.scheme("http")
+					.host(applicationInstance.getPublicDnsName())
+					.port(8080)
+					.path("application")
+					.path("health")
+					.build());
+		}
+		return healthEndpoints;
+	}
+
+	/**
+	 * @return the heartbeat endpoint of the main instance, once the control loop is started
+	 */
+	static Set<URI> getHeartbeatEndpoints() {
+		Set<URI> heartbeatEndpoints = new HashSet<>();
+		if (!isReady() || mainInstanceHostname == null || mainInstanceHostname.isEmpty()) {
+			return heartbeatEndpoints;
+		}
+		heartbeatEndpoints.add(UriBuilder.fromPath("")
+				.scheme("http")
+				.host(mainInstanceHostname)
+				.port(8080)
+				.path("main")
+				.path("heartbeat")
+				.build());
+		return heartbeatEndpoints;
+	}
+
+	private static boolean hasPublicDnsName(Instance instance) {
+		return instance.getPublicDnsName() != null && !instance.getPublicDnsName().isEmpty();
 	}
 	
 	private static void recoverLoadBalancer() throws NoSuchAlgorithmException, IOException, URISyntaxException {
@@ -279,7 +461,7 @@ public class AppOrchestrator {
 					toBeDownscaledInstances.remove(0);
 				}
 				else {
-					deployApplication();
+					deployApplications(1);
 				}
 				break;
 			default:
@@ -289,7 +471,7 @@ public class AppOrchestrator {
 		// it might still be running in AWS which can be checked in AWS Console
 		EC2.terminateEC2(previousInstanceId);
 		toBeDownscaledInstances.remove(previousInstanceId);
-		applicationTargets.remove(previousInstanceId);
+		removeTarget(previousInstanceId);
 		backupApplicationIds();
 	}
 	
@@ -299,16 +481,27 @@ public class AppOrchestrator {
 	}
 	
 	public static int incrementRequests(String minId) throws URISyntaxException {
-		applicationTargets.get(minId).incrementCurrentAmountOfRequests();
-		backupApplicationCounter(minId, applicationTargets.get(minId).getCurrentAmountOfRequests());
-		return applicationTargets.get(minId).getCurrentAmountOfRequests();
+		Target target = applicationTargets.get(minId);
+		if (target == null) {
+			System.out.println("No application instance available with id: " + minId);
+			return 0;
+		}
+		int currentAmountOfRequests = target.incrementCurrentAmountOfRequests();
+		arrivals.increment();
+		loadIndex.update(minId, target);
+		// this is the least loaded instance, so every other instance has at least as many requests in progress
+		if (currentAmountOfRequests > QUEUE_DEPTH_TRIGGER) {
+			ControlLoop.trigger(TASK_SCALING);
+		}
+		backupApplicationCounter(minId, currentAmountOfRequests);
+		return currentAmountOfRequests;
 	}
 	
 	public static void decrementRequests(URI applicationURI) throws URISyntaxException {
 		Optional<String> minIdOptional = applicationTargets.entrySet()
 				.stream()
 				.map(entry -> entry.getValue().getTargetInstance())
-				.filter(target -> applicationURI.getHost().equals(target.getPublicDnsName()))
+				.filter(target -> target != null && applicationURI.getHost().equals(target.getPublicDnsName()))
 				.map(target -> target.getInstanceId())
 				.findFirst();
 		if (!minIdOptional.isPresent()) {
@@ -316,75 +509,223 @@ public class AppOrchestrator {
 			return;
 		}
 		String minId = minIdOptional.get();
-		applicationTargets.get(minId).decrementCurrentAmountofRequests();
-		backupApplicationCounter(minId, applicationTargets.get(minId).getCurrentAmountOfRequests());
+		Target target = applicationTargets.get(minId);
+		if (target == null) {
+			return;
+		}
+		int currentAmountOfRequests = target.decrementCurrentAmountofRequests();
+		completions.increment();
+		loadIndex.update(minId, target);
+		backupApplicationCounter(minId, currentAmountOfRequests);
 	}
 
-	protected static void startMainLoop() throws IOException, NoSuchAlgorithmException, URISyntaxException {
-		keepAlive = true;
-		while(keepAlive) {
-			waitUntilNextIteration();
-			if (EC2.getCredentials() == null) {
-				System.out.println("Waiting for AWS credentials, cannot start yet");
+	/**
+	 * Retrieve the application instances that the load balancer can route requests to. Instances that are 
+	 * being downscaled or failed their health checks are not included.
+	 * 
+	 * @return the URIs of the routable application instances
+	 */
+	public static List<URI> getRoutableApplicationURIs() {
+		List<URI> routableApplications = new ArrayList<>();
+		for (Entry<String, Target> targetEntry : applicationTargets.entrySet()) {
+			Instance applicationInstance = targetEntry.getValue().getTargetInstance();
+			if (toBeDownscaledInstances.contains(targetEntry.getKey()) || 
+					!HealthRegistry.isHealthy(targetEntry.getKey()) || 
+					applicationInstance == null || !hasPublicDnsName(applicationInstance)) {
+				continue;
+			}
+			routableApplications.add(UriBuilder.fromPath("")
+					.scheme("http")
+					.host(applicationInstance.getPublicDnsName())
+					.port(8080)
+					.build());
+		}
+		return routableApplications;
+	}
+	
+	/**
+	 * Reconcile the request counters with the amount of requests that the load balancer has in progress, and count
+	 * the requests that it started and completed for the next load sample.
+	 * 
+	 * @param requestsPerApplicationHost is the amount of requests in progress for each application host name
+	 * @param reportedArrivals is the amount of requests that were sent to the application instances since the
+	 * previous report
+	 * @param reportedCompletions is the amount of requests that were completed since the previous report
+	 * @throws URISyntaxException
+	 */
+	public static void updateRequests(Map<String, Integer> requestsPerApplicationHost, long reportedArrivals, long reportedCompletions) throws URISyntaxException {
+		arrivals.add(Math.max(0, reportedArrivals));
+		completions.add(Math.max(0, reportedCompletions));
+		for (Entry<String, Target> targetEntry : applicationTargets.entrySet()) {
+			Instance applicationInstance = targetEntry.getValue().getTargetInstance();
+			if (applicationInstance == null) {
 				continue;
 			}
-			if (!started) {
-				System.out.println("Main loop has not been started yet. This can be started through the API");
+			Integer requests = requestsPerApplicationHost.get(applicationInstance.getPublicDnsName());
+			int currentAmountOfRequests = targetEntry.getValue().getCurrentAmountOfRequests();
+			if (requests == null || requests == currentAmountOfRequests) {
 				continue;
 			}
-			if (appOrchestrator == null){
-				appOrchestrator = EC2.retrieveEC2InstanceWithId(EC2MetadataUtils.getInstanceId());
+			// a concurrent increment or decrement is newer than the reported amount, so it is not overwritten
+			if (targetEntry.getValue().compareAndSetCurrentAmountOfRequests(currentAmountOfRequests, requests)) {
+				loadIndex.update(targetEntry.getKey(), targetEntry.getValue());
+				backupApplicationCounter(targetEntry.getKey(), requests);
 			}
-			if (loadBalancer == null) {
-				if (appOrchestratorRestoreState.containsKey(INSTANCE_TYPE_LOAD_BALANCER)) {
-					List<String> restoreLoadBalancer = appOrchestratorRestoreState.get(INSTANCE_TYPE_LOAD_BALANCER);
-					System.out.println("Restoring load balancer from backup id");
-					loadBalancer = EC2.retrieveEC2InstanceWithId(restoreLoadBalancer.get(0));
-					sendAppOrchestratorURIToLoadBalancer();
-				}
-				else{
-					deployLoadBalancer();
-				}
+		}
+		if (getMinimumQueueDepth() > QUEUE_DEPTH_TRIGGER) {
+			ControlLoop.trigger(TASK_SCALING);
+		}
+	}
+
+	/**
+	 * @return the least amount of requests in progress on a routable application instance, or 0 if there is none
+	 */
+	private static int getMinimumQueueDepth() {
+		int minimumRequests = Integer.MAX_VALUE;
+		for (Entry<String, Target> targetEntry : applicationTargets.entrySet()) {
+			if (toBeDownscaledInstances.contains(targetEntry.getKey()) || !HealthRegistry.isHealthy(targetEntry.getKey())) {
+				continue;
 			}
-			if (applicationTargets == null || applicationTargets.isEmpty()) {
-				if (appOrchestratorRestoreState.containsKey(INSTANCE_TYPE_APPLICATIONS)) {
-					List<String> applicationInstanceIds = appOrchestratorRestoreState.get(INSTANCE_TYPE_APPLICATIONS);
-					System.out.println("Restoring applications from backup ids");
-					for (String applicationIds : applicationInstanceIds) {
-						// Here you get a String of all instanceIds. Can't find why that happens
-						String[] sanitizedApplicationIds = applicationIds.replace("[", "").replace("]", "").split(",");
-						System.out.println(sanitizedApplicationIds);
-						for(String applicationId: sanitizedApplicationIds) {
-							System.out.println(applicationId);
-							String fixedAppId = applicationId.trim();
-							System.out.println(fixedAppId);
-							Instance application = EC2.retrieveEC2InstanceWithId(fixedAppId);
-							Integer amountOfRequests = appOrchestratorRestoreApplicationCounters.getOrDefault(fixedAppId, 0);
-							Target applicationTarget = new Target(application, amountOfRequests);
-							applicationTargets.put(fixedAppId, applicationTarget);
-						}
+			minimumRequests = Math.min(minimumRequests, targetEntry.getValue().getCurrentAmountOfRequests());
+		}
+		return minimumRequests == Integer.MAX_VALUE ? 0 : minimumRequests;
+	}
+
+	/**
+	 * Handle a request that failed on an application instance, by probing the health of the instances right away. 
+	 * If the instance has failed, this makes the liveness task recover it without waiting for the next health checks.
+	 * 
+	 * @param applicationDnsName is the host name of the application instance that the request failed on
+	 */
+	public static void reportFailedRequest(String applicationDnsName) {
+		boolean known = applicationTargets.values()
+				.stream()
+				.map(Target::getTargetInstance)
+				.anyMatch(instance -> instance != null && applicationDnsName != null && applicationDnsName.equals(instance.getPublicDnsName()));
+		if (!known) {
+			System.out.println("No application instance available at host: " + applicationDnsName);
+			return;
+		}
+		failedRequests.increment();
+		System.out.println("Request failed on application instance at " + applicationDnsName + ", checking its health");
+		HealthChecker.checkNow();
+	}
+
+	/**
+	 * Start the control loop, which runs the liveness, scaling and backup tasks on their own intervals.
+	 * 
+	 * The tasks only do something once the AWS credentials are provided and the control loop is started through 
+	 * the API, with a GET request to "http:\<instanceURL\>:8080/application-orchestrator/start".
+	 */
+	protected static void startMainLoop() throws IOException, NoSuchAlgorithmException, URISyntaxException {
+		keepAlive = true;
+		HealthChecker.start(AppOrchestrator::getHealthEndpoints, (instanceId) -> ControlLoop.trigger(TASK_LIVENESS));
+		StateReplicator.start(() -> mainInstanceHostname);
+		HeartbeatSender.start(AppOrchestrator::getHeartbeatEndpoints, () -> appOrchestrator == null ? null : appOrchestrator.getInstanceId());
+		ImageBaker.start(AWS_KEYPAIR_NAME, getApplicationInstallScript(), Arrays.asList(
+				Paths.get("/home/ubuntu/application.jar").toFile(),
+				Paths.get("/home/ubuntu/load-balancer.jar").toFile()));
+		WarmPool.start(AWS_KEYPAIR_NAME, getApplicationUserData());
+		ControlLoop.schedule(TASK_LIVENESS, LIVENESS_INTERVAL, AppOrchestrator::reconcileLiveness);
+		ControlLoop.schedule(TASK_SCALING, SCALING_INTERVAL, AppOrchestrator::reconcileScaling);
+		ControlLoop.schedule(TASK_BACKUP, BACKUP_INTERVAL, AppOrchestrator::reconcileBackup);
+	}
+
+	/**
+	 * The control loop tasks only run once the AWS credentials are provided and the control loop is started
+	 */
+	private static boolean isReady() {
+		return keepAlive && started && EC2.getCredentials() != null;
+	}
+
+	/**
+	 * Deploy or restore the load balancer and the application instances, and recover those that are no longer alive.
+	 */
+	private static void reconcileLiveness() throws IOException, NoSuchAlgorithmException, URISyntaxException {
+		if (EC2.getCredentials() == null) {
+			System.out.println("Waiting for AWS credentials, cannot start yet");
+			return;
+		}
+		if (!keepAlive || !started) {
+			System.out.println("Control loop has not been started yet. This can be started through the API");
+			return;
+		}
+		if (appOrchestrator == null){
+			appOrchestrator = EC2.retrieveEC2InstanceWithId(EC2MetadataUtils.getInstanceId());
+		}
+		if (loadBalancer == null) {
+			if (appOrchestratorRestoreState.containsKey(INSTANCE_TYPE_LOAD_BALANCER)) {
+				List<String> restoreLoadBalancer = appOrchestratorRestoreState.get(INSTANCE_TYPE_LOAD_BALANCER);
+				System.out.println("Restoring load balancer from backup id");
+				loadBalancer = EC2.retrieveEC2InstanceWithId(restoreLoadBalancer.get(0));
+				sendAppOrchestratorURIToLoadBalancer();
+			}
+			else{
+				deployLoadBalancer();
+			}
+		}
+		if (applicationTargets.isEmpty()) {
+			if (appOrchestratorRestoreState.containsKey(INSTANCE_TYPE_APPLICATIONS)) {
+				List<String> applicationInstanceIds = appOrchestratorRestoreState.get(INSTANCE_TYPE_APPLICATIONS);
+				System.out.println("Restoring applications from backup ids");
+				for (String applicationIds : applicationInstanceIds) {
+					// Here you get a String of all instanceIds. Can't find why that happens
+					String[] sanitizedApplicationIds = applicationIds.replace("[", "").replace("]", "").split(",");
+					System.out.println(sanitizedApplicationIds);
+					for(String applicationId: sanitizedApplicationIds) {
+						System.out.println(applicationId);
+						String fixedAppId = applicationId.trim();
+						System.out.println(fixedAppId);
+						Instance application = EC2.retrieveEC2InstanceWithId(fixedAppId);
+						Integer amountOfRequests = appOrchestratorRestoreApplicationCounters.getOrDefault(fixedAppId, 0);
+						Target applicationTarget = new Target(application, amountOfRequests);
+						addTarget(fixedAppId, applicationTarget);
 					}
 				}
 			}
-			checkLoadBalancerLiveness();
-			checkAppInstancesLiveness();
-			
-			scaleUpOrDown();
-			processDownscaledApplicationInstances();
+		}
+		checkLoadBalancerLiveness();
+		checkAppInstancesLiveness();
+		processDownscaledApplicationInstances();
+	}
+
+	private static void reconcileScaling() throws IOException, NoSuchAlgorithmException, URISyntaxException {
+		if (!isReady() || loadBalancer == null) {
+			return;
+		}
+		scaleUpOrDown();
+		processDownscaledApplicationInstances();
+	}
+
+	/**
+	 * Replicate the complete restore state to the main instance again, so it catches up if it missed changes.
+	 */
+	private static void reconcileBackup() {
+		if (!isReady() || mainInstanceHostname == null) {
+			return;
+		}
+		if (loadBalancer != null) {
+			backupLoadBalancer();
+		}
+		backupApplicationIds();
+		for (Entry<String, Target> targetEntry : applicationTargets.entrySet()) {
+			backupApplicationCounter(targetEntry.getKey(), targetEntry.getValue().getCurrentAmountOfRequests());
 		}
 	}
 
 	private static void processDownscaledApplicationInstances() throws URISyntaxException {
 		List<String> downscaledInstances = new ArrayList<>();
 		for (String instanceId: toBeDownscaledInstances) {
-			if (applicationTargets.get(instanceId).getCurrentAmountOfRequests() == 0) {
-				EC2.terminateEC2(instanceId);
+			Target target = applicationTargets.get(instanceId);
+			if (target == null || target.getCurrentAmountOfRequests() == 0) {
+				if (!WarmPool.offer(instanceId)) {
+					EC2.terminateEC2(instanceId);
+				}
 				downscaledInstances.add(instanceId);
-				applicationTargets.remove(instanceId);
+				removeTarget(instanceId);
 				backupApplicationIds();
 			}
 		}
-		// Avoid ConcurrentModificiation Exception
 		toBeDownscaledInstances.removeAll(downscaledInstances);
 	}
 	
@@ -399,27 +740,18 @@ public class AppOrchestrator {
 	
 	public static void kill() {
 		keepAlive = false;
+		ControlLoop.shutdown();
 	}
 
 	public static void start() {
 		started = true;
+		ControlLoop.trigger(TASK_LIVENESS);
 	}
 	
 	public static void stop() {
 		started = false;
 	}
 
-	/**
-	 * Wait a specific amount of time before
-	 */
-	private static void waitUntilNextIteration() {
-		try {
-			Thread.sleep(ITERATION_WAIT_TIME);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
-	}
-
 	public static Instance getLoadBalancer() {
 		return loadBalancer;
 	}
@@ -440,38 +772,20 @@ public class AppOrchestrator {
 		appOrchestratorRestoreApplicationCounters.put(applicationId, counter);
 	}
 	
-	public static void backupLoadBalancer() throws URISyntaxException{
-		URI mainInstanceURI = new URI("http", mainInstanceHostname, null, null);
-		URI backupURI = UriBuilder.fromUri(mainInstanceURI).port(8080)
-				.path("main")
-				.path("backup")
-				.path("load-balancer")
-				.queryParam("loadBalancerId", loadBalancer.getInstanceId())
-				.build();
-		ClientBuilder.newClient().register(JacksonJsonProvider.class).target(backupURI).request().get();
+	/*
+	 * The restore state is replicated to the main instance in batches by the StateReplicator, so backing up 
+	 * only records the change and never waits for the main instance
+	 */
+	private static void backupLoadBalancer() {
+		StateReplicator.recordLoadBalancer(loadBalancer.getInstanceId());
 	}
 	
-	public static void backupApplicationIds() throws URISyntaxException{
-		URI mainInstanceURI = new URI("http", mainInstanceHostname, null, null);
-		URI backupURI = UriBuilder.fromUri(mainInstanceURI).port(8080)
-				.path("main")
-				.path("backup")
-				.path("applications")
-				.queryParam("applicationIds", applicationTargets.keySet().toArray())
-				.build();
-		ClientBuilder.newClient().register(JacksonJsonProvider.class).target(backupURI).request().get();
+	private static void backupApplicationIds() {
+		StateReplicator.recordApplicationIds(applicationTargets.keySet());
 	}
 	
-	public static void backupApplicationCounter(String applicationId, int counter) throws URISyntaxException{
-		URI mainInstanceURI = new URI("http", mainInstanceHostname, null, null);
-		URI backupURI = UriBuilder.fromUri(mainInstanceURI).port(8080)
-				.path("main")
-				.path("backup")
-				.path("application-counter")
-				.queryParam("applicationId", applicationId)
-				.queryParam("counter", counter)
-				.build();
-		ClientBuilder.newClient().register(JacksonJsonProvider.class).target(backupURI).request().get();
+	private static void backupApplicationCounter(String applicationId, int counter) {
+		StateReplicator.recordApplicationCounter(applicationId, counter);
 	}
 	
 	public static void sendAppOrchestratorURIToLoadBalancer() throws URISyntaxException{
@@ -481,7 +795,7 @@ public class AppOrchestrator {
 				.path("appOrchestratorURI")
 				.queryParam("appOrchestratorURI", appOrchestrator.getPublicDnsName())
 				.build();
-		ClientBuilder.newClient().register(JacksonJsonProvider.class).target(backupURI).request().get();
+		HttpClients.getClient().target(backupURI).request().get().close();
 	}
 
 	public static void setMainInstance(String mainInstanceId) {
@@ -10,6 +10,8 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 @SpringBootApplication
 public class AppOrchestratorApplication {
 	public static void main(String[] args) throws NoSuchAlgorithmException, IOException, URISyntaxException {
+		AsyncConsole.install();
+		HttpClients.configure();
 		SpringApplication.run(AppOrchestratorApplication.class, args);
 		AppOrchestrator.startMainLoop();
 	}
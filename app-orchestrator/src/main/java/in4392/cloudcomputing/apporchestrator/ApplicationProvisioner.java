@@ -0,0 +1,318 @@
+package in4392.cloudcomputing.apporchestrator;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Paths;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriBuilder;
+
+import com.amazonaws.services.ec2.model.Instance;
+
+/**
+ * Deploy application instances in the background, so the control loop keeps running while they are provisioned.
+ *
+ * All instances of a scale-out are launched with a single RunInstances call. Each instance is then provisioned
+ * on a worker pool of "provisioning.threads" threads (default 10): it waits for Java to be installed, receives
+ * the application and starts it. The instance is ready as soon as its health endpoint responds, which is probed
+ * every "provisioning.readinessInterval" milliseconds (default 5 seconds) for at most
+ * "provisioning.readinessTimeout" milliseconds (default 5 minutes). Instances that fail to become ready are
+ * terminated.
+ *
+ * Once the {@link ImageBaker} has built an image with Java, ffmpeg and the application, instances are launched
+ * from that image instead. They start the application when they boot, so they only need to pass the readiness
+ * probe.
+ *
+ * Instances for the {@link WarmPool} are only provisioned up to the upload of the application, and are started
+ * again later with {@link #resume(String, Consumer)}.
+ */
+public class ApplicationProvisioner {
+	private static final int THREADS = Integer.getInteger("provisioning.threads", 10);
+	private static final long READINESS_INTERVAL = Long.getLong("provisioning.readinessInterval", 5 * 1000);
+	private static final long READINESS_TIMEOUT = Long.getLong("provisioning.readinessTimeout", 5 * 60 * 1000);
+	private static final long RESUME_POLL_INTERVAL = 2 * 1000;
+	private static final File APPLICATION_JAR = Paths.get("/home/ubuntu/application.jar").toFile();
+	private static final ExecutorService provisioningPool = Executors.newFixedThreadPool(THREADS, (runnable) -> {
+		Thread thread = new Thread(runnable, "application-provisioning");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final Map<String, Phase> provisioningInstances = new ConcurrentHashMap<>();
+	private static final Set<String> warmPoolInstances = ConcurrentHashMap.newKeySet();
+	private static final MetricsRegistry.Counter failedProvisionings = MetricsRegistry.counter("apporchestrator_failed_provisionings_total",
+			"Amount of application instances that did not become ready and were terminated.");
+
+	static {
+		MetricsRegistry.gauge("apporchestrator_provisioning_instances", "Amount of application instances that are being provisioned.", provisioningInstances::size);
+	}
+
+	/**
+	 * The step of the provisioning that an instance is in.
+	 */
+	public enum Phase {
+		INSTALLING, UPLOADING, STARTING, PROBING
+	}
+
+	/**
+	 * Where a ready instance came from, for which the time to ready is measured separately.
+	 */
+	public enum Source {
+		LAUNCH("launch"), IMAGE("image"), WARM_POOL("warm_pool");
+
+		private final MetricsRegistry.Histogram timeToReady;
+		private final LongAdder ready = new LongAdder();
+		private final LongAdder readyMillis = new LongAdder();
+
+		private Source(String label) {
+			timeToReady = MetricsRegistry.histogram("apporchestrator_time_to_ready_seconds",
+					"Time from launching or starting an application instance until it was ready, in seconds.", MetricsRegistry.LATENCY_BUCKETS, "source", label);
+		}
+
+		private void recordReady(long start) {
+			timeToReady.observeSince(start);
+			ready.increment();
+			readyMillis.add((System.nanoTime() - start) / 1000000);
+		}
+	}
+
+	/**
+	 * Launch application instances and provision them in the background.
+	 *
+	 * @param amount is the amount of application instances to launch
+	 * @param userData is the user data with which the instances install their dependencies
+	 * @param onReady is called with each instance that is ready to receive requests
+	 * @return the ids of the launched instances, which may be fewer than requested if AWS lacks capacity
+	 * @throws NoSuchAlgorithmException
+	 */
+	public static List<String> provision(int amount, String usageTag, String keyPairName, String userData, Consumer<Instance> onReady) throws NoSuchAlgorithmException {
+		return launch(amount, usageTag, keyPairName, userData, false, onReady);
+	}
+
+	/**
+	 * Launch application instances for the warm pool, which are provisioned up to the upload of the application
+	 * but not started.
+	 *
+	 * @param onProvisioned is called with each instance that has the application and can be stopped
+	 * @return the ids of the launched instances
+	 * @throws NoSuchAlgorithmException
+	 */
+	public static List<String> provisionForWarmPool(int amount, String usageTag, String keyPairName, String userData, Consumer<Instance> onProvisioned) throws NoSuchAlgorithmException {
+		return launch(amount, usageTag, keyPairName, userData, true, onProvisioned);
+	}
+
+	private static List<String> launch(int amount, String usageTag, String keyPairName, String userData, boolean forWarmPool, Consumer<Instance> onProvisioned) throws NoSuchAlgorithmException {
+		if (amount <= 0) {
+			return Collections.emptyList();
+		}
+		long launchStart = System.nanoTime();
+		MachineImage image = ImageBaker.getLaunchImage();
+		List<String> instanceIds;
+		if (image == null) {
+			instanceIds = EC2.launchDefaultEC2s(usageTag, keyPairName, userData, amount);
+		}
+		else {
+			instanceIds = EC2.launchEC2s(image.getImageId(), usageTag, keyPairName, EC2.getStartupUserData("application"), amount);
+		}
+		System.out.println("Launched " + instanceIds.size() + " application instances" + (image == null ? "" : " from image " + image.getImageId()) 
+				+ (forWarmPool ? " for the warm pool: " : ": ") + instanceIds);
+		for (String instanceId : instanceIds) {
+			if (forWarmPool) {
+				warmPoolInstances.add(instanceId);
+			}
+			provisioningInstances.put(instanceId, image == null ? Phase.INSTALLING : Phase.STARTING);
+			provisioningPool.execute(() -> provisionInstance(instanceId, launchStart, image != null, forWarmPool, onProvisioned));
+		}
+		return instanceIds;
+	}
+
+	private static void provisionInstance(String instanceId, long launchStart, boolean fromImage, boolean forWarmPool, Consumer<Instance> onProvisioned) {
+		try {
+			Instance instance;
+			if (fromImage) {
+				// the image already has Java and the application, which it starts when it boots
+				instance = awaitRunning(instanceId);
+			}
+			else {
+				EC2.waitForInstanceToRun(instanceId);
+				instance = EC2.retrieveEC2InstanceWithId(instanceId);
+				provisioningInstances.put(instanceId, Phase.UPLOADING);
+				EC2.copyApplicationToDeployedInstance(APPLICATION_JAR, instance);
+			}
+			if (forWarmPool) {
+				onProvisioned.accept(instance);
+				return;
+			}
+			if (!fromImage) {
+				provisioningInstances.put(instanceId, Phase.STARTING);
+				EC2.startDeployedApplication(instance, "application");
+			}
+			provisioningInstances.put(instanceId, Phase.PROBING);
+			if (!awaitReadiness(instance)) {
+				throw new IllegalStateException("The application did not become ready within " + READINESS_TIMEOUT + " ms");
+			}
+			(fromImage ? Source.IMAGE : Source.LAUNCH).recordReady(launchStart);
+			System.out.println("Application instance " + instanceId + " is ready");
+			onProvisioned.accept(instance);
+		} catch (Exception e) {
+			terminateFailed(instanceId, e);
+		} finally {
+			provisioningInstances.remove(instanceId);
+			warmPoolInstances.remove(instanceId);
+		}
+	}
+
+	/**
+	 * Start a stopped application instance that already has the application, and start the application on it in
+	 * the background.
+	 *
+	 * @param instanceId is the id of the stopped instance
+	 * @param onReady is called with the instance once it is ready to receive requests
+	 */
+	public static void resume(String instanceId, Consumer<Instance> onReady) {
+		long resumeStart = System.nanoTime();
+		provisioningInstances.put(instanceId, Phase.STARTING);
+		provisioningPool.execute(() -> {
+			try {
+				EC2.startEC2Instance(instanceId);
+				Instance instance = awaitRunning(instanceId);
+				startApplication(instance);
+				provisioningInstances.put(instanceId, Phase.PROBING);
+				if (!awaitReadiness(instance)) {
+					throw new IllegalStateException("The application did not become ready within " + READINESS_TIMEOUT + " ms");
+				}
+				Source.WARM_POOL.recordReady(resumeStart);
+				System.out.println("Application instance " + instanceId + " from the warm pool is ready");
+				onReady.accept(instance);
+			} catch (Exception e) {
+				terminateFailed(instanceId, e);
+			} finally {
+				provisioningInstances.remove(instanceId);
+			}
+		});
+	}
+
+	/**
+	 * Wait until a started instance is running. The cached description is bypassed, since the state and public
+	 * DNS name change within seconds.
+	 */
+	private static Instance awaitRunning(String instanceId) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + READINESS_TIMEOUT;
+		while (System.currentTimeMillis() < deadline) {
+			InstanceCache.invalidate(instanceId);
+			Instance instance = EC2.retrieveEC2InstanceWithId(instanceId);
+			if (instance.getState().getCode() == EC2.INSTANCE_RUNNING && instance.getPublicDnsName() != null && !instance.getPublicDnsName().isEmpty()) {
+				return instance;
+			}
+			Thread.sleep(RESUME_POLL_INTERVAL);
+		}
+		throw new IllegalStateException("The instance did not start within " + READINESS_TIMEOUT + " ms");
+	}
+
+	/**
+	 * Start the application on an instance that was just started, retrying until SSH accepts connections.
+	 */
+	private static void startApplication(Instance instance) throws IOException, NoSuchAlgorithmException, InterruptedException {
+		long deadline = System.currentTimeMillis() + READINESS_TIMEOUT;
+		while (true) {
+			try {
+				EC2.startDeployedApplication(instance, "application");
+				return;
+			} catch (IOException e) {
+				if (System.currentTimeMillis() >= deadline) {
+					throw e;
+				}
+				Thread.sleep(RESUME_POLL_INTERVAL);
+			}
+		}
+	}
+
+	/**
+	 * Probe the health endpoint of the application until it responds.
+	 *
+	 * @return false if the application did not respond before the readiness timeout
+	 */
+	private static boolean awaitReadiness(Instance instance) throws InterruptedException {
+		URI healthEndpoint = UriBuilder.fromPath("")
+				.scheme("http")
+				.host(instance.getPublicDnsName())
+				.port(8080)
+				.path("application")
+				.path("health")
+				.build();
+		long deadline = System.currentTimeMillis() + READINESS_TIMEOUT;
+		while (System.currentTimeMillis() < deadline) {
+			try {
+				Response response = HttpClients.getHealthCheckClient().target(healthEndpoint).request().get();
+				int httpStatus = response.getStatus();
+				response.close();
+				if (httpStatus == 204) {
+					return true;
+				}
+			} catch (RuntimeException e) {
+				// the application is not listening yet
+			}
+			Thread.sleep(READINESS_INTERVAL);
+		}
+		return false;
+	}
+
+	private static void terminateFailed(String instanceId, Exception failure) {
+		System.out.println("Could not provision application instance " + instanceId + ", terminating it: " + failure.getMessage());
+		failedProvisionings.increment();
+		try {
+			EC2.terminateEC2(instanceId);
+		} catch (RuntimeException terminationFailure) {
+			System.out.println("Could not terminate application instance " + instanceId + ": " + terminationFailure.getMessage());
+		}
+	}
+
+	/**
+	 * @return the amount of application instances that are launched or started to receive requests but not ready
+	 * yet, which excludes the instances that are provisioned for the warm pool
+	 */
+	public static int getPendingInstances() {
+		int pending = 0;
+		for (String instanceId : provisioningInstances.keySet()) {
+			if (!warmPoolInstances.contains(instanceId)) {
+				pending++;
+			}
+		}
+		return pending;
+	}
+
+	/**
+	 * @return the amount of application instances that are provisioned for the warm pool
+	 */
+	public static int getWarmPoolInstances() {
+		return warmPoolInstances.size();
+	}
+
+	/**
+	 * @return the step of the provisioning that each instance is in, keyed by instance id
+	 */
+	public static Map<String, Phase> getProvisioningInstances() {
+		return new HashMap<>(provisioningInstances);
+	}
+
+	/**
+	 * @param source is where the instances came from
+	 * @return the mean time from launching or starting an instance until it was ready, in milliseconds, or 0 if no
+	 * instance has been ready yet
+	 */
+	public static long getMeanTimeToReady(Source source) {
+		long ready = source.ready.sum();
+		return ready == 0 ? 0 : source.readyMillis.sum() / ready;
+	}
+}
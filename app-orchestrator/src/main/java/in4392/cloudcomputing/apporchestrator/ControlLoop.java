@@ -0,0 +1,110 @@
+package in4392.cloudcomputing.apporchestrator;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Run the tasks of the control plane, like checking liveness or scaling, each on its own interval.
+ *
+ * All tasks run on a single thread, so they never run at the same time and can change the deployment without
+ * further locking. Besides running periodically, a task can be triggered by an event so it runs right away instead
+ * of at its next interval. Triggers that arrive while the task is already waiting to run are combined into a single
+ * run, and a triggered task waits until at least "control.minTriggerInterval" milliseconds (default 5 seconds) have
+ * passed since its previous run, so a burst of events does not keep the control loop busy.
+ */
+public class ControlLoop {
+	private static final long MIN_TRIGGER_INTERVAL = Long.getLong("control.minTriggerInterval", 5 * 1000);
+	private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+		Thread thread = new Thread(runnable, "control-loop");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final Map<String, ScheduledTask> tasks = new ConcurrentHashMap<>();
+
+	/**
+	 * A task that reconciles the deployment with the state it should be in.
+	 */
+	@FunctionalInterface
+	public interface Task {
+		void run() throws Exception;
+	}
+
+	/**
+	 * Run the task periodically, starting after the first interval.
+	 *
+	 * @param name identifies the task when it is triggered and in the metrics
+	 * @param interval is the time in milliseconds between the end of a run and the start of the next one
+	 * @throws IllegalStateException if a task with this name is already scheduled
+	 */
+	public static void schedule(String name, long interval, Task task) {
+		ScheduledTask scheduledTask = new ScheduledTask(name, task);
+		if (tasks.putIfAbsent(name, scheduledTask) != null) {
+			throw new IllegalStateException("Task " + name + " is already scheduled");
+		}
+		scheduler.scheduleWithFixedDelay(scheduledTask::run, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Run the task as soon as possible, in addition to its periodic runs. Tasks that are not scheduled are ignored.
+	 *
+	 * @param name is the name of the task
+	 */
+	public static void trigger(String name) {
+		ScheduledTask scheduledTask = tasks.get(name);
+		if (scheduledTask != null) {
+			scheduledTask.trigger();
+		}
+	}
+
+	/**
+	 * Stop running all tasks. Tasks that are running are interrupted.
+	 */
+	public static void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+	private static class ScheduledTask {
+		private final String name;
+		private final Task task;
+		private final AtomicBoolean triggered = new AtomicBoolean();
+		private volatile long lastRun;
+		private final MetricsRegistry.Histogram runDuration;
+		private final MetricsRegistry.Counter triggers;
+
+		ScheduledTask(String name, Task task) {
+			this.name = name;
+			this.task = task;
+			this.runDuration = MetricsRegistry.histogram("control_loop_task_duration_seconds",
+					"Time it took to run a task of the control loop, in seconds.", MetricsRegistry.LATENCY_BUCKETS, "task", name);
+			this.triggers = MetricsRegistry.counter("control_loop_triggers_total",
+					"Amount of events that triggered a task of the control loop.", "task", name);
+		}
+
+		void run() {
+			long runStart = System.nanoTime();
+			lastRun = System.currentTimeMillis();
+			try {
+				task.run();
+			} catch (Exception e) {
+				System.out.println("Control loop task " + name + " failed: " + e.getMessage());
+			}
+			runDuration.observeSince(runStart);
+		}
+
+		void trigger() {
+			triggers.increment();
+			if (!triggered.compareAndSet(false, true)) {
+				return;
+			}
+			long delay = Math.max(0, lastRun + MIN_TRIGGER_INTERVAL - System.currentTimeMillis());
+			scheduler.schedule(() -> {
+				triggered.set(false);
+				run();
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package in4392.cloudcomputing.apporchestrator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * Stand-in for an image provisioner that builds images as local directories, so the image pipeline can be
+ * exercised offline without AWS. Instances can not be launched from these images.
+ *
+ * Each image is a directory in "provisioning.imageDirectory" (default "images") with the install script, the
+ * component jars and a manifest. The directory is only moved into place once it is complete.
+ */
+public class DirectoryImageProvisioner implements ImageProvisioner {
+	public static final String NAME = "directory";
+	private static final String MANIFEST = "image.properties";
+	private final Path imageDirectory;
+
+	public DirectoryImageProvisioner() {
+		this(Paths.get(System.getProperty("provisioning.imageDirectory", "images")));
+	}
+
+	public DirectoryImageProvisioner(Path imageDirectory) {
+		this.imageDirectory = imageDirectory;
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public boolean isLaunchable() {
+		return false;
+	}
+
+	@Override
+	public MachineImage find(String name) throws IOException {
+		Path manifestFile = imageDirectory.resolve(name).resolve(MANIFEST);
+		if (!Files.isRegularFile(manifestFile)) {
+			return null;
+		}
+		Properties manifest = new Properties();
+		try (InputStream input = Files.newInputStream(manifestFile)) {
+			manifest.load(input);
+		}
+		return new MachineImage(name, manifestFile.getParent().toAbsolutePath().toString(), Long.parseLong(manifest.getProperty("created", "0")));
+	}
+
+	@Override
+	public MachineImage build(String name, String installScript, List<File> componentJars) throws IOException {
+		Files.createDirectories(imageDirectory);
+		Path buildDirectory = imageDirectory.resolve("." + name + "-" + UUID.randomUUID());
+		Files.createDirectory(buildDirectory);
+		Files.write(buildDirectory.resolve("install.sh"), installScript.getBytes(StandardCharsets.UTF_8));
+		for (File componentJar : componentJars) {
+			Files.copy(componentJar.toPath(), buildDirectory.resolve(componentJar.getName()), StandardCopyOption.REPLACE_EXISTING);
+		}
+		long created = System.currentTimeMillis();
+		Properties manifest = new Properties();
+		manifest.setProperty("name", name);
+		manifest.setProperty("created", Long.toString(created));
+		try (OutputStream output = Files.newOutputStream(buildDirectory.resolve(MANIFEST))) {
+			manifest.store(output, "Image built by the app orchestrator");
+		}
+		Path image = imageDirectory.resolve(name);
+		Files.move(buildDirectory, image, StandardCopyOption.ATOMIC_MOVE);
+		return new MachineImage(name, image.toAbsolutePath().toString(), created);
+	}
+}
@@ -6,8 +6,11 @@ import java.net.ConnectException;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Named;
 
@@ -15,13 +18,22 @@ import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
+import com.amazonaws.services.ec2.model.CreateImageRequest;
+import com.amazonaws.services.ec2.model.CreateTagsRequest;
 import com.amazonaws.services.ec2.model.DeleteKeyPairRequest;
+import com.amazonaws.services.ec2.model.DeregisterImageRequest;
+import com.amazonaws.services.ec2.model.DescribeImagesRequest;
 import com.amazonaws.services.ec2.model.DescribeInstanceStatusRequest;
 import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.ImageState;
 import com.amazonaws.services.ec2.model.ImportKeyPairRequest;
 import com.amazonaws.services.ec2.model.Instance;
 import com.amazonaws.services.ec2.model.InstanceStatus;
 import com.amazonaws.services.ec2.model.InstanceType;
+import com.amazonaws.services.ec2.model.Reservation;
 import com.amazonaws.services.ec2.model.ResourceType;
 import com.amazonaws.services.ec2.model.RunInstancesRequest;
 import com.amazonaws.services.ec2.model.RunInstancesResult;
@@ -52,12 +64,13 @@ public class EC2 {
 	public static final int INSTANCE_TERMINATED = 48;
 	public static final int INSTANCE_STOPPING = 64;
 	public static final int INSTANCE_STOPPED = 80;
-	private static AmazonEC2 client;
+	private static volatile AmazonEC2 client;
 	private static AWSCredentials credentials;
-	private static KeyPair javaKeyPair;
+	private static volatile KeyPair javaKeyPair;
 	
 	public static void startEC2Instance(String instanceId) {
 		client.startInstances(new StartInstancesRequest().withInstanceIds(instanceId));
+		InstanceCache.invalidate(instanceId);
 	}
 
 	public static boolean isStopped(String instanceId) {
@@ -70,17 +83,20 @@ public class EC2 {
 
 	public static void stopEC2Instance(String instanceId) {
 		client.stopInstances(new StopInstancesRequest().withInstanceIds(instanceId));
+		InstanceCache.invalidate(instanceId);
 	}
 
 	public static void terminateEC2(String instanceId) {
 		client.terminateInstances(new TerminateInstancesRequest().withInstanceIds(instanceId));
+		InstanceCache.invalidate(instanceId);
 	}
 
+	/**
+	 * Retrieve the description of an instance. This is served from the {@link InstanceCache}, so it may be up to 
+	 * one refresh interval old.
+	 */
 	public static Instance retrieveEC2InstanceWithId(String instanceId) {
-		return client.describeInstances(new DescribeInstancesRequest()
-				.withInstanceIds(instanceId))
-				.getReservations().get(0)
-				.getInstances().get(0);
+		return InstanceCache.get(instanceId);
 	}
 	
 	public static Instance deployDefaultEC2(String usageTag, String keyPairName) throws NoSuchAlgorithmException, IOException {
@@ -96,8 +112,37 @@ public class EC2 {
 	 * @throws IOException if the userdata script can not be read
 	 */
 	public static Instance deployDefaultEC2(String usageTag, String keyPairName, String userData) throws NoSuchAlgorithmException, IOException {
+		String deployedInstanceId = launchDefaultEC2s(usageTag, keyPairName, userData, 1).get(0);
+		// wait up to 1 minute for the instance to run
+		waitForInstanceToRun(deployedInstanceId);
+		return retrieveEC2InstanceWithId(deployedInstanceId);
+	}
+
+	/**
+	 * Launch multiple EC2 instances with a single RunInstances call, without waiting for them to run.
+	 * 
+	 * If AWS does not have enough capacity for all instances, as many instances as possible are launched.
+	 * 
+	 * @param usageTag is the tag that represents what the machines will be used for
+	 * @param amount is the maximum amount of instances to launch
+	 * @return the ids of the launched instances
+	 * @throws NoSuchAlgorithmException
+	 */
+	public static List<String> launchDefaultEC2s(String usageTag, String keyPairName, String userData, int amount) throws NoSuchAlgorithmException {
+		return launchEC2s(AMI_ID_EU_WEST_3_UBUNTU_SERVER_1804, usageTag, keyPairName, userData, amount);
+	}
+
+	/**
+	 * Launch multiple EC2 instances from the provided image with a single RunInstances call, without waiting for
+	 * them to run.
+	 * 
+	 * @param imageId is the id of the AMI to launch the instances from
+	 * @return the ids of the launched instances
+	 * @throws NoSuchAlgorithmException
+	 */
+	public static List<String> launchEC2s(String imageId, String usageTag, String keyPairName, String userData, int amount) throws NoSuchAlgorithmException {
 		ensureJavaKeyPairExists();
-		RunInstancesRequest runInstancesRequest = new RunInstancesRequest(AMI_ID_EU_WEST_3_UBUNTU_SERVER_1804, 1, 1)
+		RunInstancesRequest runInstancesRequest = new RunInstancesRequest(imageId, 1, amount)
 				.withInstanceType(InstanceType.T2Micro)
 				.withKeyName(keyPairName)
 				.withUserData(userData);
@@ -111,15 +156,92 @@ public class EC2 {
 							.withValue(usageTag)));
 		}
 		RunInstancesResult runInstancesResult = client.runInstances(runInstancesRequest);
-		String deployedInstanceId = runInstancesResult.getReservation().getInstances().get(0).getInstanceId();
-		// wait up to 1 minute for the instance to run
-		waitForInstanceToRun(deployedInstanceId);
-		return client.describeInstances(new DescribeInstancesRequest().withInstanceIds(deployedInstanceId))
-				.getReservations().get(0)
-				.getInstances().get(0);
+		List<String> deployedInstanceIds = new ArrayList<>();
+		for (Instance deployedInstance : runInstancesResult.getReservation().getInstances()) {
+			deployedInstanceIds.add(deployedInstance.getInstanceId());
+		}
+		return deployedInstanceIds;
 	}
 
-	public static void ensureJavaKeyPairExists() throws NoSuchAlgorithmException {
+	/**
+	 * Replace the tag that represents what an instance is used for.
+	 * 
+	 * @param instanceId is the id of the instance
+	 * @param usageTag is the tag that represents what the machine will be used for
+	 */
+	public static void tagUsage(String instanceId, String usageTag) {
+		client.createTags(new CreateTagsRequest()
+				.withResources(instanceId)
+				.withTags(new Tag()
+						.withKey("Usage")
+						.withValue(usageTag)));
+	}
+
+	/**
+	 * Find the instances that are used for the same purpose and are not terminated, including the instances that
+	 * were launched by a previous AppOrchestrator.
+	 * 
+	 * @param usageTag is the tag that represents what the machines are used for
+	 * @return the instances with this tag that are pending, running, stopping or stopped
+	 */
+	public static List<Instance> findInstancesWithUsage(String usageTag) {
+		List<Instance> instances = new ArrayList<>();
+		DescribeInstancesRequest request = new DescribeInstancesRequest()
+				.withFilters(
+						new Filter("tag:Usage").withValues(usageTag),
+						new Filter("instance-state-name").withValues("pending", "running", "stopping", "stopped"));
+		do {
+			DescribeInstancesResult result = client.describeInstances(request);
+			for (Reservation reservation : result.getReservations()) {
+				instances.addAll(reservation.getInstances());
+			}
+			request.setNextToken(result.getNextToken());
+		} while (request.getNextToken() != null);
+		return instances;
+	}
+
+	/**
+	 * Create an AMI from the disk of an instance. The instance is rebooted so its file system is consistent.
+	 * 
+	 * @param instanceId is the id of the instance
+	 * @param name is the name of the AMI, which must be unique
+	 * @return the id of the AMI, which is available once {@link #getImageState(String)} is "available"
+	 */
+	public static String createImage(String instanceId, String name) {
+		return client.createImage(new CreateImageRequest(instanceId, name)
+				.withDescription("Ubuntu with Java, ffmpeg and the component jars")).getImageId();
+	}
+
+	/**
+	 * Find an AMI that this account created before.
+	 * 
+	 * @param name is the name of the AMI
+	 * @return the AMI, or null if there is no AMI with this name
+	 */
+	public static Image findImage(String name) {
+		List<Image> images = client.describeImages(new DescribeImagesRequest()
+				.withOwners("self")
+				.withFilters(new Filter("name").withValues(name)))
+				.getImages();
+		return images.isEmpty() ? null : images.get(0);
+	}
+
+	/**
+	 * @return the state of the AMI, which is "available" once instances can be launched from it
+	 */
+	public static String getImageState(String imageId) {
+		List<Image> images = client.describeImages(new DescribeImagesRequest().withImageIds(imageId)).getImages();
+		return images.isEmpty() ? ImageState.Deregistered.toString() : images.get(0).getState();
+	}
+
+	/**
+	 * Deregister an AMI, so its name can be used for a new AMI.
+	 */
+	public static void deregisterImage(String imageId) {
+		client.deregisterImage(new DeregisterImageRequest(imageId));
+	}
+
+	public static synchronized void ensureJavaKeyPairExists() throws NoSuchAlgorithmException {
 		if (javaKeyPair != null) {
 			return;
 		}
@@ -160,6 +282,14 @@ public class EC2 {
 		return Base64.getEncoder().encodeToString(installScript.getBytes());
 	}
 
+	/**
+	 * @return the user data that starts an application that is already installed, when an instance boots
+	 */
+	public static String getStartupUserData(String applicationName) {
+		return getUserData("#!/bin/bash\n" + 
+				"su ubuntu -c 'nohup java -jar /home/ubuntu/"+applicationName+".jar > /home/ubuntu/"+applicationName+".log 2>&1 &'\n");
+	}
+
 	public static void waitForInstanceToRun(String deployedInstanceId) throws IOException {
 		for (int i = 0; i < 6; i++) {
 			try {
@@ -186,12 +316,7 @@ public class EC2 {
 	}
 
 	public static int getInstanceState(String deployedInstanceId) {
-		int state = client.describeInstances(new DescribeInstancesRequest().withInstanceIds(deployedInstanceId))
-				.getReservations().get(0)
-				.getInstances().get(0)
-				.getState()
-				.getCode();
-		return state;
+		return retrieveEC2InstanceWithId(deployedInstanceId).getState().getCode();
 	}
 	
 	public static boolean verifyStatusChecksPassed(String deployedInstanceId) {
@@ -247,14 +372,41 @@ public class EC2 {
 		}
 	}
 	
+	/**
+	 * Run a command on the instance over SSH and wait for it to finish.
+	 * 
+	 * @param instance is the instance on which the command is run
+	 * @param remoteCommand is the command to run
+	 * @param timeoutInMilliseconds is the maximum time to wait for the command to finish
+	 * @return the exit status of the command, or null if it did not report one
+	 * @throws IOException if the command could not be run or did not finish in time
+	 * @throws NoSuchAlgorithmException
+	 */
+	public static Integer runCommand(Instance instance, String remoteCommand, long timeoutInMilliseconds) throws IOException, NoSuchAlgorithmException {
+		ensureJavaKeyPairExists();
+		try (SSHClient ssh = new SSHClient()){
+			ssh.loadKnownHosts();
+			ssh.addHostKeyVerifier(new PromiscuousVerifier());
+			ssh.connect(instance.getPublicDnsName());
+			ssh.authPublickey("ubuntu", Arrays.asList(ssh.loadKeys(javaKeyPair)));
+			try(Session session = ssh.startSession()){
+				Command command = session.exec(remoteCommand);
+				command.join(timeoutInMilliseconds, TimeUnit.MILLISECONDS);
+				return command.getExitStatus();
+			}
+		}
+	}
+	
 	public static boolean checkJavaInstalled(String instance) throws IOException {
 		boolean passed = false;
-		// wait up to 2.5 minutes for Java to be installed
-		for (int j = 0; j < 10; j++) {
-			try {
-				Thread.sleep(30000);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+		// wait up to 2.5 minutes for Java to be installed, checking right away since the instance may be ready already
+		for (int j = 0; j < 15; j++) {
+			if (j > 0) {
+				try {
+					Thread.sleep(10000);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
 			}
 			try (SSHClient ssh = new SSHClient()){
 				ssh.loadKnownHosts();
@@ -291,5 +443,6 @@ public class EC2 {
 		EC2.credentials = credentials;
 		AWSStaticCredentialsProvider staticCredentialsProvider = new AWSStaticCredentialsProvider(credentials);
 		client = AmazonEC2ClientBuilder.standard().withCredentials(staticCredentialsProvider).build();
+		InstanceCache.start();
 	}
 }
@@ -0,0 +1,122 @@
+package in4392.cloudcomputing.apporchestrator;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.ImageState;
+import com.amazonaws.services.ec2.model.Instance;
+
+/**
+ * Build AMIs by provisioning a temporary builder instance once and creating an image from its disk.
+ *
+ * The image is only created once the user data of the builder instance has finished and ffmpeg works, since
+ * creating the image reboots the builder and an image without ffmpeg would be reused for as long as its name
+ * stays the same. The user data may take up to "provisioning.userDataTimeout" milliseconds (default 20 minutes).
+ * The builder instance is always terminated afterwards. Building an AMI can take up to
+ * "provisioning.imageTimeout" milliseconds (default 30 minutes). An AMI that is not available by then, or that
+ * failed, is deregistered so the next build can use its name again. An AMI that is still pending, like one that a
+ * previous app orchestrator started, is waited for instead of built again.
+ */
+public class Ec2ImageProvisioner implements ImageProvisioner {
+	public static final String NAME = "ec2";
+	private static final long IMAGE_TIMEOUT = Long.getLong("provisioning.imageTimeout", 30 * 60 * 1000);
+	private static final long IMAGE_POLL_INTERVAL = 15 * 1000;
+	private static final long USER_DATA_TIMEOUT = Long.getLong("provisioning.userDataTimeout", 20 * 60 * 1000);
+	private static final long COMMAND_TIMEOUT = 60 * 1000;
+	private final String keyPairName;
+
+	/**
+	 * @param keyPairName is the name of the key pair with which the component jars are uploaded to the builder
+	 */
+	public Ec2ImageProvisioner(String keyPairName) {
+		this.keyPairName = keyPairName;
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public boolean isLaunchable() {
+		return true;
+	}
+
+	@Override
+	public MachineImage find(String name) throws IOException, InterruptedException {
+		Image image = EC2.findImage(name);
+		if (image == null) {
+			return null;
+		}
+		if (ImageState.Pending.toString().equals(image.getState())) {
+			System.out.println("Waiting for image " + image.getImageId() + " (" + name + ") that is still pending");
+			return awaitAvailable(name, image.getImageId());
+		}
+		if (!ImageState.Available.toString().equals(image.getState())) {
+			System.out.println("Deregistering image " + image.getImageId() + " (" + name + ") in state " + image.getState());
+			EC2.deregisterImage(image.getImageId());
+			return null;
+		}
+		return new MachineImage(name, image.getImageId(), System.currentTimeMillis());
+	}
+
+	@Override
+	public MachineImage build(String name, String installScript, List<File> componentJars) throws IOException, NoSuchAlgorithmException, InterruptedException {
+		String builderId = EC2.launchDefaultEC2s("Image Builder", keyPairName, EC2.getUserData(installScript), 1).get(0);
+		try {
+			EC2.waitForInstanceToRun(builderId);
+			Instance builder = EC2.retrieveEC2InstanceWithId(builderId);
+			for (File componentJar : componentJars) {
+				EC2.copyApplicationToDeployedInstance(componentJar, builder);
+			}
+			verifyInstallation(builder);
+			String imageId = EC2.createImage(builderId, name);
+			System.out.println("Creating image " + imageId + " (" + name + ") from builder instance " + builderId);
+			return awaitAvailable(name, imageId);
+		} finally {
+			EC2.terminateEC2(builderId);
+		}
+	}
+
+	/**
+	 * Wait until the user data of the builder instance has finished, and check that it installed ffmpeg.
+	 * 
+	 * @throws IOException if the user data failed or did not finish in time, or ffmpeg does not work
+	 */
+	private static void verifyInstallation(Instance builder) throws IOException, NoSuchAlgorithmException {
+		System.out.println("Waiting for the user data of builder instance " + builder.getInstanceId() + " to finish");
+		Integer userDataStatus = EC2.runCommand(builder, "cloud-init status --wait", USER_DATA_TIMEOUT);
+		if (userDataStatus == null || userDataStatus != 0) {
+			throw new IOException("The user data of builder instance " + builder.getInstanceId() + " did not finish successfully, exit status " + userDataStatus);
+		}
+		Integer ffmpegStatus = EC2.runCommand(builder, "ffmpeg -version", COMMAND_TIMEOUT);
+		if (ffmpegStatus == null || ffmpegStatus != 0) {
+			throw new IOException("ffmpeg does not work on builder instance " + builder.getInstanceId() + ", exit status " + ffmpegStatus);
+		}
+	}
+
+	/**
+	 * Wait until the AMI is available, or deregister it if it does not become available.
+	 */
+	private static MachineImage awaitAvailable(String name, String imageId) throws IOException, InterruptedException {
+		long deadline = System.currentTimeMillis() + IMAGE_TIMEOUT;
+		String state = ImageState.Pending.toString();
+		while (System.currentTimeMillis() < deadline) {
+			Thread.sleep(IMAGE_POLL_INTERVAL);
+			state = EC2.getImageState(imageId);
+			if (ImageState.Available.toString().equals(state)) {
+				return new MachineImage(name, imageId, System.currentTimeMillis());
+			}
+			if (!ImageState.Pending.toString().equals(state)) {
+				break;
+			}
+		}
+		if (!ImageState.Deregistered.toString().equals(state)) {
+			EC2.deregisterImage(imageId);
+		}
+		throw new IOException("Image " + imageId + " did not become available within " + IMAGE_TIMEOUT + " ms, its state is " + state);
+	}
+}
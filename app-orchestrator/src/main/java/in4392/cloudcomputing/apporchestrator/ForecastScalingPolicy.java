@@ -0,0 +1,97 @@
+package in4392.cloudcomputing.apporchestrator;
+
+/**
+ * Deploy enough application instances for the arrival rate that is forecast for the moment the new instances are
+ * ready, instead of the current load.
+ *
+ * The arrival rate is forecast with Holt-Winters exponential smoothing: a level and trend, with smoothing factors
+ * "scaling.alpha" (default 0.5) and "scaling.beta" (default 0.2), and an optional additive seasonal component
+ * over "scaling.seasonLength" iterations (default 0, disabled) with smoothing factor "scaling.gamma" (default
+ * 0.1). The forecast horizon is the time it takes to deploy an instance, "scaling.leadTime" milliseconds
+ * (default 5 minutes).
+ *
+ * The time a request spends on an application instance is derived from the requests in progress and the
+ * completion rate (Little's law), and smoothed with the same level factor. The amount of instances is then chosen
+ * so that each instance is expected to have "scaling.targetRequestsPerInstance" requests in progress (default 4).
+ */
+public class ForecastScalingPolicy implements ScalingPolicy {
+	public static final String NAME = "forecast";
+	private static final double ALPHA = Double.parseDouble(System.getProperty("scaling.alpha", "0.5"));
+	private static final double BETA = Double.parseDouble(System.getProperty("scaling.beta", "0.2"));
+	private static final double GAMMA = Double.parseDouble(System.getProperty("scaling.gamma", "0.1"));
+	private static final int SEASON_LENGTH = Integer.getInteger("scaling.seasonLength", 0);
+	private static final long LEAD_TIME = Long.getLong("scaling.leadTime", 5 * 60 * 1000);
+	private static final double TARGET_REQUESTS_PER_INSTANCE = Double.parseDouble(System.getProperty("scaling.targetRequestsPerInstance", "4"));
+	private final ScalingLimits limits;
+	private final double[] seasonal;
+	private long samples;
+	private double level;
+	private double trend;
+	private double requestDuration;
+
+	public ForecastScalingPolicy() {
+		this(new ScalingLimits());
+	}
+
+	public ForecastScalingPolicy(ScalingLimits limits) {
+		this.limits = limits;
+		this.seasonal = new double[Math.max(0, SEASON_LENGTH)];
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public int decide(LoadSample sample, int pendingInstances) {
+		int instances = sample.getInstances() + pendingInstances;
+		updateRequestDuration(sample);
+		double forecastArrivalRate = forecast(sample.arrivalRate(), horizon(sample));
+		// the requests that are already in progress need to be served as well
+		double expectedRequests = Math.max(forecastArrivalRate * requestDuration, sample.getRequestsInProgress());
+		int desiredInstances = (int) Math.ceil(expectedRequests / TARGET_REQUESTS_PER_INSTANCE);
+		return limits.decide(instances, desiredInstances);
+	}
+
+	/**
+	 * Update the smoothed arrival rate with the observed rate, and forecast it the provided amount of iterations
+	 * ahead.
+	 */
+	private double forecast(double arrivalRate, int horizon) {
+		int season = seasonal.length == 0 ? 0 : (int) (samples % seasonal.length);
+		double seasonalComponent = seasonal.length == 0 ? 0 : seasonal[season];
+		if (samples == 0) {
+			level = arrivalRate;
+			trend = 0;
+		}
+		else {
+			double previousLevel = level;
+			level = ALPHA * (arrivalRate - seasonalComponent) + (1 - ALPHA) * (level + trend);
+			trend = BETA * (level - previousLevel) + (1 - BETA) * trend;
+		}
+		if (seasonal.length > 0) {
+			// the seasonal component is only learned once a full season has been observed
+			seasonal[season] = samples < seasonal.length ? arrivalRate - level : GAMMA * (arrivalRate - level) + (1 - GAMMA) * seasonalComponent;
+		}
+		samples++;
+		double forecast = level + horizon * trend;
+		if (seasonal.length > 0 && samples > seasonal.length) {
+			forecast += seasonal[(int) ((samples - 1 + horizon) % seasonal.length)];
+		}
+		return Math.max(0, forecast);
+	}
+
+	private void updateRequestDuration(LoadSample sample) {
+		double completionRate = sample.completionRate();
+		if (completionRate <= 0) {
+			return;
+		}
+		double observedDuration = sample.getRequestsInProgress() / completionRate;
+		requestDuration = requestDuration == 0 ? observedDuration : ALPHA * observedDuration + (1 - ALPHA) * requestDuration;
+	}
+
+	private static int horizon(LoadSample sample) {
+		return sample.getInterval() <= 0 ? 1 : (int) Math.max(1, Math.ceil(LEAD_TIME / (double) sample.getInterval()));
+	}
+}
@@ -0,0 +1,154 @@
+package in4392.cloudcomputing.apporchestrator;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import javax.ws.rs.core.Response;
+
+/**
+ * Probe the health endpoints of all instances at the same time, on a schedule that is independent of the control loop.
+ *
+ * The results are published to the {@link HealthRegistry}, exactly one result per instance for each round. A probe
+ * that does not complete within the connect and read timeout counts as a failure, so a single unresponsive instance
+ * can not delay the results for the other instances. An extra
+ * round can be requested when an instance is suspected to have failed, so it is detected before the next round. The
+ * schedule can be configured with the following system properties:
+ * <ul>
+ * <li>healthcheck.interval: the time in milliseconds between the start of two rounds of probes (default 10 seconds)</li>
+ * <li>healthcheck.timeout: the connect and read timeout in milliseconds of a single probe (default 5 seconds)</li>
+ * <li>healthcheck.threads: the maximum amount of probes that run at the same time (default 16)</li>
+ * </ul>
+ */
+public class HealthChecker {
+	private static final long CHECK_INTERVAL = Long.getLong("healthcheck.interval", 10 * 1000);
+	// connecting and reading are timed out separately, so a probe may take both timeouts before it fails by itself
+	private static final long PROBE_TIMEOUT = 2 * HttpClients.getHealthCheckTimeout() + 1000;
+	private static final int PROBE_THREADS = Integer.getInteger("healthcheck.threads", 16);
+	private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+		Thread thread = new Thread(runnable, "health-check-scheduler");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final ExecutorService probes = Executors.newFixedThreadPool(PROBE_THREADS, (runnable) -> {
+		Thread thread = new Thread(runnable, "health-probe");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final AtomicBoolean checkRequested = new AtomicBoolean();
+	private static boolean started;
+	private static volatile Supplier<Map<String, URI>> healthEndpoints;
+	private static volatile Consumer<String> unhealthyListener;
+	private static final MetricsRegistry.Histogram roundDuration = MetricsRegistry.histogram("health_check_round_duration_seconds",
+			"Time it took to probe all instances, in seconds.", MetricsRegistry.LATENCY_BUCKETS);
+
+	/**
+	 * Start probing the instances periodically.
+	 *
+	 * @param healthEndpoints provides the health endpoint of each instance that should be probed, keyed by
+	 * instance id. It is called again for every round of probes, so it reflects added and removed instances.
+	 * @param unhealthyListener is called with the instance id when an instance becomes unhealthy
+	 */
+	public static synchronized void start(Supplier<Map<String, URI>> healthEndpoints, Consumer<String> unhealthyListener) {
+		if (started) {
+			return;
+		}
+		started = true;
+		HealthChecker.healthEndpoints = healthEndpoints;
+		HealthChecker.unhealthyListener = unhealthyListener;
+		scheduler.scheduleWithFixedDelay(HealthChecker::checkAllSafely, 0, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Probe all instances right away, in addition to the periodic rounds. Requests that arrive while a requested
+	 * round is still waiting to start are combined into that round.
+	 */
+	public static void checkNow() {
+		if (!started || !checkRequested.compareAndSet(false, true)) {
+			return;
+		}
+		scheduler.execute(() -> {
+			checkRequested.set(false);
+			checkAllSafely();
+		});
+	}
+
+	private static void checkAllSafely() {
+		try {
+			checkAll(healthEndpoints.get());
+		} catch (RuntimeException e) {
+			System.out.println("Health check round failed: " + e.getMessage());
+		}
+	}
+
+	private static void checkAll(Map<String, URI> healthEndpoints) {
+		List<Entry<String, URI>> endpoints = new ArrayList<>(healthEndpoints.entrySet());
+		List<Future<?>> results = new ArrayList<>();
+		// the probe and the timeout below race to record the result, only the first one counts for this round
+		List<AtomicBoolean> recorded = new ArrayList<>();
+		long roundStart = System.currentTimeMillis();
+		for (Entry<String, URI> endpoint : endpoints) {
+			AtomicBoolean probeRecorded = new AtomicBoolean();
+			recorded.add(probeRecorded);
+			results.add(probes.submit(() -> probe(endpoint.getKey(), endpoint.getValue(), probeRecorded)));
+		}
+		// probes may be queued behind each other, so every batch of concurrent probes gets its own timeout
+		int batches = (endpoints.size() + PROBE_THREADS - 1) / PROBE_THREADS;
+		long deadline = roundStart + Math.max(1, batches) * PROBE_TIMEOUT;
+		for (int i = 0; i < results.size(); i++) {
+			Entry<String, URI> endpoint = endpoints.get(i);
+			try {
+				results.get(i).get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				results.get(i).cancel(true);
+				recordFailure(recorded.get(i), endpoint.getKey(), endpoint.getValue().toString(), System.currentTimeMillis() - roundStart, "Probe timed out");
+			} catch (ExecutionException e) {
+				recordFailure(recorded.get(i), endpoint.getKey(), endpoint.getValue().toString(), System.currentTimeMillis() - roundStart, String.valueOf(e.getCause()));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		HealthRegistry.retainOnly(healthEndpoints.keySet());
+		roundDuration.observe((System.currentTimeMillis() - roundStart) / 1000.0);
+	}
+
+	private static void probe(String instanceId, URI healthEndpoint, AtomicBoolean recorded) {
+		long probeStart = System.currentTimeMillis();
+		try {
+			Response response = HttpClients.getHealthCheckClient().target(healthEndpoint).request().get();
+			int httpStatus = response.getStatus();
+			response.close();
+			long latency = System.currentTimeMillis() - probeStart;
+			if (httpStatus == 204) {
+				if (recorded.compareAndSet(false, true)) {
+					HealthRegistry.recordSuccess(instanceId, healthEndpoint.toString(), latency);
+				}
+			}
+			else {
+				recordFailure(recorded, instanceId, healthEndpoint.toString(), latency, "HTTP status " + httpStatus);
+			}
+		} catch (RuntimeException e) {
+			System.out.println("Instance " + instanceId + " did not respond to health check: " + e.getMessage());
+			recordFailure(recorded, instanceId, healthEndpoint.toString(), System.currentTimeMillis() - probeStart, e.getMessage());
+		}
+	}
+
+	private static void recordFailure(AtomicBoolean recorded, String instanceId, String healthURI, long latency, String error) {
+		if (recorded.compareAndSet(false, true) && HealthRegistry.recordFailure(instanceId, healthURI, latency, error) && unhealthyListener != null) {
+			unhealthyListener.accept(instanceId);
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package in4392.cloudcomputing.apporchestrator;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The latest health of each probed instance, keyed by instance id.
+ *
+ * The health checker publishes its results here, while the control loop and the routing read them. An instance
+ * is only considered unhealthy after "healthcheck.failureThreshold" consecutive failed probes (default 2), so
+ * a single slow probe does not get an instance recovered. Instances that have not been probed yet are
+ * considered healthy.
+ */
+public class HealthRegistry {
+	private static final int FAILURE_THRESHOLD = Integer.getInteger("healthcheck.failureThreshold", 2);
+	private static final Map<String, HealthStatus> statuses = new ConcurrentHashMap<>();
+
+	static {
+		MetricsRegistry.gauge("health_unhealthy_instances", "Amount of probed instances that are unhealthy.",
+				() -> statuses.values().stream().filter((status) -> !status.isHealthy()).count());
+	}
+
+	public static boolean isHealthy(String instanceId) {
+		if (instanceId == null) {
+			return false;
+		}
+		HealthStatus status = statuses.get(instanceId);
+		return status == null || status.isHealthy();
+	}
+
+	/**
+	 * @return the latest health of each probed instance, keyed by instance id
+	 */
+	public static Map<String, HealthStatus> getStatuses() {
+		return new TreeMap<>(statuses);
+	}
+
+	static void recordSuccess(String instanceId, String healthURI, long latency) {
+		statuses.put(instanceId, new HealthStatus(healthURI, true, 0, System.currentTimeMillis(), latency, null));
+	}
+
+	/**
+	 * @return true if the instance became unhealthy with this failure
+	 */
+	static boolean recordFailure(String instanceId, String healthURI, long latency, String error) {
+		HealthStatus status = statuses.compute(instanceId, (key, previous) -> {
+			int failures = previous == null ? 1 : previous.getConsecutiveFailures() + 1;
+			return new HealthStatus(healthURI, failures < FAILURE_THRESHOLD, failures, System.currentTimeMillis(), latency, error);
+		});
+		return status.getConsecutiveFailures() == FAILURE_THRESHOLD;
+	}
+
+	/**
+	 * Forget the instances that are no longer probed.
+	 */
+	static void retainOnly(Set<String> instanceIds) {
+		statuses.keySet().retainAll(instanceIds);
+	}
+}
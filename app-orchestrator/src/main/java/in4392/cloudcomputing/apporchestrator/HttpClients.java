@@ -0,0 +1,192 @@
+package in4392.cloudcomputing.apporchestrator;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.WebTarget;
+
+import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+
+/**
+ * Shared JAX-RS clients for all calls to other components.
+ *
+ * The clients are created once and reused, so the underlying HTTP connections are kept alive and reused per
+ * target host instead of being opened for every request. The connections are managed by the keep-alive cache of
+ * the JDK, which does not limit the amount of concurrent connections to a host: a request that finds no idle
+ * connection always opens a new one. Only the amount of idle connections that is kept per host is limited. The
+ * keep-alive cache and timeouts can be configured with the following system properties:
+ * <ul>
+ * <li>httpclient.maxIdleConnectionsPerHost: the maximum amount of idle connections kept alive per host (default 20)</li>
+ * <li>httpclient.connectTimeout: the connect timeout in milliseconds (default 10 seconds)</li>
+ * <li>httpclient.readTimeout: the read timeout in milliseconds for regular calls (default 60 seconds)</li>
+ * <li>httpclient.transferReadTimeout: the read timeout in milliseconds for video transfers (default 1 day)</li>
+ * <li>healthcheck.timeout: the connect and read timeout in milliseconds for health probes (default 5 seconds)</li>
+ * </ul>
+ *
+ * Note that a connection is only returned to the keep-alive cache once the response has been fully read or closed.
+ */
+public class HttpClients {
+	private static final int MAX_IDLE_CONNECTIONS_PER_HOST = Integer.getInteger("httpclient.maxIdleConnectionsPerHost", 20);
+	private static final Set<String> INVOCATION_METHODS = new HashSet<>(Arrays.asList("get", "put", "post", "delete", "head", "options", "trace", "method"));
+	private static final long CONNECT_TIMEOUT = Long.getLong("httpclient.connectTimeout", 10 * 1000);
+	private static final long READ_TIMEOUT = Long.getLong("httpclient.readTimeout", 60 * 1000);
+	private static final long TRANSFER_READ_TIMEOUT = Long.getLong("httpclient.transferReadTimeout", TimeUnit.DAYS.toMillis(1));
+	private static final long HEALTH_CHECK_TIMEOUT = Long.getLong("healthcheck.timeout", 5 * 1000);
+	private static final Map<String, ConnectionPoolStatistics> poolStatistics = new ConcurrentHashMap<>();
+	private static Client client;
+	private static Client transferClient;
+	private static Client healthCheckClient;
+
+	/**
+	 * Configure the JVM-wide keep-alive cache. This must be called before the first HTTP connection is made, since
+	 * the JDK reads these settings only once. "http.maxConnections" is the amount of idle connections that is kept
+	 * per destination, not a limit on the amount of open connections.
+	 */
+	public static void configure() {
+		System.setProperty("http.keepAlive", "true");
+		System.setProperty("http.maxConnections", String.valueOf(MAX_IDLE_CONNECTIONS_PER_HOST));
+	}
+
+	/**
+	 * @return the shared client for regular calls to other components
+	 */
+	public static synchronized Client getClient() {
+		if (client == null) {
+			client = createClient(READ_TIMEOUT);
+		}
+		return client;
+	}
+
+	/**
+	 * @return the shared client for long-running calls that transfer videos to other components
+	 */
+	public static synchronized Client getTransferClient() {
+		if (transferClient == null) {
+			transferClient = createClient(TRANSFER_READ_TIMEOUT);
+		}
+		return transferClient;
+	}
+
+	/**
+	 * @return the shared client for health probes, which gives up quickly on unresponsive hosts
+	 */
+	public static synchronized Client getHealthCheckClient() {
+		if (healthCheckClient == null) {
+			healthCheckClient = createClient(HEALTH_CHECK_TIMEOUT, HEALTH_CHECK_TIMEOUT);
+		}
+		return healthCheckClient;
+	}
+
+	public static long getHealthCheckTimeout() {
+		return HEALTH_CHECK_TIMEOUT;
+	}
+
+	/**
+	 * @return the calls that are in progress and that completed for each target host, keyed by host and port
+	 */
+	public static Map<String, ConnectionPoolStatistics> getPoolStatistics() {
+		return new TreeMap<>(poolStatistics);
+	}
+
+	public static int getMaxIdleConnectionsPerHost() {
+		return MAX_IDLE_CONNECTIONS_PER_HOST;
+	}
+
+	private static Client createClient(long readTimeout) {
+		return createClient(CONNECT_TIMEOUT, readTimeout);
+	}
+
+	private static Client createClient(long connectTimeout, long readTimeout) {
+		Client client = ClientBuilder.newBuilder()
+				.connectTimeout(connectTimeout, TimeUnit.MILLISECONDS)
+				.readTimeout(readTimeout, TimeUnit.MILLISECONDS)
+				.register(JacksonJsonProvider.class)
+				.build();
+		return track(client, Client.class, null);
+	}
+
+	private static ConnectionPoolStatistics statisticsFor(URI uri) {
+		String host = uri.getHost() + ":" + uri.getPort();
+		return poolStatistics.computeIfAbsent(host, (key) -> new ConnectionPoolStatistics());
+	}
+
+	/**
+	 * Wrap a client, web target or invocation builder, so every call that it makes is counted for its target host
+	 * until the call has completed.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> T track(T delegate, Class<T> type, URI uri) {
+		return (T) Proxy.newProxyInstance(HttpClients.class.getClassLoader(), new Class<?>[] {type}, new PoolUtilizationTracker(delegate, uri));
+	}
+
+	/**
+	 * Track the calls that are in progress for each target host. A call is counted from the moment it is made until
+	 * it returns or throws, so calls that fail without a response are not counted as in progress forever.
+	 */
+	private static class PoolUtilizationTracker implements InvocationHandler {
+		private final Object delegate;
+		private final URI uri;
+
+		PoolUtilizationTracker(Object delegate, URI uri) {
+			this.delegate = delegate;
+			this.uri = uri;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (delegate instanceof Invocation.Builder && INVOCATION_METHODS.contains(method.getName())) {
+				return invokeTracked(method, args);
+			}
+			Object result = invokeDelegate(method, args);
+			if (result instanceof Client) {
+				return track((Client) result, Client.class, null);
+			}
+			if (result instanceof WebTarget) {
+				return track((WebTarget) result, WebTarget.class, ((WebTarget) result).getUri());
+			}
+			if (result instanceof Invocation.Builder) {
+				return track((Invocation.Builder) result, Invocation.Builder.class, uri);
+			}
+			return result;
+		}
+
+		private Object invokeTracked(Method method, Object[] args) throws Throwable {
+			ConnectionPoolStatistics statistics = statisticsFor(uri);
+			statistics.requestStarted();
+			boolean responded = false;
+			try {
+				Object result = invokeDelegate(method, args);
+				responded = true;
+				return result;
+			} catch (WebApplicationException e) {
+				// the host did respond, but with an error status
+				responded = true;
+				throw e;
+			} finally {
+				statistics.requestCompleted(responded);
+			}
+		}
+
+		private Object invokeDelegate(Method method, Object[] args) throws Throwable {
+			try {
+				return method.invoke(delegate, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+}
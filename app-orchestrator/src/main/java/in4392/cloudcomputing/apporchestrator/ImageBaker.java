@@ -0,0 +1,161 @@
+package in4392.cloudcomputing.apporchestrator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Build the image that application instances are launched from once, in the background, and reuse it for every
+ * later launch.
+ *
+ * The image is named after a hash of the install script and the component jars, so an image that was built before
+ * by any app orchestrator is reused and a new jar results in a new image. Until the image is available, instances
+ * are provisioned from the base image. A failed build is retried every "provisioning.imageRetryInterval"
+ * milliseconds (default 10 minutes).
+ *
+ * The provisioner is selected with "provisioning.image": "ec2" (default) builds an AMI, "directory" builds a
+ * local directory that can not be launched, and "none" disables baking.
+ */
+public class ImageBaker {
+	private static final String PROVISIONER = System.getProperty("provisioning.image", Ec2ImageProvisioner.NAME);
+	private static final long RETRY_INTERVAL = Long.getLong("provisioning.imageRetryInterval", 10 * 60 * 1000);
+	private static final String IMAGE_NAME_PREFIX = "in4392-components-";
+	private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+		Thread thread = new Thread(runnable, "image-baker");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static volatile ImageProvisioner provisioner;
+	private static volatile MachineImage image;
+	private static volatile State state = State.NONE;
+	private static volatile String lastError;
+
+	/**
+	 * The progress of building the image.
+	 */
+	public enum State {
+		NONE, BUILDING, AVAILABLE, FAILED
+	}
+
+	/**
+	 * Start building the image in the background, or find the image that was built before.
+	 *
+	 * @param keyPairName is the name of the key pair with which the component jars are uploaded
+	 * @param installScript is the script that installs the dependencies of the components
+	 * @param componentJars are the jars of the components
+	 */
+	public static synchronized void start(String keyPairName, String installScript, List<File> componentJars) {
+		if (provisioner != null) {
+			return;
+		}
+		provisioner = createImageProvisioner(PROVISIONER, keyPairName);
+		if (provisioner == null) {
+			return;
+		}
+		scheduler.scheduleWithFixedDelay(() -> {
+			if (state == State.AVAILABLE || EC2.getCredentials() == null) {
+				return;
+			}
+			try {
+				bake(installScript, componentJars);
+			} catch (Exception e) {
+				state = State.FAILED;
+				lastError = e.getMessage();
+				System.out.println("Could not build the image for application instances: " + e.getMessage());
+			}
+		}, 0, RETRY_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	private static ImageProvisioner createImageProvisioner(String name, String keyPairName) {
+		switch (name.trim().toLowerCase()) {
+			case Ec2ImageProvisioner.NAME:
+				return new Ec2ImageProvisioner(keyPairName);
+			case DirectoryImageProvisioner.NAME:
+				return new DirectoryImageProvisioner();
+			case "none":
+				return null;
+			default:
+				throw new IllegalArgumentException("Unknown image provisioner: " + name);
+		}
+	}
+
+	private static void bake(String installScript, List<File> componentJars) throws IOException, NoSuchAlgorithmException, InterruptedException {
+		String name = getImageName(installScript, componentJars);
+		// finding the image may wait for an image that is still being registered
+		state = State.BUILDING;
+		MachineImage existingImage = provisioner.find(name);
+		if (existingImage != null) {
+			System.out.println("Reusing image " + existingImage.getImageId() + " (" + name + ")");
+			image = existingImage;
+			state = State.AVAILABLE;
+			lastError = null;
+			return;
+		}
+		long buildStart = System.currentTimeMillis();
+		System.out.println("Building image " + name + " with the " + provisioner.getName() + " provisioner");
+		image = provisioner.build(name, installScript, componentJars);
+		state = State.AVAILABLE;
+		lastError = null;
+		System.out.println("Built image " + image.getImageId() + " in " + (System.currentTimeMillis() - buildStart) + " ms");
+	}
+
+	/**
+	 * @return the name of the image, which is derived from the install script and the contents of the jars
+	 */
+	public static String getImageName(String installScript, List<File> componentJars) throws IOException, NoSuchAlgorithmException {
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		digest.update(installScript.getBytes(StandardCharsets.UTF_8));
+		byte[] buffer = new byte[64 * 1024];
+		for (File componentJar : componentJars) {
+			digest.update(componentJar.getName().getBytes(StandardCharsets.UTF_8));
+			try (InputStream input = Files.newInputStream(componentJar.toPath())) {
+				int read;
+				while ((read = input.read(buffer)) >= 0) {
+					digest.update(buffer, 0, read);
+				}
+			}
+		}
+		StringBuilder name = new StringBuilder(IMAGE_NAME_PREFIX);
+		byte[] hash = digest.digest();
+		for (int i = 0; i < 8; i++) {
+			name.append(String.format("%02x", hash[i]));
+		}
+		return name.toString();
+	}
+
+	/**
+	 * @return the image to launch application instances from, or null if they have to be provisioned from the base
+	 * image
+	 */
+	public static MachineImage getLaunchImage() {
+		ImageProvisioner currentProvisioner = provisioner;
+		if (state != State.AVAILABLE || currentProvisioner == null || !currentProvisioner.isLaunchable()) {
+			return null;
+		}
+		return image;
+	}
+
+	public static ImageStatistics getStatistics() {
+		ImageStatistics statistics = new ImageStatistics();
+		ImageProvisioner currentProvisioner = provisioner;
+		MachineImage currentImage = image;
+		statistics.setProvisioner(currentProvisioner == null ? "none" : currentProvisioner.getName());
+		statistics.setState(state);
+		statistics.setLastError(lastError);
+		if (currentImage != null) {
+			statistics.setName(currentImage.getName());
+			statistics.setImageId(currentImage.getImageId());
+		}
+		statistics.setMeanTimeToReadyFromBaseImage(ApplicationProvisioner.getMeanTimeToReady(ApplicationProvisioner.Source.LAUNCH));
+		statistics.setMeanTimeToReadyFromImage(ApplicationProvisioner.getMeanTimeToReady(ApplicationProvisioner.Source.IMAGE));
+		return statistics;
+	}
+}
@@ -0,0 +1,42 @@
+package in4392.cloudcomputing.apporchestrator;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Builds and registers images with Java, ffmpeg and the component jars installed, so instances do not have to
+ * install them when they are launched.
+ */
+public interface ImageProvisioner {
+	/**
+	 * @return the name with which this provisioner can be selected
+	 */
+	String getName();
+
+	/**
+	 * @return true if EC2 instances can be launched from the images of this provisioner
+	 */
+	boolean isLaunchable();
+
+	/**
+	 * Find an image that was built before, and wait for it if it is still being registered.
+	 *
+	 * @param name is the name of the image
+	 * @return the image, or null if there is no usable image with this name
+	 * @throws IOException if the image is still not usable after waiting for it
+	 */
+	MachineImage find(String name) throws IOException, InterruptedException;
+
+	/**
+	 * Build an image and register it under the provided name, which can take several minutes.
+	 *
+	 * @param name is the name of the image
+	 * @param installScript is the script that installs the dependencies of the components
+	 * @param componentJars are the jars of the components, which are stored in the home directory of the image
+	 * @return the image
+	 * @throws IOException if the image could not be built
+	 */
+	MachineImage build(String name, String installScript, List<File> componentJars) throws IOException, NoSuchAlgorithmException, InterruptedException;
+}
@@ -0,0 +1,66 @@
+package in4392.cloudcomputing.apporchestrator;
+
+/**
+ * Snapshot of the image that application instances are launched from.
+ */
+public class ImageStatistics {
+	private String provisioner;
+	private ImageBaker.State state;
+	private String name;
+	private String imageId;
+	private String lastError;
+	private long meanTimeToReadyFromBaseImage;
+	private long meanTimeToReadyFromImage;
+
+	public String getProvisioner() {
+		return provisioner;
+	}
+	public void setProvisioner(String provisioner) {
+		this.provisioner = provisioner;
+	}
+	public ImageBaker.State getState() {
+		return state;
+	}
+	public void setState(ImageBaker.State state) {
+		this.state = state;
+	}
+	public String getName() {
+		return name;
+	}
+	public void setName(String name) {
+		this.name = name;
+	}
+	public String getImageId() {
+		return imageId;
+	}
+	public void setImageId(String imageId) {
+		this.imageId = imageId;
+	}
+	/**
+	 * @return the reason that the latest build failed, or null if it did not fail
+	 */
+	public String getLastError() {
+		return lastError;
+	}
+	public void setLastError(String lastError) {
+		this.lastError = lastError;
+	}
+	/**
+	 * @return the mean time from launching an instance from the base image until it was ready, in milliseconds
+	 */
+	public long getMeanTimeToReadyFromBaseImage() {
+		return meanTimeToReadyFromBaseImage;
+	}
+	public void setMeanTimeToReadyFromBaseImage(long meanTimeToReadyFromBaseImage) {
+		this.meanTimeToReadyFromBaseImage = meanTimeToReadyFromBaseImage;
+	}
+	/**
+	 * @return the mean time from launching an instance from the built image until it was ready, in milliseconds
+	 */
+	public long getMeanTimeToReadyFromImage() {
+		return meanTimeToReadyFromImage;
+	}
+	public void setMeanTimeToReadyFromImage(long meanTimeToReadyFromImage) {
+		this.meanTimeToReadyFromImage = meanTimeToReadyFromImage;
+	}
+}
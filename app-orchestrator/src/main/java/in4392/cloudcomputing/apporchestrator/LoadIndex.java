@@ -0,0 +1,129 @@
+package in4392.cloudcomputing.apporchestrator;
+
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+
+/**
+ * Index of application instances by their amount of requests in progress, so the least loaded instance can be
+ * selected without looking at every instance.
+ *
+ * Instances with the same amount of requests share a bucket. Each bucket remembers the instance it selected last
+ * and continues after it, so instances with equal load take turns. Updating an instance is O(log n) and selecting
+ * one is O(log n) plus the amount of excluded instances that are skipped.
+ *
+ * The index is not locked, so request threads never wait for each other and the exclusion check may take its time.
+ * The changes for a single instance are applied one at a time, and only while the instance is in the index, so an
+ * update that races with the removal of the instance never adds it again. Empty buckets are kept, since an instance
+ * may be added to a bucket at the same time, but there are only as many buckets as distinct amounts of requests.
+ */
+public class LoadIndex {
+	private final ConcurrentSkipListMap<Integer, Bucket> instancesByLoad = new ConcurrentSkipListMap<>();
+	private final Map<String, Integer> loadByInstance = new ConcurrentHashMap<>();
+
+	/**
+	 * Add the instance to the index, or move it to the bucket for its current amount of requests if it is already in
+	 * the index.
+	 *
+	 * @param instanceId is the id of the instance
+	 * @param target is the instance, whose amount of requests is read while no other change for this instance is
+	 * applied, so the last change always reflects the latest amount
+	 */
+	public void add(String instanceId, Target target) {
+		loadByInstance.compute(instanceId, (key, previousLoad) -> move(instanceId, previousLoad, target.getCurrentAmountOfRequests()));
+	}
+
+	/**
+	 * Move the instance to the bucket for its current amount of requests, unless it is no longer in the index.
+	 *
+	 * @param instanceId is the id of the instance
+	 * @param target is the instance, whose amount of requests is read while no other change for this instance is
+	 * applied, so the last change always reflects the latest amount
+	 */
+	public void update(String instanceId, Target target) {
+		loadByInstance.computeIfPresent(instanceId, (key, previousLoad) -> move(instanceId, previousLoad, target.getCurrentAmountOfRequests()));
+	}
+
+	public void remove(String instanceId) {
+		loadByInstance.computeIfPresent(instanceId, (key, previousLoad) -> {
+			bucket(previousLoad).instances.remove(instanceId);
+			return null;
+		});
+	}
+
+	/**
+	 * Select the instance with the least amount of requests, taking turns among instances with the same amount.
+	 *
+	 * @param excluded determines which instances can not be selected
+	 * @return the id of the selected instance, or null if every instance is excluded
+	 */
+	public String selectLeastLoaded(Predicate<String> excluded) {
+		for (Bucket bucket : instancesByLoad.values()) {
+			String instanceId = bucket.selectNext(excluded);
+			if (instanceId != null) {
+				return instanceId;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the amount of instances in the index
+	 */
+	public int size() {
+		return loadByInstance.size();
+	}
+
+	private Integer move(String instanceId, Integer previousLoad, int load) {
+		if (previousLoad != null && previousLoad == load) {
+			return previousLoad;
+		}
+		// add before removing, so a concurrent selection never misses the instance
+		bucket(load).instances.add(instanceId);
+		if (previousLoad != null) {
+			bucket(previousLoad).instances.remove(instanceId);
+		}
+		return load;
+	}
+
+	private Bucket bucket(int load) {
+		return instancesByLoad.computeIfAbsent(load, (key) -> new Bucket());
+	}
+
+	/**
+	 * The instances with the same amount of requests, in order of their id.
+	 */
+	private static class Bucket {
+		private final ConcurrentSkipListSet<String> instances = new ConcurrentSkipListSet<>();
+		private final AtomicReference<String> lastSelected = new AtomicReference<>();
+
+		/**
+		 * @return the first instance after the one that was selected last that is not excluded, wrapping around to the
+		 * start of the bucket, or null if every instance is excluded
+		 */
+		String selectNext(Predicate<String> excluded) {
+			String previous = lastSelected.get();
+			String selected = previous == null ? null : findFirst(instances.tailSet(previous, false), excluded);
+			if (selected == null) {
+				selected = findFirst(previous == null ? instances : instances.headSet(previous, true), excluded);
+			}
+			if (selected != null) {
+				lastSelected.set(selected);
+			}
+			return selected;
+		}
+
+		private static String findFirst(NavigableSet<String> candidates, Predicate<String> excluded) {
+			for (String instanceId : candidates) {
+				if (!excluded.test(instanceId)) {
+					return instanceId;
+				}
+			}
+			return null;
+		}
+	}
+}
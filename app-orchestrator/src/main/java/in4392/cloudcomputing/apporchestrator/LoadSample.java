@@ -0,0 +1,87 @@
+package in4392.cloudcomputing.apporchestrator;
+
+/**
+ * The load on the application instances between two runs of the scaling task, which the scaling policies
+ * base their decisions on.
+ *
+ * Samples are recorded by the {@link AppOrchestrator} and can be replayed offline with {@link LoadTraceReplay}.
+ */
+public class LoadSample {
+	private long timestamp;
+	private long interval;
+	private int instances;
+	private int requestsInProgress;
+	private long arrivals;
+	private long completions;
+
+	public LoadSample() {
+	}
+
+	/**
+	 * @param timestamp is the time at which the sample was taken, in milliseconds since the epoch
+	 * @param interval is the time since the previous sample, in milliseconds
+	 * @param instances is the amount of application instances that can receive requests
+	 * @param requestsInProgress is the amount of requests in progress on all application instances
+	 * @param arrivals is the amount of requests that were sent to the application instances during the interval
+	 * @param completions is the amount of requests that were completed during the interval
+	 */
+	public LoadSample(long timestamp, long interval, int instances, int requestsInProgress, long arrivals, long completions) {
+		this.timestamp = timestamp;
+		this.interval = interval;
+		this.instances = instances;
+		this.requestsInProgress = requestsInProgress;
+		this.arrivals = arrivals;
+		this.completions = completions;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+	public long getInterval() {
+		return interval;
+	}
+	public void setInterval(long interval) {
+		this.interval = interval;
+	}
+	public int getInstances() {
+		return instances;
+	}
+	public void setInstances(int instances) {
+		this.instances = instances;
+	}
+	public int getRequestsInProgress() {
+		return requestsInProgress;
+	}
+	public void setRequestsInProgress(int requestsInProgress) {
+		this.requestsInProgress = requestsInProgress;
+	}
+	public long getArrivals() {
+		return arrivals;
+	}
+	public void setArrivals(long arrivals) {
+		this.arrivals = arrivals;
+	}
+	public long getCompletions() {
+		return completions;
+	}
+	public void setCompletions(long completions) {
+		this.completions = completions;
+	}
+
+	/**
+	 * @return the amount of requests that arrived per second during the interval
+	 */
+	public double arrivalRate() {
+		return interval <= 0 ? 0 : arrivals * 1000.0 / interval;
+	}
+
+	/**
+	 * @return the amount of requests that were completed per second during the interval
+	 */
+	public double completionRate() {
+		return interval <= 0 ? 0 : completions * 1000.0 / interval;
+	}
+}
@@ -0,0 +1,168 @@
+package in4392.cloudcomputing.apporchestrator;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Evaluate a scaling policy offline, by replaying the arrivals of a recorded load trace against simulated
+ * application instances.
+ *
+ * Each simulated instance converts a fixed amount of requests at the same time, each taking a fixed amount of
+ * time, and queues the rest. Instances that the policy adds only receive requests after the launch time, while
+ * removed instances stop receiving requests immediately. The requests in progress and completions of the recorded
+ * trace are ignored, since they depend on the amount of instances that were deployed when it was recorded.
+ */
+public class LoadTraceReplay {
+	private final double requestDuration;
+	private final int concurrencyPerInstance;
+	private final long launchTime;
+
+	/**
+	 * @param requestDuration is the time it takes to convert a single request, in milliseconds
+	 * @param concurrencyPerInstance is the amount of requests that an instance converts at the same time
+	 * @param launchTime is the time it takes until an added instance can receive requests, in milliseconds
+	 */
+	public LoadTraceReplay(long requestDuration, int concurrencyPerInstance, long launchTime) {
+		if (requestDuration <= 0 || concurrencyPerInstance <= 0 || launchTime < 0) {
+			throw new IllegalArgumentException("The request duration and concurrency must be positive and the launch time can not be negative");
+		}
+		this.requestDuration = requestDuration;
+		this.concurrencyPerInstance = concurrencyPerInstance;
+		this.launchTime = launchTime;
+	}
+
+	/**
+	 * Replay the trace against the policy.
+	 *
+	 * @param policy is a new instance of the policy, which has not seen any samples yet
+	 * @param trace are the recorded samples, in order
+	 * @param initialInstances is the amount of instances at the start of the trace
+	 * @return the simulated amount of instances and requests after each sample
+	 */
+	public Result replay(ScalingPolicy policy, List<LoadSample> trace, int initialInstances) {
+		Result result = new Result(policy.getName());
+		Deque<Long> pendingLaunches = new ArrayDeque<>();
+		int instances = initialInstances;
+		double outstandingRequests = 0;
+		long previousTimestamp = trace.isEmpty() ? 0 : trace.get(0).getTimestamp() - trace.get(0).getInterval();
+		for (LoadSample recorded : trace) {
+			long interval = Math.max(0, recorded.getTimestamp() - previousTimestamp);
+			previousTimestamp = recorded.getTimestamp();
+			while (!pendingLaunches.isEmpty() && pendingLaunches.peekFirst() <= recorded.getTimestamp()) {
+				pendingLaunches.removeFirst();
+				instances++;
+			}
+			// requests that arrived during the interval are served by the instances that were available
+			outstandingRequests += recorded.getArrivals();
+			double capacity = instances * concurrencyPerInstance * (interval / requestDuration);
+			double completions = Math.min(outstandingRequests, capacity);
+			outstandingRequests -= completions;
+			int requestsInProgress = (int) Math.ceil(outstandingRequests);
+			LoadSample simulated = new LoadSample(recorded.getTimestamp(), interval, instances, requestsInProgress, recorded.getArrivals(), Math.round(completions));
+			int decision = policy.decide(simulated, pendingLaunches.size());
+			for (int i = 0; i < decision; i++) {
+				pendingLaunches.addLast(recorded.getTimestamp() + launchTime);
+			}
+			if (decision < 0) {
+				instances = Math.max(0, instances + decision);
+			}
+			// without instances, the queue is estimated as if it was drained by a single instance
+			double throughput = Math.max(1, instances) * concurrencyPerInstance * 1000.0 / requestDuration;
+			double queueWait = Math.max(0, outstandingRequests - instances * concurrencyPerInstance) / throughput;
+			result.add(new Step(recorded.getTimestamp(), instances, pendingLaunches.size(), requestsInProgress, decision, queueWait), interval);
+		}
+		return result;
+	}
+
+	/**
+	 * The outcome of replaying a trace.
+	 */
+	public static class Result {
+		private final String policy;
+		private final List<Step> steps = new ArrayList<>();
+		private double instanceSeconds;
+		private double maxQueueWait;
+		private double totalQueueWait;
+
+		private Result(String policy) {
+			this.policy = policy;
+		}
+
+		private void add(Step step, long interval) {
+			steps.add(step);
+			instanceSeconds += (step.getInstances() + step.getPendingInstances()) * interval / 1000.0;
+			maxQueueWait = Math.max(maxQueueWait, step.getQueueWait());
+			totalQueueWait += step.getQueueWait();
+		}
+
+		public String getPolicy() {
+			return policy;
+		}
+		public List<Step> getSteps() {
+			return steps;
+		}
+		/**
+		 * @return the cost of the replay, as the seconds that instances were running or being deployed
+		 */
+		public double getInstanceSeconds() {
+			return instanceSeconds;
+		}
+		/**
+		 * @return the longest estimated time that a request waited in a queue, in seconds
+		 */
+		public double getMaxQueueWait() {
+			return maxQueueWait;
+		}
+		/**
+		 * @return the mean estimated time that a request waited in a queue, in seconds
+		 */
+		public double getMeanQueueWait() {
+			return steps.isEmpty() ? 0 : totalQueueWait / steps.size();
+		}
+	}
+
+	/**
+	 * The simulated state after a single sample of the trace.
+	 */
+	public static class Step {
+		private final long timestamp;
+		private final int instances;
+		private final int pendingInstances;
+		private final int requestsInProgress;
+		private final int decision;
+		private final double queueWait;
+
+		private Step(long timestamp, int instances, int pendingInstances, int requestsInProgress, int decision, double queueWait) {
+			this.timestamp = timestamp;
+			this.instances = instances;
+			this.pendingInstances = pendingInstances;
+			this.requestsInProgress = requestsInProgress;
+			this.decision = decision;
+			this.queueWait = queueWait;
+		}
+
+		public long getTimestamp() {
+			return timestamp;
+		}
+		public int getInstances() {
+			return instances;
+		}
+		public int getPendingInstances() {
+			return pendingInstances;
+		}
+		public int getRequestsInProgress() {
+			return requestsInProgress;
+		}
+		public int getDecision() {
+			return decision;
+		}
+		/**
+		 * @return the estimated time that a new request waits in a queue, in seconds
+		 */
+		public double getQueueWait() {
+			return queueWait;
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package in4392.cloudcomputing.apporchestrator;
+
+/**
+ * An image with Java, ffmpeg and the component jars installed, from which instances start without provisioning.
+ */
+public class MachineImage {
+	private final String name;
+	private final String imageId;
+	private final long created;
+
+	/**
+	 * @param name is the name of the image, which identifies the component jars it contains
+	 * @param imageId identifies the image for the provisioner that built it, like the id of an AMI
+	 * @param created is the time at which the image was built, in milliseconds since the epoch
+	 */
+	public MachineImage(String name, String imageId, long created) {
+		this.name = name;
+		this.imageId = imageId;
+		this.created = created;
+	}
+
+	public String getName() {
+		return name;
+	}
+	public String getImageId() {
+		return imageId;
+	}
+	public long getCreated() {
+		return created;
+	}
+}
@@ -0,0 +1,72 @@
+package in4392.cloudcomputing.apporchestrator;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The changes to the restore state of the app orchestrator since the previous batch that was sent to the main instance.
+ *
+ * Each value replaces the previous value instead of changing it, so applying the same batch twice has the same effect
+ * as applying it once. Values that did not change are left out.
+ */
+public class ReplicationBatch {
+	private String source;
+	private long sequence;
+	private String loadBalancerId;
+	private List<String> applicationIds;
+	private Map<String, Integer> applicationCounters = new HashMap<>();
+
+	public ReplicationBatch() {
+	}
+
+	/**
+	 * @param source identifies the app orchestrator that sent the batch, the sequence numbers are counted per source
+	 * @param sequence is the sequence number of the batch, which is higher than that of every earlier batch of the source
+	 * @param loadBalancerId is the id of the load balancer, or null if it did not change
+	 * @param applicationIds are the ids of all application instances, or null if they did not change
+	 * @param applicationCounters is the latest amount of requests in progress of each application instance that changed
+	 */
+	public ReplicationBatch(String source, long sequence, String loadBalancerId, List<String> applicationIds, Map<String, Integer> applicationCounters) {
+		this.source = source;
+		this.sequence = sequence;
+		this.loadBalancerId = loadBalancerId;
+		this.applicationIds = applicationIds;
+		this.applicationCounters = applicationCounters;
+	}
+
+	public String getSource() {
+		return source;
+	}
+	public void setSource(String source) {
+		this.source = source;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+	public void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+
+	public String getLoadBalancerId() {
+		return loadBalancerId;
+	}
+	public void setLoadBalancerId(String loadBalancerId) {
+		this.loadBalancerId = loadBalancerId;
+	}
+
+	public List<String> getApplicationIds() {
+		return applicationIds;
+	}
+	public void setApplicationIds(List<String> applicationIds) {
+		this.applicationIds = applicationIds;
+	}
+
+	public Map<String, Integer> getApplicationCounters() {
+		return applicationCounters;
+	}
+	public void setApplicationCounters(Map<String, Integer> applicationCounters) {
+		this.applicationCounters = applicationCounters;
+	}
+}
@@ -0,0 +1,59 @@
+package in4392.cloudcomputing.apporchestrator;
+
+/**
+ * Turns the amount of application instances that a scaling policy wants into a scaling decision that stays within
+ * the configured limits.
+ *
+ * Instances are added as soon as they are needed, at most "scaling.maxStep" at a time (default 5). Instances are
+ * only removed one at a time, after "scaling.downscaleWaitIterations" consecutive iterations that had too many
+ * instances (default 5), so the load can stabilize after scaling. The amount of instances always stays between
+ * "scaling.minInstances" (default 2) and "scaling.maxInstances" (default 20).
+ */
+public class ScalingLimits {
+	private final int minInstances;
+	private final int maxInstances;
+	private final int maxStep;
+	private final int downscaleWaitIterations;
+	private int downscaleIterations;
+
+	public ScalingLimits() {
+		this(Integer.getInteger("scaling.minInstances", 2),
+				Integer.getInteger("scaling.maxInstances", 20),
+				Integer.getInteger("scaling.maxStep", 5),
+				Integer.getInteger("scaling.downscaleWaitIterations", 5));
+	}
+
+	public ScalingLimits(int minInstances, int maxInstances, int maxStep, int downscaleWaitIterations) {
+		this.minInstances = minInstances;
+		this.maxInstances = Math.max(minInstances, maxInstances);
+		this.maxStep = Math.max(1, maxStep);
+		this.downscaleWaitIterations = downscaleWaitIterations;
+	}
+
+	/**
+	 * @param currentInstances is the amount of application instances, including the ones being deployed
+	 * @param desiredInstances is the amount of application instances that the scaling policy wants
+	 * @return the amount of application instances to add, or the negated amount to remove
+	 */
+	public int decide(int currentInstances, int desiredInstances) {
+		int desired = Math.min(maxInstances, Math.max(minInstances, desiredInstances));
+		if (desired > currentInstances) {
+			downscaleIterations = 0;
+			return Math.min(maxStep, desired - currentInstances);
+		}
+		if (desired == currentInstances) {
+			downscaleIterations = 0;
+			return 0;
+		}
+		downscaleIterations++;
+		if (downscaleIterations <= downscaleWaitIterations) {
+			return 0;
+		}
+		downscaleIterations = 0;
+		return -1;
+	}
+
+	public int getMinInstances() {
+		return minInstances;
+	}
+}
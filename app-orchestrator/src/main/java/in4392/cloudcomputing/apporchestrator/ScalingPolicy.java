@@ -0,0 +1,26 @@
+package in4392.cloudcomputing.apporchestrator;
+
+/**
+ * Decides how many application instances should be added or removed.
+ *
+ * A policy only looks at the load samples it is given, so it can be evaluated offline against a recorded load
+ * trace with {@link LoadTraceReplay}. Policies can keep state between samples, so each policy instance should
+ * only be given the samples of a single deployment, in order.
+ */
+public interface ScalingPolicy {
+	/**
+	 * @return the name with which this policy can be selected
+	 */
+	String getName();
+
+	/**
+	 * Decide how to scale, based on the load during the latest iteration.
+	 *
+	 * @param sample is the load during the latest iteration
+	 * @param pendingInstances is the amount of application instances that are being deployed, which are not
+	 * counted in the sample yet
+	 * @return the amount of application instances to add, or the negated amount of application instances to
+	 * remove
+	 */
+	int decide(LoadSample sample, int pendingInstances);
+}
@@ -0,0 +1,210 @@
+package in4392.cloudcomputing.apporchestrator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriBuilder;
+
+/**
+ * Replicate the restore state of the app orchestrator to the main instance in batches, so the request threads never
+ * wait for a backup.
+ *
+ * Changes to the request counters and the instance ids are coalesced in memory, so only the latest value of each is
+ * sent. A batch is sent every "replication.interval" milliseconds (default 500), or as soon as
+ * "replication.batchSize" changes (default 100) were recorded since the previous batch. Each batch has a sequence
+ * number, so the main instance can ignore batches that it already applied or that are older than the latest batch it
+ * applied. The changes of a batch that could not be sent are sent again with the next batch, unless they changed again
+ * in the meantime.
+ */
+public class StateReplicator {
+	private static final long REPLICATION_INTERVAL = Long.getLong("replication.interval", 500);
+	private static final int BATCH_SIZE = Integer.getInteger("replication.batchSize", 100);
+	// sequence numbers start over when the app orchestrator restarts, so every run is a separate source
+	private static final String SOURCE = UUID.randomUUID().toString();
+	private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+		Thread thread = new Thread(runnable, "state-replicator");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final AtomicLong sequence = new AtomicLong();
+	private static final AtomicBoolean flushRequested = new AtomicBoolean();
+	private static final Object pendingLock = new Object();
+	private static Map<String, Integer> pendingCounters = new HashMap<>();
+	private static String pendingLoadBalancerId;
+	private static List<String> pendingApplicationIds;
+	private static int pendingChanges;
+	private static volatile Supplier<String> mainInstanceHostname;
+	private static boolean started;
+	private static final MetricsRegistry.Counter recordedChanges = MetricsRegistry.counter("replication_changes_total",
+			"Amount of changes to the restore state that were recorded for replication.");
+	private static final MetricsRegistry.Counter sentBatches = MetricsRegistry.counter("replication_batches_total",
+			"Amount of batches that were sent to the main instance.");
+	private static final MetricsRegistry.Counter failedBatches = MetricsRegistry.counter("replication_batch_failures_total",
+			"Amount of batches that could not be sent to the main instance and are sent again with the next batch.");
+	private static final MetricsRegistry.Histogram sendDuration = MetricsRegistry.histogram("replication_batch_duration_seconds",
+			"Time it took to send a batch to the main instance, in seconds.", MetricsRegistry.LATENCY_BUCKETS);
+
+	/**
+	 * Sends a batch to the main instance.
+	 */
+	@FunctionalInterface
+	interface BatchSender {
+		/**
+		 * @throws RuntimeException if the main instance did not apply the batch
+		 */
+		void send(String hostname, ReplicationBatch batch);
+	}
+
+	static {
+		MetricsRegistry.gauge("replication_pending_changes", "Amount of changes that were recorded but not sent yet.", () -> {
+			synchronized (pendingLock) {
+				return pendingChanges;
+			}
+		});
+	}
+
+	/**
+	 * Start sending batches periodically.
+	 *
+	 * @param mainInstanceHostname provides the host name of the main instance, or null if it is not known yet. Changes
+	 * are kept until it is known.
+	 */
+	public static synchronized void start(Supplier<String> mainInstanceHostname) {
+		if (started) {
+			return;
+		}
+		started = true;
+		StateReplicator.mainInstanceHostname = mainInstanceHostname;
+		scheduler.scheduleWithFixedDelay(StateReplicator::flushSafely, REPLICATION_INTERVAL, REPLICATION_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	public static void recordApplicationCounter(String applicationId, int counter) {
+		int changes;
+		synchronized (pendingLock) {
+			pendingCounters.put(applicationId, counter);
+			changes = ++pendingChanges;
+		}
+		changed(changes);
+	}
+
+	public static void recordLoadBalancer(String loadBalancerId) {
+		int changes;
+		synchronized (pendingLock) {
+			pendingLoadBalancerId = loadBalancerId;
+			changes = ++pendingChanges;
+		}
+		changed(changes);
+	}
+
+	public static void recordApplicationIds(Collection<String> applicationIds) {
+		int changes;
+		synchronized (pendingLock) {
+			pendingApplicationIds = new ArrayList<>(applicationIds);
+			changes = ++pendingChanges;
+		}
+		changed(changes);
+	}
+
+	private static void changed(int changes) {
+		recordedChanges.increment();
+		if (changes >= BATCH_SIZE && started && flushRequested.compareAndSet(false, true)) {
+			scheduler.execute(StateReplicator::flushSafely);
+		}
+	}
+
+	private static void flushSafely() {
+		flushRequested.set(false);
+		try {
+			flush(mainInstanceHostname.get(), StateReplicator::send);
+		} catch (RuntimeException e) {
+			System.out.println("Could not replicate the restore state to the main instance: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Send the pending changes as a single batch, and keep them pending if the batch could not be sent.
+	 *
+	 * @param hostname is the host name of the main instance, or null if it is not known yet
+	 * @param sender sends the batch to the main instance
+	 */
+	static void flush(String hostname, BatchSender sender) {
+		if (hostname == null || hostname.isEmpty()) {
+			return;
+		}
+		ReplicationBatch batch;
+		synchronized (pendingLock) {
+			if (pendingChanges == 0) {
+				return;
+			}
+			batch = new ReplicationBatch(SOURCE, sequence.incrementAndGet(), pendingLoadBalancerId, pendingApplicationIds, pendingCounters);
+			pendingCounters = new HashMap<>();
+			pendingLoadBalancerId = null;
+			pendingApplicationIds = null;
+			pendingChanges = 0;
+		}
+		long sendStart = System.nanoTime();
+		try {
+			sender.send(hostname, batch);
+			sendDuration.observeSince(sendStart);
+			sentBatches.increment();
+		} catch (RuntimeException e) {
+			failedBatches.increment();
+			requeue(batch);
+			throw e;
+		}
+	}
+
+	private static void send(String hostname, ReplicationBatch batch) {
+		Response response = HttpClients.getClient()
+				.target(UriBuilder.fromPath("")
+						.scheme("http")
+						.host(hostname)
+						.port(8080)
+						.path("main")
+						.path("backup")
+						.path("batch")
+						.build())
+				.request()
+				.post(Entity.entity(batch, MediaType.APPLICATION_JSON));
+		int httpStatus = response.getStatus();
+		response.close();
+		if (httpStatus >= 300) {
+			throw new IllegalStateException("Main instance responded with HTTP status " + httpStatus);
+		}
+	}
+
+	/**
+	 * Add the changes of a batch that could not be sent to the pending changes, unless they changed again since.
+	 */
+	private static void requeue(ReplicationBatch batch) {
+		synchronized (pendingLock) {
+			if (pendingLoadBalancerId == null && batch.getLoadBalancerId() != null) {
+				pendingLoadBalancerId = batch.getLoadBalancerId();
+				pendingChanges++;
+			}
+			if (pendingApplicationIds == null && batch.getApplicationIds() != null) {
+				pendingApplicationIds = batch.getApplicationIds();
+				pendingChanges++;
+			}
+			for (Entry<String, Integer> counter : batch.getApplicationCounters().entrySet()) {
+				if (pendingCounters.putIfAbsent(counter.getKey(), counter.getValue()) == null) {
+					pendingChanges++;
+				}
+			}
+		}
+	}
+}
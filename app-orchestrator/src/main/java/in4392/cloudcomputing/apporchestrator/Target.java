@@ -1,10 +1,17 @@
 package in4392.cloudcomputing.apporchestrator;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import com.amazonaws.services.ec2.model.Instance;
 
+/**
+ * An application instance with the amount of requests it currently has in progress.
+ *
+ * The counter is updated by request threads while the control loop reads it, so it is kept in an atomic counter.
+ */
 public class Target {
-	private Instance targetInstance;
-	private int currentAmountOfRequests;
+	private volatile Instance targetInstance;
+	private final AtomicInteger currentAmountOfRequests = new AtomicInteger();
 
 	public Target(Instance targetInstance, int currentAmountOfRequests) {
 		super();
@@ -18,15 +25,23 @@ public class Target {
 		this.targetInstance = targetInstance;
 	}
 	public int getCurrentAmountOfRequests() {
-		return currentAmountOfRequests;
+		return currentAmountOfRequests.get();
 	}
 	public void setCurrentAmountOfRequests(int currentAmountOfRequests) {
-		this.currentAmountOfRequests = currentAmountOfRequests;
+		this.currentAmountOfRequests.set(currentAmountOfRequests);
+	}
+	public int incrementCurrentAmountOfRequests() {
+		return this.currentAmountOfRequests.incrementAndGet();
 	}
-	public void incrementCurrentAmountOfRequests() {
-		this.currentAmountOfRequests++;
+	public int decrementCurrentAmountofRequests() {
+		return this.currentAmountOfRequests.decrementAndGet();
 	}
-	public void decrementCurrentAmountofRequests() {
-		this.currentAmountOfRequests--;
+	/**
+	 * Set the amount of requests to the provided value, unless it was changed since it was read.
+	 *
+	 * @return true if the amount of requests was updated
+	 */
+	public boolean compareAndSetCurrentAmountOfRequests(int expectedAmountOfRequests, int currentAmountOfRequests) {
+		return this.currentAmountOfRequests.compareAndSet(expectedAmountOfRequests, currentAmountOfRequests);
 	}
 }
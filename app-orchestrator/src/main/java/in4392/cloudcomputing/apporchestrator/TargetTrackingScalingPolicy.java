@@ -0,0 +1,46 @@
+package in4392.cloudcomputing.apporchestrator;
+
+/**
+ * Keep the time that requests wait in the queue of the application instances at "scaling.targetQueueWait"
+ * milliseconds (default 30 seconds).
+ *
+ * Each application instance converts "scaling.concurrencyPerInstance" requests at the same time (default 1) and
+ * queues the rest. The queue is drained at the observed completion rate per instance, so with n instances a
+ * request waits for (requests in progress - n * concurrency) / (n * completion rate per instance). The policy
+ * deploys the smallest amount of instances for which that stays below the target, in a single step.
+ */
+public class TargetTrackingScalingPolicy implements ScalingPolicy {
+	public static final String NAME = "target-tracking";
+	private static final long TARGET_QUEUE_WAIT = Long.getLong("scaling.targetQueueWait", 30 * 1000);
+	private static final int CONCURRENCY_PER_INSTANCE = Integer.getInteger("scaling.concurrencyPerInstance", 1);
+	private static final double SMOOTHING = 0.5;
+	private final ScalingLimits limits;
+	private double completionRatePerInstance;
+
+	public TargetTrackingScalingPolicy() {
+		this(new ScalingLimits());
+	}
+
+	public TargetTrackingScalingPolicy(ScalingLimits limits) {
+		this.limits = limits;
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public int decide(LoadSample sample, int pendingInstances) {
+		int instances = sample.getInstances() + pendingInstances;
+		// only busy intervals show how fast an instance drains its queue
+		if (sample.getInstances() > 0 && sample.getCompletions() > 0 && sample.getRequestsInProgress() >= sample.getInstances() * CONCURRENCY_PER_INSTANCE) {
+			double observed = sample.completionRate() / sample.getInstances();
+			completionRatePerInstance = completionRatePerInstance == 0 ? observed : SMOOTHING * observed + (1 - SMOOTHING) * completionRatePerInstance;
+		}
+		// a request is only queued once every instance is converting its maximum amount of requests
+		double requestsPerInstance = CONCURRENCY_PER_INSTANCE + completionRatePerInstance * TARGET_QUEUE_WAIT / 1000.0;
+		int desiredInstances = (int) Math.ceil(sample.getRequestsInProgress() / requestsPerInstance);
+		return limits.decide(instances, desiredInstances);
+	}
+}
@@ -0,0 +1,42 @@
+package in4392.cloudcomputing.apporchestrator;
+
+/**
+ * Add an application instance when the mean amount of requests in progress per instance exceeds
+ * "scaling.maxRequestsPerInstance" (default 5), and remove one when it drops below
+ * "scaling.minRequestsPerInstance" (default 3).
+ *
+ * This only reacts to the current load and adds a single instance per iteration.
+ */
+public class ThresholdScalingPolicy implements ScalingPolicy {
+	public static final String NAME = "threshold";
+	private static final double MAX_REQUESTS_PER_INSTANCE = Double.parseDouble(System.getProperty("scaling.maxRequestsPerInstance", "5"));
+	private static final double MIN_REQUESTS_PER_INSTANCE = Double.parseDouble(System.getProperty("scaling.minRequestsPerInstance", "3"));
+	private final ScalingLimits limits;
+
+	public ThresholdScalingPolicy() {
+		this(new ScalingLimits());
+	}
+
+	public ThresholdScalingPolicy(ScalingLimits limits) {
+		this.limits = limits;
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public int decide(LoadSample sample, int pendingInstances) {
+		int instances = sample.getInstances() + pendingInstances;
+		double meanRequests = sample.getInstances() == 0 ? 0 : sample.getRequestsInProgress() / (double) sample.getInstances();
+		int desiredInstances = instances;
+		if (meanRequests > MAX_REQUESTS_PER_INSTANCE && pendingInstances == 0) {
+			desiredInstances = instances + 1;
+		}
+		else if (meanRequests < MIN_REQUESTS_PER_INSTANCE) {
+			desiredInstances = instances - 1;
+		}
+		return limits.decide(instances, desiredInstances);
+	}
+}
@@ -0,0 +1,203 @@
+package in4392.cloudcomputing.apporchestrator;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import com.amazonaws.services.ec2.model.Instance;
+
+/**
+ * Stopped application instances that already have Java, ffmpeg and the application, so a scale-out can start one
+ * of them instead of provisioning a new instance from scratch.
+ *
+ * The pool is refilled in the background every "warmpool.refillInterval" milliseconds (default 1 minute) up to
+ * "warmpool.size" instances (default 2, 0 disables the pool). Instances that are downscaled are stopped and
+ * returned to the pool if it is not full, instead of being terminated.
+ *
+ * Pooled instances carry their own usage tag, so the pool survives a failover of the AppOrchestrator. Before its
+ * first refill, the pool adopts the stopped instances with this tag. Instances with this tag that are still
+ * running were being provisioned by a previous AppOrchestrator and can not be finished, so they are terminated.
+ */
+public class WarmPool {
+	private static final int SIZE = Integer.getInteger("warmpool.size", 2);
+	private static final long REFILL_INTERVAL = Long.getLong("warmpool.refillInterval", 60 * 1000);
+	private static final String USAGE_TAG = "User Application (warm pool)";
+	private static final String APPLICATION_USAGE_TAG = "User Application";
+	private static final Map<String, State> pooledInstances = new ConcurrentHashMap<>();
+	private static final LongAdder hits = new LongAdder();
+	private static final LongAdder misses = new LongAdder();
+	private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+		Thread thread = new Thread(runnable, "warm-pool-refill");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static boolean started;
+	private static boolean rediscovered;
+
+	static {
+		MetricsRegistry.counter("apporchestrator_warm_pool_hits_total", "Amount of application instances that were started from the warm pool.", hits::sum);
+		MetricsRegistry.counter("apporchestrator_warm_pool_misses_total", "Amount of application instances that had to be launched because the warm pool was empty.", misses::sum);
+		MetricsRegistry.gauge("apporchestrator_warm_pool_instances", "Amount of stopped application instances in the warm pool.", () -> countInState(State.STOPPED));
+	}
+
+	private enum State {
+		STOPPING, STOPPED
+	}
+
+	/**
+	 * Start refilling the pool periodically.
+	 *
+	 * @param userData is the user data with which new instances install their dependencies
+	 * @param keyPairName is the name of the key pair with which the application is uploaded
+	 */
+	public static synchronized void start(String keyPairName, String userData) {
+		if (started || SIZE <= 0) {
+			return;
+		}
+		started = true;
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				refill(keyPairName, userData);
+			} catch (Exception e) {
+				System.out.println("Could not refill the warm pool: " + e.getMessage());
+			}
+		}, REFILL_INTERVAL, REFILL_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	private static void refill(String keyPairName, String userData) throws NoSuchAlgorithmException {
+		if (EC2.getCredentials() == null || !AppOrchestrator.isStarted()) {
+			return;
+		}
+		if (!rediscovered) {
+			rediscover();
+			rediscovered = true;
+		}
+		for (Entry<String, State> pooledInstance : pooledInstances.entrySet()) {
+			if (pooledInstance.getValue() == State.STOPPING && EC2.isStopped(pooledInstance.getKey())) {
+				pooledInstances.replace(pooledInstance.getKey(), State.STOPPING, State.STOPPED);
+			}
+		}
+		int missing = SIZE - pooledInstances.size() - ApplicationProvisioner.getWarmPoolInstances();
+		if (missing > 0) {
+			ApplicationProvisioner.provisionForWarmPool(missing, USAGE_TAG, keyPairName, userData, WarmPool::park);
+		}
+	}
+
+	/**
+	 * Adopt the pooled instances of a previous AppOrchestrator, and terminate the ones it did not finish.
+	 */
+	private static void rediscover() {
+		for (Instance instance : EC2.findInstancesWithUsage(USAGE_TAG)) {
+			String instanceId = instance.getInstanceId();
+			// instances that were taken from the pool may already be restored as targets, or be started by this pool
+			if (pooledInstances.containsKey(instanceId) || AppOrchestrator.getApplicationTargets().containsKey(instanceId)
+					|| ApplicationProvisioner.getProvisioningInstances().containsKey(instanceId)) {
+				continue;
+			}
+			switch (instance.getState().getCode()) {
+				case EC2.INSTANCE_STOPPED:
+					pooledInstances.put(instanceId, State.STOPPED);
+					System.out.println("Application instance " + instanceId + " is adopted in the warm pool");
+					break;
+				case EC2.INSTANCE_STOPPING:
+					pooledInstances.put(instanceId, State.STOPPING);
+					System.out.println("Application instance " + instanceId + " is adopted in the warm pool");
+					break;
+				default:
+					System.out.println("Terminating application instance " + instanceId + " that was not added to the warm pool");
+					EC2.terminateEC2(instanceId);
+			}
+		}
+	}
+
+	/**
+	 * Stop a provisioned instance and keep it in the pool.
+	 */
+	private static void park(Instance instance) {
+		EC2.stopEC2Instance(instance.getInstanceId());
+		pooledInstances.put(instance.getInstanceId(), State.STOPPING);
+		System.out.println("Application instance " + instance.getInstanceId() + " is stopped in the warm pool");
+	}
+
+	/**
+	 * Start stopped instances from the pool.
+	 *
+	 * @param amount is the amount of instances that are needed
+	 * @param onReady is called with each instance that is ready to receive requests
+	 * @return the amount of instances that were started, the rest has to be launched
+	 */
+	public static int take(int amount, Consumer<Instance> onReady) {
+		List<String> taken = new ArrayList<>();
+		for (Entry<String, State> pooledInstance : pooledInstances.entrySet()) {
+			if (taken.size() >= amount) {
+				break;
+			}
+			if (pooledInstance.getValue() == State.STOPPED && pooledInstances.remove(pooledInstance.getKey(), State.STOPPED)) {
+				taken.add(pooledInstance.getKey());
+			}
+		}
+		for (String instanceId : taken) {
+			System.out.println("Starting application instance " + instanceId + " from the warm pool");
+			try {
+				EC2.tagUsage(instanceId, APPLICATION_USAGE_TAG);
+			} catch (RuntimeException e) {
+				System.out.println("Could not tag application instance " + instanceId + " as taken from the warm pool: " + e.getMessage());
+			}
+			ApplicationProvisioner.resume(instanceId, onReady);
+		}
+		hits.add(taken.size());
+		misses.add(amount - taken.size());
+		return taken.size();
+	}
+
+	/**
+	 * Stop a downscaled instance and return it to the pool, if the pool is not full.
+	 *
+	 * @param instanceId is the id of the downscaled instance, which no longer receives requests
+	 * @return false if the pool is full, in which case the instance should be terminated
+	 */
+	public static boolean offer(String instanceId) {
+		if (!started || pooledInstances.size() + ApplicationProvisioner.getWarmPoolInstances() >= SIZE) {
+			return false;
+		}
+		EC2.tagUsage(instanceId, USAGE_TAG);
+		EC2.stopEC2Instance(instanceId);
+		pooledInstances.put(instanceId, State.STOPPING);
+		System.out.println("Application instance " + instanceId + " is returned to the warm pool");
+		return true;
+	}
+
+	private static int countInState(State state) {
+		int count = 0;
+		for (State pooledState : pooledInstances.values()) {
+			if (pooledState == state) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public static WarmPoolStatistics getStatistics() {
+		WarmPoolStatistics statistics = new WarmPoolStatistics();
+		long currentHits = hits.sum();
+		long currentMisses = misses.sum();
+		statistics.setSize(SIZE);
+		statistics.setStoppedInstances(countInState(State.STOPPED));
+		statistics.setStoppingInstances(countInState(State.STOPPING));
+		statistics.setProvisioningInstances(ApplicationProvisioner.getWarmPoolInstances());
+		statistics.setHits(currentHits);
+		statistics.setMisses(currentMisses);
+		statistics.setHitRate(currentHits + currentMisses == 0 ? 0 : currentHits / (double) (currentHits + currentMisses));
+		statistics.setMeanTimeToReadyFromPool(ApplicationProvisioner.getMeanTimeToReady(ApplicationProvisioner.Source.WARM_POOL));
+		statistics.setMeanTimeToReadyFromLaunch(ApplicationProvisioner.getMeanTimeToReady(ApplicationProvisioner.Source.LAUNCH));
+		return statistics;
+	}
+}
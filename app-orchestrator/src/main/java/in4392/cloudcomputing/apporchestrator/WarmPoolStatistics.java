@@ -0,0 +1,86 @@
+package in4392.cloudcomputing.apporchestrator;
+
+/**
+ * Snapshot of the pool of stopped application instances.
+ */
+public class WarmPoolStatistics {
+	private int size;
+	private int stoppedInstances;
+	private int stoppingInstances;
+	private int provisioningInstances;
+	private long hits;
+	private long misses;
+	private double hitRate;
+	private long meanTimeToReadyFromPool;
+	private long meanTimeToReadyFromLaunch;
+
+	/**
+	 * @return the amount of instances that the pool is refilled to
+	 */
+	public int getSize() {
+		return size;
+	}
+	public void setSize(int size) {
+		this.size = size;
+	}
+	public int getStoppedInstances() {
+		return stoppedInstances;
+	}
+	public void setStoppedInstances(int stoppedInstances) {
+		this.stoppedInstances = stoppedInstances;
+	}
+	public int getStoppingInstances() {
+		return stoppingInstances;
+	}
+	public void setStoppingInstances(int stoppingInstances) {
+		this.stoppingInstances = stoppingInstances;
+	}
+	public int getProvisioningInstances() {
+		return provisioningInstances;
+	}
+	public void setProvisioningInstances(int provisioningInstances) {
+		this.provisioningInstances = provisioningInstances;
+	}
+	/**
+	 * @return the amount of instances needed for a scale-out that were started from the pool
+	 */
+	public long getHits() {
+		return hits;
+	}
+	public void setHits(long hits) {
+		this.hits = hits;
+	}
+	/**
+	 * @return the amount of instances needed for a scale-out that had to be launched because the pool was empty
+	 */
+	public long getMisses() {
+		return misses;
+	}
+	public void setMisses(long misses) {
+		this.misses = misses;
+	}
+	public double getHitRate() {
+		return hitRate;
+	}
+	public void setHitRate(double hitRate) {
+		this.hitRate = hitRate;
+	}
+	/**
+	 * @return the mean time from starting an instance from the pool until it was ready, in milliseconds
+	 */
+	public long getMeanTimeToReadyFromPool() {
+		return meanTimeToReadyFromPool;
+	}
+	public void setMeanTimeToReadyFromPool(long meanTimeToReadyFromPool) {
+		this.meanTimeToReadyFromPool = meanTimeToReadyFromPool;
+	}
+	/**
+	 * @return the mean time from launching a new instance until it was ready, in milliseconds
+	 */
+	public long getMeanTimeToReadyFromLaunch() {
+		return meanTimeToReadyFromLaunch;
+	}
+	public void setMeanTimeToReadyFromLaunch(long meanTimeToReadyFromLaunch) {
+		this.meanTimeToReadyFromLaunch = meanTimeToReadyFromLaunch;
+	}
+}
@@ -3,7 +3,6 @@ package in4392.cloudcomputing.apporchestrator.api;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.security.NoSuchAlgorithmException;
@@ -15,13 +14,18 @@ import java.util.Optional;
 import java.util.stream.Collectors;
 
 import javax.inject.Named;
+import javax.ws.rs.BadRequestException;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.InternalServerErrorException;
+import javax.ws.rs.NotFoundException;
 import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.ServiceUnavailableException;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriBuilder;
@@ -30,14 +34,31 @@ import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.services.ec2.model.Instance;
 
 import in4392.cloudcomputing.apporchestrator.AppOrchestrator;
+import in4392.cloudcomputing.apporchestrator.ApplicationProvisioner;
+import in4392.cloudcomputing.apporchestrator.ConnectionPoolStatistics;
 import in4392.cloudcomputing.apporchestrator.EC2;
+import in4392.cloudcomputing.apporchestrator.ForecastScalingPolicy;
+import in4392.cloudcomputing.apporchestrator.HealthRegistry;
+import in4392.cloudcomputing.apporchestrator.HealthStatus;
+import in4392.cloudcomputing.apporchestrator.HttpClients;
+import in4392.cloudcomputing.apporchestrator.ImageBaker;
+import in4392.cloudcomputing.apporchestrator.ImageStatistics;
+import in4392.cloudcomputing.apporchestrator.InstanceCache;
+import in4392.cloudcomputing.apporchestrator.InstanceCacheStatistics;
+import in4392.cloudcomputing.apporchestrator.LoadSample;
+import in4392.cloudcomputing.apporchestrator.LoadTraceReplay;
+import in4392.cloudcomputing.apporchestrator.LogStreamer;
 import in4392.cloudcomputing.apporchestrator.Target;
+import in4392.cloudcomputing.apporchestrator.WarmPool;
+import in4392.cloudcomputing.apporchestrator.WarmPoolStatistics;
 
 @Named
 @Path("application-orchestrator")
 @Consumes(MediaType.APPLICATION_JSON)
 @Produces(MediaType.APPLICATION_JSON)
 public class AppOrchestratorEndpoint {
+	private static final String LOG_FILE = "/home/ubuntu/app-orchestrator.log";
+
 	/**
 	 * 
 	 * @return a 204 HTTP status with no content, if successful
@@ -96,11 +117,131 @@ public class AppOrchestratorEndpoint {
 		return Response.ok(new SimpleStatus("The Main instance was already killed")).build();
 	}
 
+	/**
+	 * Stream the log, or part of it, without reading it into memory.
+	 * 
+	 * @param offset is the position of the first byte to send, or the amount of bytes before the end of the log if
+	 * it is negative
+	 * @param length is the maximum amount of bytes to send
+	 * @param tail is the amount of lines at the end of the log to send, instead of starting at the offset
+	 * @param follow determines whether lines that are appended to the log are sent as they arrive
+	 * @return the (partial) log
+	 */
 	@Path("log")
 	@GET
 	@Produces(MediaType.TEXT_PLAIN)
-	public String showLog() throws IOException {
-		return new String(Files.readAllBytes(Paths.get("/home/ubuntu/app-orchestrator.log")), StandardCharsets.UTF_8);
+	public Response showLog(
+			@QueryParam("offset") Long offset,
+			@QueryParam("length") Long length,
+			@QueryParam("tail") Integer tail,
+			@DefaultValue("false")
+			@QueryParam("follow")
+			boolean follow) {
+		if (!Files.isReadable(Paths.get(LOG_FILE))) {
+			throw new NotFoundException("The log is not available");
+		}
+		try {
+			return Response.ok(LogStreamer.stream(Paths.get(LOG_FILE), offset, length, tail, follow)).build();
+		} catch (IllegalArgumentException e) {
+			throw new BadRequestException(e.getMessage());
+		}
+	}
+	
+	/**
+	 * 
+	 * @return the calls in progress, completed and failed for each host that the app orchestrator calls
+	 */
+	@Path("connection-pool")
+	@GET
+	public Map<String, ConnectionPoolStatistics> showConnectionPoolUtilization() {
+		return HttpClients.getPoolStatistics();
+	}
+
+	/**
+	 * 
+	 * @return the latest health of each instance that the app orchestrator probes, keyed by instance id
+	 */
+	@Path("health-checks")
+	@GET
+	public Map<String, HealthStatus> showHealthChecks() {
+		return HealthRegistry.getStatuses();
+	}
+
+	/**
+	 * 
+	 * @return the hits, misses and EC2 API calls of the cache of instance descriptions
+	 */
+	@Path("instance-cache")
+	@GET
+	public InstanceCacheStatistics showInstanceCacheStatistics() {
+		return InstanceCache.getStatistics();
+	}
+	
+	/**
+	 * 
+	 * @return the name of the policy that decides how many application instances are added or removed
+	 */
+	@Path("scaling-policy")
+	@GET
+	@Produces(MediaType.TEXT_PLAIN)
+	public String showScalingPolicy() {
+		return AppOrchestrator.getScalingPolicy().getName();
+	}
+	
+	/**
+	 * Change the policy that decides how many application instances are added or removed.
+	 * 
+	 * @param policy is either "threshold", "forecast" or "target-tracking"
+	 * @return a 204 HTTP status with no content, if successful
+	 */
+	@Path("scaling-policy")
+	@PUT
+	@Consumes(MediaType.TEXT_PLAIN)
+	public Response changeScalingPolicy(String policy) {
+		try {
+			AppOrchestrator.setScalingPolicy(policy);
+		} catch (IllegalArgumentException e) {
+			throw new BadRequestException(e.getMessage());
+		}
+		return Response.noContent().build();
+	}
+	
+	/**
+	 * 
+	 * @return the load between the latest runs of the scaling task, oldest first
+	 */
+	@Path("load-trace")
+	@GET
+	public List<LoadSample> showLoadTrace() {
+		return AppOrchestrator.getLoadTrace();
+	}
+	
+	/**
+	 * Replay a recorded load trace against simulated application instances, to evaluate a scaling policy offline.
+	 * 
+	 * @param policy is the name of the scaling policy
+	 * @param requestDuration is the time it takes to convert a single request, in milliseconds
+	 * @param concurrency is the amount of requests that an instance converts at the same time
+	 * @param launchTime is the time it takes until an added instance can receive requests, in milliseconds
+	 * @param initialInstances is the amount of instances at the start of the trace
+	 * @param trace is the load trace, as returned by load-trace
+	 * @return the simulated amount of instances and requests after each sample
+	 */
+	@Path("scaling-policy/replay")
+	@POST
+	public LoadTraceReplay.Result replayLoadTrace(
+			@QueryParam("policy") @DefaultValue(ForecastScalingPolicy.NAME) String policy,
+			@QueryParam("requestDuration") @DefaultValue("60000") long requestDuration,
+			@QueryParam("concurrency") @DefaultValue("1") int concurrency,
+			@QueryParam("launchTime") @DefaultValue("300000") long launchTime,
+			@QueryParam("initialInstances") @DefaultValue("2") int initialInstances,
+			List<LoadSample> trace) {
+		try {
+			return new LoadTraceReplay(requestDuration, concurrency, launchTime)
+					.replay(AppOrchestrator.createScalingPolicy(policy), trace, initialInstances);
+		} catch (IllegalArgumentException e) {
+			throw new BadRequestException(e.getMessage());
+		}
 	}
 	
 	@Path("instances/load-balancer")
@@ -118,6 +259,37 @@ public class AppOrchestratorEndpoint {
 				.collect(Collectors.toList());
 	}
 	
+	/**
+	 * 
+	 * @return the step of the provisioning that each application instance that is not ready yet is in, keyed by
+	 * instance id
+	 */
+	@Path("instances/provisioning")
+	@GET
+	public Map<String, ApplicationProvisioner.Phase> describeProvisioningApplications() {
+		return ApplicationProvisioner.getProvisioningInstances();
+	}
+	
+	/**
+	 * 
+	 * @return the size, hit rate and time to ready of the pool of stopped application instances
+	 */
+	@Path("warm-pool")
+	@GET
+	public WarmPoolStatistics showWarmPoolStatistics() {
+		return WarmPool.getStatistics();
+	}
+	
+	/**
+	 * 
+	 * @return the image that application instances are launched from and the time to ready with and without it
+	 */
+	@Path("image")
+	@GET
+	public ImageStatistics showImageStatistics() {
+		return ImageBaker.getStatistics();
+	}
+	
 	
 	/**
 	 * This is for sending the least loaded to the LoadBalancer
@@ -130,6 +302,9 @@ public class AppOrchestratorEndpoint {
 	@GET
 	public URI sendLeastLoaded(@QueryParam("failedApplications") List<String> failedApplicationHostnames) throws NoSuchAlgorithmException, IOException, URISyntaxException{
 		String minId = AppOrchestrator.findLeastLoadedAppInstance(failedApplicationHostnames);
+		if (minId == null) {
+			throw new ServiceUnavailableException("No application instance is available");
+		}
 		String applicationDnsName = AppOrchestrator.getApplicationTargets().get(minId).getTargetInstance().getPublicDnsName();
 		AppOrchestrator.incrementRequests(minId);
 		URI applicationURI = UriBuilder.fromPath("")
@@ -156,6 +331,36 @@ public class AppOrchestratorEndpoint {
 		return instanceUtilizations;
 	}
 	
+	/**
+	 * 
+	 * @return the URIs of the application instances that the load balancer can route requests to
+	 */
+	@Path("targets")
+	@GET
+	public List<URI> retrieveRoutableApplications() {
+		return AppOrchestrator.getRoutableApplicationURIs();
+	}
+	
+	/**
+	 * Receive the amount of requests that the load balancer currently has in progress for each application
+	 * instance, which is sent periodically in a single batch.
+	 * 
+	 * @param requestsPerApplicationHost is a map with the application host name as key and the amount of 
+	 * requests in progress as value
+	 * @param arrivals is the amount of requests that the load balancer sent to the application instances since
+	 * its previous report
+	 * @param completions is the amount of those requests that were completed since its previous report
+	 * @throws URISyntaxException 
+	 */
+	@Path("utilization")
+	@POST
+	public Response reconcileInstanceUtilizations(Map<String, Integer> requestsPerApplicationHost, 
+			@QueryParam("arrivals") @DefaultValue("0") long arrivals, 
+			@QueryParam("completions") @DefaultValue("0") long completions) throws URISyntaxException {
+		AppOrchestrator.updateRequests(requestsPerApplicationHost, arrivals, completions);
+		return Response.noContent().build();
+	}
+	
 	/**
 	 * method for receiving response from the LoadBalancer that the request has been 
 	 * transferred and completed so the currentRequests counter can be decremented
@@ -167,7 +372,21 @@ public class AppOrchestratorEndpoint {
 		AppOrchestrator.decrementRequests(applicationURI);
 		return Response.ok().build();
 	}
-	
+
+	/**
+	 * Receive a notification from the load balancer that a request failed on an application instance, so its
+	 * health is checked right away.
+	 *
+	 * @param hostname is the host name of the application instance that the request failed on
+	 * @return a 204 HTTP status with no content
+	 */
+	@Path("failed")
+	@GET
+	public Response notificationForFailedRequest(@QueryParam("applicationDnsName") String hostname) {
+		AppOrchestrator.reportFailedRequest(hostname);
+		return Response.noContent().build();
+	}
+
 	
 	/**
 	 * Set the credentials for the main instance. 
@@ -0,0 +1,56 @@
+package in4392.cloudcomputing.apporchestrator.api;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Named;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.PreMatching;
+import javax.ws.rs.ext.Provider;
+
+import in4392.cloudcomputing.apporchestrator.MetricsRegistry;
+import in4392.cloudcomputing.apporchestrator.MetricsRegistry.Counter;
+import in4392.cloudcomputing.apporchestrator.MetricsRegistry.Histogram;
+
+/**
+ * Count the HTTP requests to this component by status class, and measure how long it takes until their response
+ * is ready. Streamed response bodies are written after this, so their transfer time is not included.
+ */
+@Named
+@Provider
+@PreMatching
+public class RequestMetricsFilter implements ContainerRequestFilter, ContainerResponseFilter {
+	private static final Counter[] requestsByStatusClass = new Counter[6];
+	private static final AtomicInteger inFlight = new AtomicInteger();
+	private static final Histogram duration = MetricsRegistry.histogram("http_server_request_duration_seconds", 
+			"Time until the response to an HTTP request is ready, in seconds.", MetricsRegistry.LATENCY_BUCKETS);
+	// requests are filtered on the thread that handles them, so the start time is kept per thread instead of boxed per request
+	private static final ThreadLocal<long[]> requestStart = ThreadLocal.withInitial(() -> new long[1]);
+
+	static {
+		for (int statusClass = 1; statusClass < requestsByStatusClass.length; statusClass++) {
+			requestsByStatusClass[statusClass] = MetricsRegistry.counter("http_server_requests_total", 
+					"Amount of HTTP requests handled, by status class.", "status", statusClass + "xx");
+		}
+		MetricsRegistry.gauge("http_server_requests_in_flight", "Amount of HTTP requests currently being handled.", inFlight::get);
+	}
+
+	@Override
+	public void filter(ContainerRequestContext requestContext) throws IOException {
+		requestStart.get()[0] = System.nanoTime();
+		inFlight.incrementAndGet();
+	}
+
+	@Override
+	public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) throws IOException {
+		inFlight.decrementAndGet();
+		duration.observeSince(requestStart.get()[0]);
+		int statusClass = responseContext.getStatus() / 100;
+		if (statusClass > 0 && statusClass < requestsByStatusClass.length) {
+			requestsByStatusClass[statusClass].increment();
+		}
+	}
+}
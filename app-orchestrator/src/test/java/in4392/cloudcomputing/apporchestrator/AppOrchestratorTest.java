@@ -0,0 +1,162 @@
+package in4392.cloudcomputing.apporchestrator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.amazonaws.services.ec2.model.Instance;
+
+public class AppOrchestratorTest {
+	private static final int THREADS = 8;
+	private static final int REQUESTS_PER_THREAD = 2000;
+	private final List<String> addedInstanceIds = new ArrayList<>();
+
+	@AfterEach
+	public void removeTargets() {
+		for (String instanceId : addedInstanceIds) {
+			AppOrchestrator.removeTarget(instanceId);
+		}
+	}
+
+	@Test
+	public void concurrentRequestsKeepExactCounts() throws Exception {
+		for (int i = 0; i < 4; i++) {
+			addTarget("i-counted-" + i, 0);
+		}
+		Queue<Exception> errors = new ConcurrentLinkedQueue<>();
+		ExecutorService requestThreads = Executors.newFixedThreadPool(THREADS);
+		CountDownLatch start = new CountDownLatch(1);
+		for (int thread = 0; thread < THREADS; thread++) {
+			requestThreads.execute(() -> {
+				try {
+					start.await();
+					for (int request = 0; request < REQUESTS_PER_THREAD; request++) {
+						int instance = ThreadLocalRandom.current().nextInt(4);
+						AppOrchestrator.incrementRequests("i-counted-" + instance);
+						AppOrchestrator.decrementRequests(new URI("http://app-i-counted-" + instance + ":8080"));
+					}
+				} catch (Exception e) {
+					errors.add(e);
+				}
+			});
+		}
+		start.countDown();
+		requestThreads.shutdown();
+		assertTrue(requestThreads.awaitTermination(30, TimeUnit.SECONDS));
+
+		assertTrue(errors.isEmpty(), "Requests failed: " + errors);
+		for (int i = 0; i < 4; i++) {
+			assertEquals(0, AppOrchestrator.getApplicationTargets().get("i-counted-" + i).getCurrentAmountOfRequests());
+		}
+	}
+
+	@Test
+	public void targetsCanBeIteratedWhileTheyAreAddedAndRemoved() throws Exception {
+		addTarget("i-stable", 0);
+		Queue<Exception> errors = new ConcurrentLinkedQueue<>();
+		AtomicBoolean running = new AtomicBoolean(true);
+		Thread controlLoop = new Thread(() -> {
+			int generation = 0;
+			while (running.get()) {
+				String instanceId = "i-churn-" + (generation++ % 16);
+				AppOrchestrator.addTarget(instanceId, new Target(instance(instanceId), 0));
+				AppOrchestrator.removeTarget(instanceId);
+			}
+		});
+		controlLoop.start();
+		try {
+			for (int i = 0; i < 2000; i++) {
+				AppOrchestrator.getRoutableApplicationURIs();
+				AppOrchestrator.updateRequests(Collections.singletonMap("app-i-stable", i % 3), 0, 0);
+				AppOrchestrator.findLeastLoadedAppInstance(Collections.emptyList());
+			}
+		} catch (Exception e) {
+			errors.add(e);
+		} finally {
+			running.set(false);
+			controlLoop.join();
+		}
+
+		assertTrue(errors.isEmpty(), "Iterating the targets failed: " + errors);
+	}
+
+	@Test
+	public void reportedRequestsReplaceTheCounters() throws Exception {
+		addTarget("i-reported-0", 3);
+		addTarget("i-reported-1", 1);
+		Map<String, Integer> reported = new HashMap<>();
+		reported.put("app-i-reported-0", 0);
+		reported.put("app-i-reported-1", 2);
+
+		AppOrchestrator.updateRequests(reported, 0, 0);
+
+		assertEquals(0, AppOrchestrator.getApplicationTargets().get("i-reported-0").getCurrentAmountOfRequests());
+		assertEquals(2, AppOrchestrator.getApplicationTargets().get("i-reported-1").getCurrentAmountOfRequests());
+	}
+
+	@Test
+	public void reportedArrivalsAndCompletionsAreSampled() throws Exception {
+		addTarget("i-sampled", 0);
+		AppOrchestrator.takeLoadSample();
+
+		AppOrchestrator.updateRequests(Collections.singletonMap("app-i-sampled", 2), 5, 3);
+		AppOrchestrator.updateRequests(Collections.singletonMap("app-i-sampled", 1), 4, 5);
+		LoadSample sample = AppOrchestrator.takeLoadSample();
+
+		assertEquals(9, sample.getArrivals());
+		assertEquals(8, sample.getCompletions());
+		assertEquals(1, sample.getRequestsInProgress());
+	}
+
+	@Test
+	public void requestsForRemovedTargetsAreIgnored() throws Exception {
+		addTarget("i-removed", 0);
+		AppOrchestrator.removeTarget("i-removed");
+
+		assertEquals(0, AppOrchestrator.incrementRequests("i-removed"));
+		AppOrchestrator.decrementRequests(new URI("http://app-i-removed:8080"));
+		assertNull(AppOrchestrator.getApplicationTargets().get("i-removed"));
+	}
+
+	@Test
+	public void targetsWithoutInstanceAreSkipped() throws Exception {
+		addedInstanceIds.add("i-unknown");
+		AppOrchestrator.addTarget("i-unknown", new Target(null, 0));
+		addTarget("i-known", 0);
+
+		assertEquals("i-known", AppOrchestrator.findLeastLoadedAppInstance(Collections.singletonList("app-i-other")));
+		AppOrchestrator.decrementRequests(new URI("http://app-i-unknown:8080"));
+		AppOrchestrator.updateRequests(Collections.singletonMap("app-i-known", 1), 0, 0);
+		AppOrchestrator.reportFailedRequest("app-i-unknown");
+
+		assertEquals(1, AppOrchestrator.getApplicationTargets().get("i-known").getCurrentAmountOfRequests());
+		assertEquals(Collections.singletonList(new URI("http://app-i-known:8080")), AppOrchestrator.getRoutableApplicationURIs());
+	}
+
+	private void addTarget(String instanceId, int requests) {
+		addedInstanceIds.add(instanceId);
+		AppOrchestrator.addTarget(instanceId, new Target(instance(instanceId), requests));
+	}
+
+	static Instance instance(String instanceId) {
+		return new Instance().withInstanceId(instanceId).withPublicDnsName("app-" + instanceId);
+	}
+}
@@ -0,0 +1,101 @@
+package in4392.cloudcomputing.apporchestrator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The control loop is shared by all tests, so every test schedules its tasks under its own names, with intervals
+ * that are too long to run periodically during the test.
+ */
+public class ControlLoopTest {
+	private static final long NEVER = TimeUnit.HOURS.toMillis(1);
+
+	@Test
+	public void triggersWhileTheTaskIsWaitingAreCombined() throws Exception {
+		CountDownLatch blocking = new CountDownLatch(1);
+		CountDownLatch released = new CountDownLatch(1);
+		ControlLoop.schedule("combined-blocker", NEVER, () -> {
+			blocking.countDown();
+			released.await();
+		});
+		AtomicInteger runs = new AtomicInteger();
+		CountDownLatch ran = new CountDownLatch(1);
+		ControlLoop.schedule("combined", NEVER, () -> {
+			runs.incrementAndGet();
+			ran.countDown();
+		});
+
+		// keep the control loop busy, so the triggers arrive while the task is waiting to run
+		ControlLoop.trigger("combined-blocker");
+		assertTrue(blocking.await(10, TimeUnit.SECONDS));
+		for (int i = 0; i < 10; i++) {
+			ControlLoop.trigger("combined");
+		}
+		released.countDown();
+
+		assertTrue(ran.await(10, TimeUnit.SECONDS));
+		// triggers that were not combined would have queued their own runs before this task, so they ran by now
+		awaitIdleControlLoop();
+		assertEquals(1, runs.get());
+	}
+
+	@Test
+	public void triggersRightAfterARunWaitForTheMinimumInterval() throws Exception {
+		AtomicInteger runs = new AtomicInteger();
+		CountDownLatch ran = new CountDownLatch(1);
+		ControlLoop.schedule("rate-limited", NEVER, () -> {
+			runs.incrementAndGet();
+			ran.countDown();
+		});
+
+		ControlLoop.trigger("rate-limited");
+		assertTrue(ran.await(10, TimeUnit.SECONDS));
+		ControlLoop.trigger("rate-limited");
+		Thread.sleep(1000);
+
+		assertEquals(1, runs.get());
+	}
+
+	@Test
+	public void failingTasksKeepRunning() throws Exception {
+		CountDownLatch ran = new CountDownLatch(2);
+		ControlLoop.schedule("failing", 50, () -> {
+			ran.countDown();
+			if (ran.getCount() == 1) {
+				throw new IllegalStateException("Failed on purpose");
+			}
+		});
+
+		assertTrue(ran.await(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void tasksCanOnlyBeScheduledOnce() {
+		ControlLoop.schedule("duplicate", NEVER, () -> {});
+
+		assertThrows(IllegalStateException.class, () -> ControlLoop.schedule("duplicate", NEVER, () -> {}));
+	}
+
+	@Test
+	public void unknownTasksAreIgnored() {
+		ControlLoop.trigger("unknown");
+	}
+
+	/**
+	 * Wait until every task that was queued on the control loop before has run.
+	 */
+	private static void awaitIdleControlLoop() throws InterruptedException {
+		CountDownLatch idle = new CountDownLatch(1);
+		String name = "idle-" + System.nanoTime();
+		ControlLoop.schedule(name, NEVER, idle::countDown);
+		ControlLoop.trigger(name);
+		assertTrue(idle.await(10, TimeUnit.SECONDS));
+	}
+}
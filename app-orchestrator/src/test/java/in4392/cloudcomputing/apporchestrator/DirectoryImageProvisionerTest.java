@@ -0,0 +1,81 @@
+package in4392.cloudcomputing.apporchestrator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class DirectoryImageProvisionerTest {
+	private Path workDirectory;
+	private DirectoryImageProvisioner provisioner;
+
+	@BeforeEach
+	public void createDirectories() throws IOException {
+		workDirectory = Files.createTempDirectory("image-provisioner");
+		provisioner = new DirectoryImageProvisioner(workDirectory.resolve("images"));
+	}
+
+	@AfterEach
+	public void deleteDirectories() throws IOException {
+		try (Stream<Path> paths = Files.walk(workDirectory)) {
+			for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	@Test
+	public void imagesThatWereNotBuiltAreNotFound() throws IOException {
+		assertNull(provisioner.find("in4392-components-missing"));
+	}
+
+	@Test
+	public void builtImagesContainTheScriptAndJars() throws IOException {
+		File jar = writeFile("application.jar", "application");
+
+		MachineImage image = provisioner.build("in4392-components-test", "apt-get install ffmpeg", Collections.singletonList(jar));
+
+		Path imagePath = workDirectory.resolve("images").resolve("in4392-components-test");
+		assertEquals("in4392-components-test", image.getName());
+		assertEquals(imagePath.toAbsolutePath().toString(), image.getImageId());
+		assertEquals("apt-get install ffmpeg", new String(Files.readAllBytes(imagePath.resolve("install.sh")), StandardCharsets.UTF_8));
+		assertArrayEquals(Files.readAllBytes(jar.toPath()), Files.readAllBytes(imagePath.resolve("application.jar")));
+	}
+
+	@Test
+	public void builtImagesAreFoundAgain() throws IOException {
+		MachineImage built = provisioner.build("in4392-components-test", "", Collections.emptyList());
+
+		MachineImage found = new DirectoryImageProvisioner(workDirectory.resolve("images")).find("in4392-components-test");
+
+		assertEquals(built.getImageId(), found.getImageId());
+		assertEquals(built.getCreated(), found.getCreated());
+	}
+
+	@Test
+	public void onlyCompleteImagesAreLeftBehind() throws IOException {
+		provisioner.build("in4392-components-test", "", Collections.emptyList());
+
+		try (Stream<Path> images = Files.list(workDirectory.resolve("images"))) {
+			assertEquals(Arrays.asList("in4392-components-test"), images.map((path) -> path.getFileName().toString()).collect(Collectors.toList()));
+		}
+	}
+
+	private File writeFile(String name, String content) throws IOException {
+		return Files.write(workDirectory.resolve(name), content.getBytes(StandardCharsets.UTF_8)).toFile();
+	}
+}
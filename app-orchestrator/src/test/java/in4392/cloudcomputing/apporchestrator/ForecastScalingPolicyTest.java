@@ -0,0 +1,51 @@
+package in4392.cloudcomputing.apporchestrator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class ForecastScalingPolicyTest {
+	private static final long INTERVAL = 60 * 1000;
+
+	@Test
+	public void steadyLoadKeepsTheInstances() {
+		ForecastScalingPolicy policy = new ForecastScalingPolicy(new ScalingLimits(1, 20, 5, 0));
+
+		// 1 request per second that takes 8 seconds keeps 8 requests in progress, which 2 instances can take
+		for (int i = 0; i < 10; i++) {
+			assertEquals(0, policy.decide(sample(i, 2, 8, 60, 60), 0));
+		}
+	}
+
+	@Test
+	public void growingArrivalsAreForecastAhead() {
+		ForecastScalingPolicy policy = new ForecastScalingPolicy(new ScalingLimits(1, 100, 100, 100));
+		int decision = 0;
+		for (int i = 1; i <= 4; i++) {
+			// requests take 4 seconds, so 4 instances are enough for the latest arrival rate
+			decision = policy.decide(sample(i, 4, 4 * i, 60 * i, 60 * i), 0);
+		}
+
+		assertTrue(decision > 0, "Expected instances to be added ahead of the growing load, but the decision was " + decision);
+		assertEquals(0, new ForecastScalingPolicy(new ScalingLimits(1, 100, 100, 100)).decide(sample(4, 4, 16, 240, 240), 0));
+	}
+
+	@Test
+	public void requestsInProgressAreServedWithoutArrivals() {
+		ForecastScalingPolicy policy = new ForecastScalingPolicy(new ScalingLimits(1, 100, 100, 0));
+
+		assertEquals(3, policy.decide(sample(0, 2, 20, 0, 0), 0));
+	}
+
+	@Test
+	public void pendingInstancesAreCounted() {
+		ForecastScalingPolicy policy = new ForecastScalingPolicy(new ScalingLimits(1, 100, 100, 0));
+
+		assertEquals(0, policy.decide(sample(0, 2, 20, 0, 0), 3));
+	}
+
+	private static LoadSample sample(int iteration, int instances, int requestsInProgress, long arrivals, long completions) {
+		return new LoadSample(iteration * INTERVAL, INTERVAL, instances, requestsInProgress, arrivals, completions);
+	}
+}
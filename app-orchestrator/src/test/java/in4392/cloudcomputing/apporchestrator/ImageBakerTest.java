@@ -0,0 +1,65 @@
+package in4392.cloudcomputing.apporchestrator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ImageBakerTest {
+	private File applicationJar;
+	private File loadBalancerJar;
+
+	@BeforeEach
+	public void createJars() throws IOException {
+		applicationJar = File.createTempFile("application", ".jar");
+		loadBalancerJar = File.createTempFile("load-balancer", ".jar");
+		write(applicationJar, "application");
+		write(loadBalancerJar, "load balancer");
+	}
+
+	@AfterEach
+	public void deleteJars() throws IOException {
+		Files.delete(applicationJar.toPath());
+		Files.delete(loadBalancerJar.toPath());
+	}
+
+	@Test
+	public void namesAreDerivedFromTheContents() throws Exception {
+		String name = ImageBaker.getImageName("install", jars());
+
+		assertTrue(name.matches("in4392-components-[0-9a-f]{16}"), "Unexpected image name " + name);
+		assertEquals(name, ImageBaker.getImageName("install", jars()));
+	}
+
+	@Test
+	public void changedJarsResultInANewName() throws Exception {
+		String name = ImageBaker.getImageName("install", jars());
+
+		write(applicationJar, "new application");
+
+		assertNotEquals(name, ImageBaker.getImageName("install", jars()));
+	}
+
+	@Test
+	public void changedInstallScriptsResultInANewName() throws Exception {
+		assertNotEquals(ImageBaker.getImageName("install", jars()), ImageBaker.getImageName("install ffmpeg", jars()));
+	}
+
+	private List<File> jars() {
+		return Arrays.asList(applicationJar, loadBalancerJar);
+	}
+
+	private static void write(File file, String content) throws IOException {
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,136 @@
+package in4392.cloudcomputing.apporchestrator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class LoadIndexTest {
+	private final LoadIndex loadIndex = new LoadIndex();
+
+	@Test
+	public void selectsTheLeastLoadedInstance() {
+		add("i-a", 3);
+		add("i-b", 1);
+		add("i-c", 2);
+
+		assertEquals("i-b", loadIndex.selectLeastLoaded((instanceId) -> false));
+	}
+
+	@Test
+	public void instancesWithEqualLoadTakeTurns() {
+		add("i-a", 0);
+		add("i-b", 0);
+		add("i-c", 0);
+		add("i-d", 1);
+
+		Set<String> selected = new HashSet<>();
+		for (int i = 0; i < 3; i++) {
+			selected.add(loadIndex.selectLeastLoaded((instanceId) -> false));
+		}
+
+		assertEquals(new HashSet<>(Arrays.asList("i-a", "i-b", "i-c")), selected);
+		assertEquals("i-a", loadIndex.selectLeastLoaded((instanceId) -> false));
+	}
+
+	@Test
+	public void excludedInstancesAreSkipped() {
+		add("i-a", 0);
+		add("i-b", 0);
+		add("i-c", 5);
+
+		assertEquals("i-c", loadIndex.selectLeastLoaded((instanceId) -> !instanceId.equals("i-c")));
+		assertNull(loadIndex.selectLeastLoaded((instanceId) -> true));
+	}
+
+	@Test
+	public void updatesMoveTheInstanceToItsNewLoad() {
+		Target a = add("i-a", 0);
+		add("i-b", 1);
+
+		a.setCurrentAmountOfRequests(2);
+		loadIndex.update("i-a", a);
+
+		assertEquals("i-b", loadIndex.selectLeastLoaded((instanceId) -> false));
+	}
+
+	@Test
+	public void removedInstancesAreNotSelected() {
+		add("i-a", 0);
+		add("i-b", 1);
+
+		loadIndex.remove("i-a");
+
+		assertEquals("i-b", loadIndex.selectLeastLoaded((instanceId) -> false));
+		assertEquals(1, loadIndex.size());
+	}
+
+	@Test
+	public void updatesAfterRemovalDoNotAddTheInstanceAgain() {
+		Target a = add("i-a", 0);
+
+		loadIndex.remove("i-a");
+		a.incrementCurrentAmountOfRequests();
+		loadIndex.update("i-a", a);
+
+		assertNull(loadIndex.selectLeastLoaded((instanceId) -> false));
+		assertEquals(0, loadIndex.size());
+	}
+
+	@Test
+	public void concurrentUpdatesAndRemovalsLeaveNoStaleInstances() throws Exception {
+		int instances = 64;
+		Target[] targets = new Target[instances];
+		for (int i = 0; i < instances; i++) {
+			targets[i] = add("i-" + i, 0);
+		}
+		ExecutorService requestThreads = Executors.newFixedThreadPool(8);
+		CountDownLatch start = new CountDownLatch(1);
+		for (int thread = 0; thread < 8; thread++) {
+			requestThreads.execute(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int update = 0; update < 5000; update++) {
+					int i = update % instances;
+					targets[i].incrementCurrentAmountOfRequests();
+					loadIndex.update("i-" + i, targets[i]);
+					targets[i].decrementCurrentAmountofRequests();
+					loadIndex.update("i-" + i, targets[i]);
+				}
+			});
+		}
+		start.countDown();
+		for (int i = 0; i < instances; i += 2) {
+			loadIndex.remove("i-" + i);
+		}
+		requestThreads.shutdown();
+		assertTrue(requestThreads.awaitTermination(30, TimeUnit.SECONDS));
+
+		assertEquals(instances / 2, loadIndex.size());
+		Set<String> selected = new HashSet<>();
+		for (int i = 0; i < instances; i++) {
+			String instanceId = loadIndex.selectLeastLoaded((candidate) -> false);
+			assertTrue(Integer.parseInt(instanceId.substring(2)) % 2 == 1, "Removed instance " + instanceId + " was selected");
+			selected.add(instanceId);
+		}
+		assertEquals(instances / 2, selected.size());
+	}
+
+	private Target add(String instanceId, int requests) {
+		Target target = new Target(AppOrchestratorTest.instance(instanceId), requests);
+		loadIndex.add(instanceId, target);
+		return target;
+	}
+}
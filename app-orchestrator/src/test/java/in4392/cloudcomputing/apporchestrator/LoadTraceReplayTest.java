@@ -0,0 +1,90 @@
+package in4392.cloudcomputing.apporchestrator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class LoadTraceReplayTest {
+	private static final long INTERVAL = 1000;
+
+	@Test
+	public void invalidSimulationsAreRejected() {
+		assertThrows(IllegalArgumentException.class, () -> new LoadTraceReplay(0, 1, 0));
+		assertThrows(IllegalArgumentException.class, () -> new LoadTraceReplay(1000, 0, 0));
+		assertThrows(IllegalArgumentException.class, () -> new LoadTraceReplay(1000, 1, -1));
+	}
+
+	@Test
+	public void requestsBeyondTheCapacityAreQueued() {
+		LoadTraceReplay.Result result = new LoadTraceReplay(1000, 1, 0).replay(new FixedDecisions(), trace(3, 10), 2);
+
+		// 2 instances complete 2 of the 10 requests that arrive every second
+		assertEquals(8, result.getSteps().get(0).getRequestsInProgress());
+		assertEquals(16, result.getSteps().get(1).getRequestsInProgress());
+		assertEquals(24, result.getSteps().get(2).getRequestsInProgress());
+		assertEquals(11.0, result.getMaxQueueWait(), 0.001);
+		assertEquals(6.0, result.getInstanceSeconds(), 0.001);
+	}
+
+	@Test
+	public void addedInstancesOnlyServeRequestsAfterTheLaunchTime() {
+		LoadTraceReplay.Result result = new LoadTraceReplay(1000, 1, 2000).replay(new FixedDecisions(1), trace(4, 0), 1);
+
+		int[] instances = new int[4];
+		int[] pendingInstances = new int[4];
+		for (int i = 0; i < 4; i++) {
+			instances[i] = result.getSteps().get(i).getInstances();
+			pendingInstances[i] = result.getSteps().get(i).getPendingInstances();
+		}
+		assertEquals("[1, 1, 2, 2]", Arrays.toString(instances));
+		assertEquals("[1, 1, 0, 0]", Arrays.toString(pendingInstances));
+		// pending instances cost as much as running instances
+		assertEquals(8.0, result.getInstanceSeconds(), 0.001);
+	}
+
+	@Test
+	public void removedInstancesStopRightAway() {
+		LoadTraceReplay.Result result = new LoadTraceReplay(1000, 1, 0).replay(new FixedDecisions(-1), trace(2, 2), 2);
+
+		assertEquals(1, result.getSteps().get(0).getInstances());
+		assertEquals(-1, result.getSteps().get(0).getDecision());
+		// the remaining instance completed 1 of the 2 requests during the second interval
+		assertEquals(1, result.getSteps().get(1).getRequestsInProgress());
+	}
+
+	private static List<LoadSample> trace(int samples, long arrivalsPerSample) {
+		List<LoadSample> trace = new ArrayList<>();
+		for (int i = 1; i <= samples; i++) {
+			// the recorded requests in progress and completions are ignored by the replay
+			trace.add(new LoadSample(i * INTERVAL, INTERVAL, 5, 100, arrivalsPerSample, 100));
+		}
+		return trace;
+	}
+
+	/**
+	 * Makes the provided decisions in order, and keeps the instances after that.
+	 */
+	private static class FixedDecisions implements ScalingPolicy {
+		private final int[] decisions;
+		private int samples;
+
+		FixedDecisions(int... decisions) {
+			this.decisions = decisions;
+		}
+
+		@Override
+		public String getName() {
+			return "fixed";
+		}
+
+		@Override
+		public int decide(LoadSample sample, int pendingInstances) {
+			return samples < decisions.length ? decisions[samples++] : 0;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package in4392.cloudcomputing.apporchestrator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class StateReplicatorTest {
+	private static final String MAIN_INSTANCE = "main-instance";
+	private final List<ReplicationBatch> sentBatches = new ArrayList<>();
+
+	@BeforeEach
+	public void sendPendingChanges() {
+		StateReplicator.flush(MAIN_INSTANCE, (hostname, batch) -> {});
+	}
+
+	@Test
+	public void changesAreCoalescedIntoOneBatch() {
+		StateReplicator.recordApplicationCounter("i-a", 1);
+		StateReplicator.recordApplicationCounter("i-a", 2);
+		StateReplicator.recordApplicationCounter("i-b", 1);
+
+		StateReplicator.flush(MAIN_INSTANCE, this::send);
+
+		assertEquals(1, sentBatches.size());
+		assertEquals(Integer.valueOf(2), sentBatches.get(0).getApplicationCounters().get("i-a"));
+		assertEquals(Integer.valueOf(1), sentBatches.get(0).getApplicationCounters().get("i-b"));
+		assertNull(sentBatches.get(0).getLoadBalancerId());
+		assertNull(sentBatches.get(0).getApplicationIds());
+	}
+
+	@Test
+	public void nothingIsSentWithoutChangesOrMainInstance() {
+		StateReplicator.flush(MAIN_INSTANCE, this::send);
+		StateReplicator.recordApplicationCounter("i-a", 1);
+		StateReplicator.flush(null, this::send);
+
+		assertTrue(sentBatches.isEmpty());
+		// the changes are kept until the main instance is known
+		StateReplicator.flush(MAIN_INSTANCE, this::send);
+		assertEquals(Collections.singletonMap("i-a", 1), sentBatches.get(0).getApplicationCounters());
+	}
+
+	@Test
+	public void failedBatchesAreSentAgainWithTheNextBatch() {
+		StateReplicator.recordLoadBalancer("i-lb");
+		StateReplicator.recordApplicationIds(Arrays.asList("i-a", "i-b"));
+		StateReplicator.recordApplicationCounter("i-a", 1);
+
+		assertThrows(IllegalStateException.class, () -> StateReplicator.flush(MAIN_INSTANCE, StateReplicatorTest::fail));
+		StateReplicator.recordApplicationCounter("i-b", 3);
+		StateReplicator.flush(MAIN_INSTANCE, this::send);
+
+		ReplicationBatch batch = sentBatches.get(0);
+		assertEquals("i-lb", batch.getLoadBalancerId());
+		assertEquals(Arrays.asList("i-a", "i-b"), batch.getApplicationIds());
+		assertEquals(Integer.valueOf(1), batch.getApplicationCounters().get("i-a"));
+		assertEquals(Integer.valueOf(3), batch.getApplicationCounters().get("i-b"));
+	}
+
+	@Test
+	public void changesDuringAFailedBatchAreNotOverwritten() {
+		StateReplicator.recordLoadBalancer("i-lb-old");
+		StateReplicator.recordApplicationIds(Arrays.asList("i-a"));
+		StateReplicator.recordApplicationCounter("i-a", 1);
+
+		assertThrows(IllegalStateException.class, () -> StateReplicator.flush(MAIN_INSTANCE, (hostname, batch) -> {
+			// a request thread records newer values while the batch is being sent
+			StateReplicator.recordLoadBalancer("i-lb-new");
+			StateReplicator.recordApplicationIds(Arrays.asList("i-a", "i-b"));
+			StateReplicator.recordApplicationCounter("i-a", 2);
+			fail(hostname, batch);
+		}));
+		StateReplicator.flush(MAIN_INSTANCE, this::send);
+
+		ReplicationBatch batch = sentBatches.get(0);
+		assertEquals("i-lb-new", batch.getLoadBalancerId());
+		assertEquals(Arrays.asList("i-a", "i-b"), batch.getApplicationIds());
+		assertEquals(Integer.valueOf(2), batch.getApplicationCounters().get("i-a"));
+	}
+
+	@Test
+	public void sequenceNumbersIncreaseAfterFailedBatches() {
+		StateReplicator.recordApplicationCounter("i-a", 1);
+		StateReplicator.flush(MAIN_INSTANCE, this::send);
+		StateReplicator.recordApplicationCounter("i-a", 2);
+		assertThrows(IllegalStateException.class, () -> StateReplicator.flush(MAIN_INSTANCE, StateReplicatorTest::fail));
+		StateReplicator.flush(MAIN_INSTANCE, this::send);
+
+		assertEquals(2, sentBatches.size());
+		assertEquals(sentBatches.get(0).getSource(), sentBatches.get(1).getSource());
+		assertTrue(sentBatches.get(1).getSequence() > sentBatches.get(0).getSequence());
+	}
+
+	private void send(String hostname, ReplicationBatch batch) {
+		assertEquals(MAIN_INSTANCE, hostname);
+		sentBatches.add(batch);
+	}
+
+	private static void fail(String hostname, ReplicationBatch batch) {
+		throw new IllegalStateException("Main instance responded with HTTP status 503");
+	}
+}
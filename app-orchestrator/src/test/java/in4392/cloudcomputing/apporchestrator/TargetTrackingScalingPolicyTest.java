@@ -0,0 +1,40 @@
+package in4392.cloudcomputing.apporchestrator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class TargetTrackingScalingPolicyTest {
+	private static final long INTERVAL = 10 * 1000;
+	private final TargetTrackingScalingPolicy policy = new TargetTrackingScalingPolicy(new ScalingLimits(1, 100, 100, 0));
+
+	@Test
+	public void withoutObservationsEveryRequestNeedsAnInstance() {
+		assertEquals(2, policy.decide(sample(1, 3, 0), 0));
+	}
+
+	@Test
+	public void queuedRequestsAddInstancesForTheTargetWait() {
+		// each instance completes 1 request per second, so it can take 1 + 30 requests within the target wait
+		assertEquals(2, policy.decide(sample(2, 124, 20), 0));
+	}
+
+	@Test
+	public void intervalsWithoutCompletionsKeepTheLearnedRate() {
+		policy.decide(sample(2, 62, 20), 0);
+
+		assertEquals(0, policy.decide(sample(2, 62, 0), 0));
+	}
+
+	@Test
+	public void idleIntervalsAreNotLearned() {
+		// a single request in progress on 2 instances does not show how fast a queue is drained
+		policy.decide(sample(2, 1, 40), 0);
+
+		assertEquals(2, policy.decide(sample(1, 3, 0), 0));
+	}
+
+	private static LoadSample sample(int instances, int requestsInProgress, long completions) {
+		return new LoadSample(0, INTERVAL, instances, requestsInProgress, completions, completions);
+	}
+}
@@ -0,0 +1,212 @@
+package in4392.cloudcomputing.application;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limit the amount of conversions that run at the same time.
+ *
+ * There is one worker slot per available core by default. Requests that arrive while all slots are in use
+ * wait in a bounded FIFO queue and are admitted as soon as a slot is released. When the queue is full, new
+ * requests are rejected so the load balancer can retry them on another application instance.
+ *
+ * The amount of slots and the queue length can be configured with the "application.workerSlots" and
+ * "application.maxQueueLength" system properties.
+ */
+public class AdmissionController {
+	private static final int WORKER_SLOTS = Integer.getInteger("application.workerSlots", Runtime.getRuntime().availableProcessors());
+	private static final int MAX_QUEUE_LENGTH = Integer.getInteger("application.maxQueueLength", 50);
+	private static final Semaphore slots = new Semaphore(WORKER_SLOTS, true);
+	private static final ScheduledExecutorService expirations = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+		Thread thread = new Thread(runnable, "permit-expiration");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final AtomicInteger queueDepth = new AtomicInteger();
+	private static final LongAdder admitted = new LongAdder();
+	private static final LongAdder rejected = new LongAdder();
+	private static final LongAdder totalWaitTime = new LongAdder();
+	private static final AtomicLong maxWaitTime = new AtomicLong();
+	private static final MetricsRegistry.Histogram waitDuration = MetricsRegistry.histogram("application_admission_wait_seconds",
+			"Time an admitted conversion waited for worker slots, in seconds.", MetricsRegistry.LATENCY_BUCKETS);
+
+	static {
+		MetricsRegistry.gauge("application_worker_slots", "Amount of worker slots of this application instance.", () -> WORKER_SLOTS);
+		MetricsRegistry.gauge("application_active_workers", "Amount of worker slots that are in use.", () -> WORKER_SLOTS - slots.availablePermits());
+		MetricsRegistry.gauge("application_queue_depth", "Amount of conversions waiting for worker slots.", queueDepth::get);
+		MetricsRegistry.counter("application_admitted_total", "Amount of conversions that were admitted.", admitted::sum);
+		MetricsRegistry.counter("application_rejected_total", "Amount of conversions that were rejected because the queue was full.", rejected::sum);
+	}
+
+	/**
+	 * Wait for a worker slot to become available.
+	 *
+	 * @return the permit for the worker slot, which must be closed when the conversion is done
+	 * @throws InterruptedException if interrupted while waiting in the queue
+	 * @throws RejectedExecutionException if the queue is full
+	 */
+	public static Permit admit() throws InterruptedException {
+		return admit(1);
+	}
+
+	/**
+	 * Wait for multiple worker slots to become available, for a conversion that runs several ffmpeg workers.
+	 *
+	 * @param requestedSlots is the amount of worker slots that is needed, which is limited to the amount of
+	 * slots of this application instance
+	 * @return the permit for the worker slots, which must be closed when the conversion is done
+	 * @throws InterruptedException if interrupted while waiting in the queue
+	 * @throws RejectedExecutionException if the queue is full
+	 */
+	public static Permit admit(int requestedSlots) throws InterruptedException {
+		return enqueue(requestedSlots).admit();
+	}
+
+	/**
+	 * Take a place in the queue without waiting for worker slots yet, so a conversion that only starts later is
+	 * still rejected right away if the queue is full.
+	 *
+	 * @param requestedSlots is the amount of worker slots that is needed, which is limited to the amount of
+	 * slots of this application instance
+	 * @return the place in the queue, which must be admitted or cancelled
+	 * @throws RejectedExecutionException if the queue is full
+	 */
+	public static QueuedRequest enqueue(int requestedSlots) {
+		int permits = Math.max(1, Math.min(requestedSlots, WORKER_SLOTS));
+		if (queueDepth.incrementAndGet() > MAX_QUEUE_LENGTH) {
+			queueDepth.decrementAndGet();
+			rejected.increment();
+			throw new RejectedExecutionException("The conversion queue is full (" + MAX_QUEUE_LENGTH + " waiting requests)");
+		}
+		return new QueuedRequest(permits);
+	}
+
+	public static int getWorkerSlots() {
+		return WORKER_SLOTS;
+	}
+
+	public static AdmissionStatistics getStatistics() {
+		AdmissionStatistics statistics = new AdmissionStatistics();
+		statistics.setWorkerSlots(WORKER_SLOTS);
+		statistics.setActiveWorkers(WORKER_SLOTS - slots.availablePermits());
+		statistics.setQueueDepth(queueDepth.get());
+		statistics.setMaxQueueLength(MAX_QUEUE_LENGTH);
+		long admittedRequests = admitted.sum();
+		statistics.setAdmitted(admittedRequests);
+		statistics.setRejected(rejected.sum());
+		statistics.setAverageWaitTime(admittedRequests == 0 ? 0 : totalWaitTime.sum() / (double) admittedRequests);
+		statistics.setMaxWaitTime(maxWaitTime.get());
+		return statistics;
+	}
+
+	/**
+	 * A place in the queue for one or more worker slots. It leaves the queue when it is admitted or cancelled.
+	 */
+	public static class QueuedRequest {
+		private final AtomicBoolean left = new AtomicBoolean();
+		private final int permits;
+
+		private QueuedRequest(int permits) {
+			this.permits = permits;
+		}
+
+		/**
+		 * Wait for the worker slots to become available.
+		 *
+		 * @return the permit for the worker slots, which must be closed when the conversion is done
+		 * @throws InterruptedException if interrupted while waiting in the queue
+		 * @throws IllegalStateException if this already left the queue
+		 */
+		public Permit admit() throws InterruptedException {
+			if (left.get()) {
+				throw new IllegalStateException("This request already left the queue");
+			}
+			long waitStart = System.nanoTime();
+			try {
+				slots.acquire(permits);
+			} finally {
+				cancel();
+			}
+			waitDuration.observeSince(waitStart);
+			long waitTime = (System.nanoTime() - waitStart) / 1000000;
+			admitted.increment();
+			totalWaitTime.add(waitTime);
+			maxWaitTime.accumulateAndGet(waitTime, Math::max);
+			return new Permit(permits);
+		}
+
+		/**
+		 * Leave the queue without waiting for worker slots. Cancelling more than once, or after being admitted, has
+		 * no effect.
+		 */
+		public void cancel() {
+			if (left.compareAndSet(false, true)) {
+				queueDepth.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * One or more worker slots, which are released when it is closed. Closing it more than once has no effect.
+	 */
+	public static class Permit implements AutoCloseable {
+		private final AtomicBoolean released = new AtomicBoolean();
+		private final AtomicBoolean claimed = new AtomicBoolean();
+		private final int permits;
+
+		private Permit(int permits) {
+			this.permits = permits;
+		}
+
+		public int getSlots() {
+			return permits;
+		}
+
+		/**
+		 * Release the permit if it has not been claimed within the provided time. This is meant for permits that are
+		 * handed over to work that might never start, like a streamed response that is never written.
+		 */
+		public void releaseUnlessClaimedWithin(long timeoutInMilliseconds) {
+			releaseUnlessClaimedWithin(timeoutInMilliseconds, () -> {});
+		}
+
+		/**
+		 * Release the permit if it has not been claimed within the provided time, and then clean up what was left
+		 * behind for the work that never started.
+		 *
+		 * @param onRelease is run after the permit was released because it was not claimed in time
+		 */
+		public void releaseUnlessClaimedWithin(long timeoutInMilliseconds, Runnable onRelease) {
+			expirations.schedule(() -> {
+				if (claimed.compareAndSet(false, true)) {
+					System.out.println("Releasing " + permits + " worker slots that were not claimed within " + timeoutInMilliseconds + " ms");
+					close();
+					onRelease.run();
+				}
+			}, timeoutInMilliseconds, TimeUnit.MILLISECONDS);
+		}
+
+		/**
+		 * Claim the permit for the work that it was handed over to.
+		 *
+		 * @return false if the permit was already claimed, or released because it was not claimed in time
+		 */
+		public boolean claim() {
+			return claimed.compareAndSet(false, true);
+		}
+
+		@Override
+		public void close() {
+			if (released.compareAndSet(false, true)) {
+				slots.release(permits);
+			}
+		}
+	}
+}
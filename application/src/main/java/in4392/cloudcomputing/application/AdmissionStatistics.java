@@ -0,0 +1,64 @@
+package in4392.cloudcomputing.application;
+
+/**
+ * Snapshot of the conversion queue of this application instance. Wait times are in milliseconds.
+ */
+public class AdmissionStatistics {
+	private int workerSlots;
+	private int activeWorkers;
+	private int queueDepth;
+	private int maxQueueLength;
+	private long admitted;
+	private long rejected;
+	private double averageWaitTime;
+	private long maxWaitTime;
+
+	public int getWorkerSlots() {
+		return workerSlots;
+	}
+	public void setWorkerSlots(int workerSlots) {
+		this.workerSlots = workerSlots;
+	}
+	public int getActiveWorkers() {
+		return activeWorkers;
+	}
+	public void setActiveWorkers(int activeWorkers) {
+		this.activeWorkers = activeWorkers;
+	}
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+	public void setQueueDepth(int queueDepth) {
+		this.queueDepth = queueDepth;
+	}
+	public int getMaxQueueLength() {
+		return maxQueueLength;
+	}
+	public void setMaxQueueLength(int maxQueueLength) {
+		this.maxQueueLength = maxQueueLength;
+	}
+	public long getAdmitted() {
+		return admitted;
+	}
+	public void setAdmitted(long admitted) {
+		this.admitted = admitted;
+	}
+	public long getRejected() {
+		return rejected;
+	}
+	public void setRejected(long rejected) {
+		this.rejected = rejected;
+	}
+	public double getAverageWaitTime() {
+		return averageWaitTime;
+	}
+	public void setAverageWaitTime(double averageWaitTime) {
+		this.averageWaitTime = averageWaitTime;
+	}
+	public long getMaxWaitTime() {
+		return maxWaitTime;
+	}
+	public void setMaxWaitTime(long maxWaitTime) {
+		this.maxWaitTime = maxWaitTime;
+	}
+}
@@ -0,0 +1,105 @@
+package in4392.cloudcomputing.application;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Write everything that is printed to {@link System#out} and {@link System#err} on a separate thread, so printing
+ * never blocks on the console or the log file it is redirected to.
+ *
+ * Printed output is queued in order and written by a single daemon thread. If the queue is full because the
+ * console can not keep up, the output is dropped and counted instead of blocking the caller. The capacity of
+ * the queue (in writes) can be configured with the "log.queueCapacity" system property (default 8192). The
+ * remaining output is written when the JVM shuts down.
+ */
+public class AsyncConsole {
+	private static final int QUEUE_CAPACITY = Integer.getInteger("log.queueCapacity", 8192);
+	private static final long SHUTDOWN_DRAIN_TIME = 2000;
+	private static final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+	private static final LongAdder dropped = new LongAdder();
+	private static boolean installed;
+
+	/**
+	 * Replace {@link System#out} and {@link System#err} with streams that are written asynchronously. This should
+	 * be called before anything is printed.
+	 */
+	public static synchronized void install() {
+		if (installed) {
+			return;
+		}
+		installed = true;
+		System.setOut(new PrintStream(new QueueingOutputStream(System.out), true));
+		System.setErr(new PrintStream(new QueueingOutputStream(System.err), true));
+		Thread writer = new Thread(AsyncConsole::writeQueuedOutput, "async-console");
+		writer.setDaemon(true);
+		writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(AsyncConsole::awaitQueuedOutput, "async-console-shutdown"));
+		MetricsRegistry.counter("log_dropped_writes_total", "Amount of console writes dropped because the console could not keep up.", dropped::sum);
+	}
+
+	private static void writeQueuedOutput() {
+		while (true) {
+			try {
+				Chunk chunk = queue.take();
+				chunk.target.write(chunk.data, 0, chunk.data.length);
+				// flush once the queue is empty, so bursts are written in as few writes as possible
+				if (queue.isEmpty()) {
+					chunk.target.flush();
+				}
+			} catch (InterruptedException e) {
+				return;
+			} catch (RuntimeException e) {
+				// there is nowhere left to report a failing console, so the output is lost
+			}
+		}
+	}
+
+	private static void awaitQueuedOutput() {
+		long deadline = System.currentTimeMillis() + SHUTDOWN_DRAIN_TIME;
+		while (!queue.isEmpty() && System.currentTimeMillis() < deadline) {
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	private static class Chunk {
+		private final PrintStream target;
+		private final byte[] data;
+
+		private Chunk(PrintStream target, byte[] data) {
+			this.target = target;
+			this.data = data;
+		}
+	}
+
+	private static class QueueingOutputStream extends OutputStream {
+		private final PrintStream target;
+
+		private QueueingOutputStream(PrintStream target) {
+			this.target = target;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return;
+			}
+			if (!queue.offer(new Chunk(target, Arrays.copyOfRange(b, off, off + len)))) {
+				dropped.increment();
+			}
+		}
+	}
+}
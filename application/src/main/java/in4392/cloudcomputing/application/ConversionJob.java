@@ -0,0 +1,71 @@
+package in4392.cloudcomputing.application;
+
+import java.io.File;
+
+/**
+ * A video conversion that runs in the background, so the client does not need to keep its connection
+ * open while the video is converted.
+ */
+public class ConversionJob {
+	public enum State { QUEUED, RUNNING, COMPLETED, FAILED }
+
+	private final String id;
+	private final File inputFile;
+	private final long submittedAt;
+	private volatile State state = State.QUEUED;
+	private volatile double progress;
+	private volatile File outputFile;
+	private volatile String error;
+	private volatile long finishedAt;
+
+	public ConversionJob(String id, File inputFile) {
+		this.id = id;
+		this.inputFile = inputFile;
+		this.submittedAt = System.currentTimeMillis();
+	}
+
+	public String getId() {
+		return id;
+	}
+	public File getInputFile() {
+		return inputFile;
+	}
+	public long getSubmittedAt() {
+		return submittedAt;
+	}
+	public State getState() {
+		return state;
+	}
+	public double getProgress() {
+		return progress;
+	}
+	public void setProgress(double progress) {
+		this.progress = progress;
+	}
+	public File getOutputFile() {
+		return outputFile;
+	}
+	public String getError() {
+		return error;
+	}
+	public long getFinishedAt() {
+		return finishedAt;
+	}
+	public boolean isFinished() {
+		return state == State.COMPLETED || state == State.FAILED;
+	}
+	public void start() {
+		this.state = State.RUNNING;
+	}
+	public void complete(File outputFile) {
+		this.outputFile = outputFile;
+		this.progress = 1.0;
+		this.finishedAt = System.currentTimeMillis();
+		this.state = State.COMPLETED;
+	}
+	public void fail(String error) {
+		this.error = error;
+		this.finishedAt = System.currentTimeMillis();
+		this.state = State.FAILED;
+	}
+}
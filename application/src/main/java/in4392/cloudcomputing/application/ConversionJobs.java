@@ -0,0 +1,132 @@
+package in4392.cloudcomputing.application;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import in4392.cloudcomputing.application.AdmissionController.Permit;
+import in4392.cloudcomputing.application.AdmissionController.QueuedRequest;
+
+/**
+ * Run conversion jobs in the background.
+ *
+ * Jobs go through the same admission control as synchronous conversions, so they share the worker slots
+ * of this instance. A job takes its place in the queue when it is submitted, so it is rejected right away when the
+ * queue is full instead of failing later on. Finished jobs are kept for the time configured with the "application.jobRetentionTime"
+ * system property (in milliseconds, 1 hour by default), after which they are removed along with their result.
+ */
+public class ConversionJobs {
+	private static final long JOB_RETENTION_TIME = Long.getLong("application.jobRetentionTime", 60 * 60 * 1000);
+	private static final Map<String, ConversionJob> jobs = new ConcurrentHashMap<>();
+	private static final ExecutorService workers = Executors.newCachedThreadPool((runnable) -> {
+		Thread thread = new Thread(runnable, "conversion-job");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final ScheduledExecutorService cleaner = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+		Thread thread = new Thread(runnable, "conversion-job-cleaner");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	static {
+		cleaner.scheduleWithFixedDelay(ConversionJobs::removeExpiredJobs, 1, 1, TimeUnit.MINUTES);
+		MetricsRegistry.gauge("application_jobs", "Amount of asynchronous conversion jobs that are tracked.", jobs::size);
+	}
+
+	/**
+	 * Store the provided video and start converting it in the background.
+	 *
+	 * @param data is the video that needs to be converted
+	 * @param delayApplication is the amount of seconds that the conversion will be delayed (for testing purposes)
+	 * @return the submitted job
+	 * @throws IOException if the video could not be stored
+	 * @throws RejectedExecutionException if the conversion queue is full
+	 */
+	public static ConversionJob submit(InputStream data, int delayApplication) throws IOException {
+		QueuedRequest queuedRequest = AdmissionController.enqueue(1);
+		File inputFile = Paths.get(UUID.randomUUID().toString()).toFile();
+		try {
+			Files.copy(data, inputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			queuedRequest.cancel();
+			inputFile.delete();
+			throw e;
+		}
+		ConversionJob job = new ConversionJob(UUID.randomUUID().toString(), inputFile);
+		jobs.put(job.getId(), job);
+		workers.submit(() -> run(job, queuedRequest, delayApplication));
+		System.out.println("Submitted conversion job " + job.getId());
+		return job;
+	}
+
+	public static ConversionJob get(String id) {
+		return jobs.get(id);
+	}
+
+	/**
+	 * Remove the job and its result.
+	 *
+	 * @param id is the id of the job
+	 * @return the removed job, or null if there was no job with this id
+	 */
+	public static ConversionJob remove(String id) {
+		ConversionJob job = jobs.remove(id);
+		if (job != null && job.getOutputFile() != null) {
+			job.getOutputFile().delete();
+		}
+		return job;
+	}
+
+	private static void run(ConversionJob job, QueuedRequest queuedRequest, int delayApplication) {
+		try {
+			if (delayApplication > 0) {
+				Thread.sleep(delayApplication * 1000);
+			}
+			Permit permit = queuedRequest.admit();
+			try {
+				job.start();
+				System.out.println("Started conversion job " + job.getId());
+				File outputFile = Transcoder.transcodeFile(job.getInputFile(), job::setProgress);
+				job.complete(outputFile);
+				System.out.println("Completed conversion job " + job.getId());
+				if (!jobs.containsKey(job.getId())) {
+					// the job was deleted while it was running, so nobody will download the result
+					outputFile.delete();
+				}
+			} finally {
+				permit.close();
+			}
+		} catch (IOException e) {
+			System.out.println("Conversion job " + job.getId() + " failed: " + e.getMessage());
+			job.fail(e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			job.fail("The conversion was interrupted");
+		} finally {
+			queuedRequest.cancel();
+			job.getInputFile().delete();
+		}
+	}
+
+	private static void removeExpiredJobs() {
+		long expiredBefore = System.currentTimeMillis() - JOB_RETENTION_TIME;
+		for (ConversionJob job : jobs.values()) {
+			if (job.isFinished() && job.getFinishedAt() < expiredBefore) {
+				System.out.println("Removing expired conversion job " + job.getId());
+				remove(job.getId());
+			}
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package in4392.cloudcomputing.application;
+
+/**
+ * The way in which a video is converted, which can be selected for each request.
+ */
+public enum ConversionMode {
+	/**
+	 * Store the input video to disk, convert it file-to-file and return the converted file.
+	 */
+	FILE,
+	/**
+	 * Pipe the input video through ffmpeg and stream the converted video back while it is being produced.
+	 * This only works for input formats that can be read sequentially (e.g. Matroska, MPEG-TS or MP4 with
+	 * the index at the start of the file).
+	 */
+	STREAM,
+	/**
+	 * Store the input video to disk, split it at keyframes and convert the segments at the same time, with
+	 * one ffmpeg worker per worker slot, before joining them into the converted file.
+	 */
+	PARALLEL;
+
+	/**
+	 * Find the mode with the provided name, case-insensitively.
+	 *
+	 * @throws IllegalArgumentException if there is no mode with this name
+	 */
+	public static ConversionMode fromString(String mode) {
+		return valueOf(mode.trim().toUpperCase());
+	}
+}
@@ -0,0 +1,395 @@
+package in4392.cloudcomputing.application;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * Convert videos with ffmpeg.
+ */
+public class Transcoder {
+	public static final String OUTPUT_FORMAT = ".mkv";
+	/**
+	 * The ffmpeg parameters with which every video is converted, apart from its input and output.
+	 */
+	private static final String[] CODEC_PARAMETERS = {"-codec:v", "libx264", "-codec:a", "copy"};
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final MetricsRegistry.Histogram fileDuration = transcodeDurationHistogram("file");
+	private static final MetricsRegistry.Histogram parallelDuration = transcodeDurationHistogram("parallel");
+	private static final MetricsRegistry.Histogram streamDuration = transcodeDurationHistogram("stream");
+
+	/**
+	 * @return the ffmpeg parameters and output format with which videos are converted, so videos that were converted
+	 * differently can be told apart
+	 */
+	public static String getParameters() {
+		return String.join(" ", CODEC_PARAMETERS) + " " + OUTPUT_FORMAT;
+	}
+
+	/**
+	 * Convert the video in the provided file to a new file in the same directory.
+	 *
+	 * @param inputFile is the file containing the video that needs to be converted
+	 * @return the file containing the converted video
+	 * @throws IOException if ffmpeg could not convert the video
+	 * @throws InterruptedException
+	 */
+	public static File transcodeFile(File inputFile) throws IOException, InterruptedException {
+		return transcodeFile(inputFile, null);
+	}
+
+	/**
+	 * Convert the video in the provided file to a new file in the same directory, while reporting the progress.
+	 *
+	 * @param inputFile is the file containing the video that needs to be converted
+	 * @param progressListener receives the fraction of the video that has been converted, between 0 and 1. If
+	 * this is null, the progress is not tracked.
+	 * @return the file containing the converted video
+	 * @throws IOException if ffmpeg could not convert the video
+	 * @throws InterruptedException
+	 */
+	public static File transcodeFile(File inputFile, DoubleConsumer progressListener) throws IOException, InterruptedException {
+		long transcodeStart = System.nanoTime();
+		File outputFile = transcodeFile(inputFile, progressListener, 0, null);
+		fileDuration.observeSince(transcodeStart);
+		return outputFile;
+	}
+
+	/**
+	 * @param runningProcesses holds the ffmpeg process while it is running, so it can be stopped by another thread.
+	 * If this is null, the process is only stopped when this thread fails or is interrupted.
+	 */
+	private static File transcodeFile(File inputFile, DoubleConsumer progressListener, int threads, Set<Process> runningProcesses) throws IOException, InterruptedException {
+		File workingDirectory = inputFile.getAbsoluteFile().toPath().getParent().toFile();
+		File outputFile = new File(workingDirectory, UUID.randomUUID().toString() + OUTPUT_FORMAT);
+		double durationInSeconds = progressListener == null ? 0 : probeDuration(inputFile);
+
+		List<String> command = new ArrayList<>();
+		Collections.addAll(command, "ffmpeg", "-y", "-nostats", "-progress", "pipe:1", "-i", inputFile.getName());
+		if (threads > 0) {
+			Collections.addAll(command, "-threads", Integer.toString(threads));
+		}
+		Collections.addAll(command, CODEC_PARAMETERS);
+		command.add(outputFile.getName());
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.directory(workingDirectory);
+		// ffmpeg reports errors on stderr, which ends up in the application log
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		System.out.println("Executing command: " + String.join(" ", builder.command()));
+		System.out.println("\nFrom working directory: " + workingDirectory);
+		Process p = builder.start();
+		if (runningProcesses != null) {
+			runningProcesses.add(p);
+		}
+		int result;
+		try(BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))){
+			String line;
+			while ((line = reader.readLine()) != null) {
+				// despite its name, out_time_ms is reported in microseconds
+				if (line.startsWith("out_time_ms=") && durationInSeconds > 0) {
+					try {
+						double convertedSeconds = Long.parseLong(line.substring("out_time_ms=".length())) / 1000000.0;
+						progressListener.accept(Math.min(1.0, convertedSeconds / durationInSeconds));
+					} catch (NumberFormatException e) {
+						// ffmpeg reports N/A before the first frame is converted
+					}
+				}
+			}
+			result = p.waitFor();
+		} finally {
+			// ffmpeg has already exited unless reading its progress failed or was interrupted
+			p.destroyForcibly();
+			if (runningProcesses != null) {
+				runningProcesses.remove(p);
+			}
+		}
+		System.out.println("Process exit code: " + result);
+		if (result != 0) {
+			outputFile.delete();
+			throw new IOException("ffmpeg could not convert " + inputFile.getName() + ", exit code " + result);
+		}
+		if (progressListener != null) {
+			progressListener.accept(1.0);
+		}
+		return outputFile;
+	}
+
+	/**
+	 * Convert the video in the provided file by splitting it into segments that are converted at the same time.
+	 *
+	 * The video is split at keyframes without re-encoding, so each segment can be converted by its own ffmpeg
+	 * worker. The converted segments are then concatenated without re-encoding. Each worker gets an equal share
+	 * of the available cores. If the duration of the video can not be determined or there is only one worker,
+	 * the video is converted as a whole.
+	 *
+	 * @param inputFile is the file containing the video that needs to be converted
+	 * @param workers is the amount of ffmpeg workers that convert segments at the same time
+	 * @return the file containing the converted video
+	 * @throws IOException if ffmpeg could not split, convert or concatenate the video
+	 * @throws InterruptedException
+	 */
+	public static File transcodeFileInParallel(File inputFile, int workers) throws IOException, InterruptedException {
+		long transcodeStart = System.nanoTime();
+		double durationInSeconds = probeDuration(inputFile);
+		if (workers <= 1 || durationInSeconds <= 0) {
+			return transcodeFile(inputFile);
+		}
+		File workingDirectory = inputFile.getAbsoluteFile().toPath().getParent().toFile();
+		File segmentDirectory = Files.createTempDirectory(workingDirectory.toPath(), "segments-").toFile();
+		Set<Process> segmentProcesses = ConcurrentHashMap.newKeySet();
+		ExecutorService segmentWorkers = Executors.newFixedThreadPool(workers, (runnable) -> {
+			Thread thread = new Thread(runnable, "ffmpeg-segment-" + UUID.randomUUID());
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			List<File> segments = splitAtKeyframes(inputFile, segmentDirectory, durationInSeconds / workers);
+			System.out.println("Converting " + segments.size() + " segments with " + workers + " workers");
+			int threadsPerWorker = Math.max(1, Runtime.getRuntime().availableProcessors() / workers);
+			List<Future<File>> convertedSegments = new ArrayList<>();
+			for (File segment : segments) {
+				convertedSegments.add(segmentWorkers.submit(() -> transcodeFile(segment, null, threadsPerWorker, segmentProcesses)));
+			}
+			List<File> outputSegments = new ArrayList<>();
+			for (Future<File> convertedSegment : convertedSegments) {
+				try {
+					outputSegments.add(convertedSegment.get());
+				} catch (ExecutionException e) {
+					throw new IOException("Could not convert a segment of " + inputFile.getName(), e.getCause());
+				}
+			}
+			File outputFile = new File(workingDirectory, UUID.randomUUID().toString() + OUTPUT_FORMAT);
+			concatenate(outputSegments, outputFile);
+			parallelDuration.observeSince(transcodeStart);
+			return outputFile;
+		} finally {
+			stopSegmentWorkers(segmentWorkers, segmentProcesses);
+			deleteDirectory(segmentDirectory);
+		}
+	}
+
+	/**
+	 * Stop the segment workers and wait until they have ended, so none of them still uses the segment directory.
+	 * Workers that are reading the progress of ffmpeg are not interrupted by this, they only stop once their ffmpeg
+	 * process is stopped.
+	 */
+	private static void stopSegmentWorkers(ExecutorService segmentWorkers, Set<Process> segmentProcesses) {
+		segmentWorkers.shutdownNow();
+		boolean interrupted = Thread.interrupted();
+		boolean terminated = false;
+		try {
+			while (!terminated) {
+				// also stops processes that were started by a worker while the previous ones were stopped
+				segmentProcesses.forEach(Process::destroyForcibly);
+				try {
+					terminated = segmentWorkers.awaitTermination(1, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Split the video in the provided file into segments, without re-encoding. Each segment starts at the first
+	 * keyframe after the segment length has passed, so segments can be slightly longer than requested.
+	 *
+	 * @param inputFile is the file containing the video
+	 * @param segmentDirectory is the directory where the segments are stored
+	 * @param segmentLengthInSeconds is the requested length of each segment
+	 * @return the segments, in order
+	 * @throws IOException if ffmpeg could not split the video
+	 * @throws InterruptedException
+	 */
+	public static List<File> splitAtKeyframes(File inputFile, File segmentDirectory, double segmentLengthInSeconds) throws IOException, InterruptedException {
+		runFfmpeg(segmentDirectory,
+				"ffmpeg", "-y", "-nostats",
+				"-i", inputFile.getAbsolutePath(),
+				"-map", "0", "-codec", "copy",
+				"-f", "segment",
+				"-segment_time", String.format(Locale.ROOT, "%.3f", segmentLengthInSeconds),
+				"-reset_timestamps", "1",
+				"segment-%05d" + OUTPUT_FORMAT);
+		try (Stream<Path> files = Files.list(segmentDirectory.toPath())) {
+			return files
+					.filter((file) -> file.getFileName().toString().startsWith("segment-"))
+					.sorted()
+					.map(Path::toFile)
+					.collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * Join the provided segments into a single video, without re-encoding.
+	 *
+	 * @param segments are the files containing the segments, in order
+	 * @param outputFile is the file where the joined video is stored
+	 * @throws IOException if ffmpeg could not join the segments
+	 * @throws InterruptedException
+	 */
+	public static void concatenate(List<File> segments, File outputFile) throws IOException, InterruptedException {
+		File workingDirectory = outputFile.getAbsoluteFile().toPath().getParent().toFile();
+		File segmentList = new File(workingDirectory, UUID.randomUUID().toString() + ".txt");
+		List<String> lines = new ArrayList<>();
+		for (File segment : segments) {
+			lines.add("file '" + segment.getAbsolutePath().replace("'", "'\\''") + "'");
+		}
+		Files.write(segmentList.toPath(), lines, StandardCharsets.UTF_8);
+		try {
+			runFfmpeg(workingDirectory,
+					"ffmpeg", "-y", "-nostats",
+					"-f", "concat", "-safe", "0",
+					"-i", segmentList.getName(),
+					"-codec", "copy",
+					outputFile.getName());
+		} catch (IOException e) {
+			outputFile.delete();
+			throw e;
+		} finally {
+			segmentList.delete();
+		}
+	}
+
+	private static void runFfmpeg(File workingDirectory, String... command) throws IOException, InterruptedException {
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.directory(workingDirectory);
+		builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		System.out.println("Executing command: " + String.join(" ", builder.command()));
+		Process p = builder.start();
+		int result;
+		try {
+			result = p.waitFor();
+		} finally {
+			p.destroyForcibly();
+		}
+		System.out.println("Process exit code: " + result);
+		if (result != 0) {
+			throw new IOException("ffmpeg failed with exit code " + result);
+		}
+	}
+
+	private static void deleteDirectory(File directory) {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	/**
+	 * Retrieve the duration of the video in the provided file.
+	 *
+	 * @param inputFile is the file containing the video
+	 * @return the duration in seconds, or 0 if it could not be determined
+	 * @throws IOException if ffprobe could not be started
+	 * @throws InterruptedException
+	 */
+	public static double probeDuration(File inputFile) throws IOException, InterruptedException {
+		ProcessBuilder builder = new ProcessBuilder(
+				"ffprobe", "-v", "error",
+				"-show_entries", "format=duration",
+				"-of", "default=noprint_wrappers=1:nokey=1",
+				inputFile.getAbsolutePath());
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		Process p = builder.start();
+		String duration;
+		try(BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))){
+			duration = reader.readLine();
+		}
+		p.waitFor();
+		try {
+			return duration == null ? 0 : Double.parseDouble(duration.trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Prepare converting the video in the provided file, while streaming back the converted video.
+	 *
+	 * ffmpeg is only started when the returned output is written, so nothing is left running if it is never
+	 * written. The converted video is read from its stdout while it is being produced, so it is never fully stored 
+	 * in memory or on disk. The input is read from a file rather than piped to ffmpeg, since a client that only
+	 * reads the response after it has sent the whole request would otherwise block ffmpeg, and with it the upload.
+	 *
+	 * @param inputFile is the file containing the video that needs to be converted
+	 * @return the converted video, which is produced while it is being written
+	 */
+	public static StreamingOutput transcodeStream(File inputFile) {
+		return (output) -> {
+			long transcodeStart = System.nanoTime();
+			List<String> command = new ArrayList<>();
+			Collections.addAll(command, "ffmpeg", "-nostdin", "-i", inputFile.getAbsolutePath());
+			Collections.addAll(command, CODEC_PARAMETERS);
+			Collections.addAll(command, "-f", "matroska", "pipe:1");
+			ProcessBuilder builder = new ProcessBuilder(command);
+			// ffmpeg reports its progress on stderr, which ends up in the application log
+			builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+			System.out.println("Executing command: " + String.join(" ", builder.command()));
+			Process p = builder.start();
+			p.getOutputStream().close();
+
+			try (InputStream ffmpegOutput = p.getInputStream()) {
+				copy(ffmpegOutput, output);
+				int result = p.waitFor();
+				System.out.println("Process exit code: " + result);
+				if (result != 0) {
+					throw new IOException("ffmpeg could not convert the streamed video, exit code " + result);
+				}
+				streamDuration.observeSince(transcodeStart);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for ffmpeg to finish", e);
+			} finally {
+				p.destroy();
+			}
+		};
+	}
+
+	private static MetricsRegistry.Histogram transcodeDurationHistogram(String mode) {
+		return MetricsRegistry.histogram("application_transcode_duration_seconds",
+				"Time it took to convert a video, in seconds.", MetricsRegistry.LATENCY_BUCKETS, "mode", mode);
+	}
+
+	private static void copy(InputStream input, OutputStream output) throws IOException {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int read;
+		while ((read = input.read(buffer)) >= 0) {
+			output.write(buffer, 0, read);
+			// only flush when ffmpeg has no more data ready, so the client receives it as soon as possible
+			if (input.available() == 0) {
+				output.flush();
+			}
+		}
+	}
+}
@@ -9,6 +9,7 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 @SpringBootApplication
 public class UserApplication {
 	public static void main(String[] args) throws IOException, NoSuchAlgorithmException {
+		AsyncConsole.install();
 		SpringApplication.run(UserApplication.class, args);
 	}
 }
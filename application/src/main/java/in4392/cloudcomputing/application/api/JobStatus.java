@@ -0,0 +1,44 @@
+package in4392.cloudcomputing.application.api;
+
+import in4392.cloudcomputing.application.ConversionJob;
+
+public class JobStatus {
+	private String id;
+	private String state;
+	private double progress;
+	private String error;
+
+	public JobStatus() {}
+
+	public JobStatus(ConversionJob job) {
+		this.id = job.getId();
+		this.state = job.getState().name();
+		this.progress = job.getProgress();
+		this.error = job.getError();
+	}
+
+	public String getId() {
+		return id;
+	}
+	public void setId(String id) {
+		this.id = id;
+	}
+	public String getState() {
+		return state;
+	}
+	public void setState(String state) {
+		this.state = state;
+	}
+	public double getProgress() {
+		return progress;
+	}
+	public void setProgress(double progress) {
+		this.progress = progress;
+	}
+	public String getError() {
+		return error;
+	}
+	public void setError(String error) {
+		this.error = error;
+	}
+}
@@ -0,0 +1,21 @@
+package in4392.cloudcomputing.application.api;
+
+import javax.inject.Named;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+
+import in4392.cloudcomputing.application.MetricsRegistry;
+
+/**
+ * Expose the metrics of this component on the path where Prometheus scrapes them by default.
+ */
+@Named
+@Path("metrics")
+public class MetricsEndpoint {
+	@GET
+	@Produces("text/plain; version=0.0.4; charset=utf-8")
+	public String scrape() {
+		return MetricsRegistry.scrape();
+	}
+}
@@ -1,35 +1,54 @@
 package in4392.cloudcomputing.application.api;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.inject.Named;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.ClientErrorException;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.NotFoundException;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.ServiceUnavailableException;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 
+import in4392.cloudcomputing.application.AdmissionController;
+import in4392.cloudcomputing.application.AdmissionController.Permit;
+import in4392.cloudcomputing.application.AdmissionStatistics;
+import in4392.cloudcomputing.application.ConversionJob;
+import in4392.cloudcomputing.application.ConversionJobs;
+import in4392.cloudcomputing.application.ConversionMode;
+import in4392.cloudcomputing.application.LogStreamer;
+import in4392.cloudcomputing.application.Transcoder;
+
 @Named
 @Path("application")
 public class UserApplicationEndpoint {
-	private static final int MAX_CONCURRENT_REQUESTS = 5;
-	private static int concurrentRequestCounter = 0;
+	private static final String LOG_FILE = "/home/ubuntu/application.log";
+	/**
+	 * The time in milliseconds that a streamed conversion may take to start writing its response, before its worker 
+	 * slot is released. This can be configured with the "application.streamStartTimeout" system property.
+	 */
+	private static final long STREAM_START_TIMEOUT = Long.getLong("application.streamStartTimeout", 60 * 1000);
+
 	/**
 	 * 
 	 * @return a 204 HTTP status with no content, if successful
@@ -41,65 +60,135 @@ public class UserApplicationEndpoint {
 		return Response.noContent().build();
 	}
 	
+	/**
+	 * 
+	 * @return the ffmpeg parameters with which videos are converted, which the load balancer uses to tell apart the
+	 * converted videos in its cache
+	 */
+	@Path("transcode-parameters")
+	@GET
+	@Produces(MediaType.TEXT_PLAIN)
+	public String showTranscodeParameters() {
+		return Transcoder.getParameters();
+	}
+	
+	/**
+	 * Stream the log, or part of it, without reading it into memory.
+	 * 
+	 * @param offset is the position of the first byte to send, or the amount of bytes before the end of the log if
+	 * it is negative
+	 * @param length is the maximum amount of bytes to send
+	 * @param tail is the amount of lines at the end of the log to send, instead of starting at the offset
+	 * @param follow determines whether lines that are appended to the log are sent as they arrive
+	 * @return the (partial) log
+	 */
 	@Path("log")
 	@GET
 	@Produces(MediaType.TEXT_PLAIN)
-	public String showLog() throws IOException {
-		return new String(Files.readAllBytes(Paths.get("/home/ubuntu/application.log")), StandardCharsets.UTF_8);
+	public Response showLog(
+			@QueryParam("offset") Long offset,
+			@QueryParam("length") Long length,
+			@QueryParam("tail") Integer tail,
+			@DefaultValue("false")
+			@QueryParam("follow")
+			boolean follow) {
+		if (!Files.isReadable(Paths.get(LOG_FILE))) {
+			throw new NotFoundException("The log is not available");
+		}
+		try {
+			return Response.ok(LogStreamer.stream(Paths.get(LOG_FILE), offset, length, tail, follow)).build();
+		} catch (IllegalArgumentException e) {
+			throw new BadRequestException(e.getMessage());
+		}
 	}
 	
+	/**
+	 * Convert the provided video.
+	 * 
+	 * @param data is the video that needs to be converted
+	 * @param delayApplication is the amount of seconds that the application will be delayed from 
+	 * completing the request (for testing purposes)
+	 * @param mode is the way in which the video is converted, either "file" (the default) to convert the stored
+	 * video file-to-file, or "stream" to stream back the conversion of the stored video while it is being 
+	 * produced, or "parallel" to convert segments of the stored video at the same time on all cores
+	 * @return the converted video, or a 400 HTTP status if the mode is unknown
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
 	@Path("video")
 	@POST
 	@Produces(MediaType.APPLICATION_OCTET_STREAM)
 	@Consumes(MediaType.APPLICATION_OCTET_STREAM)
-	public InputStream convert(
+	public Response convert(
 			@Context
 			UriInfo uriInfo,
 			InputStream data, 
 			@DefaultValue("0") 
 			@QueryParam("delayApplication") 
-			int delayApplication) throws IOException, InterruptedException {
-		String outputFormat = ".mkv";
+			int delayApplication,
+			@DefaultValue("file")
+			@QueryParam("mode")
+			String mode) throws IOException, InterruptedException {
+		ConversionMode conversionMode;
+		try {
+			conversionMode = ConversionMode.fromString(mode);
+		} catch (IllegalArgumentException e) {
+			throw new BadRequestException("Unknown conversion mode: " + mode);
+		}
 		if(delayApplication > 0) {
 			Thread.sleep(delayApplication * 1000);
 		}
-        File inputFile =  Paths.get(UUID.randomUUID().toString()).toFile();
-        File outputFile =  Paths.get(UUID.randomUUID().toString( )+ outputFormat).toFile();
-        
-        Files.copy(data, inputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-        outputFile.createNewFile();
-        
-        // wait until there are less than the max amount of requests being processed
-        while (concurrentRequestCounter >= MAX_CONCURRENT_REQUESTS) {
-        	Thread.sleep(30 * 1000);
-        }
-        concurrentRequestCounter++;
+		if (conversionMode == ConversionMode.STREAM) {
+			// the whole video is received before the response starts, since the load balancer only reads the 
+			// response once it has sent the whole request
+			File inputFile = Paths.get(UUID.randomUUID().toString()).toFile();
+			Permit permit;
+			try {
+				Files.copy(data, inputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				permit = waitForAvailableSlot();
+			} catch (IOException | InterruptedException | RuntimeException e) {
+				inputFile.delete();
+				throw e;
+			}
+			// ffmpeg is only started once the response is written, so only the permit and input file can be left behind
+			permit.releaseUnlessClaimedWithin(STREAM_START_TIMEOUT, inputFile::delete);
+			StreamingOutput transcodedVideo = Transcoder.transcodeStream(inputFile);
+			StreamingOutput streamedVideo = (output) -> {
+				if (!permit.claim()) {
+					throw new IOException("The worker slot was released since the response was not written in time");
+				}
+				try {
+					transcodedVideo.write(output);
+				} finally {
+					permit.close();
+					inputFile.delete();
+				}
+			};
+			return Response.ok(streamedVideo).build();
+		}
 		
-        String cmd = String.format(
-        		"ffmpeg -y -i %s -codec:v libx264 -codec:a copy %s", 
-        		inputFile.getName(), 
-        		outputFile.getName());
-        File workingDirectory = inputFile.getAbsoluteFile().toPath().getParent().toFile();
-     	System.out.println("Executing command: " + cmd);
-     	System.out.println("\nFrom working directory: " + workingDirectory);
-        Process p = Runtime.getRuntime().exec(cmd, null, workingDirectory);
-        int result = p.waitFor();
-        
-        System.out.println("Process exit code: " + result);
-        System.out.println();
-        System.out.println("Result:");
-        try(BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()))){	        	
-        	while (reader.ready()) {
-        		System.out.println(reader.readLine());
+        File inputFile =  Paths.get(UUID.randomUUID().toString()).toFile();
+        File outputFile;
+        int requestedSlots = conversionMode == ConversionMode.PARALLEL ? AdmissionController.getWorkerSlots() : 1;
+        try {
+        	Files.copy(data, inputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        	try (Permit permit = waitForAvailableSlots(requestedSlots)) {
+        		if (conversionMode == ConversionMode.PARALLEL) {
+        			outputFile = Transcoder.transcodeFileInParallel(inputFile, permit.getSlots());
+        		}
+        		else {
+        			outputFile = Transcoder.transcodeFile(inputFile);
+        		}
+        	}
+        } finally {
+        	if(inputFile.delete()) { 
+        		System.out.println("Input file deleted successfully"); 
+        	} 
+        	else { 
+        		System.out.println("Failed to delete the input file"); 
         	}
         }
 
-		if(inputFile.delete()) { 
-	    	System.out.println("Input file deleted successfully"); 
-	    } 
-	    else { 
-	    	System.out.println("Failed to delete the input file"); 
-	    }
 		try(ByteArrayInputStream inMemOutputFile = new ByteArrayInputStream(Files.readAllBytes(outputFile.toPath()))){
 			if(outputFile.delete()) {
 				System.out.println("Output file deleted successfully");
@@ -107,8 +196,129 @@ public class UserApplicationEndpoint {
 			else {
 				System.out.println("Failed to delete output file");
 			}
-			concurrentRequestCounter--;
-			return inMemOutputFile;
+			return Response.ok(inMemOutputFile).build();
+		}
+	}
+	
+	/**
+	 * Submit the provided video for conversion in the background.
+	 * 
+	 * @param data is the video that needs to be converted
+	 * @param delayApplication is the amount of seconds that the conversion will be delayed (for testing purposes)
+	 * @return a 202 HTTP status with the status of the new job, and its location in the Location header, or a 503
+	 * HTTP status if the conversion queue is full
+	 * @throws IOException
+	 */
+	@Path("jobs")
+	@POST
+	@Produces(MediaType.APPLICATION_JSON)
+	@Consumes(MediaType.APPLICATION_OCTET_STREAM)
+	public Response submitJob(
+			@Context
+			UriInfo uriInfo,
+			InputStream data,
+			@DefaultValue("0")
+			@QueryParam("delayApplication")
+			int delayApplication) throws IOException {
+		ConversionJob job;
+		try {
+			job = ConversionJobs.submit(data, delayApplication);
+		} catch (RejectedExecutionException e) {
+			System.out.println("Rejecting job: " + e.getMessage());
+			throw new ServiceUnavailableException(e.getMessage());
+		}
+		return Response.accepted(new JobStatus(job))
+				.location(uriInfo.getAbsolutePathBuilder().path(job.getId()).build())
+				.build();
+	}
+	
+	/**
+	 * 
+	 * @param id is the id of the job
+	 * @return the state and progress of the job
+	 */
+	@Path("jobs/{id}")
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	public JobStatus showJob(@PathParam("id") String id) {
+		return new JobStatus(findJob(id));
+	}
+	
+	/**
+	 * 
+	 * @param id is the id of the job
+	 * @return the converted video, or a 409 HTTP status if the job has not completed (yet)
+	 */
+	@Path("jobs/{id}/result")
+	@GET
+	@Produces(MediaType.APPLICATION_OCTET_STREAM)
+	public Response downloadJobResult(@PathParam("id") String id) {
+		ConversionJob job = findJob(id);
+		if (job.getState() != ConversionJob.State.COMPLETED) {
+			throw new ClientErrorException("Job " + id + " is " + job.getState(), Response.Status.CONFLICT);
+		}
+		File outputFile = job.getOutputFile();
+		StreamingOutput convertedVideo = (output) -> Files.copy(outputFile.toPath(), output);
+		return Response.ok(convertedVideo).header("Content-Length", outputFile.length()).build();
+	}
+	
+	/**
+	 * Remove the job and its converted video. A job that is still running will complete, but its result is discarded.
+	 * 
+	 * @param id is the id of the job
+	 * @return a 204 HTTP status with no content, if successful
+	 */
+	@Path("jobs/{id}")
+	@DELETE
+	public Response deleteJob(@PathParam("id") String id) {
+		if (ConversionJobs.remove(id) == null) {
+			throw new NotFoundException("Job " + id + " does not exist");
+		}
+		return Response.noContent().build();
+	}
+	
+	/**
+	 * 
+	 * @return the state of the conversion queue, which can be used to decide on scaling
+	 */
+	@Path("admission")
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	public AdmissionStatistics showAdmissionStatistics() {
+		return AdmissionController.getStatistics();
+	}
+	
+	private ConversionJob findJob(String id) {
+		ConversionJob job = ConversionJobs.get(id);
+		if (job == null) {
+			throw new NotFoundException("Job " + id + " does not exist");
+		}
+		return job;
+	}
+	
+	/**
+	 * Wait until a worker slot is available, which happens as soon as another conversion completes
+	 * 
+	 * @return the permit for the worker slot
+	 * @throws InterruptedException
+	 */
+	private Permit waitForAvailableSlot() throws InterruptedException {
+		return waitForAvailableSlots(1);
+	}
+	
+	/**
+	 * Wait until the requested amount of worker slots is available
+	 * 
+	 * @param slots is the amount of worker slots that is needed
+	 * @return the permit for the worker slots
+	 * @throws InterruptedException
+	 */
+	private Permit waitForAvailableSlots(int slots) throws InterruptedException {
+		try {
+			return AdmissionController.admit(slots);
+		} catch (RejectedExecutionException e) {
+			System.out.println("Rejecting request: " + e.getMessage());
+			throw new ServiceUnavailableException(e.getMessage());
 		}
 	}
 }
@@ -0,0 +1,123 @@
+package in4392.cloudcomputing.application;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import in4392.cloudcomputing.application.AdmissionController.Permit;
+import in4392.cloudcomputing.application.AdmissionController.QueuedRequest;
+
+/**
+ * The worker slots are shared by all tests, so every test releases the slots that it took before it ends.
+ */
+public class AdmissionControllerTest {
+
+	@Test
+	public void waitingRequestsAreAdmittedInArrivalOrder() throws Exception {
+		int workerSlots = AdmissionController.getWorkerSlots();
+		Permit allSlots = AdmissionController.admit(workerSlots);
+		AtomicReference<Permit> first = new AtomicReference<>();
+		AtomicReference<Permit> second = new AtomicReference<>();
+		CountDownLatch firstAdmitted = new CountDownLatch(1);
+		CountDownLatch secondAdmitted = new CountDownLatch(1);
+		try {
+			// the first request needs every slot, so the second one would overtake it if the queue was not FIFO
+			awaitWaiting(admitInBackground(workerSlots, first, firstAdmitted));
+			awaitWaiting(admitInBackground(1, second, secondAdmitted));
+
+			allSlots.close();
+
+			assertTrue(firstAdmitted.await(10, TimeUnit.SECONDS));
+			assertFalse(secondAdmitted.await(100, TimeUnit.MILLISECONDS));
+			first.get().close();
+			assertTrue(secondAdmitted.await(10, TimeUnit.SECONDS));
+			second.get().close();
+		} finally {
+			allSlots.close();
+		}
+		assertEquals(0, AdmissionController.getStatistics().getActiveWorkers());
+	}
+
+	@Test
+	public void requestsAreRejectedWhenTheQueueIsFull() {
+		AdmissionStatistics before = AdmissionController.getStatistics();
+		List<QueuedRequest> queuedRequests = new ArrayList<>();
+		try {
+			for (int i = before.getQueueDepth(); i < before.getMaxQueueLength(); i++) {
+				queuedRequests.add(AdmissionController.enqueue(1));
+			}
+
+			assertThrows(RejectedExecutionException.class, () -> AdmissionController.enqueue(1));
+
+			AdmissionStatistics after = AdmissionController.getStatistics();
+			assertEquals(before.getMaxQueueLength(), after.getQueueDepth());
+			assertEquals(before.getRejected() + 1, after.getRejected());
+		} finally {
+			queuedRequests.forEach(QueuedRequest::cancel);
+		}
+		assertEquals(before.getQueueDepth(), AdmissionController.getStatistics().getQueueDepth());
+		// a place in the queue that was cancelled can not be admitted anymore
+		assertThrows(IllegalStateException.class, () -> queuedRequests.get(0).admit());
+	}
+
+	@Test
+	public void permitsThatAreNotClaimedInTimeAreReleased() throws Exception {
+		Permit permit = AdmissionController.admit();
+		CountDownLatch cleanedUp = new CountDownLatch(1);
+
+		permit.releaseUnlessClaimedWithin(50, cleanedUp::countDown);
+
+		assertTrue(cleanedUp.await(10, TimeUnit.SECONDS));
+		assertFalse(permit.claim());
+		assertEquals(0, AdmissionController.getStatistics().getActiveWorkers());
+	}
+
+	@Test
+	public void claimedPermitsAreKept() throws Exception {
+		CountDownLatch cleanedUp = new CountDownLatch(1);
+		try (Permit permit = AdmissionController.admit()) {
+			permit.releaseUnlessClaimedWithin(50, cleanedUp::countDown);
+
+			assertTrue(permit.claim());
+
+			assertFalse(cleanedUp.await(200, TimeUnit.MILLISECONDS));
+			assertEquals(1, AdmissionController.getStatistics().getActiveWorkers());
+		}
+		assertEquals(0, AdmissionController.getStatistics().getActiveWorkers());
+	}
+
+	private static Thread admitInBackground(int slots, AtomicReference<Permit> permit, CountDownLatch admitted) {
+		Thread request = new Thread(() -> {
+			try {
+				permit.set(AdmissionController.admit(slots));
+				admitted.countDown();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		request.setDaemon(true);
+		request.start();
+		return request;
+	}
+
+	/**
+	 * Wait until the provided thread is blocked in the queue of the worker slots.
+	 */
+	private static void awaitWaiting(Thread request) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10 * 1000;
+		while (request.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(Thread.State.WAITING, request.getState());
+	}
+}
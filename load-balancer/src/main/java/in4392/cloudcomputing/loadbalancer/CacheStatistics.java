@@ -0,0 +1,57 @@
+package in4392.cloudcomputing.loadbalancer;
+
+/**
+ * Snapshot of the transcode result cache of the load balancer. Sizes are in bytes.
+ */
+public class CacheStatistics {
+	private long hits;
+	private long misses;
+	private double hitRate;
+	private long evictions;
+	private int entries;
+	private long size;
+	private long maxSize;
+
+	public long getHits() {
+		return hits;
+	}
+	public void setHits(long hits) {
+		this.hits = hits;
+	}
+	public long getMisses() {
+		return misses;
+	}
+	public void setMisses(long misses) {
+		this.misses = misses;
+	}
+	public double getHitRate() {
+		return hitRate;
+	}
+	public void setHitRate(double hitRate) {
+		this.hitRate = hitRate;
+	}
+	public long getEvictions() {
+		return evictions;
+	}
+	public void setEvictions(long evictions) {
+		this.evictions = evictions;
+	}
+	public int getEntries() {
+		return entries;
+	}
+	public void setEntries(int entries) {
+		this.entries = entries;
+	}
+	public long getSize() {
+		return size;
+	}
+	public void setSize(long size) {
+		this.size = size;
+	}
+	public long getMaxSize() {
+		return maxSize;
+	}
+	public void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+	}
+}
@@ -0,0 +1,396 @@
+package in4392.cloudcomputing.loadbalancer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriBuilder;
+
+import in4392.cloudcomputing.loadbalancer.api.Target;
+
+/**
+ * Convert a single video on multiple application instances at the same time.
+ *
+ * The video is split at keyframes without re-encoding, into one segment per application instance in the routing
+ * table. Each segment is sent to the application instance selected by the routing policy, and only the failed segments are
+ * retried on another instance. The converted segments are then joined without re-encoding.
+ *
+ * The maximum amount of segments, the minimum length of a segment (in seconds) and the amount of attempts per
+ * segment can be configured with the "loadbalancer.maxSegments", "loadbalancer.minSegmentLength" and
+ * "loadbalancer.segmentAttempts" system properties.
+ */
+public class DistributedTranscoder {
+	public static final String OUTPUT_FORMAT = ".mkv";
+	private static final int MAX_SEGMENTS = Integer.getInteger("loadbalancer.maxSegments", 16);
+	private static final int MIN_SEGMENT_LENGTH = Integer.getInteger("loadbalancer.minSegmentLength", 10);
+	private static final int SEGMENT_ATTEMPTS = Integer.getInteger("loadbalancer.segmentAttempts", 5);
+	private static final int SEGMENT_RETRY_WAIT_TIME = 2000;
+	private static final ExecutorService segmentTransfers = Executors.newCachedThreadPool((runnable) -> {
+		Thread thread = new Thread(runnable, "segment-transfer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final MetricsRegistry.Histogram transcodeDuration = MetricsRegistry.histogram("loadbalancer_distributed_transcode_duration_seconds",
+			"Time it took to convert a video on multiple application instances, including splitting and joining, in seconds.", MetricsRegistry.LATENCY_BUCKETS);
+
+	/**
+	 * Convert the video in the provided file on the application instances in the routing table.
+	 *
+	 * @param inputFile is the file containing the video that needs to be converted
+	 * @param delayApplication is the amount of seconds that the application will be delayed from
+	 * completing each segment (for testing purposes)
+	 * @return the file containing the converted video, in the same directory as the input file
+	 * @throws IOException if the video could not be split or joined, or a segment could not be converted
+	 * @throws InterruptedException
+	 */
+	public static File transcode(File inputFile, int delayApplication) throws IOException, InterruptedException {
+		long transcodeStart = System.nanoTime();
+		File workingDirectory = inputFile.getAbsoluteFile().toPath().getParent().toFile();
+		double durationInSeconds = probeDuration(inputFile);
+		int amountOfSegments = (int) Math.min(
+				Math.min(MAX_SEGMENTS, Math.max(1, RoutingTable.getTargets().size())),
+				Math.max(1, durationInSeconds / MIN_SEGMENT_LENGTH));
+		File segmentDirectory = Files.createTempDirectory(workingDirectory.toPath(), "segments-").toFile();
+		try {
+			List<File> segments;
+			if (amountOfSegments <= 1) {
+				segments = new ArrayList<>();
+				segments.add(inputFile);
+			}
+			else {
+				segments = splitAtKeyframes(inputFile, segmentDirectory, durationInSeconds / amountOfSegments);
+			}
+			System.out.println("Distributing " + segments.size() + " segments over the application instances");
+			List<SegmentTransfer> transfers = new ArrayList<>();
+			List<Future<File>> convertedSegments = new ArrayList<>();
+			for (File segment : segments) {
+				File convertedSegment = new File(segmentDirectory, "converted-" + segment.getName() + OUTPUT_FORMAT);
+				SegmentTransfer transfer = new SegmentTransfer(segment, convertedSegment, delayApplication);
+				transfers.add(transfer);
+				convertedSegments.add(segmentTransfers.submit(transfer));
+			}
+			List<File> outputSegments = new ArrayList<>();
+			try {
+				for (Future<File> convertedSegment : convertedSegments) {
+					outputSegments.add(convertedSegment.get());
+				}
+			} catch (ExecutionException e) {
+				throw new IOException("Could not convert a segment of " + inputFile.getName(), e.getCause());
+			} finally {
+				stopTransfers(transfers);
+			}
+			File outputFile = new File(workingDirectory, UUID.randomUUID().toString() + OUTPUT_FORMAT);
+			if (outputSegments.size() == 1) {
+				Files.move(outputSegments.get(0).toPath(), outputFile.toPath());
+			}
+			else {
+				concatenate(outputSegments, outputFile);
+			}
+			transcodeDuration.observeSince(transcodeStart);
+			return outputFile;
+		} finally {
+			deleteDirectory(segmentDirectory);
+		}
+	}
+
+	/**
+	 * Abort the segment transfers that are still in progress and wait until they have ended, so none of them still
+	 * uses the segment directory. A transfer that is waiting for an application instance to convert its segment
+	 * only ends once the application instance responds.
+	 */
+	private static void stopTransfers(List<SegmentTransfer> transfers) {
+		transfers.forEach(SegmentTransfer::abort);
+		boolean interrupted = Thread.interrupted();
+		try {
+			for (SegmentTransfer transfer : transfers) {
+				while (true) {
+					try {
+						transfer.ended.await();
+						break;
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Convert a single segment on the application instance selected by the routing policy, retrying it on other application
+	 * instances if it fails.
+	 */
+	private static File transcodeSegment(SegmentTransfer transfer) throws IOException, InterruptedException {
+		File segment = transfer.segment;
+		List<String> failedApplications = new ArrayList<>();
+		IOException lastFailure = null;
+		for (int attempt = 0; attempt < SEGMENT_ATTEMPTS; attempt++) {
+			Target application = RoutingTable.acquire(failedApplications);
+			if (application == null) {
+				application = RoutingTable.acquire(new ArrayList<>());
+			}
+			if (application == null) {
+				lastFailure = new IOException("No application instance is available to convert " + segment.getName());
+				Thread.sleep(SEGMENT_RETRY_WAIT_TIME);
+				continue;
+			}
+			long attemptStart = System.currentTimeMillis();
+			try {
+				System.out.println("Sending segment " + segment.getName() + " to application server at " + application.getTargetURI());
+				Response response;
+				TimedUploadStream upload = new TimedUploadStream(transfer.abortable(new FileInputStream(segment)));
+				try {
+					response = HttpClients.getTransferClient()
+							.target(
+									UriBuilder.fromUri(application.getTargetURI())
+									.path("application")
+									.path("video")
+									.queryParam("delayApplication", transfer.delayApplication)
+									.build())
+							.request()
+							.post(Entity.entity(upload, MediaType.APPLICATION_OCTET_STREAM));
+				} finally {
+					upload.close();
+				}
+				// the latency of the application instance does not include the upload of the segment
+				long latency = System.currentTimeMillis() - Math.max(attemptStart, upload.getCompletedAt());
+				try {
+					if (response.getStatus() != Response.Status.OK.getStatusCode()) {
+						throw new IOException("Application server responded with HTTP status " + response.getStatus());
+					}
+					try (InputStream converted = transfer.abortable(response.readEntity(InputStream.class))) {
+						Files.copy(converted, transfer.convertedSegment.toPath(), StandardCopyOption.REPLACE_EXISTING);
+					}
+				} finally {
+					response.close();
+				}
+				RoutingTable.release(application, latency);
+				return transfer.convertedSegment;
+			} catch (IOException | RuntimeException e) {
+				if (transfer.isAborted()) {
+					// the application instance did not fail, the conversion of another segment did
+					RoutingTable.release(application);
+					throw new IOException("Stopped converting segment " + segment.getName() + " since the conversion was aborted", e);
+				}
+				System.out.println("Converting segment " + segment.getName() + " failed on " + application.getTargetURI() + ": " + e.getMessage());
+				RoutingTable.releaseFailed(application);
+				lastFailure = e instanceof IOException ? (IOException) e : new IOException(e);
+				failedApplications.add(application.getTargetURI().getHost());
+				Thread.sleep(SEGMENT_RETRY_WAIT_TIME);
+			}
+		}
+		throw lastFailure;
+	}
+
+	/**
+	 * Retrieve the duration of the video in the provided file.
+	 *
+	 * @param inputFile is the file containing the video
+	 * @return the duration in seconds, or 0 if it could not be determined
+	 * @throws IOException if ffprobe could not be started
+	 * @throws InterruptedException
+	 */
+	public static double probeDuration(File inputFile) throws IOException, InterruptedException {
+		ProcessBuilder builder = new ProcessBuilder(
+				"ffprobe", "-v", "error",
+				"-show_entries", "format=duration",
+				"-of", "default=noprint_wrappers=1:nokey=1",
+				inputFile.getAbsolutePath());
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		Process p = builder.start();
+		String duration;
+		try(BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))){
+			duration = reader.readLine();
+		}
+		p.waitFor();
+		try {
+			return duration == null ? 0 : Double.parseDouble(duration.trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Split the video in the provided file into segments, without re-encoding. Each segment starts at the first
+	 * keyframe after the segment length has passed, so segments can be slightly longer than requested.
+	 *
+	 * @param inputFile is the file containing the video
+	 * @param segmentDirectory is the directory where the segments are stored
+	 * @param segmentLengthInSeconds is the requested length of each segment
+	 * @return the segments, in order
+	 * @throws IOException if ffmpeg could not split the video
+	 * @throws InterruptedException
+	 */
+	public static List<File> splitAtKeyframes(File inputFile, File segmentDirectory, double segmentLengthInSeconds) throws IOException, InterruptedException {
+		runFfmpeg(segmentDirectory,
+				"ffmpeg", "-y", "-nostats",
+				"-i", inputFile.getAbsolutePath(),
+				"-map", "0", "-codec", "copy",
+				"-f", "segment",
+				"-segment_time", String.format(Locale.ROOT, "%.3f", segmentLengthInSeconds),
+				"-reset_timestamps", "1",
+				"segment-%05d" + OUTPUT_FORMAT);
+		try (Stream<Path> files = Files.list(segmentDirectory.toPath())) {
+			return files
+					.filter((file) -> file.getFileName().toString().startsWith("segment-"))
+					.sorted()
+					.map(Path::toFile)
+					.collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * Join the provided segments into a single video, without re-encoding.
+	 *
+	 * @param segments are the files containing the segments, in order
+	 * @param outputFile is the file where the joined video is stored
+	 * @throws IOException if ffmpeg could not join the segments
+	 * @throws InterruptedException
+	 */
+	public static void concatenate(List<File> segments, File outputFile) throws IOException, InterruptedException {
+		File workingDirectory = outputFile.getAbsoluteFile().toPath().getParent().toFile();
+		File segmentList = new File(workingDirectory, UUID.randomUUID().toString() + ".txt");
+		List<String> lines = new ArrayList<>();
+		for (File segment : segments) {
+			lines.add("file '" + segment.getAbsolutePath().replace("'", "'\\''") + "'");
+		}
+		Files.write(segmentList.toPath(), lines, StandardCharsets.UTF_8);
+		try {
+			runFfmpeg(workingDirectory,
+					"ffmpeg", "-y", "-nostats",
+					"-f", "concat", "-safe", "0",
+					"-i", segmentList.getName(),
+					"-codec", "copy",
+					outputFile.getName());
+		} catch (IOException e) {
+			outputFile.delete();
+			throw e;
+		} finally {
+			segmentList.delete();
+		}
+	}
+
+	private static void runFfmpeg(File workingDirectory, String... command) throws IOException, InterruptedException {
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.directory(workingDirectory);
+		builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		System.out.println("Executing command: " + String.join(" ", builder.command()));
+		int result = builder.start().waitFor();
+		System.out.println("Process exit code: " + result);
+		if (result != 0) {
+			throw new IOException("ffmpeg failed with exit code " + result);
+		}
+	}
+
+	private static void deleteDirectory(File directory) {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	/**
+	 * The conversion of a single segment, which can be aborted from another thread. Interrupting the thread does not
+	 * stop the upload or download of a segment, so the streams that are being transferred fail on their next read
+	 * instead, after which the connection is closed by the thread of the transfer itself.
+	 */
+	private static class SegmentTransfer implements Callable<File> {
+		private final File segment;
+		private final File convertedSegment;
+		private final int delayApplication;
+		private final CountDownLatch ended = new CountDownLatch(1);
+		private volatile boolean aborted;
+		private Thread worker;
+
+		private SegmentTransfer(File segment, File convertedSegment, int delayApplication) {
+			this.segment = segment;
+			this.convertedSegment = convertedSegment;
+			this.delayApplication = delayApplication;
+		}
+
+		@Override
+		public File call() throws IOException, InterruptedException {
+			try {
+				synchronized (this) {
+					if (aborted) {
+						throw new IOException("The conversion of segment " + segment.getName() + " was aborted before it started");
+					}
+					worker = Thread.currentThread();
+				}
+				return transcodeSegment(this);
+			} finally {
+				synchronized (this) {
+					worker = null;
+				}
+				ended.countDown();
+			}
+		}
+
+		/**
+		 * @return a stream that fails on the next read once this is aborted
+		 */
+		private InputStream abortable(InputStream transfer) {
+			return new FilterInputStream(transfer) {
+				@Override
+				public int read() throws IOException {
+					checkAborted();
+					return super.read();
+				}
+
+				@Override
+				public int read(byte[] buffer, int offset, int length) throws IOException {
+					checkAborted();
+					return super.read(buffer, offset, length);
+				}
+			};
+		}
+
+		private void checkAborted() throws IOException {
+			if (aborted) {
+				throw new IOException("The conversion of segment " + segment.getName() + " was aborted");
+			}
+		}
+
+		private boolean isAborted() {
+			return aborted;
+		}
+
+		private synchronized void abort() {
+			aborted = true;
+			if (worker != null) {
+				// stops waiting before a retry
+				worker.interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package in4392.cloudcomputing.loadbalancer;
+
+import java.util.Collection;
+
+import in4392.cloudcomputing.loadbalancer.api.Target;
+
+/**
+ * Select the application instance that is expected to complete the request first, based on the exponentially
+ * weighted moving average of the time it took to complete its previous requests multiplied by the amount of
+ * requests it has in progress. The time is measured from the end of the upload, so large videos and slow clients
+ * do not make an instance look slow.
+ *
+ * Instances that have not completed any requests yet are assumed to be as fast as the fastest instance, so
+ * their latency gets observed. Slow or partly degraded instances then receive fewer requests.
+ */
+public class EwmaLatencyPolicy implements RoutingPolicy {
+	public static final String NAME = "ewma-latency";
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public Target select(Target[] targets, Collection<String> excludedHosts) {
+		// instances without observed latency are assumed to be as fast as the fastest known instance
+		double lowestKnownLatency = Double.MAX_VALUE;
+		for (Target target : targets) {
+			if (target.getAverageLatency() > 0) {
+				lowestKnownLatency = Math.min(lowestKnownLatency, target.getAverageLatency());
+			}
+		}
+		if (lowestKnownLatency == Double.MAX_VALUE) {
+			lowestKnownLatency = 1;
+		}
+		Target fastest = null;
+		double fastestExpectedLatency = Double.MAX_VALUE;
+		for (Target target : targets) {
+			if (excludedHosts.contains(target.getTargetURI().getHost())) {
+				continue;
+			}
+			double averageLatency = target.getAverageLatency() > 0 ? target.getAverageLatency() : lowestKnownLatency;
+			double expectedLatency = averageLatency * (target.getCurrentAmountOfRequests() + 1);
+			if (expectedLatency < fastestExpectedLatency) {
+				fastest = target;
+				fastestExpectedLatency = expectedLatency;
+			}
+		}
+		return fastest;
+	}
+}
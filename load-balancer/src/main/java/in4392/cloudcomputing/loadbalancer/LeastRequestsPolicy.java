@@ -0,0 +1,40 @@
+package in4392.cloudcomputing.loadbalancer;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import in4392.cloudcomputing.loadbalancer.api.Target;
+
+/**
+ * Select the application instance with the least requests in progress. Application instances with the same
+ * amount of requests take turns.
+ */
+public class LeastRequestsPolicy implements RoutingPolicy {
+	public static final String NAME = "least-requests";
+	private final AtomicInteger roundRobinOffset = new AtomicInteger();
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public Target select(Target[] targets, Collection<String> excludedHosts) {
+		// start at a rotating offset, so application instances with the same amount of requests take turns
+		int offset = Math.floorMod(roundRobinOffset.getAndIncrement(), Math.max(targets.length, 1));
+		Target leastLoaded = null;
+		int leastRequests = Integer.MAX_VALUE;
+		for (int i = 0; i < targets.length; i++) {
+			Target target = targets[(offset + i) % targets.length];
+			if (excludedHosts.contains(target.getTargetURI().getHost())) {
+				continue;
+			}
+			int requests = target.getCurrentAmountOfRequests();
+			if (requests < leastRequests) {
+				leastLoaded = target;
+				leastRequests = requests;
+			}
+		}
+		return leastLoaded;
+	}
+}
@@ -6,6 +6,8 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 @SpringBootApplication
 public class LoadBalancerApplication {
 	public static void main(String[] args) {
+		AsyncConsole.install();
+		HttpClients.configure();
 		SpringApplication.run(LoadBalancerApplication.class, args);
 	}
 }
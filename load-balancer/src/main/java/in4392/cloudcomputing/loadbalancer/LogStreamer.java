@@ -0,0 +1,136 @@
+package in4392.cloudcomputing.loadbalancer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * Stream (part of) a log file to a client, without reading it into memory.
+ *
+ * The file is copied with {@link FileChannel#transferTo(long, long, WritableByteChannel)}, so only a small buffer
+ * is used regardless of the size of the log. In follow mode, lines that are appended to the log are sent as they
+ * arrive, until the client disconnects or "log.maxFollowTime" milliseconds have passed (default 10 minutes).
+ */
+public class LogStreamer {
+	private static final long MAX_FOLLOW_TIME = Long.getLong("log.maxFollowTime", 10 * 60 * 1000);
+	private static final long FOLLOW_POLL_INTERVAL = 500;
+	private static final int TAIL_BUFFER_SIZE = 8 * 1024;
+
+	/**
+	 * Create the output that streams the requested part of a log file. If both are provided, the tail takes
+	 * precedence over the offset.
+	 *
+	 * @param logFile is the log file
+	 * @param offset is the position of the first byte to send, or the amount of bytes before the end of the file
+	 * if it is negative. If this is null, the file is sent from the start.
+	 * @param length is the maximum amount of bytes to send, or null to send everything until the end of the file
+	 * @param tailLines is the amount of lines at the end of the file to send, or null to use the offset
+	 * @param follow determines whether lines appended to the file are sent as well. This is ignored if a length
+	 * is provided.
+	 * @return the output that streams the log
+	 * @throws IllegalArgumentException if the length or amount of tail lines is negative
+	 */
+	public static StreamingOutput stream(Path logFile, Long offset, Long length, Integer tailLines, boolean follow) {
+		if (length != null && length < 0) {
+			throw new IllegalArgumentException("The length can not be negative");
+		}
+		if (tailLines != null && tailLines < 0) {
+			throw new IllegalArgumentException("The amount of tail lines can not be negative");
+		}
+		return (output) -> {
+			try (FileChannel log = FileChannel.open(logFile, StandardOpenOption.READ)) {
+				long size = log.size();
+				long start;
+				if (tailLines != null) {
+					start = findStartOfLastLines(log, size, tailLines);
+				}
+				else if (offset != null) {
+					start = offset < 0 ? Math.max(0, size + offset) : Math.min(offset, size);
+				}
+				else {
+					start = 0;
+				}
+				long end = length == null ? size : Math.min(size, start + length);
+				WritableByteChannel client = Channels.newChannel(output);
+				long position = transfer(log, start, end, client);
+				output.flush();
+				if (follow && length == null) {
+					follow(log, position, client, output);
+				}
+			}
+		};
+	}
+
+	private static long transfer(FileChannel log, long start, long end, WritableByteChannel client) throws IOException {
+		long position = start;
+		while (position < end) {
+			long transferred = log.transferTo(position, end - position, client);
+			if (transferred <= 0) {
+				break;
+			}
+			position += transferred;
+		}
+		return position;
+	}
+
+	private static void follow(FileChannel log, long position, WritableByteChannel client, OutputStream output) throws IOException {
+		long deadline = System.currentTimeMillis() + MAX_FOLLOW_TIME;
+		while (System.currentTimeMillis() < deadline) {
+			try {
+				Thread.sleep(FOLLOW_POLL_INTERVAL);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			long size = log.size();
+			if (size < position) {
+				// the log was truncated, so continue from its new start
+				position = 0;
+			}
+			if (size > position) {
+				// writing fails once the client has disconnected, which ends following the log
+				position = transfer(log, position, size, client);
+				output.flush();
+			}
+		}
+	}
+
+	/**
+	 * Find the position of the first byte of the last lines in the file, by reading it backwards.
+	 */
+	private static long findStartOfLastLines(FileChannel log, long size, int lines) throws IOException {
+		if (lines == 0) {
+			return size;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(TAIL_BUFFER_SIZE);
+		// a newline at the very end of the file terminates the last line instead of starting a new one
+		long position = size - 1;
+		int newlines = 0;
+		while (position >= 0) {
+			long chunkStart = Math.max(0, position - TAIL_BUFFER_SIZE + 1);
+			buffer.clear();
+			buffer.limit((int) (position - chunkStart + 1));
+			while (buffer.hasRemaining() && log.read(buffer, chunkStart + buffer.position()) >= 0) {
+				// keep reading until the chunk is complete
+			}
+			for (int i = buffer.position() - 1; i >= 0; i--) {
+				long bytePosition = chunkStart + i;
+				if (buffer.get(i) == '\n' && bytePosition != size - 1) {
+					newlines++;
+					if (newlines == lines) {
+						return bytePosition + 1;
+					}
+				}
+			}
+			position = chunkStart - 1;
+		}
+		return 0;
+	}
+}
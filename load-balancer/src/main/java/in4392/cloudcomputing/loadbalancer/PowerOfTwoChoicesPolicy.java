@@ -0,0 +1,43 @@
+package in4392.cloudcomputing.loadbalancer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import in4392.cloudcomputing.loadbalancer.api.Target;
+
+/**
+ * Pick two random application instances and select the one with the least requests in progress.
+ *
+ * Unlike always selecting the least loaded instance, this does not send every new request to the same instance
+ * when its request count is outdated, while still avoiding heavily loaded instances.
+ */
+public class PowerOfTwoChoicesPolicy implements RoutingPolicy {
+	public static final String NAME = "power-of-two-choices";
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public Target select(Target[] targets, Collection<String> excludedHosts) {
+		List<Target> candidates = new ArrayList<>(targets.length);
+		for (Target target : targets) {
+			if (!excludedHosts.contains(target.getTargetURI().getHost())) {
+				candidates.add(target);
+			}
+		}
+		if (candidates.size() <= 1) {
+			return candidates.isEmpty() ? null : candidates.get(0);
+		}
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int first = random.nextInt(candidates.size());
+		// pick a second instance that is different from the first one
+		int second = (first + 1 + random.nextInt(candidates.size() - 1)) % candidates.size();
+		Target firstChoice = candidates.get(first);
+		Target secondChoice = candidates.get(second);
+		return secondChoice.getCurrentAmountOfRequests() < firstChoice.getCurrentAmountOfRequests() ? secondChoice : firstChoice;
+	}
+}
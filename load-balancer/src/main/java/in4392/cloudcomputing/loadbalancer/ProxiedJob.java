@@ -0,0 +1,65 @@
+package in4392.cloudcomputing.loadbalancer;
+
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.ws.rs.core.UriBuilder;
+
+import in4392.cloudcomputing.loadbalancer.api.Target;
+
+/**
+ * A conversion job that was submitted through the load balancer and runs on a specific application instance.
+ *
+ * The job counts as a request in progress for that application instance until it has finished or is removed.
+ */
+public class ProxiedJob {
+	private final String id;
+	private final Target application;
+	private final String applicationJobId;
+	private final long submittedAt;
+	private final AtomicBoolean released = new AtomicBoolean();
+
+	public ProxiedJob(String id, Target application, String applicationJobId) {
+		this.id = id;
+		this.application = application;
+		this.applicationJobId = applicationJobId;
+		this.submittedAt = System.currentTimeMillis();
+	}
+
+	public String getId() {
+		return id;
+	}
+	public Target getApplication() {
+		return application;
+	}
+	public String getApplicationJobId() {
+		return applicationJobId;
+	}
+	public long getSubmittedAt() {
+		return submittedAt;
+	}
+	public boolean isReleased() {
+		return released.get();
+	}
+
+	/**
+	 * @return the URI of this job on the application instance
+	 */
+	public URI getApplicationJobURI() {
+		return UriBuilder.fromUri(application.getTargetURI())
+				.path("application")
+				.path("jobs")
+				.path(applicationJobId)
+				.build();
+	}
+
+	/**
+	 * Stop counting this job as a request in progress for its application instance. This only has an
+	 * effect the first time it is called.
+	 */
+	public void release() {
+		if (released.compareAndSet(false, true)) {
+			RoutingTable.release(application);
+		}
+	}
+}
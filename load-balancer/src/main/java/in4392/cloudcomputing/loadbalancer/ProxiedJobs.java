@@ -0,0 +1,104 @@
+package in4392.cloudcomputing.loadbalancer;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.Response;
+
+import in4392.cloudcomputing.loadbalancer.api.JobStatus;
+import in4392.cloudcomputing.loadbalancer.api.Target;
+
+/**
+ * Keep track of the conversion jobs that were submitted through the load balancer.
+ *
+ * Jobs that have not finished are polled periodically, so their application instance stops counting them as
+ * a request in progress once they finish, even if the client never checks on them. Jobs are forgotten after
+ * the time configured with the "loadbalancer.jobRetentionTime" system property. Both intervals are in
+ * milliseconds and the polling interval can be configured with the "loadbalancer.jobPollInterval" system property.
+ */
+public class ProxiedJobs {
+	private static final long JOB_RETENTION_TIME = Long.getLong("loadbalancer.jobRetentionTime", 60 * 60 * 1000);
+	private static final long JOB_POLL_INTERVAL = Long.getLong("loadbalancer.jobPollInterval", 10 * 1000);
+	private static final Map<String, ProxiedJob> jobs = new ConcurrentHashMap<>();
+	private static final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+		Thread thread = new Thread(runnable, "job-poller");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	static {
+		poller.scheduleWithFixedDelay(ProxiedJobs::pollJobs, JOB_POLL_INTERVAL, JOB_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+		MetricsRegistry.gauge("loadbalancer_jobs", "Amount of asynchronous jobs that are tracked.", jobs::size);
+	}
+
+	/**
+	 * Keep track of a job that was submitted to an application instance.
+	 *
+	 * @param application is the application instance, as returned by {@link RoutingTable#acquire(java.util.Collection)}
+	 * @param applicationJobId is the id of the job on the application instance
+	 * @return the job, with an id that is unique for this load balancer
+	 */
+	public static ProxiedJob register(Target application, String applicationJobId) {
+		ProxiedJob job = new ProxiedJob(UUID.randomUUID().toString(), application, applicationJobId);
+		jobs.put(job.getId(), job);
+		return job;
+	}
+
+	public static ProxiedJob get(String id) {
+		return jobs.get(id);
+	}
+
+	public static ProxiedJob remove(String id) {
+		ProxiedJob job = jobs.remove(id);
+		if (job != null) {
+			job.release();
+		}
+		return job;
+	}
+
+	/**
+	 * Retrieve the status of the job from its application instance.
+	 *
+	 * @param job is the job
+	 * @return the status of the job, with the id of the job on this load balancer
+	 */
+	public static JobStatus fetchStatus(ProxiedJob job) {
+		Response response = HttpClients.getClient().target(job.getApplicationJobURI()).request().get();
+		JobStatus status;
+		if (response.getStatus() == Response.Status.OK.getStatusCode()) {
+			status = response.readEntity(JobStatus.class);
+		}
+		else {
+			response.close();
+			status = new JobStatus();
+			status.setState("FAILED");
+			status.setError("The job is no longer available on application instance " + job.getApplication().getTargetURI().getHost());
+		}
+		status.setId(job.getId());
+		if (status.isFinished()) {
+			job.release();
+		}
+		return status;
+	}
+
+	private static void pollJobs() {
+		long expiredBefore = System.currentTimeMillis() - JOB_RETENTION_TIME;
+		for (ProxiedJob job : jobs.values()) {
+			if (job.getSubmittedAt() < expiredBefore) {
+				System.out.println("Removing expired conversion job " + job.getId());
+				remove(job.getId());
+			}
+			else if (!job.isReleased()) {
+				try {
+					fetchStatus(job);
+				} catch (Exception e) {
+					System.out.println("Could not retrieve the status of conversion job " + job.getId() + ": " + e.getMessage());
+				}
+			}
+		}
+	}
+}
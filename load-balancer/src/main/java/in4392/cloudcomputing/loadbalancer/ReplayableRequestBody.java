@@ -0,0 +1,238 @@
+package in4392.cloudcomputing.loadbalancer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+/**
+ * Request body that is streamed from the client while it is being proxied to an application instance,
+ * but that can still be replayed when the request needs to be retried on another application instance.
+ *
+ * Everything that is read from the client is recorded. The first part is kept in memory, up to the
+ * provided memory limit, and anything beyond that is spilled to a temporary file. Only one attempt can
+ * read the body at a time, starting a new attempt invalidates the previous one.
+ */
+public class ReplayableRequestBody implements Closeable {
+	private static final int INITIAL_MEMORY_SIZE = 64 * 1024;
+	private final InputStream source;
+	private final int memoryLimit;
+	private byte[] memory = new byte[0];
+	private int memoryLength;
+	private File spillFile;
+	private OutputStream spillOutput;
+	private long spilledLength;
+	private boolean sourceExhausted;
+	private Attempt currentAttempt;
+
+	/**
+	 * @param source is the stream containing the request body from the client
+	 * @param memoryLimit is the maximum amount of bytes that is kept in memory, anything beyond this is
+	 * stored in a temporary file
+	 */
+	public ReplayableRequestBody(InputStream source, int memoryLimit) {
+		this.source = source;
+		this.memoryLimit = memoryLimit;
+	}
+
+	/**
+	 * Start a new attempt at sending the request body.
+	 *
+	 * @return a stream that first replays everything that was already received from the client and
+	 * then continues reading from the client
+	 * @throws IOException if the spilled part of the body could not be flushed to disk
+	 */
+	public synchronized InputStream newAttempt() throws IOException {
+		if (currentAttempt != null) {
+			currentAttempt.close();
+		}
+		if (spillOutput != null) {
+			spillOutput.flush();
+		}
+		currentAttempt = new Attempt();
+		return currentAttempt;
+	}
+
+	/**
+	 * Receive the rest of the request body from the client, without sending it anywhere yet. This can be used
+	 * when the whole body is needed before deciding where to send it.
+	 *
+	 * @throws IOException if the body could not be received or spilled to disk
+	 */
+	public synchronized void readFully() throws IOException {
+		byte[] buffer = new byte[INITIAL_MEMORY_SIZE];
+		while (!sourceExhausted) {
+			int read = source.read(buffer);
+			if (read < 0) {
+				sourceExhausted = true;
+			}
+			else {
+				record(buffer, 0, read);
+			}
+		}
+	}
+
+	/**
+	 * Receive the rest of the request body from the client and store the whole body in a single file, which can be
+	 * used instead of storing the body again. The part of the body that was kept in memory is moved to the file, so
+	 * nothing needs to be copied if the memory limit is 0. Any attempt that is in progress is invalidated.
+	 *
+	 * @return the temporary file containing the whole request body, which is removed when this is closed
+	 * @throws IOException if the body could not be received or stored
+	 */
+	public synchronized File toFile() throws IOException {
+		readFully();
+		if (currentAttempt != null) {
+			currentAttempt.close();
+		}
+		if (spillOutput != null) {
+			spillOutput.close();
+			spillOutput = null;
+		}
+		if (spillFile == null || memoryLength > 0) {
+			File bodyFile = createBodyFile();
+			try (OutputStream bodyOutput = new FileOutputStream(bodyFile)) {
+				bodyOutput.write(memory, 0, memoryLength);
+				if (spillFile != null) {
+					Files.copy(spillFile.toPath(), bodyOutput);
+					Files.delete(spillFile.toPath());
+				}
+			}
+			spillFile = bodyFile;
+			spilledLength += memoryLength;
+			memoryLength = 0;
+			memory = new byte[0];
+		}
+		return spillFile;
+	}
+
+	public synchronized long getRecordedLength() {
+		return memoryLength + spilledLength;
+	}
+
+	public synchronized boolean isSpilledToDisk() {
+		return spillFile != null;
+	}
+
+	/**
+	 * Remove the temporary file, if the body was spilled to disk. This does not close the stream from
+	 * the client, since that is managed by the server.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (currentAttempt != null) {
+			currentAttempt.close();
+		}
+		if (spillOutput != null) {
+			spillOutput.close();
+		}
+		if (spillFile != null) {
+			Files.deleteIfExists(spillFile.toPath());
+		}
+		memory = new byte[0];
+	}
+
+	private void record(byte[] buffer, int offset, int length) throws IOException {
+		int toMemory = Math.max(0, Math.min(length, memoryLimit - memoryLength));
+		if (toMemory > 0) {
+			ensureMemoryCapacity(memoryLength + toMemory);
+			System.arraycopy(buffer, offset, memory, memoryLength, toMemory);
+			memoryLength += toMemory;
+		}
+		int toDisk = length - toMemory;
+		if (toDisk > 0) {
+			if (spillOutput == null) {
+				System.out.println("Request body is larger than " + memoryLimit + " bytes, spilling the remainder to disk");
+				spillFile = createBodyFile();
+				spillOutput = new FileOutputStream(spillFile);
+			}
+			spillOutput.write(buffer, offset + toMemory, toDisk);
+			spilledLength += toDisk;
+		}
+	}
+
+	private static File createBodyFile() throws IOException {
+		return File.createTempFile("load-balancer-body-", ".tmp");
+	}
+
+	private void ensureMemoryCapacity(int capacity) {
+		if (capacity <= memory.length) {
+			return;
+		}
+		int newSize = Math.max(memory.length, INITIAL_MEMORY_SIZE);
+		while (newSize < capacity) {
+			newSize = newSize * 2;
+		}
+		byte[] resized = new byte[Math.min(newSize, memoryLimit)];
+		System.arraycopy(memory, 0, resized, 0, memoryLength);
+		memory = resized;
+	}
+
+	private synchronized int readForAttempt(Attempt attempt, byte[] buffer, int offset, int length) throws IOException {
+		if (attempt.closed) {
+			throw new IOException("This attempt at sending the request body has been superseded by a newer attempt");
+		}
+		if (length == 0) {
+			return 0;
+		}
+		if (attempt.position < memoryLength) {
+			int read = (int) Math.min(length, memoryLength - attempt.position);
+			System.arraycopy(memory, (int) attempt.position, buffer, offset, read);
+			attempt.position += read;
+			return read;
+		}
+		if (attempt.position < memoryLength + spilledLength) {
+			if (attempt.spillInput == null) {
+				attempt.spillInput = new FileInputStream(spillFile);
+			}
+			int toRead = (int) Math.min(length, memoryLength + spilledLength - attempt.position);
+			int read = attempt.spillInput.read(buffer, offset, toRead);
+			if (read < 0) {
+				throw new IOException("The spilled request body ended before the recorded length");
+			}
+			attempt.position += read;
+			return read;
+		}
+		if (sourceExhausted) {
+			return -1;
+		}
+		int read = source.read(buffer, offset, length);
+		if (read < 0) {
+			sourceExhausted = true;
+			return -1;
+		}
+		record(buffer, offset, read);
+		attempt.position += read;
+		return read;
+	}
+
+	private class Attempt extends InputStream {
+		private long position;
+		private InputStream spillInput;
+		private boolean closed;
+
+		@Override
+		public int read() throws IOException {
+			byte[] single = new byte[1];
+			int read = read(single, 0, 1);
+			return read < 0 ? -1 : single[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			return readForAttempt(this, buffer, offset, length);
+		}
+
+		@Override
+		public void close() throws IOException {
+			closed = true;
+			if (spillInput != null) {
+				spillInput.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package in4392.cloudcomputing.loadbalancer;
+
+import java.util.Collection;
+
+import in4392.cloudcomputing.loadbalancer.api.Target;
+
+/**
+ * Decides which application instance handles the next request.
+ */
+public interface RoutingPolicy {
+	/**
+	 * @return the name with which this policy can be selected
+	 */
+	String getName();
+
+	/**
+	 * Select the application instance for the next request. This does not count the request for the selected
+	 * application instance, which is done by the {@link RoutingTable}.
+	 *
+	 * @param targets are the application instances in the routing table
+	 * @param excludedHosts are the host names of application instances that should not be selected
+	 * @return the selected application instance, or null if no application instance is available
+	 */
+	Target select(Target[] targets, Collection<String> excludedHosts);
+}
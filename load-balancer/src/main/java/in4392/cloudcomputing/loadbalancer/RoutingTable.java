@@ -0,0 +1,379 @@
+package in4392.cloudcomputing.loadbalancer;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.UriBuilder;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import in4392.cloudcomputing.loadbalancer.api.Target;
+
+/**
+ * Local replica of the application instances that requests can be routed to.
+ *
+ * The application instances are polled from the AppOrchestrator periodically, so routing decisions are made
+ * locally without a call to the AppOrchestrator for every request. The amount of requests in progress for each
+ * application instance is tracked with atomic counters and reported back to the AppOrchestrator in a single
+ * batch, together with the amount of requests that were started and completed since the previous report, so it can
+ * still use them for scaling. Failed requests are reported to the AppOrchestrator right away, so it
+ * can check the health of the application instance without waiting for its next health checks.
+ *
+ * The intervals can be configured with the "loadbalancer.targetRefreshInterval" and
+ * "loadbalancer.utilizationReportInterval" system properties, in milliseconds. The routing policy that selects
+ * the application instance can be changed at runtime, its initial value can be configured with the
+ * "loadbalancer.routingPolicy" system property.
+ */
+public class RoutingTable {
+	private static final long TARGET_REFRESH_INTERVAL = Long.getLong("loadbalancer.targetRefreshInterval", 5 * 1000);
+	private static final long UTILIZATION_REPORT_INTERVAL = Long.getLong("loadbalancer.utilizationReportInterval", 5 * 1000);
+	private static final String API_ROOT_APPLICATION_ORCHESTRATOR = "application-orchestrator";
+	private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+		Thread thread = new Thread(runnable, "routing-table");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final Map<String, Target> targetsByHost = new ConcurrentHashMap<>();
+	private static final Set<String> pendingFailureReports = ConcurrentHashMap.newKeySet();
+	private static volatile RoutingPolicy routingPolicy = createRoutingPolicy(System.getProperty("loadbalancer.routingPolicy", LeastRequestsPolicy.NAME));
+	private static volatile Target[] targets = new Target[0];
+	private static volatile URI appOrchestratorURI;
+	private static final Map<String, Integer> lastReportedUtilization = new ConcurrentHashMap<>();
+	private static final LongAdder startedRequests = new LongAdder();
+	private static final LongAdder completedRequests = new LongAdder();
+	// only used by the report task, so the counts that were not reported yet are sent with the next report
+	private static long reportedStartedRequests;
+	private static long reportedCompletedRequests;
+	private static ScheduledFuture<?> refreshTask;
+	private static ScheduledFuture<?> reportTask;
+	private static final MetricsRegistry.Histogram proxyDuration = MetricsRegistry.histogram("loadbalancer_proxy_duration_seconds",
+			"Time it took an application instance to complete a proxied request after it was uploaded, in seconds.", MetricsRegistry.LATENCY_BUCKETS);
+	private static final MetricsRegistry.Histogram refreshTargetsDuration = MetricsRegistry.histogram("loadbalancer_orchestrator_call_duration_seconds",
+			"Time it took to call the AppOrchestrator, in seconds.", MetricsRegistry.LATENCY_BUCKETS, "call", "targets");
+	private static final MetricsRegistry.Histogram reportUtilizationDuration = MetricsRegistry.histogram("loadbalancer_orchestrator_call_duration_seconds",
+			"Time it took to call the AppOrchestrator, in seconds.", MetricsRegistry.LATENCY_BUCKETS, "call", "utilization");
+	private static final MetricsRegistry.Histogram reportFailureDuration = MetricsRegistry.histogram("loadbalancer_orchestrator_call_duration_seconds",
+			"Time it took to call the AppOrchestrator, in seconds.", MetricsRegistry.LATENCY_BUCKETS, "call", "failed");
+
+	static {
+		MetricsRegistry.gauge("loadbalancer_targets", "Amount of application instances in the routing table.", () -> targets.length);
+		MetricsRegistry.gauge("loadbalancer_requests_in_flight", "Amount of requests in progress on the application instances.", () -> {
+			int inFlight = 0;
+			for (Target target : targets) {
+				inFlight += target.getCurrentAmountOfRequests();
+			}
+			return inFlight;
+		});
+	}
+
+	/**
+	 * Start (or restart) polling the provided AppOrchestrator for application instances.
+	 *
+	 * @param appOrchestrator is the URI of the AppOrchestrator
+	 */
+	public static synchronized void start(URI appOrchestrator) {
+		appOrchestratorURI = appOrchestrator;
+		if (refreshTask != null) {
+			refreshTask.cancel(false);
+			reportTask.cancel(false);
+		}
+		lastReportedUtilization.clear();
+		refreshTask = scheduler.scheduleWithFixedDelay(RoutingTable::refreshTargetsSafely, 0, TARGET_REFRESH_INTERVAL, TimeUnit.MILLISECONDS);
+		reportTask = scheduler.scheduleWithFixedDelay(RoutingTable::reportUtilizationSafely, UTILIZATION_REPORT_INTERVAL, UTILIZATION_REPORT_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Select an application instance with the current routing policy and count a new request for it.
+	 *
+	 * @param excludedHosts are the host names of application instances that should not be selected
+	 * @return the selected application instance, or null if no application instance is available
+	 */
+	public static Target acquire(Collection<String> excludedHosts) {
+		Target[] currentTargets = targets;
+		if (currentTargets.length == 0) {
+			refreshTargetsSafely();
+			currentTargets = targets;
+		}
+		Target selected = routingPolicy.select(currentTargets, excludedHosts);
+		if (selected != null) {
+			selected.incrementCurrentAmountOfRequests();
+			startedRequests.increment();
+		}
+		return selected;
+	}
+
+	/**
+	 * Count a request as completed for the provided application instance.
+	 *
+	 * @param target is the application instance that was returned by {@link #acquire(Collection)}
+	 */
+	public static void release(Target target) {
+		target.decrementCurrentAmountofRequests();
+		completedRequests.increment();
+	}
+
+	/**
+	 * Count a request as successfully completed for the provided application instance and record how long it took.
+	 *
+	 * @param target is the application instance that was returned by {@link #acquire(Collection)}
+	 * @param latencyInMilliseconds is the time it took the application instance to complete the request, from the end
+	 * of its upload
+	 */
+	public static void release(Target target, long latencyInMilliseconds) {
+		target.recordLatency(latencyInMilliseconds);
+		proxyDuration.observe(latencyInMilliseconds / 1000.0);
+		release(target);
+	}
+
+	/**
+	 * Keep counting a request for the provided application instance until its response has been transferred. The
+	 * request is counted as successfully completed once the end of the response is reached, as failed if reading
+	 * the response fails, and as completed without its latency if the response is closed before its end.
+	 *
+	 * @param target is the application instance that was returned by {@link #acquire(Collection)}
+	 * @param response is the response of the application instance, which is still being transferred
+	 * @param latencyInMilliseconds is the time it took the application instance to start its response
+	 * @return the response, which releases the request once it has been read or closed
+	 */
+	public static InputStream releaseWhenTransferred(Target target, InputStream response, long latencyInMilliseconds) {
+		return new ReleasingInputStream(target, response, latencyInMilliseconds);
+	}
+
+	/**
+	 * Count a request as failed for the provided application instance and report the failure to the AppOrchestrator
+	 * in the background. Failures of an application instance that are not reported yet are combined into one report.
+	 *
+	 * @param target is the application instance that was returned by {@link #acquire(Collection)}
+	 */
+	public static void releaseFailed(Target target) {
+		release(target);
+		String host = target.getTargetURI().getHost();
+		if (pendingFailureReports.add(host)) {
+			scheduler.execute(() -> reportFailureSafely(host));
+		}
+	}
+
+	public static RoutingPolicy getRoutingPolicy() {
+		return routingPolicy;
+	}
+
+	/**
+	 * Change the policy that selects the application instance for each request.
+	 *
+	 * @param name is the name of the routing policy
+	 * @throws IllegalArgumentException if there is no routing policy with this name
+	 */
+	public static void setRoutingPolicy(String name) {
+		routingPolicy = createRoutingPolicy(name);
+		System.out.println("Routing requests with the " + routingPolicy.getName() + " policy");
+	}
+
+	/**
+	 * Set the weight of an application instance, which is used by the weighted routing policies.
+	 *
+	 * @param host is the host name of the application instance
+	 * @param weight is the weight, relative to the default weight of 1
+	 * @return false if the application instance is not in the routing table
+	 */
+	public static boolean setWeight(String host, double weight) {
+		Target target = targetsByHost.get(host);
+		if (target == null) {
+			return false;
+		}
+		target.setWeight(weight);
+		return true;
+	}
+
+	private static RoutingPolicy createRoutingPolicy(String name) {
+		switch (name.trim().toLowerCase()) {
+			case LeastRequestsPolicy.NAME:
+				return new LeastRequestsPolicy();
+			case PowerOfTwoChoicesPolicy.NAME:
+				return new PowerOfTwoChoicesPolicy();
+			case WeightedLeastConnectionsPolicy.NAME:
+				return new WeightedLeastConnectionsPolicy();
+			case EwmaLatencyPolicy.NAME:
+				return new EwmaLatencyPolicy();
+			default:
+				throw new IllegalArgumentException("Unknown routing policy: " + name);
+		}
+	}
+
+	public static List<Target> getTargets() {
+		return Arrays.asList(targets);
+	}
+
+	private static void refreshTargetsSafely() {
+		try {
+			refreshTargets();
+		} catch (Exception e) {
+			System.out.println("Could not retrieve the application instances from the AppOrchestrator: " + e.getMessage());
+		}
+	}
+
+	private static synchronized void refreshTargets() {
+		if (appOrchestratorURI == null) {
+			return;
+		}
+		long callStart = System.nanoTime();
+		List<URI> applicationURIs = HttpClients.getClient()
+				.target(UriBuilder.fromUri(appOrchestratorURI)
+						.port(8080)
+						.path(API_ROOT_APPLICATION_ORCHESTRATOR)
+						.path("targets")
+						.build())
+				.request()
+				.get(new GenericType<List<URI>>(new TypeReference<List<URI>>() {}.getType()));
+		refreshTargetsDuration.observeSince(callStart);
+		Map<String, Target> refreshedTargets = new HashMap<>();
+		for (URI applicationURI : applicationURIs) {
+			Target existingTarget = targetsByHost.get(applicationURI.getHost());
+			refreshedTargets.put(applicationURI.getHost(), existingTarget != null ? existingTarget : new Target(applicationURI, 0));
+		}
+		targetsByHost.keySet().retainAll(refreshedTargets.keySet());
+		targetsByHost.putAll(refreshedTargets);
+		targets = refreshedTargets.values().toArray(new Target[0]);
+	}
+
+	private static void reportFailureSafely(String host) {
+		pendingFailureReports.remove(host);
+		try {
+			reportFailure(host);
+		} catch (Exception e) {
+			System.out.println("Could not report the failed request to the AppOrchestrator: " + e.getMessage());
+		}
+	}
+
+	private static void reportFailure(String host) {
+		if (appOrchestratorURI == null) {
+			return;
+		}
+		long callStart = System.nanoTime();
+		HttpClients.getClient()
+		.target(UriBuilder.fromUri(appOrchestratorURI)
+				.port(8080)
+				.path(API_ROOT_APPLICATION_ORCHESTRATOR)
+				.path("failed")
+				.queryParam("applicationDnsName", host)
+				.build())
+		.request()
+		.get()
+		.close();
+		reportFailureDuration.observeSince(callStart);
+	}
+
+	private static void reportUtilizationSafely() {
+		try {
+			reportUtilization();
+		} catch (Exception e) {
+			System.out.println("Could not report the application utilization to the AppOrchestrator: " + e.getMessage());
+		}
+	}
+
+	private static void reportUtilization() {
+		if (appOrchestratorURI == null) {
+			return;
+		}
+		Map<String, Integer> utilization = new HashMap<>();
+		for (Target target : targets) {
+			utilization.put(target.getTargetURI().getHost(), target.getCurrentAmountOfRequests());
+		}
+		long started = startedRequests.sum();
+		long completed = completedRequests.sum();
+		if (utilization.equals(lastReportedUtilization) && started == reportedStartedRequests && completed == reportedCompletedRequests) {
+			return;
+		}
+		long callStart = System.nanoTime();
+		HttpClients.getClient()
+		.target(UriBuilder.fromUri(appOrchestratorURI)
+				.port(8080)
+				.path(API_ROOT_APPLICATION_ORCHESTRATOR)
+				.path("utilization")
+				.queryParam("arrivals", started - reportedStartedRequests)
+				.queryParam("completions", completed - reportedCompletedRequests)
+				.build())
+		.request()
+		.post(Entity.entity(utilization, MediaType.APPLICATION_JSON))
+		.close();
+		reportUtilizationDuration.observeSince(callStart);
+		lastReportedUtilization.keySet().retainAll(utilization.keySet());
+		lastReportedUtilization.putAll(utilization);
+		reportedStartedRequests = started;
+		reportedCompletedRequests = completed;
+	}
+
+	private static class ReleasingInputStream extends FilterInputStream {
+		private final AtomicBoolean released = new AtomicBoolean();
+		private final Target target;
+		private final long latencyInMilliseconds;
+
+		private ReleasingInputStream(Target target, InputStream response, long latencyInMilliseconds) {
+			super(response);
+			this.target = target;
+			this.latencyInMilliseconds = latencyInMilliseconds;
+		}
+
+		@Override
+		public int read() throws IOException {
+			try {
+				int read = super.read();
+				if (read < 0 && released.compareAndSet(false, true)) {
+					release(target, latencyInMilliseconds);
+				}
+				return read;
+			} catch (IOException e) {
+				releaseAfterFailure();
+				throw e;
+			}
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			try {
+				int read = super.read(buffer, offset, length);
+				if (read < 0 && released.compareAndSet(false, true)) {
+					release(target, latencyInMilliseconds);
+				}
+				return read;
+			} catch (IOException e) {
+				releaseAfterFailure();
+				throw e;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				if (released.compareAndSet(false, true)) {
+					release(target);
+				}
+			}
+		}
+
+		private void releaseAfterFailure() {
+			if (released.compareAndSet(false, true)) {
+				releaseFailed(target);
+			}
+		}
+	}
+}
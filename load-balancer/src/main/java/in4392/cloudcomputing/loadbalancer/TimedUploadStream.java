@@ -0,0 +1,49 @@
+package in4392.cloudcomputing.loadbalancer;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Request body that records when it has been sent completely, so the latency of an application instance can be
+ * measured from the end of the upload. The time it takes to upload a video depends on its size and on the client,
+ * not on how fast the application instance is.
+ */
+public class TimedUploadStream extends FilterInputStream {
+	private volatile long completedAt;
+
+	public TimedUploadStream(InputStream upload) {
+		super(upload);
+	}
+
+	@Override
+	public int read() throws IOException {
+		int read = super.read();
+		if (read < 0) {
+			complete();
+		}
+		return read;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		int read = super.read(buffer, offset, length);
+		if (read < 0) {
+			complete();
+		}
+		return read;
+	}
+
+	/**
+	 * @return the time in milliseconds at which the end of the upload was reached, or 0 if it has not been reached
+	 */
+	public long getCompletedAt() {
+		return completedAt;
+	}
+
+	private void complete() {
+		if (completedAt == 0) {
+			completedAt = System.currentTimeMillis();
+		}
+	}
+}
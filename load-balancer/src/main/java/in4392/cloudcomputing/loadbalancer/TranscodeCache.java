@@ -0,0 +1,342 @@
+package in4392.cloudcomputing.loadbalancer;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.UriBuilder;
+
+import in4392.cloudcomputing.loadbalancer.api.Target;
+
+/**
+ * Cache of converted videos on the local disk of the load balancer, so a video that was already converted is
+ * returned without sending it to an application instance.
+ *
+ * Entries are addressed by the SHA-256 hash of the input video together with the conversion mode and the ffmpeg
+ * parameters that the application instances report, which are fetched again every minute. When the total size of
+ * the cached videos exceeds the maximum size, the least recently used entries are removed.
+ *
+ * The input video has to be received completely before it can be looked up, so a request that uses the cache is
+ * only sent to an application instance once its whole body has been buffered. That is why requests only use the
+ * cache when they ask for it, unless it is enabled by default.
+ *
+ * The cache can be configured with the "loadbalancer.cacheEnabled" (whether requests use the cache by default,
+ * false by default), "loadbalancer.cacheSize" (in bytes, 1 GiB by default) and "loadbalancer.cacheDirectory"
+ * system properties.
+ */
+public class TranscodeCache {
+	public static final boolean ENABLED_BY_DEFAULT = Boolean.parseBoolean(System.getProperty("loadbalancer.cacheEnabled", "false"));
+	private static final long MAX_SIZE = Long.getLong("loadbalancer.cacheSize", 1024L * 1024 * 1024);
+	private static final Path CACHE_DIRECTORY = Paths.get(System.getProperty("loadbalancer.cacheDirectory", "transcode-cache"));
+	private static final long PARAMETERS_REFRESH_INTERVAL = 60 * 1000;
+	private static final Object parametersLock = new Object();
+	// the ffmpeg parameters with which the application instances convert videos, as they reported them
+	private static volatile String transcodeParameters;
+	private static volatile long parametersRefreshedAt;
+	private static final String PARTIAL_ENTRY_MARKER = ".partial-";
+	private static final Map<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private static final LongAdder hits = new LongAdder();
+	private static final LongAdder misses = new LongAdder();
+	private static final LongAdder evictions = new LongAdder();
+	private static long size;
+
+	static {
+		loadExistingEntries();
+		MetricsRegistry.counter("loadbalancer_cache_hits_total", "Amount of conversions served from the transcode cache.", hits::sum);
+		MetricsRegistry.counter("loadbalancer_cache_misses_total", "Amount of conversions that were not in the transcode cache.", misses::sum);
+		MetricsRegistry.counter("loadbalancer_cache_evictions_total", "Amount of entries evicted from the transcode cache.", evictions::sum);
+		MetricsRegistry.gauge("loadbalancer_cache_size_bytes", "Total size of the entries in the transcode cache.", () -> getStatistics().getSize());
+	}
+
+	/**
+	 * @return a digest for hashing an input video, which can be turned into a cache key with {@link #key(byte[], String)}
+	 */
+	public static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not supported by this JVM", e);
+		}
+	}
+
+	/**
+	 * @param inputHash is the hash of the input video
+	 * @param mode is the conversion mode, since the modes produce different output for the same input
+	 * @return the key of the converted video in the cache, or null if no application instance reported its ffmpeg
+	 * parameters, in which case the cache can not be used
+	 */
+	public static String key(byte[] inputHash, String mode) {
+		String parameters = getTranscodeParameters();
+		return parameters == null ? null : key(inputHash, mode, parameters);
+	}
+
+	static String key(byte[] inputHash, String mode, String transcodeParameters) {
+		MessageDigest digest = newDigest();
+		digest.update(inputHash);
+		digest.update(transcodeParameters.getBytes(StandardCharsets.UTF_8));
+		digest.update((" mode=" + mode.trim().toLowerCase()).getBytes(StandardCharsets.UTF_8));
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Look up a converted video in the cache.
+	 *
+	 * @param key is the key of the converted video
+	 * @return the converted video, or null if it is not in the cache
+	 * @throws IOException if the cached video could not be opened
+	 */
+	public static synchronized InputStream get(String key) throws IOException {
+		if (entries.get(key) == null) {
+			misses.increment();
+			return null;
+		}
+		try {
+			InputStream cachedVideo = Files.newInputStream(entryPath(key));
+			hits.increment();
+			return cachedVideo;
+		} catch (NoSuchFileException e) {
+			size -= entries.remove(key);
+			misses.increment();
+			return null;
+		}
+	}
+
+	/**
+	 * Store the converted video in the cache while it is being read.
+	 *
+	 * The video is only added to the cache once it has been read completely. Failing to write to the cache
+	 * never affects the returned stream.
+	 *
+	 * @param key is the key of the converted video
+	 * @param convertedVideo is the converted video
+	 * @return a stream that returns the same data as the converted video
+	 */
+	public static InputStream store(String key, InputStream convertedVideo) {
+		return new CachingInputStream(key, convertedVideo);
+	}
+
+	public static synchronized CacheStatistics getStatistics() {
+		CacheStatistics statistics = new CacheStatistics();
+		long hitCount = hits.sum();
+		long missCount = misses.sum();
+		statistics.setHits(hitCount);
+		statistics.setMisses(missCount);
+		statistics.setHitRate(hitCount + missCount == 0 ? 0 : hitCount / (double) (hitCount + missCount));
+		statistics.setEvictions(evictions.sum());
+		statistics.setEntries(entries.size());
+		statistics.setSize(size);
+		statistics.setMaxSize(MAX_SIZE);
+		return statistics;
+	}
+
+	private static String getTranscodeParameters() {
+		if (transcodeParameters == null || System.currentTimeMillis() - parametersRefreshedAt > PARAMETERS_REFRESH_INTERVAL) {
+			synchronized (parametersLock) {
+				if (transcodeParameters == null || System.currentTimeMillis() - parametersRefreshedAt > PARAMETERS_REFRESH_INTERVAL) {
+					refreshTranscodeParameters();
+				}
+			}
+		}
+		return transcodeParameters;
+	}
+
+	/**
+	 * Ask the application instances in the routing table for their ffmpeg parameters, until one of them responds. 
+	 * The previous parameters are kept if none of them responds.
+	 */
+	private static void refreshTranscodeParameters() {
+		for (Target target : RoutingTable.getTargets()) {
+			try {
+				String parameters = HttpClients.getClient()
+						.target(
+								UriBuilder.fromUri(target.getTargetURI())
+								.path("application")
+								.path("transcode-parameters")
+								.build())
+						.request(MediaType.TEXT_PLAIN)
+						.get(String.class);
+				if (!parameters.equals(transcodeParameters)) {
+					System.out.println("Application instances convert videos with parameters: " + parameters);
+				}
+				transcodeParameters = parameters;
+				parametersRefreshedAt = System.currentTimeMillis();
+				return;
+			} catch (ProcessingException | WebApplicationException e) {
+				System.out.println("Could not retrieve the ffmpeg parameters of " + target.getTargetURI() + ": " + e.getMessage());
+			}
+		}
+	}
+
+	private static synchronized void add(String key, Path completedFile) throws IOException {
+		Files.move(completedFile, entryPath(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		long entrySize = Files.size(entryPath(key));
+		Long previousSize = entries.put(key, entrySize);
+		size += entrySize - (previousSize == null ? 0 : previousSize);
+		evictLeastRecentlyUsed();
+	}
+
+	private static void evictLeastRecentlyUsed() {
+		Iterator<Map.Entry<String, Long>> leastRecentlyUsed = entries.entrySet().iterator();
+		while (size > MAX_SIZE && leastRecentlyUsed.hasNext()) {
+			Map.Entry<String, Long> entry = leastRecentlyUsed.next();
+			leastRecentlyUsed.remove();
+			size -= entry.getValue();
+			evictions.increment();
+			try {
+				// on Linux, a cached video that is still being returned to a user can still be read after this
+				Files.deleteIfExists(entryPath(entry.getKey()));
+			} catch (IOException e) {
+				System.out.println("Could not remove cached video " + entry.getKey() + ": " + e.getMessage());
+			}
+		}
+	}
+
+	private static synchronized void loadExistingEntries() {
+		File[] files = CACHE_DIRECTORY.toFile().listFiles();
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for (File file : files) {
+			if (file.getName().contains(PARTIAL_ENTRY_MARKER)) {
+				file.delete();
+			}
+			else {
+				entries.put(file.getName(), file.length());
+				size += file.length();
+			}
+		}
+		evictLeastRecentlyUsed();
+		System.out.println("Loaded " + entries.size() + " cached videos (" + size + " bytes)");
+	}
+
+	private static Path entryPath(String key) {
+		return CACHE_DIRECTORY.resolve(key);
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Copy everything that is read to a partial cache entry, which is added to the cache once the end of the
+	 * stream is reached and discarded if the stream is closed before that.
+	 */
+	private static class CachingInputStream extends FilterInputStream {
+		private final String key;
+		private Path partialFile;
+		private OutputStream partialOutput;
+
+		private CachingInputStream(String key, InputStream convertedVideo) {
+			super(convertedVideo);
+			this.key = key;
+			try {
+				Files.createDirectories(CACHE_DIRECTORY);
+				partialFile = CACHE_DIRECTORY.resolve(key + PARTIAL_ENTRY_MARKER + UUID.randomUUID());
+				partialOutput = Files.newOutputStream(partialFile);
+			} catch (IOException e) {
+				System.out.println("Could not cache converted video " + key + ": " + e.getMessage());
+				discard();
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			int read = super.read();
+			if (read < 0) {
+				complete();
+			}
+			else if (partialOutput != null) {
+				try {
+					partialOutput.write(read);
+				} catch (IOException e) {
+					discard();
+				}
+			}
+			return read;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int read = super.read(buffer, offset, length);
+			if (read < 0) {
+				complete();
+			}
+			else if (partialOutput != null) {
+				try {
+					partialOutput.write(buffer, offset, read);
+				} catch (IOException e) {
+					discard();
+				}
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			// skipped data would be missing from the cached video
+			discard();
+			return super.skip(n);
+		}
+
+		@Override
+		public void close() throws IOException {
+			super.close();
+			discard();
+		}
+
+		private void complete() {
+			if (partialOutput == null) {
+				return;
+			}
+			try {
+				partialOutput.close();
+				partialOutput = null;
+				add(key, partialFile);
+				partialFile = null;
+			} catch (IOException e) {
+				System.out.println("Could not cache converted video " + key + ": " + e.getMessage());
+				discard();
+			}
+		}
+
+		private void discard() {
+			try {
+				if (partialOutput != null) {
+					partialOutput.close();
+				}
+				if (partialFile != null) {
+					Files.deleteIfExists(partialFile);
+				}
+			} catch (IOException e) {
+				System.out.println("Could not remove partially cached video " + key + ": " + e.getMessage());
+			}
+			partialOutput = null;
+			partialFile = null;
+		}
+	}
+}
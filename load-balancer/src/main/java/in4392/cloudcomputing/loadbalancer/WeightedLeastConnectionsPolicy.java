@@ -0,0 +1,36 @@
+package in4392.cloudcomputing.loadbalancer;
+
+import java.util.Collection;
+
+import in4392.cloudcomputing.loadbalancer.api.Target;
+
+/**
+ * Select the application instance with the least requests in progress relative to its weight, so instances with
+ * a higher weight (e.g. more cores) receive proportionally more requests.
+ */
+public class WeightedLeastConnectionsPolicy implements RoutingPolicy {
+	public static final String NAME = "weighted-least-connections";
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public Target select(Target[] targets, Collection<String> excludedHosts) {
+		Target leastLoaded = null;
+		double leastLoad = Double.MAX_VALUE;
+		for (Target target : targets) {
+			if (excludedHosts.contains(target.getTargetURI().getHost())) {
+				continue;
+			}
+			// count the new request as well, so idle instances are also ordered by their weight
+			double load = (target.getCurrentAmountOfRequests() + 1) / target.getWeight();
+			if (load < leastLoad) {
+				leastLoaded = target;
+				leastLoad = load;
+			}
+		}
+		return leastLoaded;
+	}
+}
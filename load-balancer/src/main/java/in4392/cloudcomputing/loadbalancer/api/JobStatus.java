@@ -0,0 +1,36 @@
+package in4392.cloudcomputing.loadbalancer.api;
+
+public class JobStatus {
+	private String id;
+	private String state;
+	private double progress;
+	private String error;
+
+	public String getId() {
+		return id;
+	}
+	public void setId(String id) {
+		this.id = id;
+	}
+	public String getState() {
+		return state;
+	}
+	public void setState(String state) {
+		this.state = state;
+	}
+	public double getProgress() {
+		return progress;
+	}
+	public void setProgress(double progress) {
+		this.progress = progress;
+	}
+	public String getError() {
+		return error;
+	}
+	public void setError(String error) {
+		this.error = error;
+	}
+	public boolean isFinished() {
+		return "COMPLETED".equals(state) || "FAILED".equals(state);
+	}
+}
@@ -5,37 +5,63 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.UUID;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
 
 import javax.inject.Named;
+import javax.ws.rs.BadRequestException;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.NotFoundException;
 import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.ProcessingException;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
-import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.UriInfo;
 
-import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+import in4392.cloudcomputing.loadbalancer.CacheStatistics;
+import in4392.cloudcomputing.loadbalancer.ConnectionPoolStatistics;
+import in4392.cloudcomputing.loadbalancer.DistributedTranscoder;
+import in4392.cloudcomputing.loadbalancer.HttpClients;
+import in4392.cloudcomputing.loadbalancer.LogStreamer;
+import in4392.cloudcomputing.loadbalancer.ProxiedJob;
+import in4392.cloudcomputing.loadbalancer.ProxiedJobs;
+import in4392.cloudcomputing.loadbalancer.ReplayableRequestBody;
+import in4392.cloudcomputing.loadbalancer.RoutingTable;
+import in4392.cloudcomputing.loadbalancer.TimedUploadStream;
+import in4392.cloudcomputing.loadbalancer.TranscodeCache;
 
 
 @Named
 @Path("load-balancer")
 @Produces(MediaType.APPLICATION_JSON)
 public class LoadBalancerEndpoint {
+	private static final String LOG_FILE = "/home/ubuntu/load-balancer.log";
 	private static final int RETRY_WAIT_TIME = 10000;
+	/**
+	 * The maximum amount of bytes of a request body that is kept in memory for retrying the request, 
+	 * anything beyond this is spilled to disk. This can be configured with the "loadbalancer.replayBufferSize"
+	 * system property.
+	 */
+	private static final int REPLAY_BUFFER_SIZE = Integer.getInteger("loadbalancer.replayBufferSize", 32 * 1024 * 1024);
 	private URI appOrchestratorURI;
 	
 	@Path("health")
@@ -49,21 +75,53 @@ public class LoadBalancerEndpoint {
 		}
 	}
 	
+	/**
+	 * Stream the log, or part of it, without reading it into memory.
+	 * 
+	 * @param offset is the position of the first byte to send, or the amount of bytes before the end of the log if
+	 * it is negative
+	 * @param length is the maximum amount of bytes to send
+	 * @param tail is the amount of lines at the end of the log to send, instead of starting at the offset
+	 * @param follow determines whether lines that are appended to the log are sent as they arrive
+	 * @return the (partial) log
+	 */
 	@Path("log")
 	@GET
 	@Produces(MediaType.TEXT_PLAIN)
-	public String showLog() throws IOException {
-		return new String(Files.readAllBytes(Paths.get("/home/ubuntu/load-balancer.log")), StandardCharsets.UTF_8);
+	public Response showLog(
+			@QueryParam("offset") Long offset,
+			@QueryParam("length") Long length,
+			@QueryParam("tail") Integer tail,
+			@DefaultValue("false")
+			@QueryParam("follow")
+			boolean follow) {
+		if (!Files.isReadable(Paths.get(LOG_FILE))) {
+			throw new NotFoundException("The log is not available");
+		}
+		try {
+			return Response.ok(LogStreamer.stream(Paths.get(LOG_FILE), offset, length, tail, follow)).build();
+		} catch (IllegalArgumentException e) {
+			throw new BadRequestException(e.getMessage());
+		}
 	}
 	
 	/**
 	 * Send the request to the correct instance in order to balance the load.
 	 * 
+	 * The video is streamed to the application instance while it is being received. The received part is 
+	 * kept in a bounded replay buffer, so the request can be retried on another application instance.
+	 * 
 	 * @param data is the video that needs to be sent to the application
 	 * @param failApplication will cause the application where the video gets sent to terminate 
 	 * before the request is completed (for testing purposes)
 	 * @param delayApplication is the amount of seconds that the application will be delayed from 
 	 * completing the request (for testing purposes)
+	 * @param mode is the way in which the application converts the video, either "file", "stream" or "parallel",
+	 * or "distributed" to split the video into segments that are converted on multiple application instances
+	 * @param cache determines whether a converted video from the transcode cache can be returned and whether the 
+	 * converted video is stored in the cache. If it is not provided, the default of the load balancer is used, which
+	 * is off unless configured otherwise. The video is only streamed to the application instance without the cache, 
+	 * since the whole video needs to be received before it can be looked up.
 	 * @return the response from the instance
 	 * @throws URISyntaxException 
 	 * @throws IOException 
@@ -79,35 +137,68 @@ public class LoadBalancerEndpoint {
 			boolean failApplication,
 			@DefaultValue("0") 
 			@QueryParam("delayApplication") 
-			int delayApplication) throws URISyntaxException, IOException {
-		
-		System.out.println("Store input video to a file");
-		File inputFile =  Paths.get(UUID.randomUUID().toString()).toFile();
-        
-        Files.copy(data, inputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-        
-		System.out.println("Requesting application instance from AppOrchestrator");
-		URI applicationURI = ClientBuilder.newClient()
-				.register(JacksonJsonProvider.class)
-				.target(
-						UriBuilder.fromUri(appOrchestratorURI)
-						.port(8080)
-						.path("application-orchestrator")
-						.path("leastUtilizedInstance")
-						.build())
-				.request()
-				.get(URI.class);
-		
+			int delayApplication,
+			@DefaultValue("file")
+			@QueryParam("mode")
+			String mode,
+			@QueryParam("cache")
+			Boolean cache) throws URISyntaxException, IOException {
+		// requests that inject failures or delays for testing should always reach an application instance
+		boolean useCache = (cache == null ? TranscodeCache.ENABLED_BY_DEFAULT : cache) && !failApplication && delayApplication == 0;
+		boolean distributed = "distributed".equalsIgnoreCase(mode);
+		MessageDigest inputDigest = TranscodeCache.newDigest();
+		// a distributed conversion needs the video in a file, so it is stored there right away instead of in memory
+		ReplayableRequestBody requestBody = new ReplayableRequestBody(
+				useCache ? new DigestInputStream(data, inputDigest) : data, 
+				distributed ? 0 : REPLAY_BUFFER_SIZE);
+		try {
+			String cacheKey = null;
+			if (useCache) {
+				requestBody.readFully();
+				cacheKey = TranscodeCache.key(inputDigest.digest(), mode);
+				InputStream cachedVideo = cacheKey == null ? null : TranscodeCache.get(cacheKey);
+				if (cachedVideo != null) {
+					System.out.println("Returning cached converted video to the user");
+					return cachedVideo;
+				}
+			}
+			
+			if (distributed) {
+				InputStream video = convertDistributed(requestBody.toFile(), delayApplication);
+				return cacheKey == null ? video : TranscodeCache.store(cacheKey, video);
+			}
+			
+			InputStream video = proxyToApplication(requestBody, failApplication, delayApplication, mode);
+			System.out.println("Returning converted video to the user");
+			return cacheKey == null || video == null ? video : TranscodeCache.store(cacheKey, video);
+		} finally {
+			// also on failures, so a body that was spilled to disk never leaves its temporary file behind
+			System.out.println("Releasing replay buffer of " + requestBody.getRecordedLength() + " bytes for the input video");
+			requestBody.close();
+		}
+	}
+	
+	/**
+	 * Send the request body to an application instance, and retry it on other application instances if it fails.
+	 * 
+	 * @return the converted video, which counts as a request in progress for the application instance until it has 
+	 * been read or closed, or null if all attempts failed
+	 */
+	private InputStream proxyToApplication(ReplayableRequestBody requestBody, boolean failApplication, int delayApplication, String mode) throws IOException {
+		List<String> failedApplications = new ArrayList<>();
+		Target application = selectApplication(failedApplications);
+		URI applicationURI = application.getTargetURI();
 		
 		InputStream video = null ;
 		boolean waitingForConvertedVideo = true;
-		List<String> failedApplications = new ArrayList<>();
 		int attempts = 0;
+		long attemptStart = 0;
+		TimedUploadStream upload = null;
 		while (waitingForConvertedVideo && attempts < 10) {
+			attemptStart = System.currentTimeMillis();
 			try {
 				if (attempts == 0 && failApplication) {
-					ClientBuilder.newClient()
-					.register(JacksonJsonProvider.class)
+					HttpClients.getClient()
 					.target(
 							UriBuilder.fromUri(appOrchestratorURI)
 							.port(8080)
@@ -116,31 +207,30 @@ public class LoadBalancerEndpoint {
 							.queryParam("applicationDnsName", applicationURI.getHost())
 							.build())
 					.request()
-					.get();
+					.get()
+					.close();
 				}
 				System.out.println("Redirecting video to application server at " + applicationURI.toString());
-				video = ClientBuilder
-						.newBuilder()
-						.connectTimeout(1, TimeUnit.DAYS)
-						.readTimeout(1, TimeUnit.DAYS)
-						.build()
+				upload = new TimedUploadStream(requestBody.newAttempt());
+				video = HttpClients.getTransferClient()
 						.target(
 								UriBuilder.fromUri(applicationURI)
 								.path("application")
 								.path("video")
 								.queryParam("delayApplication", delayApplication)
+								.queryParam("mode", mode)
 								.build())
 						.request()
 						.post(
 								 Entity.entity(
-										 Files.newInputStream(inputFile.toPath()), 
+										 upload, 
 										 MediaType.APPLICATION_OCTET_STREAM),
 								 InputStream.class);
 				 System.out.println("Returning converted video to the user");
 				 waitingForConvertedVideo = false;
 			} catch (Exception e) {
-				System.out.println("Decreasing request counter in app orchestrator since the request to this application instance failed");
-				decrementRequestsForApplication(applicationURI);
+				System.out.println("Decreasing request counter since the request to this application instance failed");
+				RoutingTable.releaseFailed(application);
 				failedApplications.add(applicationURI.getHost());
 				System.out.println("Retrying connection after sleeping for 10 seconds");
 				try {
@@ -149,50 +239,277 @@ public class LoadBalancerEndpoint {
 					e2.printStackTrace();
 				}
 				attempts++;
-				System.out.println("Requesting new application instance from AppOrchestrator");
-				applicationURI = ClientBuilder.newClient()
-						.register(JacksonJsonProvider.class)
-						.target(
-								UriBuilder.fromUri(appOrchestratorURI)
-								.port(8080)
-								.path("application-orchestrator")
-								.path("leastUtilizedInstance")
-								.queryParam("failedApplications", failedApplications.toArray())
-								.build())
-						.request()
-						.get(URI.class);
+				// the failed request is no longer counted, so nothing needs to be released if this throws
+				application = selectApplication(failedApplications);
+				applicationURI = application.getTargetURI();
 				System.out.println("Retrying request");
 			}
 		}
 		if (attempts == 10) {
 			System.out.println("Could not retry the request, stopped after "+attempts+" retries");
 		}
-		System.out.println("Decreasing request counter in app orchestrator");
-		decrementRequestsForApplication(applicationURI);
-		
-		System.out.println("Deleting original input video");
-		inputFile.delete();
-		
+		if (video == null) {
+			System.out.println("Decreasing request counter");
+			RoutingTable.release(application);
+			return null;
+		}
+		// the latency of the application instance does not include the upload, which depends on the client
+		long latency = System.currentTimeMillis() - Math.max(attemptStart, upload.getCompletedAt());
+		// the converted video can still be streamed from the application instance, so it keeps counting the request
+		return RoutingTable.releaseWhenTransferred(application, video, latency);
+	}
+	
+	/**
+	 * Convert the provided video by splitting it into segments that are converted on multiple application 
+	 * instances at the same time.
+	 * 
+	 * @param inputFile is the file containing the video that needs to be converted, which is left in place
+	 * @param delayApplication is the amount of seconds that the application will be delayed from 
+	 * completing each segment (for testing purposes)
+	 * @return the converted video
+	 * @throws IOException
+	 */
+	private InputStream convertDistributed(File inputFile, int delayApplication) throws IOException {
+		File outputFile;
+		try {
+			outputFile = DistributedTranscoder.transcode(inputFile, delayApplication);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServiceUnavailableException("Interrupted while converting the video");
+		}
+		InputStream convertedVideo = Files.newInputStream(outputFile.toPath());
+		// the open stream can still be read after the file is deleted, so nothing is left behind once it is closed
+		outputFile.delete();
 		System.out.println("Returning converted video to the user");
-		return video;
+		return convertedVideo;
 	}
-
-	private void decrementRequestsForApplication(URI applicationURI) {
-		ClientBuilder.newClient()
-		.target(UriBuilder.fromUri(appOrchestratorURI).port(8080)
-				.path("application-orchestrator")
-				.path("completed")
-				.queryParam("applicationURI", applicationURI)
-				.build())
-		.request()
-		.get();
+	
+	/**
+	 * Submit the provided video for conversion in the background on an application instance.
+	 * 
+	 * This returns as soon as the video has been uploaded, so the client does not need to keep the connection
+	 * open while the video is converted. The job counts as a request in progress for the application instance
+	 * until it has finished.
+	 * 
+	 * @param data is the video that needs to be converted
+	 * @param delayApplication is the amount of seconds that the conversion will be delayed (for testing purposes)
+	 * @return a 202 HTTP status with the status of the new job, and its location in the Location header
+	 * @throws IOException 
+	 */
+	@Path("jobs")
+	@POST
+	@Consumes(MediaType.APPLICATION_OCTET_STREAM)
+	public Response submitJob(
+			@Context
+			UriInfo uriInfo,
+			InputStream data,
+			@DefaultValue("0") 
+			@QueryParam("delayApplication") 
+			int delayApplication) throws IOException {
+		List<String> failedApplications = new ArrayList<>();
+		try (ReplayableRequestBody requestBody = new ReplayableRequestBody(data, REPLAY_BUFFER_SIZE)) {
+			for (int attempts = 0; attempts < 10; attempts++) {
+				Target application = selectApplication(failedApplications);
+				try {
+					System.out.println("Submitting conversion job to application server at " + application.getTargetURI());
+					JobStatus status = HttpClients.getTransferClient()
+							.target(
+									UriBuilder.fromUri(application.getTargetURI())
+									.path("application")
+									.path("jobs")
+									.queryParam("delayApplication", delayApplication)
+									.build())
+							.request()
+							.post(
+									Entity.entity(
+											requestBody.newAttempt(), 
+											MediaType.APPLICATION_OCTET_STREAM),
+									JobStatus.class);
+					ProxiedJob job = ProxiedJobs.register(application, status.getId());
+					status.setId(job.getId());
+					return Response.accepted(status)
+							.location(uriInfo.getAbsolutePathBuilder().path(job.getId()).build())
+							.build();
+				} catch (Exception e) {
+					System.out.println("Submitting the conversion job failed: " + e.getMessage());
+					RoutingTable.releaseFailed(application);
+					failedApplications.add(application.getTargetURI().getHost());
+				}
+			}
+		}
+		throw new ServiceUnavailableException("Could not submit the conversion job to any application instance");
 	}
 	
+	/**
+	 * 
+	 * @param id is the id of the job
+	 * @return the state and progress of the job
+	 */
+	@Path("jobs/{id}")
+	@GET
+	public JobStatus showJob(@PathParam("id") String id) {
+		ProxiedJob job = findJob(id);
+		try {
+			return ProxiedJobs.fetchStatus(job);
+		} catch (ProcessingException e) {
+			throw new ServiceUnavailableException("Could not reach the application instance of job " + id);
+		}
+	}
+	
+	/**
+	 * 
+	 * @param id is the id of the job
+	 * @return the converted video, or a 409 HTTP status if the job has not completed (yet)
+	 */
+	@Path("jobs/{id}/result")
+	@GET
+	@Produces(MediaType.APPLICATION_OCTET_STREAM)
+	public Response downloadJobResult(@PathParam("id") String id) {
+		ProxiedJob job = findJob(id);
+		Response result = HttpClients.getTransferClient()
+				.target(UriBuilder.fromUri(job.getApplicationJobURI()).path("result").build())
+				.request()
+				.get();
+		if (result.getStatus() != Response.Status.OK.getStatusCode()) {
+			int status = result.getStatus();
+			result.close();
+			throw new WebApplicationException("Could not retrieve the result of job " + id, status);
+		}
+		job.release();
+		return Response.ok(result.readEntity(InputStream.class)).build();
+	}
+	
+	/**
+	 * Remove the job, both here and on its application instance.
+	 * 
+	 * @param id is the id of the job
+	 * @return a 204 HTTP status with no content, if successful
+	 */
+	@Path("jobs/{id}")
+	@DELETE
+	public Response deleteJob(@PathParam("id") String id) {
+		ProxiedJob job = ProxiedJobs.remove(id);
+		if (job == null) {
+			throw new NotFoundException("Job " + id + " does not exist");
+		}
+		try {
+			HttpClients.getClient().target(job.getApplicationJobURI()).request().delete().close();
+		} catch (ProcessingException e) {
+			System.out.println("Could not remove job " + id + " from its application instance: " + e.getMessage());
+		}
+		return Response.noContent().build();
+	}
+	
+	private ProxiedJob findJob(String id) {
+		ProxiedJob job = ProxiedJobs.get(id);
+		if (job == null) {
+			throw new NotFoundException("Job " + id + " does not exist");
+		}
+		return job;
+	}
+	
+	/**
+	 * Select an application instance from the local routing table, with the current routing policy. 
+	 * 
+	 * @param failedApplications are the host names of application instances that failed for this request. These
+	 * are only selected again if no other application instance is available.
+	 * @return the selected application instance, for which the request is now counted
+	 */
+	private Target selectApplication(List<String> failedApplications) {
+		System.out.println("Selecting application instance from the routing table");
+		Target application = RoutingTable.acquire(failedApplications);
+		if (application == null) {
+			application = RoutingTable.acquire(Collections.emptyList());
+		}
+		if (application == null) {
+			throw new ServiceUnavailableException("No application instance is available to handle the request");
+		}
+		return application;
+	}
+	
+	/**
+	 * 
+	 * @return the application instances in the local routing table, with the amount of requests in progress
+	 */
+	@Path("targets")
+	@GET
+	public List<Target> showRoutingTable() {
+		return RoutingTable.getTargets();
+	}
+	
+	/**
+	 * 
+	 * @return the name of the policy that selects the application instance for each request
+	 */
+	@Path("routing-policy")
+	@GET
+	@Produces(MediaType.TEXT_PLAIN)
+	public String showRoutingPolicy() {
+		return RoutingTable.getRoutingPolicy().getName();
+	}
+	
+	/**
+	 * Change the policy that selects the application instance for each request.
+	 * 
+	 * @param policy is either "least-requests", "power-of-two-choices", "weighted-least-connections" or "ewma-latency"
+	 * @return a 204 HTTP status with no content, if successful
+	 */
+	@Path("routing-policy")
+	@PUT
+	@Consumes(MediaType.TEXT_PLAIN)
+	public Response changeRoutingPolicy(String policy) {
+		try {
+			RoutingTable.setRoutingPolicy(policy);
+		} catch (IllegalArgumentException e) {
+			throw new BadRequestException(e.getMessage());
+		}
+		return Response.noContent().build();
+	}
+	
+	/**
+	 * Set the weight of an application instance, which is used by the weighted-least-connections policy.
+	 * 
+	 * @param host is the host name of the application instance
+	 * @param weight is the weight of the application instance, relative to the default weight of 1
+	 * @return a 204 HTTP status with no content, if successful
+	 */
+	@Path("targets/{host}/weight")
+	@PUT
+	@Consumes(MediaType.TEXT_PLAIN)
+	public Response changeWeight(@PathParam("host") String host, double weight) {
+		if (weight <= 0) {
+			throw new BadRequestException("The weight must be positive");
+		}
+		if (!RoutingTable.setWeight(host, weight)) {
+			throw new NotFoundException("Application instance " + host + " is not in the routing table");
+		}
+		return Response.noContent().build();
+	}
 	
 	@Path("")
 	@POST
 	public void requestNewInstances(int num) {
-		ClientBuilder.newClient().target(appOrchestratorURI).request().post(Entity.entity(num, MediaType.APPLICATION_JSON));
+		HttpClients.getClient().target(appOrchestratorURI).request().post(Entity.entity(num, MediaType.APPLICATION_JSON)).close();
+	}
+	
+	/**
+	 * 
+	 * @return the calls in progress, completed and failed for each host that the load balancer calls
+	 */
+	@Path("connection-pool")
+	@GET
+	public Map<String, ConnectionPoolStatistics> showConnectionPoolUtilization() {
+		return HttpClients.getPoolStatistics();
+	}
+	
+	/**
+	 * 
+	 * @return the hit rate and size of the transcode cache
+	 */
+	@Path("cache")
+	@GET
+	public CacheStatistics showCacheStatistics() {
+		return TranscodeCache.getStatistics();
 	}
 	
 	@Path("appOrchestratorURI")
@@ -200,6 +517,7 @@ public class LoadBalancerEndpoint {
 	public Response setAppOrchestratorURI(@QueryParam("appOrchestratorURI") String uri) throws URISyntaxException {
 		appOrchestratorURI = new URI("http",uri,"","");
 		System.out.println("AppOrchestrator is at " + appOrchestratorURI);
+		RoutingTable.start(appOrchestratorURI);
 		return Response.ok().build();
 	}
 }
@@ -1,10 +1,17 @@
 package in4392.cloudcomputing.loadbalancer.api;
 
 import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Target {
+	/**
+	 * The weight of the latest observation in the moving average of the latency
+	 */
+	private static final double LATENCY_SMOOTHING_FACTOR = 0.3;
 	private URI targetURI;
-	private int currentAmountOfRequests;
+	private final AtomicInteger currentAmountOfRequests = new AtomicInteger();
+	private volatile double weight = 1;
+	private volatile double averageLatency;
 
 	public Target(URI targetURI, int currentAmountOfRequests) {
 		super();
@@ -18,15 +25,36 @@ public class Target {
 		this.targetURI = targetURI;
 	}
 	public int getCurrentAmountOfRequests() {
-		return currentAmountOfRequests;
+		return currentAmountOfRequests.get();
 	}
 	public void setCurrentAmountOfRequests(int currentAmountOfRequests) {
-		this.currentAmountOfRequests = currentAmountOfRequests;
+		this.currentAmountOfRequests.set(currentAmountOfRequests);
 	}
-	public void incrementCurrentAmountOfRequests() {
-		this.currentAmountOfRequests++;
+	public int incrementCurrentAmountOfRequests() {
+		return this.currentAmountOfRequests.incrementAndGet();
 	}
-	public void decrementCurrentAmountofRequests() {
-		this.currentAmountOfRequests--;
+	public int decrementCurrentAmountofRequests() {
+		return this.currentAmountOfRequests.decrementAndGet();
+	}
+	public double getWeight() {
+		return weight;
+	}
+	public void setWeight(double weight) {
+		this.weight = weight;
+	}
+	/**
+	 * @return the exponentially weighted moving average of the time it took to complete requests after they were
+	 * uploaded, in milliseconds, or 0 if no request has been completed yet
+	 */
+	public double getAverageLatency() {
+		return averageLatency;
+	}
+	public synchronized void recordLatency(long latencyInMilliseconds) {
+		if (averageLatency == 0) {
+			averageLatency = latencyInMilliseconds;
+		}
+		else {
+			averageLatency = LATENCY_SMOOTHING_FACTOR * latencyInMilliseconds + (1 - LATENCY_SMOOTHING_FACTOR) * averageLatency;
+		}
 	}
 }
@@ -0,0 +1,79 @@
+package in4392.cloudcomputing.loadbalancer;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+import in4392.cloudcomputing.loadbalancer.api.Target;
+
+public class EwmaLatencyPolicyTest {
+	private final RoutingPolicy policy = new EwmaLatencyPolicy();
+
+	@Test
+	public void fasterInstancesArePreferred() {
+		Target slow = target("slow", 0, 300);
+		Target fast = target("fast", 0, 100);
+
+		assertSame(fast, policy.select(new Target[] {slow, fast}, Collections.emptyList()));
+	}
+
+	@Test
+	public void requestsInProgressAreTakenIntoAccount() {
+		Target slow = target("slow", 0, 300);
+		// 4 times 100 ms is expected to take longer than 300 ms
+		Target busy = target("busy", 3, 100);
+
+		assertSame(slow, policy.select(new Target[] {busy, slow}, Collections.emptyList()));
+	}
+
+	@Test
+	public void recentLatencyWeighsMoreThanOlderLatency() {
+		Target degraded = target("degraded", 0, 100);
+		Target steady = target("steady", 0, 300);
+		for (int i = 0; i < 3; i++) {
+			degraded.recordLatency(1000);
+		}
+
+		assertSame(steady, policy.select(new Target[] {degraded, steady}, Collections.emptyList()));
+	}
+
+	@Test
+	public void newInstancesAreAssumedToBeAsFastAsTheFastestInstance() {
+		Target known = target("known", 1, 100);
+		Target unknown = target("unknown", 0, 0);
+
+		assertSame(unknown, policy.select(new Target[] {known, unknown}, Collections.emptyList()));
+	}
+
+	@Test
+	public void tiesGoToTheFirstInstance() {
+		Target first = target("first", 1, 100);
+		Target second = target("second", 0, 200);
+
+		assertSame(first, policy.select(new Target[] {first, second}, Collections.emptyList()));
+		assertSame(second, policy.select(new Target[] {second, first}, Collections.emptyList()));
+	}
+
+	@Test
+	public void excludedHostsAreNotSelected() {
+		Target fast = target("fast", 0, 100);
+		Target slow = target("slow", 0, 300);
+		Target[] targets = {fast, slow};
+
+		assertSame(slow, policy.select(targets, Collections.singletonList("fast")));
+		assertNull(policy.select(targets, Arrays.asList("fast", "slow")));
+	}
+
+	private static Target target(String host, int requests, long latencyInMilliseconds) {
+		Target target = new Target(URI.create("http://" + host + ":8080"), requests);
+		if (latencyInMilliseconds > 0) {
+			target.recordLatency(latencyInMilliseconds);
+		}
+		return target;
+	}
+}
@@ -0,0 +1,70 @@
+package in4392.cloudcomputing.loadbalancer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import in4392.cloudcomputing.loadbalancer.api.Target;
+
+/**
+ * The choices are random, so every test selects often enough that any allowed outcome occurs.
+ */
+public class PowerOfTwoChoicesPolicyTest {
+	private static final int SELECTIONS = 200;
+	private final RoutingPolicy policy = new PowerOfTwoChoicesPolicy();
+
+	@Test
+	public void theLessLoadedOfTwoInstancesIsSelected() {
+		Target idle = target("idle", 0);
+		Target busy = target("busy", 2);
+
+		for (int i = 0; i < SELECTIONS; i++) {
+			assertSame(idle, policy.select(new Target[] {busy, idle}, Collections.emptyList()));
+		}
+	}
+
+	@Test
+	public void theMostLoadedInstanceIsNeverSelected() {
+		Target[] targets = {target("a", 0), target("b", 1), target("c", 5)};
+
+		for (int i = 0; i < SELECTIONS; i++) {
+			assertNotSame(targets[2], policy.select(targets, Collections.emptyList()));
+		}
+	}
+
+	@Test
+	public void tiedInstancesAreBothSelected() {
+		Target[] targets = {target("a", 1), target("b", 1)};
+		Set<Target> selected = new HashSet<>();
+
+		for (int i = 0; i < SELECTIONS; i++) {
+			selected.add(policy.select(targets, Collections.emptyList()));
+		}
+
+		assertEquals(2, selected.size());
+	}
+
+	@Test
+	public void excludedHostsAreNotSelected() {
+		Target[] targets = {target("a", 0), target("b", 3), target("c", 0)};
+
+		for (int i = 0; i < SELECTIONS; i++) {
+			assertSame(targets[1], policy.select(targets, Arrays.asList("a", "c")));
+		}
+		assertNull(policy.select(targets, Arrays.asList("a", "b", "c")));
+		assertNull(policy.select(new Target[0], Collections.emptyList()));
+	}
+
+	private static Target target(String host, int requests) {
+		return new Target(URI.create("http://" + host + ":8080"), requests);
+	}
+}
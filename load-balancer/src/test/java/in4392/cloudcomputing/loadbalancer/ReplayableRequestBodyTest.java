@@ -0,0 +1,151 @@
+package in4392.cloudcomputing.loadbalancer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+public class ReplayableRequestBodyTest {
+	private static final int MEMORY_LIMIT = 1024;
+
+	@Test
+	public void newAttemptsReplayWhatWasReadBefore() throws IOException {
+		byte[] body = body(100);
+		try (ReplayableRequestBody requestBody = new ReplayableRequestBody(new ByteArrayInputStream(body), MEMORY_LIMIT)) {
+			InputStream firstAttempt = requestBody.newAttempt();
+			assertEquals(40, firstAttempt.read(new byte[40]));
+
+			assertArrayEquals(body, readAll(requestBody.newAttempt()));
+			assertFalse(requestBody.isSpilledToDisk());
+		}
+	}
+
+	@Test
+	public void supersededAttemptsCanNotBeRead() throws IOException {
+		try (ReplayableRequestBody requestBody = new ReplayableRequestBody(new ByteArrayInputStream(body(100)), MEMORY_LIMIT)) {
+			InputStream firstAttempt = requestBody.newAttempt();
+			requestBody.newAttempt();
+
+			assertThrows(IOException.class, () -> firstAttempt.read());
+		}
+	}
+
+	@Test
+	public void largeBodiesAreSpilledAndReplayed() throws IOException {
+		byte[] body = body(10 * MEMORY_LIMIT + 7);
+		try (ReplayableRequestBody requestBody = new ReplayableRequestBody(new ByteArrayInputStream(body), MEMORY_LIMIT)) {
+			InputStream firstAttempt = requestBody.newAttempt();
+			assertEquals(3 * MEMORY_LIMIT, firstAttempt.read(new byte[3 * MEMORY_LIMIT]));
+			assertTrue(requestBody.isSpilledToDisk());
+
+			assertArrayEquals(body, readAll(requestBody.newAttempt()));
+			assertArrayEquals(body, readAll(requestBody.newAttempt()));
+			assertEquals(body.length, requestBody.getRecordedLength());
+		}
+	}
+
+	@Test
+	public void readFullyRecordsTheWholeBody() throws IOException {
+		byte[] body = body(3 * MEMORY_LIMIT);
+		try (ReplayableRequestBody requestBody = new ReplayableRequestBody(new ByteArrayInputStream(body), MEMORY_LIMIT)) {
+			requestBody.readFully();
+
+			assertEquals(body.length, requestBody.getRecordedLength());
+			assertTrue(requestBody.isSpilledToDisk());
+			assertArrayEquals(body, readAll(requestBody.newAttempt()));
+		}
+	}
+
+	@Test
+	public void closeDeletesTheSpillFile() throws IOException {
+		Set<String> existingSpillFiles = spillFiles();
+		ReplayableRequestBody requestBody = new ReplayableRequestBody(new ByteArrayInputStream(body(2 * MEMORY_LIMIT)), MEMORY_LIMIT);
+		requestBody.readFully();
+		Set<String> createdSpillFiles = spillFiles();
+		createdSpillFiles.removeAll(existingSpillFiles);
+		assertEquals(1, createdSpillFiles.size());
+
+		requestBody.close();
+
+		Set<String> remainingSpillFiles = spillFiles();
+		remainingSpillFiles.retainAll(createdSpillFiles);
+		assertTrue(remainingSpillFiles.isEmpty(), "Spill file was not deleted: " + remainingSpillFiles);
+	}
+
+	@Test
+	public void toFileStoresTheWholeBody() throws IOException {
+		byte[] body = body(3 * MEMORY_LIMIT + 7);
+		try (ReplayableRequestBody requestBody = new ReplayableRequestBody(new ByteArrayInputStream(body), MEMORY_LIMIT)) {
+			InputStream attempt = requestBody.newAttempt();
+			assertEquals(10, attempt.read(new byte[10]));
+
+			File bodyFile = requestBody.toFile();
+
+			assertArrayEquals(body, Files.readAllBytes(bodyFile.toPath()));
+			assertArrayEquals(body, readAll(requestBody.newAttempt()));
+			assertEquals(body.length, requestBody.getRecordedLength());
+			assertEquals(1, spillFiles().stream().filter(bodyFile.getName()::equals).count());
+		}
+	}
+
+	@Test
+	public void toFileReusesTheSpillFileWithoutMemory() throws IOException {
+		byte[] body = body(2 * MEMORY_LIMIT);
+		File bodyFile;
+		try (ReplayableRequestBody requestBody = new ReplayableRequestBody(new ByteArrayInputStream(body), 0)) {
+			requestBody.readFully();
+			Set<String> spillFilesBefore = spillFiles();
+
+			bodyFile = requestBody.toFile();
+
+			assertEquals(spillFilesBefore, spillFiles());
+			assertTrue(spillFilesBefore.contains(bodyFile.getName()));
+			assertArrayEquals(body, Files.readAllBytes(bodyFile.toPath()));
+			assertEquals(bodyFile, requestBody.toFile());
+		}
+		assertFalse(bodyFile.exists());
+	}
+
+	@Test
+	public void toFileStoresEmptyBodies() throws IOException {
+		try (ReplayableRequestBody requestBody = new ReplayableRequestBody(new ByteArrayInputStream(new byte[0]), MEMORY_LIMIT)) {
+			assertEquals(0, requestBody.toFile().length());
+		}
+	}
+
+	private static byte[] body(int length) {
+		byte[] body = new byte[length];
+		for (int i = 0; i < length; i++) {
+			body[i] = (byte) (i * 31);
+		}
+		return body;
+	}
+
+	private static byte[] readAll(InputStream input) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte[] buffer = new byte[333];
+		int read;
+		while ((read = input.read(buffer)) >= 0) {
+			output.write(buffer, 0, read);
+		}
+		return output.toByteArray();
+	}
+
+	private static Set<String> spillFiles() {
+		String[] names = new File(System.getProperty("java.io.tmpdir")).list((directory, name) -> name.startsWith("load-balancer-body-"));
+		return new HashSet<>(Arrays.asList(names == null ? new String[0] : names));
+	}
+}
@@ -0,0 +1,45 @@
+package in4392.cloudcomputing.loadbalancer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+
+import org.junit.jupiter.api.Test;
+
+import in4392.cloudcomputing.loadbalancer.api.Target;
+
+public class RoutingTableTest {
+
+	@Test
+	public void requestsAreReleasedOnceTheResponseHasBeenRead() throws IOException {
+		Target target = new Target(URI.create("http://application:8080"), 1);
+		try (InputStream response = RoutingTable.releaseWhenTransferred(target, new ByteArrayInputStream(new byte[100]), 50)) {
+			assertEquals(60, response.read(new byte[60]));
+			assertEquals(1, target.getCurrentAmountOfRequests());
+
+			while (response.read(new byte[60]) >= 0) {
+				// read until the end of the response
+			}
+			assertEquals(0, target.getCurrentAmountOfRequests());
+			assertEquals(50, target.getAverageLatency(), 0.001);
+		}
+		// closing the response afterwards does not release it again
+		assertEquals(0, target.getCurrentAmountOfRequests());
+	}
+
+	@Test
+	public void requestsAreReleasedWithoutLatencyWhenTheResponseIsClosedEarly() throws IOException {
+		Target target = new Target(URI.create("http://application:8080"), 1);
+		InputStream response = RoutingTable.releaseWhenTransferred(target, new ByteArrayInputStream(new byte[100]), 50);
+		response.read();
+
+		response.close();
+		response.close();
+
+		assertEquals(0, target.getCurrentAmountOfRequests());
+		assertEquals(0, target.getAverageLatency(), 0.001);
+	}
+}
@@ -0,0 +1,103 @@
+package in4392.cloudcomputing.loadbalancer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The cache is shared by all tests, so every test uses its own keys. Entries that are left behind by other tests were
+ * used before the entries of a test, so they are evicted first.
+ */
+public class TranscodeCacheTest {
+	private static final int MAX_SIZE = 1000;
+	private static final String PARAMETERS = "-codec:v libx264 -codec:a copy .mkv";
+
+	static {
+		// the cache reads its configuration when it is first used
+		System.setProperty("loadbalancer.cacheSize", Integer.toString(MAX_SIZE));
+		try {
+			System.setProperty("loadbalancer.cacheDirectory", Files.createTempDirectory("transcode-cache-").toString());
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Test
+	public void leastRecentlyUsedEntriesAreEvictedBySize() throws IOException {
+		String first = newKey();
+		String second = newKey();
+		String third = newKey();
+		store(first, 400);
+		store(second, 400);
+		// looking up the first entry makes the second one the least recently used
+		TranscodeCache.get(first).close();
+		long evictions = TranscodeCache.getStatistics().getEvictions();
+
+		store(third, 400);
+
+		assertNull(TranscodeCache.get(second));
+		try (InputStream cachedVideo = TranscodeCache.get(first)) {
+			assertNotNull(cachedVideo);
+		}
+		try (InputStream cachedVideo = TranscodeCache.get(third)) {
+			assertNotNull(cachedVideo);
+		}
+		assertEquals(evictions + 1, TranscodeCache.getStatistics().getEvictions());
+		assertEquals(800, TranscodeCache.getStatistics().getSize());
+	}
+
+	@Test
+	public void entriesAreOnlyAddedOnceTheWholeVideoHasBeenRead() throws IOException {
+		String key = newKey();
+		try (InputStream convertedVideo = TranscodeCache.store(key, new ByteArrayInputStream(new byte[300]))) {
+			assertEquals(100, convertedVideo.read(new byte[100]));
+			assertNull(TranscodeCache.get(key));
+		}
+		// a video that was closed before its end is discarded
+		assertNull(TranscodeCache.get(key));
+
+		store(key, 300);
+
+		try (InputStream cachedVideo = TranscodeCache.get(key)) {
+			assertEquals(300, readAll(cachedVideo));
+		}
+	}
+
+	@Test
+	public void modesAndParametersHaveSeparateKeys() {
+		byte[] inputHash = TranscodeCache.newDigest().digest(new byte[] {1, 2, 3});
+
+		assertNotEquals(TranscodeCache.key(inputHash, "file", PARAMETERS), TranscodeCache.key(inputHash, "stream", PARAMETERS));
+		assertNotEquals(TranscodeCache.key(inputHash, "file", PARAMETERS), TranscodeCache.key(inputHash, "file", "-codec:v libx265 -codec:a copy .mkv"));
+		assertEquals(TranscodeCache.key(inputHash, "file", PARAMETERS), TranscodeCache.key(inputHash, " FILE ", PARAMETERS));
+	}
+
+	private static String newKey() {
+		return TranscodeCache.key(TranscodeCache.newDigest().digest(UUID.randomUUID().toString().getBytes()), "file", PARAMETERS);
+	}
+
+	private static void store(String key, int length) throws IOException {
+		try (InputStream convertedVideo = TranscodeCache.store(key, new ByteArrayInputStream(new byte[length]))) {
+			readAll(convertedVideo);
+		}
+	}
+
+	private static int readAll(InputStream input) throws IOException {
+		byte[] buffer = new byte[64];
+		int total = 0;
+		int read;
+		while ((read = input.read(buffer)) >= 0) {
+			total += read;
+		}
+		return total;
+	}
+}
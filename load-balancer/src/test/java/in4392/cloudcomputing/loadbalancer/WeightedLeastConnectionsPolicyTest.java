@@ -0,0 +1,58 @@
+package in4392.cloudcomputing.loadbalancer;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+import in4392.cloudcomputing.loadbalancer.api.Target;
+
+public class WeightedLeastConnectionsPolicyTest {
+	private final RoutingPolicy policy = new WeightedLeastConnectionsPolicy();
+
+	@Test
+	public void idleInstancesAreOrderedByWeight() {
+		Target small = target("small", 0, 1);
+		Target large = target("large", 0, 4);
+
+		assertSame(large, policy.select(new Target[] {small, large}, Collections.emptyList()));
+	}
+
+	@Test
+	public void requestsAreSpreadProportionallyToTheWeight() {
+		Target small = target("small", 0, 1);
+		// 3 requests on 4 times the weight is a lower load than a single request on the small instance
+		Target large = target("large", 2, 4);
+
+		assertSame(large, policy.select(new Target[] {small, large}, Collections.emptyList()));
+		large.setCurrentAmountOfRequests(4);
+		assertSame(small, policy.select(new Target[] {small, large}, Collections.emptyList()));
+	}
+
+	@Test
+	public void tiesGoToTheFirstInstance() {
+		Target first = target("first", 1, 2);
+		Target second = target("second", 0, 1);
+
+		assertSame(first, policy.select(new Target[] {first, second}, Collections.emptyList()));
+		assertSame(second, policy.select(new Target[] {second, first}, Collections.emptyList()));
+	}
+
+	@Test
+	public void excludedHostsAreNotSelected() {
+		Target[] targets = {target("large", 0, 4), target("small", 3, 1)};
+
+		assertSame(targets[1], policy.select(targets, Collections.singletonList("large")));
+		assertNull(policy.select(targets, Arrays.asList("large", "small")));
+	}
+
+	private static Target target(String host, int requests, double weight) {
+		Target target = new Target(URI.create("http://" + host + ":8080"), requests);
+		target.setWeight(weight);
+		return target;
+	}
+}
@@ -0,0 +1,60 @@
+package in4392.cloudcomputing.maininstance;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Calls to a single target host.
+ *
+ * A call is pending from the moment it is made until the response has arrived or the call has failed. Since every
+ * pending call holds a connection, the amount of pending calls is the amount of connections in use for calls, but
+ * connections that are still used to read a streamed response are not included. Calls that fail before a response
+ * is received (e.g. because the host can not be reached) are counted as failures, so a growing amount of failures
+ * indicates a broken host.
+ */
+public class ConnectionPoolStatistics {
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder responses = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final AtomicInteger pending = new AtomicInteger();
+	private final AtomicInteger peakPending = new AtomicInteger();
+
+	void requestStarted() {
+		requests.increment();
+		int currentlyPending = pending.incrementAndGet();
+		peakPending.accumulateAndGet(currentlyPending, Math::max);
+	}
+
+	/**
+	 * @param responded is false if the call failed before a response was received
+	 */
+	void requestCompleted(boolean responded) {
+		if (responded) {
+			responses.increment();
+		}
+		else {
+			failures.increment();
+		}
+		pending.decrementAndGet();
+	}
+
+	public long getRequests() {
+		return requests.sum();
+	}
+
+	public long getResponses() {
+		return responses.sum();
+	}
+
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	public int getPending() {
+		return pending.get();
+	}
+
+	public int getPeakPending() {
+		return peakPending.get();
+	}
+}
@@ -17,7 +17,6 @@ import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
 import com.amazonaws.services.ec2.model.DeleteKeyPairRequest;
 import com.amazonaws.services.ec2.model.DescribeInstanceStatusRequest;
-import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
 import com.amazonaws.services.ec2.model.ImportKeyPairRequest;
 import com.amazonaws.services.ec2.model.Instance;
 import com.amazonaws.services.ec2.model.InstanceStatus;
@@ -52,12 +51,13 @@ public class EC2 {
 	public static final int INSTANCE_TERMINATED = 48;
 	public static final int INSTANCE_STOPPING = 64;
 	public static final int INSTANCE_STOPPED = 80;
-	private static AmazonEC2 client;
+	private static volatile AmazonEC2 client;
 	private static AWSCredentials credentials;
 	private static KeyPair javaKeyPair;
 	
 	public static void startEC2Instance(String instanceId) {
 		client.startInstances(new StartInstancesRequest().withInstanceIds(instanceId));
+		InstanceCache.invalidate(instanceId);
 	}
 
 	public static boolean isStopped(String instanceId) {
@@ -70,17 +70,20 @@ public class EC2 {
 
 	public static void stopEC2Instance(String instanceId) {
 		client.stopInstances(new StopInstancesRequest().withInstanceIds(instanceId));
+		InstanceCache.invalidate(instanceId);
 	}
 
 	public static void terminateEC2(String instanceId) {
 		client.terminateInstances(new TerminateInstancesRequest().withInstanceIds(instanceId));
+		InstanceCache.invalidate(instanceId);
 	}
 
+	/**
+	 * Retrieve the description of an instance. This is served from the {@link InstanceCache}, so it may be up to 
+	 * one refresh interval old.
+	 */
 	public static Instance retrieveEC2InstanceWithId(String instanceId) {
-		return client.describeInstances(new DescribeInstancesRequest()
-				.withInstanceIds(instanceId))
-				.getReservations().get(0)
-				.getInstances().get(0);
+		return InstanceCache.get(instanceId);
 	}
 	
 	public static Instance deployDefaultEC2(String usageTag, String keyPairName) throws NoSuchAlgorithmException, IOException {
@@ -114,9 +117,7 @@ public class EC2 {
 		String deployedInstanceId = runInstancesResult.getReservation().getInstances().get(0).getInstanceId();
 		// wait up to 1 minute for the instance to run
 		waitForInstanceToRun(deployedInstanceId);
-		return client.describeInstances(new DescribeInstancesRequest().withInstanceIds(deployedInstanceId))
-				.getReservations().get(0)
-				.getInstances().get(0);
+		return retrieveEC2InstanceWithId(deployedInstanceId);
 	}
 
 	public static void ensureJavaKeyPairExists() throws NoSuchAlgorithmException {
@@ -186,12 +187,7 @@ public class EC2 {
 	}
 
 	public static int getInstanceState(String deployedInstanceId) {
-		int state = client.describeInstances(new DescribeInstancesRequest().withInstanceIds(deployedInstanceId))
-				.getReservations().get(0)
-				.getInstances().get(0)
-				.getState()
-				.getCode();
-		return state;
+		return retrieveEC2InstanceWithId(deployedInstanceId).getState().getCode();
 	}
 	
 	public static boolean verifyStatusChecksPassed(String deployedInstanceId) {
@@ -291,5 +287,6 @@ public class EC2 {
 		EC2.credentials = credentials;
 		AWSStaticCredentialsProvider staticCredentialsProvider = new AWSStaticCredentialsProvider(credentials);
 		client = AmazonEC2ClientBuilder.standard().withCredentials(staticCredentialsProvider).build();
+		InstanceCache.start();
 	}
 }
@@ -0,0 +1,55 @@
+package in4392.cloudcomputing.maininstance;
+
+/**
+ * The result of the latest health probes of a single instance.
+ */
+public class HealthStatus {
+	private final String healthURI;
+	private final boolean healthy;
+	private final int consecutiveFailures;
+	private final long lastChecked;
+	private final long latency;
+	private final String lastError;
+
+	HealthStatus(String healthURI, boolean healthy, int consecutiveFailures, long lastChecked, long latency, String lastError) {
+		this.healthURI = healthURI;
+		this.healthy = healthy;
+		this.consecutiveFailures = consecutiveFailures;
+		this.lastChecked = lastChecked;
+		this.latency = latency;
+		this.lastError = lastError;
+	}
+
+	public String getHealthURI() {
+		return healthURI;
+	}
+
+	public boolean isHealthy() {
+		return healthy;
+	}
+
+	public int getConsecutiveFailures() {
+		return consecutiveFailures;
+	}
+
+	/**
+	 * @return the time of the latest probe, in milliseconds since the epoch
+	 */
+	public long getLastChecked() {
+		return lastChecked;
+	}
+
+	/**
+	 * @return the duration of the latest probe in milliseconds
+	 */
+	public long getLatency() {
+		return latency;
+	}
+
+	/**
+	 * @return the reason the latest probe failed, or null if it succeeded
+	 */
+	public String getLastError() {
+		return lastError;
+	}
+}
@@ -0,0 +1,143 @@
+package in4392.cloudcomputing.maininstance;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Detect failed instances from the heartbeats that they send, with a {@link PhiAccrualFailureDetector} per instance.
+ *
+ * Heartbeats are only accepted from the instances that are monitored. The suspicion of each instance is evaluated
+ * every heartbeat interval, so a failed instance is detected within seconds. An instance that has not sent any
+ * heartbeat yet is not suspected, so it can still be checked in another way until its first heartbeat arrives.
+ * The detectors can be configured with the following system properties:
+ * <ul>
+ * <li>heartbeat.interval: the time in milliseconds between two heartbeats (default 1 second)</li>
+ * <li>heartbeat.phiThreshold: the phi above which an instance is suspected (default 8)</li>
+ * <li>heartbeat.windowSize: the amount of latest intervals that the distribution is based on (default 100)</li>
+ * <li>heartbeat.minStdDeviation: the minimum standard deviation of the intervals in milliseconds (default 100)</li>
+ * <li>heartbeat.acceptablePause: the time in milliseconds that a heartbeat may be late without raising suspicion
+ * (default 2 seconds)</li>
+ * </ul>
+ */
+public class HeartbeatMonitor {
+	private static final long HEARTBEAT_INTERVAL = Long.getLong("heartbeat.interval", 1000);
+	private static final double PHI_THRESHOLD = Double.parseDouble(System.getProperty("heartbeat.phiThreshold", "8"));
+	private static final int WINDOW_SIZE = Integer.getInteger("heartbeat.windowSize", 100);
+	private static final long MIN_STD_DEVIATION = Long.getLong("heartbeat.minStdDeviation", 100);
+	private static final long ACCEPTABLE_PAUSE = Long.getLong("heartbeat.acceptablePause", 2 * 1000);
+	private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+		Thread thread = new Thread(runnable, "heartbeat-monitor");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final Map<String, PhiAccrualFailureDetector> detectors = new ConcurrentHashMap<>();
+	private static final Set<String> suspectedInstances = ConcurrentHashMap.newKeySet();
+	private static volatile Supplier<Set<String>> monitoredInstances;
+	private static boolean started;
+	private static final MetricsRegistry.Counter heartbeatsReceived = MetricsRegistry.counter("heartbeats_received_total",
+			"Amount of heartbeats that arrived from monitored instances.");
+	private static final MetricsRegistry.Counter suspicions = MetricsRegistry.counter("heartbeat_suspicions_total",
+			"Amount of times that an instance became suspected of having failed.");
+
+	static {
+		MetricsRegistry.gauge("heartbeat_suspected_instances", "Amount of monitored instances that are suspected of having failed.", suspectedInstances::size);
+	}
+
+	/**
+	 * Start evaluating the suspicion of the monitored instances periodically.
+	 *
+	 * @param monitoredInstances provides the ids of the instances whose heartbeats are expected. It is called again
+	 * for every evaluation, so it reflects replaced instances.
+	 * @param suspectListener is called with the instance id when an instance becomes suspected
+	 */
+	public static synchronized void start(Supplier<Set<String>> monitoredInstances, Consumer<String> suspectListener) {
+		if (started) {
+			return;
+		}
+		started = true;
+		HeartbeatMonitor.monitoredInstances = monitoredInstances;
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				evaluate(suspectListener);
+			} catch (RuntimeException e) {
+				System.out.println("Evaluating the heartbeats failed: " + e.getMessage());
+			}
+		}, HEARTBEAT_INTERVAL, HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Record a heartbeat from the provided instance.
+	 *
+	 * @return false if the instance is not monitored, so the heartbeat is ignored
+	 */
+	public static boolean record(String instanceId) {
+		Supplier<Set<String>> monitored = monitoredInstances;
+		if (instanceId == null || monitored == null || !monitored.get().contains(instanceId)) {
+			return false;
+		}
+		detectors.computeIfAbsent(instanceId, (key) -> new PhiAccrualFailureDetector(PHI_THRESHOLD, WINDOW_SIZE, MIN_STD_DEVIATION, ACCEPTABLE_PAUSE, HEARTBEAT_INTERVAL))
+				.heartbeat(System.currentTimeMillis());
+		heartbeatsReceived.increment();
+		return true;
+	}
+
+	/**
+	 * @return true if at least one heartbeat has arrived from the instance
+	 */
+	public static boolean isMonitoring(String instanceId) {
+		return instanceId != null && detectors.containsKey(instanceId);
+	}
+
+	/**
+	 * @return false if the instance is suspected of having failed, instances without heartbeats are not suspected
+	 */
+	public static boolean isAvailable(String instanceId) {
+		PhiAccrualFailureDetector detector = instanceId == null ? null : detectors.get(instanceId);
+		return detector == null || detector.isAvailable(System.currentTimeMillis());
+	}
+
+	/**
+	 * @return the heartbeats and suspicion of each instance that sent heartbeats, keyed by instance id
+	 */
+	public static Map<String, HeartbeatStatus> getStatuses() {
+		long now = System.currentTimeMillis();
+		Map<String, HeartbeatStatus> statuses = new TreeMap<>();
+		for (Entry<String, PhiAccrualFailureDetector> entry : detectors.entrySet()) {
+			PhiAccrualFailureDetector detector = entry.getValue();
+			double phi = detector.phi(now);
+			statuses.put(entry.getKey(), new HeartbeatStatus(phi, phi >= PHI_THRESHOLD, detector.getHeartbeats(),
+					detector.getLastHeartbeat(), detector.getMeanInterval(), detector.getStdDeviation()));
+		}
+		return statuses;
+	}
+
+	private static void evaluate(Consumer<String> suspectListener) {
+		Set<String> monitored = monitoredInstances.get();
+		// forget the instances that were replaced
+		detectors.keySet().retainAll(monitored);
+		suspectedInstances.retainAll(monitored);
+		long now = System.currentTimeMillis();
+		for (Entry<String, PhiAccrualFailureDetector> entry : detectors.entrySet()) {
+			String instanceId = entry.getKey();
+			double phi = entry.getValue().phi(now);
+			if (phi < PHI_THRESHOLD) {
+				if (suspectedInstances.remove(instanceId)) {
+					System.out.println("Instance " + instanceId + " is no longer suspected, heartbeats arrive again");
+				}
+			}
+			else if (suspectedInstances.add(instanceId)) {
+				System.out.println("Instance " + instanceId + " is suspected of having failed, phi is " + phi);
+				suspicions.increment();
+				suspectListener.accept(instanceId);
+			}
+		}
+	}
+}
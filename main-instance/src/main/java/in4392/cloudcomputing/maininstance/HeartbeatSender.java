@@ -0,0 +1,92 @@
+package in4392.cloudcomputing.maininstance;
+
+import java.net.URI;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.ws.rs.core.UriBuilder;
+
+/**
+ * Send a heartbeat to each instance that monitors this instance, every "heartbeat.interval" milliseconds (default
+ * 1 second).
+ *
+ * The heartbeats are sent in the background with the health check timeouts. A heartbeat is skipped for an instance
+ * while the previous heartbeat to it has not completed yet, so an unresponsive instance does not delay the heartbeats
+ * to the other instances.
+ */
+public class HeartbeatSender {
+	private static final long HEARTBEAT_INTERVAL = Long.getLong("heartbeat.interval", 1000);
+	private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+		Thread thread = new Thread(runnable, "heartbeat-scheduler");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final ExecutorService senders = Executors.newCachedThreadPool((runnable) -> {
+		Thread thread = new Thread(runnable, "heartbeat-sender");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final Set<URI> heartbeatsInProgress = ConcurrentHashMap.newKeySet();
+	private static boolean started;
+	private static final MetricsRegistry.Counter heartbeatsSent = MetricsRegistry.counter("heartbeats_sent_total",
+			"Amount of heartbeats that were sent.");
+	private static final MetricsRegistry.Counter failedHeartbeats = MetricsRegistry.counter("heartbeat_send_failures_total",
+			"Amount of heartbeats that could not be sent.");
+
+	/**
+	 * Start sending heartbeats periodically.
+	 *
+	 * @param heartbeatEndpoints provides the heartbeat endpoint of each instance that monitors this instance. It is
+	 * called again for every heartbeat, so it reflects replaced instances.
+	 * @param instanceId provides the id of this instance, or null if it is not known yet
+	 */
+	public static synchronized void start(Supplier<Set<URI>> heartbeatEndpoints, Supplier<String> instanceId) {
+		if (started) {
+			return;
+		}
+		started = true;
+		scheduler.scheduleAtFixedRate(() -> {
+			try {
+				sendAll(heartbeatEndpoints.get(), instanceId.get());
+			} catch (RuntimeException e) {
+				System.out.println("Sending heartbeats failed: " + e.getMessage());
+			}
+		}, 0, HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	private static void sendAll(Set<URI> heartbeatEndpoints, String instanceId) {
+		if (instanceId == null) {
+			return;
+		}
+		for (URI heartbeatEndpoint : heartbeatEndpoints) {
+			if (!heartbeatsInProgress.add(heartbeatEndpoint)) {
+				continue;
+			}
+			senders.execute(() -> {
+				try {
+					send(heartbeatEndpoint, instanceId);
+				} finally {
+					heartbeatsInProgress.remove(heartbeatEndpoint);
+				}
+			});
+		}
+	}
+
+	private static void send(URI heartbeatEndpoint, String instanceId) {
+		try {
+			HttpClients.getHealthCheckClient()
+			.target(UriBuilder.fromUri(heartbeatEndpoint).queryParam("instanceId", instanceId).build())
+			.request()
+			.get()
+			.close();
+			heartbeatsSent.increment();
+		} catch (RuntimeException e) {
+			failedHeartbeats.increment();
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package in4392.cloudcomputing.maininstance;
+
+/**
+ * The heartbeats that arrived from a single instance and how strongly it is suspected to have failed.
+ */
+public class HeartbeatStatus {
+	private final double phi;
+	private final boolean suspected;
+	private final long heartbeats;
+	private final long lastHeartbeat;
+	private final double meanInterval;
+	private final double stdDeviation;
+
+	HeartbeatStatus(double phi, boolean suspected, long heartbeats, long lastHeartbeat, double meanInterval, double stdDeviation) {
+		this.phi = phi;
+		this.suspected = suspected;
+		this.heartbeats = heartbeats;
+		this.lastHeartbeat = lastHeartbeat;
+		this.meanInterval = meanInterval;
+		this.stdDeviation = stdDeviation;
+	}
+
+	public double getPhi() {
+		return phi;
+	}
+
+	public boolean isSuspected() {
+		return suspected;
+	}
+
+	public long getHeartbeats() {
+		return heartbeats;
+	}
+
+	/**
+	 * @return the time of the latest heartbeat, in milliseconds since the epoch
+	 */
+	public long getLastHeartbeat() {
+		return lastHeartbeat;
+	}
+
+	/**
+	 * @return the mean time between heartbeats in milliseconds
+	 */
+	public double getMeanInterval() {
+		return meanInterval;
+	}
+
+	/**
+	 * @return the standard deviation of the time between heartbeats in milliseconds
+	 */
+	public double getStdDeviation() {
+		return stdDeviation;
+	}
+}
@@ -0,0 +1,182 @@
+package in4392.cloudcomputing.maininstance;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.Reservation;
+
+/**
+ * Cache of the descriptions of the EC2 instances that are in use, so they do not have to be retrieved from the
+ * EC2 API one instance at a time.
+ *
+ * An instance is tracked once it has been retrieved. All tracked instances are refreshed together with a single
+ * paginated DescribeInstances call, filtered on their instance ids so an instance that no longer exists does not
+ * fail the whole call. Instances that have not been retrieved for a while are no longer tracked. The cache can
+ * be configured with the following system properties:
+ * <ul>
+ * <li>ec2.cacheRefreshInterval: the time in milliseconds between two refreshes (default 10 seconds)</li>
+ * <li>ec2.cacheMaxAge: the time in milliseconds after which a description is retrieved again instead of served
+ * from the cache, e.g. when refreshing fails (default 30 seconds)</li>
+ * <li>ec2.cacheIdleTime: the time in milliseconds after which an instance that has not been retrieved is no longer
+ * tracked (default 10 minutes)</li>
+ * </ul>
+ */
+public class InstanceCache {
+	private static final long REFRESH_INTERVAL = Long.getLong("ec2.cacheRefreshInterval", 10 * 1000);
+	private static final long MAX_AGE = Long.getLong("ec2.cacheMaxAge", 30 * 1000);
+	private static final long IDLE_TIME = Long.getLong("ec2.cacheIdleTime", TimeUnit.MINUTES.toMillis(10));
+	// the EC2 API accepts at most 200 values per filter and 1000 results per page
+	private static final int MAX_FILTER_VALUES = 200;
+	private static final int MAX_RESULTS_PER_PAGE = 1000;
+	private static final Map<String, CachedInstance> instances = new ConcurrentHashMap<>();
+	private static final LongAdder hits = new LongAdder();
+	private static final LongAdder misses = new LongAdder();
+	private static final LongAdder apiCalls = new LongAdder();
+	private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+		Thread thread = new Thread(runnable, "ec2-instance-cache");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static volatile long lastRefresh;
+	private static boolean started;
+
+	static {
+		MetricsRegistry.counter("ec2_instance_cache_hits_total", "Amount of instance descriptions served from the cache.", hits::sum);
+		MetricsRegistry.counter("ec2_instance_cache_misses_total", "Amount of instance descriptions that were not in the cache.", misses::sum);
+		MetricsRegistry.counter("ec2_describe_instances_calls_total", "Amount of DescribeInstances calls made to the EC2 API.", apiCalls::sum);
+		MetricsRegistry.gauge("ec2_instance_cache_tracked_instances", "Amount of instances that are refreshed.", instances::size);
+	}
+
+	/**
+	 * Start refreshing the tracked instances periodically.
+	 */
+	public static synchronized void start() {
+		if (started) {
+			return;
+		}
+		started = true;
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				refresh();
+			} catch (RuntimeException e) {
+				System.out.println("Could not refresh the cached EC2 instances: " + e.getMessage());
+			}
+		}, REFRESH_INTERVAL, REFRESH_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Retrieve the description of an instance from the cache, or from the EC2 API if it is not cached yet or its
+	 * cached description is too old.
+	 *
+	 * @param instanceId is the id of the instance
+	 * @return the description of the instance
+	 */
+	public static Instance get(String instanceId) {
+		long now = System.currentTimeMillis();
+		CachedInstance cached = instances.get(instanceId);
+		if (cached != null && now - cached.retrieved <= MAX_AGE) {
+			hits.increment();
+			cached.lastAccess = now;
+			return cached.instance;
+		}
+		misses.increment();
+		apiCalls.increment();
+		Instance instance = EC2.getClient().describeInstances(new DescribeInstancesRequest()
+				.withInstanceIds(instanceId))
+				.getReservations().get(0)
+				.getInstances().get(0);
+		instances.put(instanceId, new CachedInstance(instance, now));
+		return instance;
+	}
+
+	/**
+	 * Remove an instance from the cache, so its description is retrieved again the next time. This is used when
+	 * the state of the instance was changed.
+	 *
+	 * @param instanceId is the id of the instance
+	 */
+	public static void invalidate(String instanceId) {
+		instances.remove(instanceId);
+	}
+
+	/**
+	 * Retrieve the descriptions of all tracked instances from the EC2 API.
+	 */
+	public static void refresh() {
+		long now = System.currentTimeMillis();
+		instances.entrySet().removeIf((entry) -> now - entry.getValue().lastAccess > IDLE_TIME);
+		List<String> trackedIds = new ArrayList<>(instances.keySet());
+		if (trackedIds.isEmpty()) {
+			return;
+		}
+		AmazonEC2 client = EC2.getClient();
+		Set<String> describedIds = new HashSet<>();
+		for (int start = 0; start < trackedIds.size(); start += MAX_FILTER_VALUES) {
+			Collection<String> batch = trackedIds.subList(start, Math.min(trackedIds.size(), start + MAX_FILTER_VALUES));
+			DescribeInstancesRequest request = new DescribeInstancesRequest()
+					.withFilters(new Filter("instance-id").withValues(batch))
+					.withMaxResults(MAX_RESULTS_PER_PAGE);
+			do {
+				apiCalls.increment();
+				DescribeInstancesResult result = client.describeInstances(request);
+				for (Reservation reservation : result.getReservations()) {
+					for (Instance instance : reservation.getInstances()) {
+						describedIds.add(instance.getInstanceId());
+						instances.computeIfPresent(instance.getInstanceId(), (id, cached) -> new CachedInstance(instance, now, cached.lastAccess));
+					}
+				}
+				request.setNextToken(result.getNextToken());
+			} while (request.getNextToken() != null);
+		}
+		// instances that no longer exist are retrieved again on the next access, which fails like it did without the cache
+		for (String trackedId : trackedIds) {
+			if (!describedIds.contains(trackedId)) {
+				instances.computeIfPresent(trackedId, (id, cached) -> cached.retrieved <= now ? null : cached);
+			}
+		}
+		lastRefresh = now;
+	}
+
+	public static InstanceCacheStatistics getStatistics() {
+		InstanceCacheStatistics statistics = new InstanceCacheStatistics();
+		long currentHits = hits.sum();
+		long currentMisses = misses.sum();
+		statistics.setHits(currentHits);
+		statistics.setMisses(currentMisses);
+		statistics.setHitRate(currentHits + currentMisses == 0 ? 0 : currentHits / (double) (currentHits + currentMisses));
+		statistics.setApiCalls(apiCalls.sum());
+		statistics.setTrackedInstances(instances.size());
+		statistics.setLastRefresh(lastRefresh);
+		return statistics;
+	}
+
+	private static class CachedInstance {
+		private final Instance instance;
+		private final long retrieved;
+		private volatile long lastAccess;
+
+		private CachedInstance(Instance instance, long retrieved) {
+			this(instance, retrieved, retrieved);
+		}
+
+		private CachedInstance(Instance instance, long retrieved, long lastAccess) {
+			this.instance = instance;
+			this.retrieved = retrieved;
+			this.lastAccess = lastAccess;
+		}
+	}
+}
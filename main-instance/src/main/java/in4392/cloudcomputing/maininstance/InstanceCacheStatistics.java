@@ -0,0 +1,56 @@
+package in4392.cloudcomputing.maininstance;
+
+/**
+ * Snapshot of the cache of EC2 instance descriptions.
+ */
+public class InstanceCacheStatistics {
+	private long hits;
+	private long misses;
+	private double hitRate;
+	private long apiCalls;
+	private int trackedInstances;
+	private long lastRefresh;
+
+	public long getHits() {
+		return hits;
+	}
+	public void setHits(long hits) {
+		this.hits = hits;
+	}
+	public long getMisses() {
+		return misses;
+	}
+	public void setMisses(long misses) {
+		this.misses = misses;
+	}
+	public double getHitRate() {
+		return hitRate;
+	}
+	public void setHitRate(double hitRate) {
+		this.hitRate = hitRate;
+	}
+	/**
+	 * @return the amount of DescribeInstances calls made to the EC2 API, including every page of a refresh
+	 */
+	public long getApiCalls() {
+		return apiCalls;
+	}
+	public void setApiCalls(long apiCalls) {
+		this.apiCalls = apiCalls;
+	}
+	public int getTrackedInstances() {
+		return trackedInstances;
+	}
+	public void setTrackedInstances(int trackedInstances) {
+		this.trackedInstances = trackedInstances;
+	}
+	/**
+	 * @return the time of the latest successful refresh, in milliseconds since the epoch
+	 */
+	public long getLastRefresh() {
+		return lastRefresh;
+	}
+	public void setLastRefresh(long lastRefresh) {
+		this.lastRefresh = lastRefresh;
+	}
+}
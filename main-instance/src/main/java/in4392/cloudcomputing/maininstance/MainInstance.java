@@ -5,22 +5,19 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Paths;
 import java.security.NoSuchAlgorithmException;
-import java.time.ZoneOffset;
-import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import javax.inject.Named;
 import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.MediaType;
@@ -30,17 +27,9 @@ import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.services.cloudwatch.AmazonCloudWatch;
 import com.amazonaws.services.cloudwatch.AmazonCloudWatchClientBuilder;
-import com.amazonaws.services.cloudwatch.model.Datapoint;
-import com.amazonaws.services.cloudwatch.model.Dimension;
-import com.amazonaws.services.cloudwatch.model.GetMetricStatisticsRequest;
-import com.amazonaws.services.cloudwatch.model.GetMetricStatisticsResult;
-import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
-import com.amazonaws.services.ec2.model.DescribeInstancesResult;
 import com.amazonaws.services.ec2.model.Instance;
-import com.amazonaws.services.ec2.model.Reservation;
 import com.amazonaws.util.EC2MetadataUtils;
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
 
 import in4392.cloudcomputing.maininstance.api.SimpleAWSCredentials;
 
@@ -57,26 +46,47 @@ public class MainInstance {
 	private static final String API_ROOT_MAIN = "main";
 	private static final String API_ROOT_APPLICATION_ORCHESTRATOR = "application-orchestrator";
 	private static final String AWS_KEYPAIR_NAME = "accessibleFromMainInstance";
-	private static final List<String> metricNames = Arrays.asList("CPUUtilization", "NetworkIn", "NetworkOut", "DiskReadOps", "DiskWriteOps");
-	private static final int ITERATION_WAIT_TIME = 60 * 1000;
-	private static boolean keepAlive;
-	private static boolean started;
-	private static Instance mainInstance;
-	private static Instance shadow;
-	private static Instance appOrchestrator;
-	private static boolean isShadow;
-	private static boolean replaceMain;
+	private static final String TASK_LIVENESS = "liveness";
+	private static final String TASK_MONITORING = "monitoring";
+	private static final String TASK_BACKUP = "backup";
+	private static final long LIVENESS_INTERVAL = Long.getLong("control.livenessInterval", 15 * 1000);
+	private static final long MONITORING_INTERVAL = Long.getLong("control.monitoringInterval", 60 * 1000);
+	private static final long BACKUP_INTERVAL = Long.getLong("control.backupInterval", 60 * 1000);
+	private static volatile boolean keepAlive;
+	private static volatile boolean started;
+	// the instances and the role of this instance are also read by the health checker
+	private static volatile Instance mainInstance;
+	private static volatile Instance shadow;
+	private static volatile Instance appOrchestrator;
+	private static volatile boolean isShadow;
+	private static volatile boolean replaceMain;
 	private static AmazonCloudWatch cloudWatch;
-	private static Map<String, InstanceMetrics> metricsForInstances = new HashMap<>();
-	private static Map<String, String> mainInstanceRestoreState = new HashMap<>();
-	private static Map<String, List<String>> appOrchestratorRestoreState = new HashMap<>();
-	private static final Map<String, Integer > appOrchestratorRestoreApplicationCounters = new HashMap<>();
+	// the restore state is updated by the backup endpoints while the control loop reads it
+	private static final Map<String, String> mainInstanceRestoreState = Collections.synchronizedMap(new HashMap<>());
+	private static final Map<String, List<String>> appOrchestratorRestoreState = Collections.synchronizedMap(new HashMap<>());
+	private static final Map<String, Integer > appOrchestratorRestoreApplicationCounters = Collections.synchronizedMap(new HashMap<>());
+	private static final Map<String, Long> lastAppliedBatches = new HashMap<>();
+	private static final MetricsRegistry.Counter appliedBatches = MetricsRegistry.counter("maininstance_backup_batches_total",
+			"Amount of batches of restore state changes that were applied.", "result", "applied");
+	private static final MetricsRegistry.Counter ignoredBatches = MetricsRegistry.counter("maininstance_backup_batches_total",
+			"Amount of batches of restore state changes that were applied.", "result", "ignored");
 
 	/**
-	 * Start the main loop. 
+	 * Start the control loop. 
 	 * 
-	 * This will run continuously, executing an iteration every minute (defined by ITERATION_WAIT_TIME). 
-	 * The loop can be stopped and restarted through the API, with a GET request to 
+	 * This runs separate tasks, each on its own interval that can be configured with a system property (in milliseconds):
+	 * <ul>
+	 * <li>liveness: deploy or restore the shadow and the app orchestrator and recover them when they are no longer alive, 
+	 * or recover the main instance when this is the shadow ("control.livenessInterval", default 15 seconds)</li>
+	 * <li>monitoring: collect the metrics of all instances ("control.monitoringInterval", default 1 minute)</li>
+	 * <li>backup: send the restore state to the shadow again, in case an earlier backup was lost 
+	 * ("control.backupInterval", default 1 minute)</li>
+	 * </ul>
+	 * The liveness task is also triggered right away when an instance becomes unhealthy or is suspected of having 
+	 * failed by the {@link HeartbeatMonitor}. The main instance and the shadow send heartbeats to each other, and 
+	 * the app orchestrator sends heartbeats to the main instance.
+	 * 
+	 * The control loop can be stopped and restarted through the API, with a GET request to 
 	 * "http:\<instanceURL\>:8080/main/start" or "http:\<instanceURL\>:8080/main/stop".
 	 * 
 	 * Note that you must configure the instance as shadow before providing the credentials.
@@ -87,52 +97,88 @@ public class MainInstance {
 	 */
 	protected static void startMainLoop() throws IOException, NoSuchAlgorithmException, URISyntaxException {
 		keepAlive = true;
-		while(keepAlive) {
-			waitUntilNextIteration();
-			if (EC2.getCredentials() == null) {
-				System.out.println("Waiting for AWS credentials, cannot start yet");
-				continue;
+		HealthChecker.start(MainInstance::getHealthEndpoints, (instanceId) -> ControlLoop.trigger(TASK_LIVENESS));
+		HeartbeatMonitor.start(MainInstance::getMonitoredInstances, (instanceId) -> ControlLoop.trigger(TASK_LIVENESS));
+		HeartbeatSender.start(MainInstance::getHeartbeatEndpoints, MainInstance::getInstanceId);
+		ControlLoop.schedule(TASK_LIVENESS, LIVENESS_INTERVAL, MainInstance::reconcileLiveness);
+		ControlLoop.schedule(TASK_MONITORING, MONITORING_INTERVAL, MainInstance::reconcileMonitoring);
+		ControlLoop.schedule(TASK_BACKUP, BACKUP_INTERVAL, MainInstance::reconcileBackup);
+	}
+
+	/**
+	 * The control loop tasks only run once the AWS credentials are provided and the control loop is started
+	 */
+	private static boolean isReady() {
+		return keepAlive && started && EC2.getCredentials() != null;
+	}
+
+	private static void reconcileLiveness() throws IOException, NoSuchAlgorithmException, URISyntaxException {
+		if (EC2.getCredentials() == null) {
+			System.out.println("Waiting for AWS credentials, cannot start yet");
+			return;
+		}
+		if(!keepAlive || !started) {
+			System.out.println("Control loop has not been started yet. This can be started through the API");
+			return;
+		}
+		if (behaveAsShadow()) {
+			System.out.println("Checking main instance liveness from shadow");
+			checkMainInstanceLiveness();
+			return;
+		}
+		updateEC2InstanceForMainInstance();
+		if (!isShadowDeployed()) {
+			String restoreShadowId = mainInstanceRestoreState.get(INSTANCE_TYPE_SHADOW);
+			if (restoreShadowId != null && !restoreShadowId.isEmpty()) {
+				System.out.println("Restoring shadow from backup id");
+				shadow = EC2.retrieveEC2InstanceWithId(restoreShadowId);
 			}
-			if(!started) {
-				System.out.println("Main loop has not been started yet. This can be started through the API");
-				continue;
+			else{
+				System.out.println("Deploying shadow");
+				deployShadow();
 			}
-			if (behaveAsShadow()) {
-				System.out.println("Checking main instance liveness from shadow");
-				checkMainInstanceLiveness();
+		}
+		if(!isAppOrchestratorDeployed()) {
+			String appOrchestratorId = mainInstanceRestoreState.get(INSTANCE_TYPE_APP_ORCHESTRATOR);
+			if (appOrchestratorId != null && !appOrchestratorId.isEmpty()) {
+				System.out.println("Restoring app orchestrator from backup id");
+				appOrchestrator = EC2.retrieveEC2InstanceWithId(appOrchestratorId);
 			}
 			else{
-				updateEC2InstanceForMainInstance();
-				if (!isShadowDeployed()) {
-					String restoreShadowId = mainInstanceRestoreState.get(INSTANCE_TYPE_SHADOW);
-					if (restoreShadowId != null && !restoreShadowId.isEmpty()) {
-						System.out.println("Restoring shadow from backup id");
-						shadow = EC2.retrieveEC2InstanceWithId(restoreShadowId);
-					}
-					else{
-						System.out.println("Deploying shadow");
-						deployShadow();
-					}
-				}
-				if(!isAppOrchestratorDeployed()) {
-					String appOrchestratorId = mainInstanceRestoreState.get(INSTANCE_TYPE_APP_ORCHESTRATOR);
-					if (appOrchestratorId != null && !appOrchestratorId.isEmpty()) {
-						System.out.println("Restoring app orchestrator from backup id");
-						appOrchestrator = EC2.retrieveEC2InstanceWithId(appOrchestratorId);
-					}
-					else{
-						System.out.println("Deploying app orchestrator");
-						deployAppOrchestrator();
-					}
-				}
-				System.out.println("Checking shadow liveness from main instance");
-				checkShadowInstanceLiveness();
-				System.out.println("Checking app orchestrator liveness");
-				checkAppOrchestratorLiveness();
-				System.out.println("Start monitoring");
-				monitor();
+				System.out.println("Deploying app orchestrator");
+				deployAppOrchestrator();
 			}
-			waitUntilNextIteration();
+		}
+		System.out.println("Checking shadow liveness from main instance");
+		checkShadowInstanceLiveness();
+		System.out.println("Checking app orchestrator liveness");
+		checkAppOrchestratorLiveness();
+	}
+
+	private static void reconcileMonitoring() throws URISyntaxException {
+		if (!isReady() || behaveAsShadow() || !isShadowDeployed() || !isAppOrchestratorDeployed()) {
+			return;
+		}
+		System.out.println("Start monitoring");
+		monitor();
+	}
+
+	/**
+	 * Send the restore state to the shadow again, so it catches up if an earlier backup did not arrive.
+	 */
+	private static void reconcileBackup() throws URISyntaxException {
+		if (!isReady() || behaveAsShadow() || !isShadowDeployed()) {
+			return;
+		}
+		if (mainInstanceRestoreState.containsKey(INSTANCE_TYPE_APP_ORCHESTRATOR)) {
+			sendApplicationOrchestratorIdFromRestoreStateToShadow(shadow);
+		}
+		List<String> loadBalancerIds = appOrchestratorRestoreState.get(INSTANCE_TYPE_LOAD_BALANCER);
+		if (loadBalancerIds != null && !loadBalancerIds.isEmpty()) {
+			backupLoadBalancer(loadBalancerIds.get(0));
+		}
+		if (appOrchestratorRestoreState.containsKey(INSTANCE_TYPE_APPLICATIONS)) {
+			backupApplicationsRestoreState();
 		}
 	}
 
@@ -317,54 +363,131 @@ public class MainInstance {
 		appOrchestrator = EC2.retrieveEC2InstanceWithId(appOrchestrator.getInstanceId());
 	}
 
-	private static boolean isMainInstanceAlive() throws URISyntaxException {
+	private static boolean isMainInstanceAlive() {
 		updateEC2InstanceForMainInstance();
 		if (mainInstance == null) {
 			return false;
 		}
-
-		try {
-			URI mainInstanceURI = new URI("http", mainInstance.getPublicDnsName(), null, null);
-			URI mainInstanceHealth = UriBuilder.fromUri(mainInstanceURI).port(8080).path(API_ROOT_MAIN).path("health").build();
-			int httpStatus = ClientBuilder.newClient().target(mainInstanceHealth).request().get().getStatus();
-			return mainInstance.getState().getCode() == EC2.INSTANCE_RUNNING && httpStatus == 204;
-		}catch(Exception e) {
+		boolean alive = mainInstance.getState().getCode() == EC2.INSTANCE_RUNNING && isResponsive(mainInstance.getInstanceId());
+		if (!alive) {
 			System.out.println("Main Instance not alive");
-			return false;
 		}
-		
+		return alive;
 	}
 	
-	private static boolean isShadowInstanceAlive() throws URISyntaxException {
+	private static boolean isShadowInstanceAlive() {
 		updateEC2InstanceForShadow();
-		if(shadow == null) {
+		if (shadow == null) {
 			return false;
 		}
-		try  {
-			URI shadowInstanceURI = new URI("http", shadow.getPublicDnsName(), null, null);
-			URI shadowInstanceHealth = UriBuilder.fromUri(shadowInstanceURI).port(8080).path(API_ROOT_MAIN).path("health").build();
-			int httpStatus = ClientBuilder.newClient().target(shadowInstanceHealth).request().get().getStatus();
-			return shadow.getState().getCode() == EC2.INSTANCE_RUNNING && httpStatus == 204;
-		} catch(Exception e) {
+		boolean alive = shadow.getState().getCode() == EC2.INSTANCE_RUNNING && isResponsive(shadow.getInstanceId());
+		if (!alive) {
 			System.out.println("Shadow Instance not alive");
-			return false;
 		}
+		return alive;
 	}
 	
-	private static boolean isAppOrchestratorAlive() throws URISyntaxException {
+	private static boolean isAppOrchestratorAlive() {
 		updateEC2InstanceForAppOrchestrator();
 		if (appOrchestrator == null) {
 			return false;
 		}
-		try {
-			URI appOrchestratorURI = new URI("http", appOrchestrator.getPublicDnsName(), null, null);
-			URI appOrchestratorHealth = UriBuilder.fromUri(appOrchestratorURI).port(8080).path("application-orchestrator").path("health").build();
-			int httpStatus = ClientBuilder.newClient().target(appOrchestratorHealth).request().get().getStatus();
-			return appOrchestrator.getState().getCode() == EC2.INSTANCE_RUNNING && httpStatus == 204;
-		} catch(Exception e) {
+		boolean alive = appOrchestrator.getState().getCode() == EC2.INSTANCE_RUNNING && isResponsive(appOrchestrator.getInstanceId());
+		if (!alive) {
 			System.out.println("App Orchestrator not alive");
-			return false;
 		}
+		return alive;
+	}
+
+	/**
+	 * Heartbeats detect a failure faster and with fewer false positives than the health probes, so the health probes 
+	 * are only used until the first heartbeat of an instance arrives.
+	 */
+	private static boolean isResponsive(String instanceId) {
+		if (HeartbeatMonitor.isMonitoring(instanceId)) {
+			return HeartbeatMonitor.isAvailable(instanceId);
+		}
+		return HealthRegistry.isHealthy(instanceId);
+	}
+
+	/**
+	 * The shadow monitors the main instance, while the main instance monitors the shadow and the app orchestrator.
+	 * 
+	 * @return the ids of the instances that this instance expects heartbeats from
+	 */
+	static Set<String> getMonitoredInstances() {
+		Set<String> monitoredInstances = new HashSet<>();
+		if (behaveAsShadow()) {
+			addInstanceId(monitoredInstances, mainInstance);
+		}
+		else {
+			addInstanceId(monitoredInstances, shadow);
+			addInstanceId(monitoredInstances, appOrchestrator);
+		}
+		return monitoredInstances;
+	}
+
+	private static void addInstanceId(Set<String> instanceIds, Instance instance) {
+		if (instance != null && instance.getInstanceId() != null) {
+			instanceIds.add(instance.getInstanceId());
+		}
+	}
+
+	/**
+	 * @return the heartbeat endpoint of the instance that monitors this instance, once the control loop is started
+	 */
+	static Set<URI> getHeartbeatEndpoints() {
+		Set<URI> heartbeatEndpoints = new HashSet<>();
+		Instance monitoringInstance = behaveAsShadow() ? mainInstance : shadow;
+		if (!isReady() || monitoringInstance == null || monitoringInstance.getPublicDnsName() == null || monitoringInstance.getPublicDnsName().isEmpty()) {
+			return heartbeatEndpoints;
+		}
+		heartbeatEndpoints.add(UriBuilder.fromPath("")
+				.scheme("http")
+				.host(monitoringInstance.getPublicDnsName())
+				.port(8080)
+				.path(API_ROOT_MAIN)
+				.path("heartbeat")
+				.build());
+		return heartbeatEndpoints;
+	}
+
+	/**
+	 * @return the id of this instance, or null if it is not known yet
+	 */
+	static String getInstanceId() {
+		Instance thisInstance = behaveAsShadow() ? shadow : mainInstance;
+		return thisInstance == null ? null : thisInstance.getInstanceId();
+	}
+
+	/**
+	 * The shadow probes the main instance, while the main instance probes the shadow and the app orchestrator.
+	 * 
+	 * @return the health endpoint of each instance that this instance monitors, keyed by instance id
+	 */
+	static Map<String, URI> getHealthEndpoints() {
+		Map<String, URI> healthEndpoints = new HashMap<>();
+		if (behaveAsShadow()) {
+			addHealthEndpoint(healthEndpoints, mainInstance, API_ROOT_MAIN);
+		}
+		else {
+			addHealthEndpoint(healthEndpoints, shadow, API_ROOT_MAIN);
+			addHealthEndpoint(healthEndpoints, appOrchestrator, API_ROOT_APPLICATION_ORCHESTRATOR);
+		}
+		return healthEndpoints;
+	}
+
+	private static void addHealthEndpoint(Map<String, URI> healthEndpoints, Instance instance, String apiRoot) {
+		if (instance == null || instance.getPublicDnsName() == null || instance.getPublicDnsName().isEmpty()) {
+			return;
+		}
+		healthEndpoints.put(instance.getInstanceId(), UriBuilder.fromPath("")
+				.scheme("http")
+				.host(instance.getPublicDnsName())
+				.port(8080)
+				.path(apiRoot)
+				.path("health")
+				.build());
 	}
 
 	public static boolean isAlive() {
@@ -377,10 +500,12 @@ public class MainInstance {
 	
 	public static void kill() {
 		keepAlive = false;
+		ControlLoop.shutdown();
 	}
 
 	public static void start() {
 		started = true;
+		ControlLoop.trigger(TASK_LIVENESS);
 	}
 	
 	public static void stop() {
@@ -437,7 +562,7 @@ public class MainInstance {
 		SimpleAWSCredentials credentials = new SimpleAWSCredentials();
 		credentials.setAccessKey(EC2.getCredentials().getAWSAccessKeyId());
 		credentials.setSecretKey(EC2.getCredentials().getAWSSecretKey());
-		ClientBuilder.newClient().register(JacksonJsonProvider.class).target(instanceCredentials).request().post(Entity.entity(credentials, MediaType.APPLICATION_JSON));
+		HttpClients.getClient().target(instanceCredentials).request().post(Entity.entity(credentials, MediaType.APPLICATION_JSON)).close();
 	}
 	
 	private static void sendShadowIdFromRestoreStateToMainInstance(Instance redeployedMainInstance) throws URISyntaxException {
@@ -448,7 +573,7 @@ public class MainInstance {
 				.path("shadow")
 				.queryParam("shadowInstanceId", mainInstanceRestoreState.get(INSTANCE_TYPE_SHADOW))
 				.build();
-		ClientBuilder.newClient().register(JacksonJsonProvider.class).target(backupURI).request().get();
+		HttpClients.getClient().target(backupURI).request().get().close();
 	}
 	
 	private static void sendApplicationOrchestratorIdFromRestoreStateToShadow(Instance instance) throws URISyntaxException {
@@ -459,7 +584,7 @@ public class MainInstance {
 				.path("application-orchestrator")
 				.queryParam("appOrchestratorId", mainInstanceRestoreState.get(INSTANCE_TYPE_APP_ORCHESTRATOR))
 				.build();
-		ClientBuilder.newClient().register(JacksonJsonProvider.class).target(backupURI).request().get();
+		HttpClients.getClient().target(backupURI).request().get().close();
 	}
 	
 	private static void sendApplicationOrchestratorIdFromRestoreStateToMainInstance(Instance redeployedMainInstance) throws URISyntaxException {
@@ -470,7 +595,7 @@ public class MainInstance {
 				.path("application-orchestrator")
 				.queryParam("appOrchestratorId", mainInstanceRestoreState.get(INSTANCE_TYPE_APP_ORCHESTRATOR))
 				.build();
-		ClientBuilder.newClient().register(JacksonJsonProvider.class).target(backupURI).request().get();
+		HttpClients.getClient().target(backupURI).request().get().close();
 	} 
 	
 	private static void sendMainInstanceIdToApplicationOrchestratorFromShadow() throws URISyntaxException {
@@ -490,7 +615,7 @@ public class MainInstance {
 				.path("main-instance")
 				.queryParam("mainInstanceId", mainInstanceRestoreState.get(INSTANCE_TYPE_MAIN))
 				.build();
-		ClientBuilder.newClient().register(JacksonJsonProvider.class).target(backupURI).request().get();
+		HttpClients.getClient().target(backupURI).request().get().close();
 	}
 	
 	private static void sendLoadBalancerIdFromRestoreState(Instance instance, String API_PATH) throws URISyntaxException {
@@ -501,7 +626,7 @@ public class MainInstance {
 				.path("load-balancer")
 				.queryParam("loadBalancerId", appOrchestratorRestoreState.get(INSTANCE_TYPE_LOAD_BALANCER).get(0))
 				.build();
-		ClientBuilder.newClient().register(JacksonJsonProvider.class).target(backupURI).request().get();
+		HttpClients.getClient().target(backupURI).request().get().close();
 	}
 	
 	private static void sendApplicationIdsFromRestoreState(Instance instance, String API_PATH) throws URISyntaxException {
@@ -512,7 +637,7 @@ public class MainInstance {
 				.path("applications")
 				.queryParam("applicationIds", appOrchestratorRestoreState.get(INSTANCE_TYPE_APPLICATIONS))
 				.build();
-		ClientBuilder.newClient().register(JacksonJsonProvider.class).target(backupURI).request().get();
+		HttpClients.getClient().target(backupURI).request().get().close();
 	}
 	
 	private static void sendApplicationCountersFromRestoreState(Instance instance, String API_PATH) throws URISyntaxException {
@@ -525,14 +650,14 @@ public class MainInstance {
 					.queryParam("applicationId", entry.getKey())
 					.queryParam("counter", entry.getValue())
 					.build();
-			ClientBuilder.newClient().register(JacksonJsonProvider.class).target(backupURI).request().get();
+			HttpClients.getClient().target(backupURI).request().get().close();
 		}
 	}
 
 	public static void configureProvidedInstanceAsShadow(Instance shadow) throws URISyntaxException {
 		URI shadowURI = new URI("http", shadow.getPublicDnsName(), null, null);
 		URI configureShadowURI = UriBuilder.fromUri(shadowURI).port(8080).path(API_ROOT_MAIN).path("shadow").queryParam("mainInstanceId", mainInstance.getInstanceId()).build();
-		ClientBuilder.newClient().register(JacksonJsonProvider.class).target(configureShadowURI).request().get();
+		HttpClients.getClient().target(configureShadowURI).request().get().close();
 	}
 	
 	private static void startInstance(Instance instance, String rootEndpointPath) throws URISyntaxException {
@@ -541,7 +666,7 @@ public class MainInstance {
 				.path(rootEndpointPath)
 				.path("start")
 				.build();
-		ClientBuilder.newClient().register(JacksonJsonProvider.class).target(backupURI).request().get();
+		HttpClients.getClient().target(backupURI).request().get().close();
 	}
 
 	public static AWSCredentials getCredentials() {
@@ -555,32 +680,13 @@ public class MainInstance {
 	}
 	
 	public static void monitor() throws URISyntaxException {
-		DescribeInstancesRequest request = new DescribeInstancesRequest()
-				.withInstanceIds(getInstanceIDsFromAppOrchestrator())
-				.withInstanceIds(shadow.getInstanceId(), appOrchestrator.getInstanceId());
+		List<String> instanceIds = getInstanceIDsFromAppOrchestrator();
+		instanceIds.add(shadow.getInstanceId());
+		instanceIds.add(appOrchestrator.getInstanceId());
 		
 		// This part covers the Monitoring subsection of what resources are used in the system.
-
-		while (true) {
-			DescribeInstancesResult response = EC2.getClient().describeInstances(request);
-
-			for (Reservation reservation : response.getReservations()) {
-				for (Instance instance : reservation.getInstances()) {
-					InstanceMetrics instanceMetrics = new InstanceMetrics();
-					instanceMetrics.setInstance(instance);
-					instanceMetrics.setCloudWatchMetrics(getAdditionalMetrics(instance));
-					metricsForInstances.put(instance.getInstanceId(), instanceMetrics);
-				}
-			}
-			request.setNextToken(response.getNextToken());
-			if (response.getNextToken() == null) {
-				break;
-			}
-		}
-	}
-	
-	public static Map<String, InstanceMetrics> getMetricsForInstances() {
-		return metricsForInstances;
+		// The metrics of all instances are collected together into the metrics store.
+		MetricsCollector.collect(cloudWatch, instanceIds);
 	}
 
 	private static List<String> getInstanceIDsFromAppOrchestrator() throws URISyntaxException {
@@ -588,7 +694,7 @@ public class MainInstance {
 		URI appOrchestratorURI = new URI("http", appOrchestrator.getPublicDnsName(), null, null);
 		URI appOrchestratorDescribeLoadBalancer= UriBuilder.fromUri(appOrchestratorURI).port(8080).path("application-orchestrator").path("instances").path("load-balancer").build();
 		URI appOrchestratorDescribeApplications = UriBuilder.fromUri(appOrchestratorURI).port(8080).path("application-orchestrator").path("instances").path("applications").build();
-		Client client = ClientBuilder.newClient().register(JacksonJsonProvider.class);
+		Client client = HttpClients.getClient();
 		Instance loadBalancer = client.target(appOrchestratorDescribeLoadBalancer).request().get(Instance.class);
 		if(loadBalancer != null) {			
 			instanceIds.add(loadBalancer.getInstanceId());
@@ -600,36 +706,6 @@ public class MainInstance {
 		return instanceIds;
 	}
 
-	private static Map<String, List<Datapoint>> getAdditionalMetrics(Instance instance) {
-		Map<String, List<Datapoint>> additionalMetrics = new HashMap<>();
-		
-		Dimension instanceDimension = new Dimension();
-		instanceDimension.setName("InstanceId");
-		instanceDimension.setValue(instance.getInstanceId());
-		for (String metricName : metricNames) {
-			additionalMetrics.put(metricName, getSingleMetric(instanceDimension, metricName));
-		}
-		return additionalMetrics;
-	}
-
-	private static List<Datapoint> getSingleMetric(Dimension instanceDimension, String metricName) {
-		Date oneHourAgoInUTCTimezone = Date.from(ZonedDateTime.now(ZoneOffset.UTC).minusHours(1).toInstant());
-		Date currentTimeInUTCTimezone = Date.from(ZonedDateTime.now(ZoneOffset.UTC).toInstant());
-		GetMetricStatisticsRequest metricStatisticsRequest = new GetMetricStatisticsRequest()
-				.withStartTime(oneHourAgoInUTCTimezone).withNamespace("AWS/EC2").withPeriod(300)
-				.withMetricName(metricName).withStatistics("Average")
-				.withDimensions(Arrays.asList(instanceDimension)).withEndTime(currentTimeInUTCTimezone);
-		GetMetricStatisticsResult getMetricStatisticsResult = cloudWatch.getMetricStatistics(metricStatisticsRequest);
-
-		List<Datapoint> metricDatapoints = getMetricStatisticsResult.getDatapoints();
-		Collections.sort(metricDatapoints, new Comparator<Datapoint>() {
-			public int compare(Datapoint dp1, Datapoint dp2) {
-				return dp1.getTimestamp().compareTo(dp2.getTimestamp());
-			}
-		});
-		return metricDatapoints;
-	}
-
 	public static Instance getMainInstance() {
 		return mainInstance;
 	}
@@ -637,17 +713,6 @@ public class MainInstance {
 	public static void setMainInstance(Instance mainInstance) {
 		MainInstance.mainInstance = mainInstance;
 	}
-	
-	/**
-	 * Wait a specific amount of time before
-	 */
-	public static void waitUntilNextIteration() {
-		try {
-			Thread.sleep(ITERATION_WAIT_TIME);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
-	}
 
 	public static void setRestoreIdForLoadBalancer(String loadBalancerId) {
 		appOrchestratorRestoreState.put(INSTANCE_TYPE_LOAD_BALANCER, Arrays.asList(loadBalancerId));
@@ -663,6 +728,71 @@ public class MainInstance {
 		}
 	}
 
+	/**
+	 * @return the id of the load balancer that the app orchestrator is restored with, or null if it is not known
+	 */
+	static String getRestoreIdForLoadBalancer() {
+		List<String> loadBalancerIds = appOrchestratorRestoreState.get(INSTANCE_TYPE_LOAD_BALANCER);
+		return loadBalancerIds == null || loadBalancerIds.isEmpty() ? null : loadBalancerIds.get(0);
+	}
+
+	/**
+	 * @return the ids of the application instances that the app orchestrator is restored with, or null if they are
+	 * not known
+	 */
+	static List<String> getRestoreIdsForApplications() {
+		return appOrchestratorRestoreState.get(INSTANCE_TYPE_APPLICATIONS);
+	}
+
+	/**
+	 * @return a copy of the request counters that the app orchestrator is restored with
+	 */
+	static Map<String, Integer> getRestoreApplicationCounters() {
+		synchronized (appOrchestratorRestoreApplicationCounters) {
+			return new HashMap<>(appOrchestratorRestoreApplicationCounters);
+		}
+	}
+
+	/**
+	 * Apply a batch of changes to the restore state of the app orchestrator, and forward it to the shadow.
+	 * 
+	 * Batches are only applied in order of their sequence number for each source, so a batch that is sent again or
+	 * arrives late is ignored instead of overwriting newer changes.
+	 * 
+	 * @return false if the batch was ignored
+	 */
+	public static boolean applyBackupBatch(ReplicationBatch batch) {
+		synchronized (lastAppliedBatches) {
+			Long lastAppliedSequence = lastAppliedBatches.get(batch.getSource());
+			if (lastAppliedSequence != null && batch.getSequence() <= lastAppliedSequence) {
+				ignoredBatches.increment();
+				return false;
+			}
+			lastAppliedBatches.put(batch.getSource(), batch.getSequence());
+			if (batch.getLoadBalancerId() != null) {
+				appOrchestratorRestoreState.put(INSTANCE_TYPE_LOAD_BALANCER, Arrays.asList(batch.getLoadBalancerId()));
+			}
+			if (batch.getApplicationIds() != null) {
+				appOrchestratorRestoreState.put(INSTANCE_TYPE_APPLICATIONS, batch.getApplicationIds());
+				// the counters of application instances that were removed are no longer needed
+				appOrchestratorRestoreApplicationCounters.keySet().retainAll(batch.getApplicationIds());
+			}
+			if (batch.getApplicationCounters() != null) {
+				appOrchestratorRestoreApplicationCounters.putAll(batch.getApplicationCounters());
+			}
+			appliedBatches.increment();
+		}
+		if (!isShadow && shadow != null) {
+			// the backup task sends the restore state to the shadow again, so a failure here is not retried
+			try {
+				backupBatch(batch);
+			} catch (RuntimeException e) {
+				System.out.println("Could not forward the backup batch to the shadow: " + e.getMessage());
+			}
+		}
+		return true;
+	}
+
 	public static void setRestoreIdForShadow(String shadowId) {
 		mainInstanceRestoreState.put(INSTANCE_TYPE_SHADOW, shadowId);
 		if (!isShadow) {
@@ -686,11 +816,28 @@ public class MainInstance {
 				.path("backup")
 				.path("applications")
 				.build();
-		ClientBuilder.newClient()
+		HttpClients.getClient()
 		.target(backupURI)
 		.queryParam("applicationIds", appOrchestratorRestoreState.get(INSTANCE_TYPE_APPLICATIONS).toArray())
 		.request()
-		.get();
+		.get()
+		.close();
+	}
+
+	private static void backupBatch(ReplicationBatch batch) {
+		URI backupURI = UriBuilder.fromPath("")
+				.scheme("http")
+				.host(shadow.getPublicDnsName())
+				.port(8080)
+				.path(API_ROOT_MAIN)
+				.path("backup")
+				.path("batch")
+				.build();
+		HttpClients.getClient()
+		.target(backupURI)
+		.request()
+		.post(Entity.entity(batch, MediaType.APPLICATION_JSON))
+		.close();
 	}
 
 	private static void backupAppOrchestratorApplicationCounter(String applicationId, int counter) {
@@ -702,12 +849,13 @@ public class MainInstance {
 				.path("backup")
 				.path("applications")
 				.build();
-		ClientBuilder.newClient()
+		HttpClients.getClient()
 		.target(backupURI)
 		.queryParam("applicationId", applicationId)
 		.queryParam("counter", counter)
 		.request()
-		.get();
+		.get()
+		.close();
 	}
 	
 	private static void backupLoadBalancer(String loadBalancerId) {
@@ -719,11 +867,12 @@ public class MainInstance {
 				.path("backup")
 				.path("load-balancer")
 				.build();
-		ClientBuilder.newClient()
+		HttpClients.getClient()
 		.target(backupURI)
 		.queryParam("loadBalancerId", loadBalancerId)
 		.request()
-		.get();
+		.get()
+		.close();
 	}
 	
 	private static void sendAppOrchestratorRestoreStateToMainInstance(Instance redeployedMainInstance) {
@@ -735,11 +884,12 @@ public class MainInstance {
 				.path("backup")
 				.path("applications")
 				.build();
-		ClientBuilder.newClient()
+		HttpClients.getClient()
 		.target(backupURI)
 		.queryParam("applicationIds", appOrchestratorRestoreState.get(INSTANCE_TYPE_APPLICATIONS).toArray())
 		.request()
-		.get();
+		.get()
+		.close();
 	}
 	
 	private static void sendAppOrchestratorApplicationCountersToMainInstance(Instance redeployedMainInstance) {
@@ -751,7 +901,7 @@ public class MainInstance {
 				.path("backup")
 				.path("application-counter")
 				.build();
-		Client client = ClientBuilder.newClient();
+		Client client = HttpClients.getClient();
 		appOrchestratorRestoreApplicationCounters.entrySet()
 		.stream()
 		.forEach(entry -> {
@@ -760,7 +910,8 @@ public class MainInstance {
 			.queryParam("applicationId", entry.getKey())
 			.queryParam("counter", entry.getValue())
 			.request()
-			.get();			
+			.get()
+			.close();
 		});
 	}
 }
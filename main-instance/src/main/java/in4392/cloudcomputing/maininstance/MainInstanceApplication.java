@@ -10,6 +10,8 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 @SpringBootApplication
 public class MainInstanceApplication {
 	public static void main(String[] args) throws IOException, NoSuchAlgorithmException, URISyntaxException {
+		AsyncConsole.install();
+		HttpClients.configure();
 		SpringApplication.run(MainInstanceApplication.class, args);
 		MainInstance.startMainLoop();
 	}
@@ -0,0 +1,31 @@
+package in4392.cloudcomputing.maininstance;
+
+/**
+ * The datapoints of a single metric, as parallel arrays of timestamps (in milliseconds since the epoch) and values.
+ */
+public class MetricSeries {
+	private long[] timestamps;
+	private double[] values;
+
+	public MetricSeries() {
+		this(new long[0], new double[0]);
+	}
+
+	public MetricSeries(long[] timestamps, double[] values) {
+		this.timestamps = timestamps;
+		this.values = values;
+	}
+
+	public long[] getTimestamps() {
+		return timestamps;
+	}
+	public void setTimestamps(long[] timestamps) {
+		this.timestamps = timestamps;
+	}
+	public double[] getValues() {
+		return values;
+	}
+	public void setValues(double[] values) {
+		this.values = values;
+	}
+}
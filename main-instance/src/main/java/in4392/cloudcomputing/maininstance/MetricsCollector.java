@@ -0,0 +1,145 @@
+package in4392.cloudcomputing.maininstance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amazonaws.services.cloudwatch.AmazonCloudWatch;
+import com.amazonaws.services.cloudwatch.model.Dimension;
+import com.amazonaws.services.cloudwatch.model.GetMetricDataRequest;
+import com.amazonaws.services.cloudwatch.model.GetMetricDataResult;
+import com.amazonaws.services.cloudwatch.model.Metric;
+import com.amazonaws.services.cloudwatch.model.MetricDataQuery;
+import com.amazonaws.services.cloudwatch.model.MetricDataResult;
+import com.amazonaws.services.cloudwatch.model.MetricStat;
+import com.amazonaws.services.cloudwatch.model.ScanBy;
+
+/**
+ * Collect the CloudWatch metrics of all monitored instances with batched GetMetricData calls.
+ *
+ * Each call queries up to 500 combinations of instance and metric. Only the datapoints since the watermark of an
+ * instance (the timestamp of its latest datapoint) are retrieved, and they are merged into the time series of the
+ * {@link MetricsStore}. The latest datapoint is retrieved again, since CloudWatch may still update it. Instances
+ * without a watermark are backfilled with the last hour of datapoints.
+ */
+public class MetricsCollector {
+	public static final List<String> METRIC_NAMES = Collections.unmodifiableList(Arrays.asList("CPUUtilization", "NetworkIn", "NetworkOut", "DiskReadOps", "DiskWriteOps"));
+	private static final int PERIOD = 300;
+	private static final long BACKFILL_TIME = TimeUnit.HOURS.toMillis(1);
+	// the CloudWatch API accepts at most 500 queries per GetMetricData call
+	private static final int MAX_QUERIES_PER_CALL = 500;
+	private static final Map<String, Long> watermarks = new ConcurrentHashMap<>();
+	private static final LongAdder apiCalls = new LongAdder();
+	private static final MetricsRegistry.Histogram collectDuration = MetricsRegistry.histogram("maininstance_metrics_collection_duration_seconds",
+			"Time it took to collect the CloudWatch metrics of all instances, in seconds.", MetricsRegistry.LATENCY_BUCKETS);
+
+	static {
+		MetricsRegistry.counter("cloudwatch_get_metric_data_calls_total", "Amount of GetMetricData calls made to the CloudWatch API.", MetricsCollector::getApiCalls);
+	}
+
+	/**
+	 * Retrieve the new datapoints of all metrics of the provided instances. Instances that are not provided are
+	 * no longer monitored, so their watermarks are removed.
+	 *
+	 * @param cloudWatch is the client for the CloudWatch API
+	 * @param instanceIds are the ids of the monitored instances
+	 */
+	public static synchronized void collect(AmazonCloudWatch cloudWatch, Collection<String> instanceIds) {
+		watermarks.keySet().retainAll(instanceIds);
+		long collectStart = System.nanoTime();
+		long now = System.currentTimeMillis();
+		// a single call has a single start time, so instances are grouped by the start of their missing datapoints
+		Map<Long, List<String>> instancesByStartTime = new TreeMap<>();
+		for (String instanceId : instanceIds) {
+			long startTime = watermarks.getOrDefault(instanceId, alignToPeriod(now - BACKFILL_TIME));
+			instancesByStartTime.computeIfAbsent(startTime, (key) -> new ArrayList<>()).add(instanceId);
+		}
+		long callsBefore = apiCalls.sum();
+		int datapoints = 0;
+		for (Map.Entry<Long, List<String>> group : instancesByStartTime.entrySet()) {
+			List<String[]> combinations = new ArrayList<>();
+			for (String instanceId : group.getValue()) {
+				for (String metricName : METRIC_NAMES) {
+					combinations.add(new String[] {instanceId, metricName});
+				}
+			}
+			for (int start = 0; start < combinations.size(); start += MAX_QUERIES_PER_CALL) {
+				datapoints += collectBatch(cloudWatch, combinations.subList(start, Math.min(combinations.size(), start + MAX_QUERIES_PER_CALL)), group.getKey(), now);
+			}
+		}
+		MetricsStore.removeExpired(now);
+		collectDuration.observeSince(collectStart);
+		System.out.println("Collected " + datapoints + " datapoints with " + (apiCalls.sum() - callsBefore) + " GetMetricData calls");
+	}
+
+	private static int collectBatch(AmazonCloudWatch cloudWatch, List<String[]> combinations, long startTime, long endTime) {
+		List<MetricDataQuery> queries = new ArrayList<>();
+		Map<String, String[]> combinationsByQueryId = new HashMap<>();
+		for (String[] combination : combinations) {
+			// query ids must start with a lowercase letter
+			String queryId = "q" + queries.size();
+			combinationsByQueryId.put(queryId, combination);
+			queries.add(new MetricDataQuery()
+					.withId(queryId)
+					.withReturnData(true)
+					.withMetricStat(new MetricStat()
+							.withPeriod(PERIOD)
+							.withStat("Average")
+							.withMetric(new Metric()
+									.withNamespace("AWS/EC2")
+									.withMetricName(combination[1])
+									.withDimensions(new Dimension().withName("InstanceId").withValue(combination[0])))));
+		}
+		GetMetricDataRequest request = new GetMetricDataRequest()
+				.withMetricDataQueries(queries)
+				.withStartTime(new Date(startTime))
+				.withEndTime(new Date(endTime))
+				.withScanBy(ScanBy.TimestampAscending);
+		int datapoints = 0;
+		do {
+			apiCalls.increment();
+			GetMetricDataResult result = cloudWatch.getMetricData(request);
+			for (MetricDataResult metricDataResult : result.getMetricDataResults()) {
+				String[] combination = combinationsByQueryId.get(metricDataResult.getId());
+				if (combination == null) {
+					continue;
+				}
+				datapoints += merge(combination[0], combination[1], metricDataResult.getTimestamps(), metricDataResult.getValues());
+			}
+			request.setNextToken(result.getNextToken());
+		} while (request.getNextToken() != null);
+		return datapoints;
+	}
+
+	private static int merge(String instanceId, String metricName, List<Date> timestamps, List<Double> values) {
+		int amount = Math.min(timestamps.size(), values.size());
+		for (int i = 0; i < amount; i++) {
+			long timestamp = timestamps.get(i).getTime();
+			// an existing datapoint is replaced, since the latest period may have been incomplete before
+			MetricsStore.record(instanceId, metricName, timestamp, values.get(i));
+			watermarks.merge(instanceId, timestamp, Math::max);
+		}
+		return amount;
+	}
+
+	/**
+	 * @return the amount of GetMetricData calls made so far
+	 */
+	public static long getApiCalls() {
+		return apiCalls.sum();
+	}
+
+	private static long alignToPeriod(long timestamp) {
+		long periodInMillis = TimeUnit.SECONDS.toMillis(PERIOD);
+		return timestamp - (timestamp % periodInMillis);
+	}
+}
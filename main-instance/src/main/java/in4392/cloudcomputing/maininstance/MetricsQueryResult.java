@@ -0,0 +1,55 @@
+package in4392.cloudcomputing.maininstance;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The aggregated metrics of the monitored instances in a time range, keyed by instance id and metric name.
+ */
+public class MetricsQueryResult {
+	private long from;
+	private long to;
+	private long step;
+	private String aggregation;
+	private Map<String, Map<String, MetricSeries>> instances = new TreeMap<>();
+
+	/**
+	 * @return the start of the range in milliseconds since the epoch
+	 */
+	public long getFrom() {
+		return from;
+	}
+	public void setFrom(long from) {
+		this.from = from;
+	}
+	/**
+	 * @return the (exclusive) end of the range in milliseconds since the epoch
+	 */
+	public long getTo() {
+		return to;
+	}
+	public void setTo(long to) {
+		this.to = to;
+	}
+	/**
+	 * @return the size of each bucket in seconds
+	 */
+	public long getStep() {
+		return step;
+	}
+	public void setStep(long step) {
+		this.step = step;
+	}
+	public String getAggregation() {
+		return aggregation;
+	}
+	public void setAggregation(String aggregation) {
+		this.aggregation = aggregation;
+	}
+	public Map<String, Map<String, MetricSeries>> getInstances() {
+		return instances;
+	}
+	public void setInstances(Map<String, Map<String, MetricSeries>> instances) {
+		this.instances = instances;
+	}
+}
@@ -0,0 +1,260 @@
+package in4392.cloudcomputing.maininstance;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Registry of the metrics of this component, which are exposed in the Prometheus text exposition format.
+ *
+ * Metrics are registered once and kept in static fields by the code that updates them. Updating a counter or
+ * histogram only increments striped adders, so it does not allocate or lock on the hot path. Gauges and
+ * counters that are maintained elsewhere are registered as suppliers, which are only called when the metrics are
+ * scraped. Labels are fixed at registration, so each combination of label values is registered separately.
+ */
+public class MetricsRegistry {
+	/**
+	 * Buckets in seconds for latencies ranging from quick API calls to video conversions of several minutes.
+	 */
+	public static final double[] LATENCY_BUCKETS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300, 600};
+	private static final Map<String, Family> families = new LinkedHashMap<>();
+
+	static {
+		registerJvmMetrics();
+	}
+
+	/**
+	 * Register a counter.
+	 *
+	 * @param labels are the names and values of the labels, alternating
+	 */
+	public static Counter counter(String name, String help, String... labels) {
+		Counter counter = new Counter();
+		register(name, help, "counter", labels, counter);
+		return counter;
+	}
+
+	/**
+	 * Register a counter whose value is maintained elsewhere.
+	 *
+	 * @param labels are the names and values of the labels, alternating
+	 */
+	public static void counter(String name, String help, DoubleSupplier value, String... labels) {
+		register(name, help, "counter", labels, value);
+	}
+
+	/**
+	 * Register a gauge, whose value is retrieved when the metrics are scraped.
+	 *
+	 * @param labels are the names and values of the labels, alternating
+	 */
+	public static void gauge(String name, String help, DoubleSupplier value, String... labels) {
+		register(name, help, "gauge", labels, value);
+	}
+
+	/**
+	 * Register a histogram.
+	 *
+	 * @param buckets are the upper bounds of the buckets, in ascending order
+	 * @param labels are the names and values of the labels, alternating
+	 */
+	public static Histogram histogram(String name, String help, double[] buckets, String... labels) {
+		Histogram histogram = new Histogram(buckets);
+		register(name, help, "histogram", labels, histogram);
+		return histogram;
+	}
+
+	/**
+	 * @return all metrics in the Prometheus text exposition format
+	 */
+	public static synchronized String scrape() {
+		StringBuilder output = new StringBuilder(8 * 1024);
+		for (Family family : families.values()) {
+			output.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+			output.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+			for (Child child : family.children) {
+				if (child.metric instanceof Histogram) {
+					((Histogram) child.metric).writeTo(output, family.name, child.labels);
+				}
+				else {
+					double value = child.metric instanceof Counter ? ((Counter) child.metric).get() : ((DoubleSupplier) child.metric).getAsDouble();
+					writeSample(output, family.name, child.labels, null, value);
+				}
+			}
+		}
+		return output.toString();
+	}
+
+	private static synchronized void register(String name, String help, String type, String[] labels, Object metric) {
+		Family family = families.computeIfAbsent(name, (key) -> new Family(name, help, type));
+		if (!family.type.equals(type)) {
+			throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type);
+		}
+		family.children.add(new Child(formatLabels(labels), metric));
+	}
+
+	private static String formatLabels(String[] labels) {
+		if (labels.length % 2 != 0) {
+			throw new IllegalArgumentException("Labels must be provided as pairs of names and values");
+		}
+		StringBuilder formatted = new StringBuilder();
+		for (int i = 0; i < labels.length; i += 2) {
+			if (formatted.length() > 0) {
+				formatted.append(',');
+			}
+			formatted.append(labels[i]).append("=\"")
+					.append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+					.append('"');
+		}
+		return formatted.toString();
+	}
+
+	private static void writeSample(StringBuilder output, String name, String labels, String extraLabel, double value) {
+		output.append(name);
+		if (!labels.isEmpty() || extraLabel != null) {
+			output.append('{').append(labels);
+			if (extraLabel != null) {
+				if (!labels.isEmpty()) {
+					output.append(',');
+				}
+				output.append(extraLabel);
+			}
+			output.append('}');
+		}
+		output.append(' ');
+		if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+			output.append((long) value);
+		}
+		else {
+			output.append(value);
+		}
+		output.append('\n');
+	}
+
+	private static void registerJvmMetrics() {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		gauge("jvm_memory_bytes_used", "Used bytes of a given JVM memory area.", () -> memory.getHeapMemoryUsage().getUsed(), "area", "heap");
+		gauge("jvm_memory_bytes_used", "Used bytes of a given JVM memory area.", () -> memory.getNonHeapMemoryUsage().getUsed(), "area", "nonheap");
+		gauge("jvm_memory_bytes_committed", "Committed bytes of a given JVM memory area.", () -> memory.getHeapMemoryUsage().getCommitted(), "area", "heap");
+		gauge("jvm_memory_bytes_committed", "Committed bytes of a given JVM memory area.", () -> memory.getNonHeapMemoryUsage().getCommitted(), "area", "nonheap");
+		gauge("jvm_memory_bytes_max", "Max bytes of a given JVM memory area.", () -> memory.getHeapMemoryUsage().getMax(), "area", "heap");
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			counter("jvm_gc_collections_total", "Amount of collections of a given JVM garbage collector.", collector::getCollectionCount, "gc", collector.getName());
+			counter("jvm_gc_collection_seconds_total", "Time spent in a given JVM garbage collector in seconds.", () -> collector.getCollectionTime() / 1000.0, "gc", collector.getName());
+		}
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		gauge("jvm_threads_current", "Current thread count of a JVM.", threads::getThreadCount);
+		gauge("jvm_threads_daemon", "Daemon thread count of a JVM.", threads::getDaemonThreadCount);
+		gauge("jvm_threads_peak", "Peak thread count of a JVM.", threads::getPeakThreadCount);
+		gauge("process_uptime_seconds", "Uptime of the JVM in seconds.", () -> ManagementFactory.getRuntimeMXBean().getUptime() / 1000.0);
+		OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
+		gauge("system_load_average", "System load average over the last minute.", operatingSystem::getSystemLoadAverage);
+		if (operatingSystem instanceof com.sun.management.OperatingSystemMXBean) {
+			com.sun.management.OperatingSystemMXBean processInfo = (com.sun.management.OperatingSystemMXBean) operatingSystem;
+			counter("process_cpu_seconds_total", "Total user and system CPU time spent in seconds.", () -> processInfo.getProcessCpuTime() / (double) TimeUnit.SECONDS.toNanos(1));
+		}
+	}
+
+	/**
+	 * A value that only increases.
+	 */
+	public static class Counter {
+		private final LongAdder value = new LongAdder();
+
+		public void increment() {
+			value.increment();
+		}
+
+		public void add(long amount) {
+			value.add(amount);
+		}
+
+		public long get() {
+			return value.sum();
+		}
+	}
+
+	/**
+	 * The distribution of observed values over a fixed set of buckets.
+	 */
+	public static class Histogram {
+		private final double[] upperBounds;
+		private final LongAdder[] bucketCounts;
+		private final DoubleAdder sum = new DoubleAdder();
+		private final LongAdder count = new LongAdder();
+
+		private Histogram(double[] upperBounds) {
+			this.upperBounds = upperBounds.clone();
+			bucketCounts = new LongAdder[upperBounds.length];
+			for (int i = 0; i < bucketCounts.length; i++) {
+				bucketCounts[i] = new LongAdder();
+			}
+		}
+
+		public void observe(double value) {
+			// values above the largest bound are only counted in the implicit +Inf bucket
+			for (int i = 0; i < upperBounds.length; i++) {
+				if (value <= upperBounds[i]) {
+					bucketCounts[i].increment();
+					break;
+				}
+			}
+			sum.add(value);
+			count.increment();
+		}
+
+		/**
+		 * Observe the time that has passed since the provided start time, in seconds.
+		 *
+		 * @param startNanos is the start time as returned by {@link System#nanoTime()}
+		 */
+		public void observeSince(long startNanos) {
+			observe((System.nanoTime() - startNanos) / 1e9);
+		}
+
+		private void writeTo(StringBuilder output, String name, String labels) {
+			long cumulative = 0;
+			for (int i = 0; i < upperBounds.length; i++) {
+				cumulative += bucketCounts[i].sum();
+				writeSample(output, name + "_bucket", labels, "le=\"" + upperBounds[i] + "\"", cumulative);
+			}
+			long total = count.sum();
+			writeSample(output, name + "_bucket", labels, "le=\"+Inf\"", Math.max(total, cumulative));
+			writeSample(output, name + "_sum", labels, null, sum.sum());
+			writeSample(output, name + "_count", labels, null, Math.max(total, cumulative));
+		}
+	}
+
+	private static class Family {
+		private final String name;
+		private final String help;
+		private final String type;
+		private final List<Child> children = new ArrayList<>();
+
+		private Family(String name, String help, String type) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+		}
+	}
+
+	private static class Child {
+		private final String labels;
+		private final Object metric;
+
+		private Child(String labels, Object metric) {
+			this.labels = labels;
+			this.metric = metric;
+		}
+	}
+}
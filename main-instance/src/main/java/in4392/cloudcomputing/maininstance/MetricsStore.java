@@ -0,0 +1,108 @@
+package in4392.cloudcomputing.maininstance;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import in4392.cloudcomputing.maininstance.TimeSeries.Aggregation;
+
+/**
+ * In-memory store of the time series of each metric of each monitored instance.
+ *
+ * The time series of an instance are kept after it is no longer monitored, until its newest datapoint is older
+ * than the retention time of the coarsest tier of the time series.
+ */
+public class MetricsStore {
+	public static final long MINIMUM_STEP = TimeUnit.MINUTES.toSeconds(5);
+	private static final int MAX_POINTS_PER_SERIES = 10000;
+	private static final Map<String, Map<String, TimeSeries>> series = new ConcurrentHashMap<>();
+
+	public static void record(String instanceId, String metricName, long timestamp, double value) {
+		series.computeIfAbsent(instanceId, (key) -> new ConcurrentHashMap<>())
+				.computeIfAbsent(metricName, (key) -> new TimeSeries())
+				.put(timestamp, value);
+	}
+
+	/**
+	 * Aggregate the datapoints of all metrics of all instances in a time range.
+	 *
+	 * @param from is the start of the range in milliseconds since the epoch, which is aligned down to the step
+	 * @param to is the (exclusive) end of the range in milliseconds since the epoch
+	 * @param stepInSeconds is the size of each bucket in seconds, which is at least 5 minutes
+	 * @param aggregation is the name of the aggregation: avg, min, max, sum or count
+	 * @return the aggregated datapoints of each metric of each instance
+	 * @throws IllegalArgumentException if the aggregation is unknown or the range would contain too many buckets
+	 */
+	public static MetricsQueryResult query(long from, long to, long stepInSeconds, String aggregation) {
+		Aggregation selectedAggregation = Aggregation.valueOf(aggregation.toUpperCase(Locale.ROOT));
+		long step = TimeUnit.SECONDS.toMillis(Math.max(MINIMUM_STEP, stepInSeconds));
+		long alignedFrom = Math.floorDiv(from, step) * step;
+		if (to <= alignedFrom) {
+			throw new IllegalArgumentException("The end of the range must be after its start");
+		}
+		if ((to - alignedFrom) / step > MAX_POINTS_PER_SERIES) {
+			throw new IllegalArgumentException("The range can contain at most " + MAX_POINTS_PER_SERIES + " steps");
+		}
+		MetricsQueryResult result = new MetricsQueryResult();
+		result.setFrom(alignedFrom);
+		result.setTo(to);
+		result.setStep(TimeUnit.MILLISECONDS.toSeconds(step));
+		result.setAggregation(selectedAggregation.name().toLowerCase(Locale.ROOT));
+		for (Map.Entry<String, Map<String, TimeSeries>> instance : series.entrySet()) {
+			Map<String, MetricSeries> metrics = new TreeMap<>();
+			for (Map.Entry<String, TimeSeries> metric : instance.getValue().entrySet()) {
+				metrics.put(metric.getKey(), metric.getValue().query(alignedFrom, to, step, selectedAggregation));
+			}
+			result.getInstances().put(instance.getKey(), metrics);
+		}
+		return result;
+	}
+
+	/**
+	 * Write the result of a query in a compact binary encoding. All numbers are big-endian and strings are
+	 * modified UTF-8 prefixed by their length, as written by {@link DataOutputStream}:
+	 * <pre>
+	 * long from, long to, long step (seconds), UTF aggregation, int instanceCount,
+	 *   per instance: UTF instanceId, int metricCount,
+	 *     per metric: UTF metricName, int pointCount, pointCount x (long timestamp, double value)
+	 * </pre>
+	 */
+	public static void writeBinary(MetricsQueryResult result, OutputStream output) throws IOException {
+		DataOutputStream data = new DataOutputStream(output);
+		data.writeLong(result.getFrom());
+		data.writeLong(result.getTo());
+		data.writeLong(result.getStep());
+		data.writeUTF(result.getAggregation());
+		data.writeInt(result.getInstances().size());
+		for (Map.Entry<String, Map<String, MetricSeries>> instance : result.getInstances().entrySet()) {
+			data.writeUTF(instance.getKey());
+			data.writeInt(instance.getValue().size());
+			for (Map.Entry<String, MetricSeries> metric : instance.getValue().entrySet()) {
+				data.writeUTF(metric.getKey());
+				long[] timestamps = metric.getValue().getTimestamps();
+				double[] values = metric.getValue().getValues();
+				data.writeInt(timestamps.length);
+				for (int i = 0; i < timestamps.length; i++) {
+					data.writeLong(timestamps[i]);
+					data.writeDouble(values[i]);
+				}
+			}
+		}
+		data.flush();
+	}
+
+	/**
+	 * Remove the time series of instances that have no datapoints within the retention time anymore.
+	 */
+	public static void removeExpired(long now) {
+		long oldestRetained = now - TimeSeries.getRetentionTime();
+		series.values().removeIf((metrics) -> metrics.values()
+				.stream()
+				.allMatch((timeSeries) -> timeSeries.getNewestTimestamp() < oldestRetained));
+	}
+}
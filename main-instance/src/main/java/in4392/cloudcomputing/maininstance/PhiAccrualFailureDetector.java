@@ -0,0 +1,114 @@
+package in4392.cloudcomputing.maininstance;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Failure detector that expresses the suspicion that an instance has failed on a continuous scale, based on the
+ * intervals between the heartbeats that it sent so far.
+ *
+ * The intervals are assumed to be normally distributed. Phi is the negative base-10 logarithm of the probability that
+ * a heartbeat that has not arrived yet would still arrive, so a phi of 1 means a 10% chance that suspecting the
+ * instance is a mistake, a phi of 2 a 1% chance, and so on. The acceptable pause is added to the mean interval, so
+ * short pauses like garbage collection do not raise suspicion, and the standard deviation is never lower than the
+ * minimum, so very regular heartbeats do not make the detector too sensitive.
+ */
+public class PhiAccrualFailureDetector {
+	private final double threshold;
+	private final int windowSize;
+	private final long minStdDeviation;
+	private final long acceptablePause;
+	private final Deque<Long> intervals = new ArrayDeque<>();
+	private double intervalSum;
+	private double squaredIntervalSum;
+	private long lastHeartbeat = -1;
+	private long heartbeats;
+
+	/**
+	 * @param threshold is the phi above which the instance is considered to have failed
+	 * @param windowSize is the amount of latest intervals that the distribution is based on
+	 * @param minStdDeviation is the minimum standard deviation of the intervals, in milliseconds
+	 * @param acceptablePause is the time in milliseconds that a heartbeat may be late without raising suspicion
+	 * @param firstHeartbeatEstimate is the expected interval in milliseconds, which is used until enough heartbeats
+	 * have arrived
+	 */
+	public PhiAccrualFailureDetector(double threshold, int windowSize, long minStdDeviation, long acceptablePause, long firstHeartbeatEstimate) {
+		this.threshold = threshold;
+		this.windowSize = windowSize;
+		this.minStdDeviation = minStdDeviation;
+		this.acceptablePause = acceptablePause;
+		// start with a distribution around the expected interval, with a standard deviation of a quarter of it
+		addInterval(firstHeartbeatEstimate - firstHeartbeatEstimate / 4);
+		addInterval(firstHeartbeatEstimate + firstHeartbeatEstimate / 4);
+	}
+
+	/**
+	 * Record a heartbeat. The interval since the previous heartbeat is only added to the distribution if the instance
+	 * was not suspected, so the time that an instance was down does not make the detector less sensitive later on.
+	 *
+	 * @param timestamp is the time the heartbeat arrived, in milliseconds
+	 */
+	public synchronized void heartbeat(long timestamp) {
+		if (lastHeartbeat >= 0 && phi(timestamp) < threshold) {
+			addInterval(timestamp - lastHeartbeat);
+		}
+		lastHeartbeat = timestamp;
+		heartbeats++;
+	}
+
+	/**
+	 * @param timestamp is the current time, in milliseconds
+	 * @return the suspicion that the instance has failed, or 0 if no heartbeat has arrived yet
+	 */
+	public synchronized double phi(long timestamp) {
+		if (lastHeartbeat < 0) {
+			return 0;
+		}
+		long timeSinceLastHeartbeat = timestamp - lastHeartbeat;
+		double mean = getMeanInterval() + acceptablePause;
+		double y = (timeSinceLastHeartbeat - mean) / getStdDeviation();
+		// logistic approximation of the cumulative distribution function of the normal distribution
+		double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+		if (timeSinceLastHeartbeat > mean) {
+			return -Math.log10(e / (1.0 + e));
+		}
+		return -Math.log10(1.0 - 1.0 / (1.0 + e));
+	}
+
+	/**
+	 * @param timestamp is the current time, in milliseconds
+	 * @return false if phi is above the threshold
+	 */
+	public boolean isAvailable(long timestamp) {
+		return phi(timestamp) < threshold;
+	}
+
+	public synchronized long getLastHeartbeat() {
+		return lastHeartbeat;
+	}
+
+	public synchronized long getHeartbeats() {
+		return heartbeats;
+	}
+
+	public synchronized double getMeanInterval() {
+		return intervalSum / intervals.size();
+	}
+
+	public synchronized double getStdDeviation() {
+		double mean = getMeanInterval();
+		double variance = squaredIntervalSum / intervals.size() - mean * mean;
+		return Math.max(Math.sqrt(Math.max(0, variance)), minStdDeviation);
+	}
+
+	private void addInterval(long interval) {
+		if (intervals.size() >= windowSize) {
+			long oldest = intervals.removeFirst();
+			intervalSum -= oldest;
+			squaredIntervalSum -= (double) oldest * oldest;
+		}
+		intervals.addLast(interval);
+		intervalSum += interval;
+		squaredIntervalSum += (double) interval * interval;
+	}
+}
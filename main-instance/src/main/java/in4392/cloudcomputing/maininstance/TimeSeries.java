@@ -0,0 +1,208 @@
+package in4392.cloudcomputing.maininstance;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compact time series of a single metric, kept in fixed-size ring buffers of primitive values.
+ *
+ * The datapoints are stored at their original resolution and downsampled into coarser tiers that are kept for longer:
+ * <ul>
+ * <li>5 minutes, for 1 day</li>
+ * <li>1 hour, for 30 days</li>
+ * <li>1 day, for 1 year</li>
+ * </ul>
+ * Every tier keeps the sum, count, minimum and maximum of each bucket, so any aggregation can be computed from any
+ * tier. A bucket is stored in the slot determined by its start time, so a datapoint that is retrieved again simply
+ * replaces the earlier value, and slots that have not been written since the buffer wrapped around are ignored.
+ */
+public class TimeSeries {
+	private static final long[] RESOLUTIONS = {TimeUnit.MINUTES.toMillis(5), TimeUnit.HOURS.toMillis(1), TimeUnit.DAYS.toMillis(1)};
+	private static final int[] CAPACITIES = {288, 720, 365};
+	private final Tier[] tiers = new Tier[RESOLUTIONS.length];
+	private long newestTimestamp = Long.MIN_VALUE;
+
+	public TimeSeries() {
+		for (int i = 0; i < tiers.length; i++) {
+			tiers[i] = new Tier(RESOLUTIONS[i], CAPACITIES[i]);
+		}
+	}
+
+	/**
+	 * Add or replace a datapoint, and update the downsampled buckets that contain it.
+	 */
+	public synchronized void put(long timestamp, double value) {
+		if (!tiers[0].put(tiers[0].bucketStart(timestamp), value, 1, value, value)) {
+			return;
+		}
+		for (int i = 1; i < tiers.length; i++) {
+			tiers[i].downsample(tiers[i - 1], tiers[i].bucketStart(timestamp));
+		}
+		newestTimestamp = Math.max(newestTimestamp, timestamp);
+	}
+
+	public synchronized long getNewestTimestamp() {
+		return newestTimestamp;
+	}
+
+	/**
+	 * Aggregate the datapoints in a time range into buckets of the provided step. The finest tier that still covers
+	 * the start of the range is used, as long as it is not coarser than the step.
+	 *
+	 * @param from is the start of the range in milliseconds since the epoch, which must be aligned to the step
+	 * @param to is the (exclusive) end of the range in milliseconds since the epoch
+	 * @param step is the size of each bucket in milliseconds
+	 * @param aggregation determines how the datapoints in a bucket are combined
+	 * @return the start time of each bucket that contains datapoints and its aggregated value
+	 */
+	public synchronized MetricSeries query(long from, long to, long step, Aggregation aggregation) {
+		Tier tier = selectTier(from, step);
+		int buckets = (int) ((to - from + step - 1) / step);
+		double[] sums = new double[buckets];
+		int[] counts = new int[buckets];
+		double[] mins = new double[buckets];
+		double[] maxs = new double[buckets];
+		Arrays.fill(mins, Double.POSITIVE_INFINITY);
+		Arrays.fill(maxs, Double.NEGATIVE_INFINITY);
+		int nonEmpty = 0;
+		for (long bucketStart = tier.bucketStart(from); bucketStart < to; bucketStart += tier.resolution) {
+			int slot = tier.slotOf(bucketStart);
+			if (bucketStart < from || tier.bucketStarts[slot] != bucketStart) {
+				continue;
+			}
+			int index = (int) ((bucketStart - from) / step);
+			if (counts[index] == 0) {
+				nonEmpty++;
+			}
+			sums[index] += tier.sums[slot];
+			counts[index] += tier.counts[slot];
+			mins[index] = Math.min(mins[index], tier.mins[slot]);
+			maxs[index] = Math.max(maxs[index], tier.maxs[slot]);
+		}
+		long[] timestamps = new long[nonEmpty];
+		double[] values = new double[nonEmpty];
+		int next = 0;
+		for (int i = 0; i < buckets; i++) {
+			if (counts[i] == 0) {
+				continue;
+			}
+			timestamps[next] = from + i * step;
+			values[next] = aggregation.apply(sums[i], counts[i], mins[i], maxs[i]);
+			next++;
+		}
+		return new MetricSeries(timestamps, values);
+	}
+
+	/**
+	 * @return the time in milliseconds for which datapoints are kept in the coarsest tier
+	 */
+	public static long getRetentionTime() {
+		int coarsest = RESOLUTIONS.length - 1;
+		return RESOLUTIONS[coarsest] * CAPACITIES[coarsest];
+	}
+
+	private Tier selectTier(long from, long step) {
+		Tier selected = tiers[0];
+		if (newestTimestamp == Long.MIN_VALUE) {
+			return selected;
+		}
+		for (Tier tier : tiers) {
+			if (tier.resolution > step && tier != tiers[0]) {
+				break;
+			}
+			selected = tier;
+			if (from >= tier.bucketStart(newestTimestamp) - tier.resolution * (tier.capacity - 1)) {
+				break;
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * Aggregations that can be applied to the datapoints in a bucket.
+	 */
+	public enum Aggregation {
+		AVG, MIN, MAX, SUM, COUNT;
+
+		double apply(double sum, int count, double min, double max) {
+			switch (this) {
+				case MIN:
+					return min;
+				case MAX:
+					return max;
+				case SUM:
+					return sum;
+				case COUNT:
+					return count;
+				default:
+					return sum / count;
+			}
+		}
+	}
+
+	private static class Tier {
+		private final long resolution;
+		private final int capacity;
+		private final long[] bucketStarts;
+		private final double[] sums;
+		private final int[] counts;
+		private final double[] mins;
+		private final double[] maxs;
+
+		private Tier(long resolution, int capacity) {
+			this.resolution = resolution;
+			this.capacity = capacity;
+			bucketStarts = new long[capacity];
+			Arrays.fill(bucketStarts, Long.MIN_VALUE);
+			sums = new double[capacity];
+			counts = new int[capacity];
+			mins = new double[capacity];
+			maxs = new double[capacity];
+		}
+
+		private long bucketStart(long timestamp) {
+			return Math.floorDiv(timestamp, resolution) * resolution;
+		}
+
+		private int slotOf(long bucketStart) {
+			return (int) Math.floorMod(bucketStart / resolution, (long) capacity);
+		}
+
+		private boolean put(long bucketStart, double sum, int count, double min, double max) {
+			int slot = slotOf(bucketStart);
+			if (bucketStarts[slot] > bucketStart) {
+				// the slot already holds a newer bucket, so this datapoint is too old to be kept
+				return false;
+			}
+			bucketStarts[slot] = bucketStart;
+			sums[slot] = sum;
+			counts[slot] = count;
+			mins[slot] = min;
+			maxs[slot] = max;
+			return true;
+		}
+
+		/**
+		 * Recompute a bucket of this tier from the buckets of the finer tier that it contains.
+		 */
+		private void downsample(Tier finer, long bucketStart) {
+			double sum = 0;
+			int count = 0;
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			for (long finerStart = bucketStart; finerStart < bucketStart + resolution; finerStart += finer.resolution) {
+				int slot = finer.slotOf(finerStart);
+				if (finer.bucketStarts[slot] != finerStart) {
+					continue;
+				}
+				sum += finer.sums[slot];
+				count += finer.counts[slot];
+				min = Math.min(min, finer.mins[slot]);
+				max = Math.max(max, finer.maxs[slot]);
+			}
+			if (count > 0) {
+				put(bucketStart, sum, count, min, max);
+			}
+		}
+	}
+}
@@ -1,34 +1,50 @@
 package in4392.cloudcomputing.maininstance.api;
 
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Named;
+import javax.ws.rs.BadRequestException;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.InternalServerErrorException;
+import javax.ws.rs.NotFoundException;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.services.ec2.model.Instance;
 
-import in4392.cloudcomputing.maininstance.InstanceMetrics;
+import in4392.cloudcomputing.maininstance.ConnectionPoolStatistics;
+import in4392.cloudcomputing.maininstance.HealthRegistry;
+import in4392.cloudcomputing.maininstance.HealthStatus;
+import in4392.cloudcomputing.maininstance.HeartbeatMonitor;
+import in4392.cloudcomputing.maininstance.HeartbeatStatus;
+import in4392.cloudcomputing.maininstance.HttpClients;
+import in4392.cloudcomputing.maininstance.InstanceCache;
+import in4392.cloudcomputing.maininstance.InstanceCacheStatistics;
+import in4392.cloudcomputing.maininstance.LogStreamer;
 import in4392.cloudcomputing.maininstance.MainInstance;
+import in4392.cloudcomputing.maininstance.MetricsQueryResult;
+import in4392.cloudcomputing.maininstance.MetricsStore;
+import in4392.cloudcomputing.maininstance.ReplicationBatch;
 
 @Named
 @Path("main")
 @Produces(MediaType.APPLICATION_JSON)
 @Consumes(MediaType.APPLICATION_JSON)
 public class MainInstanceEndpoint {
+	private static final String LOG_FILE = "/home/ubuntu/main-instance.log";
+
 	/**
 	 * 
 	 * @return a 204 HTTP status with no content, if the main instance works correctly or
@@ -123,11 +139,87 @@ public class MainInstanceEndpoint {
 		return Response.ok(new SimpleStatus("This instance has credentials configured")).build();
 	}
 	
+	/**
+	 * Stream the log, or part of it, without reading it into memory.
+	 * 
+	 * @param offset is the position of the first byte to send, or the amount of bytes before the end of the log if
+	 * it is negative
+	 * @param length is the maximum amount of bytes to send
+	 * @param tail is the amount of lines at the end of the log to send, instead of starting at the offset
+	 * @param follow determines whether lines that are appended to the log are sent as they arrive
+	 * @return the (partial) log
+	 */
 	@Path("log")
 	@GET
 	@Produces(MediaType.TEXT_PLAIN)
-	public String showLog() throws IOException {
-		return new String(Files.readAllBytes(Paths.get("/home/ubuntu/main-instance.log")), StandardCharsets.UTF_8);
+	public Response showLog(
+			@QueryParam("offset") Long offset,
+			@QueryParam("length") Long length,
+			@QueryParam("tail") Integer tail,
+			@DefaultValue("false")
+			@QueryParam("follow")
+			boolean follow) {
+		if (!Files.isReadable(Paths.get(LOG_FILE))) {
+			throw new NotFoundException("The log is not available");
+		}
+		try {
+			return Response.ok(LogStreamer.stream(Paths.get(LOG_FILE), offset, length, tail, follow)).build();
+		} catch (IllegalArgumentException e) {
+			throw new BadRequestException(e.getMessage());
+		}
+	}
+	
+	/**
+	 * 
+	 * @return the calls in progress, completed and failed for each host that the main instance calls
+	 */
+	@Path("connection-pool")
+	@GET
+	public Map<String, ConnectionPoolStatistics> showConnectionPoolUtilization() {
+		return HttpClients.getPoolStatistics();
+	}
+
+	/**
+	 * 
+	 * @return the latest health of each instance that the main instance probes, keyed by instance id
+	 */
+	@Path("health-checks")
+	@GET
+	public Map<String, HealthStatus> showHealthChecks() {
+		return HealthRegistry.getStatuses();
+	}
+
+	/**
+	 * Receive a heartbeat from an instance that the main instance monitors.
+	 * 
+	 * @param instanceId is the id of the instance that sent the heartbeat
+	 * @return a 204 HTTP status with no content
+	 */
+	@Path("heartbeat")
+	@GET
+	public Response receiveHeartbeat(@QueryParam("instanceId") String instanceId) {
+		HeartbeatMonitor.record(instanceId);
+		return Response.noContent().build();
+	}
+
+	/**
+	 * 
+	 * @return the heartbeats and suspicion of each instance that sent heartbeats to the main instance, keyed by instance id
+	 */
+	@Path("heartbeats")
+	@GET
+	public Map<String, HeartbeatStatus> showHeartbeats() {
+		return HeartbeatMonitor.getStatuses();
+	}
+
+	/**
+	 * 
+	 * @return the hits, misses and EC2 API calls of the cache of instance descriptions
+	 */
+	@Path("instance-cache")
+	@GET
+	public InstanceCacheStatistics showInstanceCacheStatistics() {
+		return InstanceCache.getStatistics();
 	}
 	
 	@Path("instances/main")
@@ -190,10 +282,55 @@ public class MainInstanceEndpoint {
 		MainInstance.setBackupApplicationCounter(applicationId, counter);
 		return Response.ok().build();
 	}
+
+	/**
+	 * Receive a batch of changes to the restore state of the app orchestrator. Batches that were already applied 
+	 * are ignored, so a batch can safely be sent again.
+	 * 
+	 * @param batch is the batch of changes
+	 * @return a 204 HTTP status with no content
+	 */
+	@Path("backup/batch")
+	@POST
+	public Response backupBatch(ReplicationBatch batch) {
+		if (batch == null || batch.getSource() == null) {
+			throw new BadRequestException("The batch has no source");
+		}
+		MainInstance.applyBackupBatch(batch);
+		return Response.noContent().build();
+	}
 	
+	/**
+	 * Retrieve the aggregated metrics of the monitored instances.
+	 * 
+	 * @param from is the start of the range in milliseconds since the epoch (default 1 hour ago)
+	 * @param to is the end of the range in milliseconds since the epoch (default now)
+	 * @param step is the size of each bucket in seconds (default and minimum 5 minutes)
+	 * @param aggregation is how the datapoints in a bucket are combined: avg, min, max, sum or count (default avg)
+	 * @param format is either "json" or "binary", for the encoding described in {@link MetricsStore#writeBinary}
+	 * @return the aggregated datapoints of each metric of each instance
+	 */
 	@Path("metrics")
 	@GET
-	public Map<String, InstanceMetrics> retrieveMetrics() {
-		return MainInstance.getMetricsForInstances();
+	@Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_OCTET_STREAM})
+	public Response retrieveMetrics(
+			@QueryParam("from") Long from, 
+			@QueryParam("to") Long to, 
+			@QueryParam("step") @DefaultValue("300") long step, 
+			@QueryParam("aggregation") @DefaultValue("avg") String aggregation,
+			@QueryParam("format") @DefaultValue("json") String format) {
+		long end = to == null ? System.currentTimeMillis() : to;
+		long start = from == null ? end - TimeUnit.HOURS.toMillis(1) : from;
+		MetricsQueryResult result;
+		try {
+			result = MetricsStore.query(start, end, step, aggregation);
+		} catch (IllegalArgumentException e) {
+			throw new BadRequestException(e.getMessage());
+		}
+		if ("binary".equals(format)) {
+			StreamingOutput binary = (output) -> MetricsStore.writeBinary(result, output);
+			return Response.ok(binary, MediaType.APPLICATION_OCTET_STREAM).build();
+		}
+		return Response.ok(result, MediaType.APPLICATION_JSON).build();
 	}
 }
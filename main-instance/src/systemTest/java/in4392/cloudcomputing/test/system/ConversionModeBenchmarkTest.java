@@ -0,0 +1,68 @@
+package in4392.cloudcomputing.test.system;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.UUID;
+
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.UriBuilder;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+
+/**
+ *
+ * Compares the latency of converting a single video as a whole with converting its segments in parallel.
+ *
+ * Like the stress tests, this only reports the measurements, so it passes as long as the conversions succeed.
+ *
+ */
+public class ConversionModeBenchmarkTest extends SystemTest{
+	private static final int REPETITIONS = 3;
+
+	public Duration measureLatency(String mode) throws IOException {
+		URI getLoadBalancerEntry = UriBuilder.fromUri(loadBalancerURI)
+				.port(8080)
+				.path("load-balancer")
+				.path("entry")
+				.queryParam("cache", false)
+				.queryParam("mode", mode)
+				.build();
+		long totalDuration = 0;
+		for (int i = 0; i < REPETITIONS; i++) {
+			long startTime = System.currentTimeMillis();
+			try(InputStream inputVideo = Files.newInputStream(testVideoSmall)){
+				try(InputStream processedVideoInputStream = client
+						.target(getLoadBalancerEntry)
+						.request()
+						.post(
+								Entity.entity(inputVideo, MediaType.APPLICATION_OCTET_STREAM_VALUE),
+								InputStream.class)){
+					Assertions.assertNotNull(processedVideoInputStream);
+					// actually read the inputstream so the whole conversion is measured
+					Path convertedFile = Paths.get(UUID.randomUUID()+".mkv");
+					Files.copy(processedVideoInputStream, convertedFile);
+					Assertions.assertTrue(convertedFile.toFile().length() > 0);
+					convertedFile.toFile().delete();
+				}
+			}
+			totalDuration = totalDuration + (System.currentTimeMillis() - startTime);
+		}
+		Duration averageDuration = Duration.ofMillis(totalDuration / REPETITIONS);
+		System.err.printf("Average execution time (in ISO8601 format) in %s mode: %s\n", mode, averageDuration.toString());
+		return averageDuration;
+	}
+
+	@Test
+	public void compareFileAndParallelConversion() throws IOException {
+		Duration file = measureLatency("file");
+		Duration parallel = measureLatency("parallel");
+		System.err.printf("Speedup of parallel mode: %.2f\n", file.toMillis() / (double) Math.max(1, parallel.toMillis()));
+	}
+}
@@ -9,24 +9,21 @@ import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.Future;
 
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.InvocationCallback;
-import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.UriBuilder;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.http.MediaType;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 
-import in4392.cloudcomputing.maininstance.InstanceMetrics;
+import in4392.cloudcomputing.maininstance.MetricsQueryResult;
 
 /**
  * 
@@ -44,6 +41,7 @@ public class PerformanceStressTest extends SystemTest{
 				.port(8080)
 				.path("load-balancer")
 				.path("entry")
+				.queryParam("cache", false)
 				.build();
 		long totalInputVideoSize = 0;
 		long totalDuration = 0;
@@ -104,10 +102,9 @@ public class PerformanceStressTest extends SystemTest{
 				.path("main")
 				.path("metrics")
 				.build();
-		Map<String, InstanceMetrics> metrics = client.target(mainInstanceMetricsURI)
+		MetricsQueryResult metrics = client.target(mainInstanceMetricsURI)
 				.request()
-				.get(new GenericType<Map<String, InstanceMetrics>>(
-						new TypeReference<Map<String, InstanceMetrics>>() {}.getType()));
+				.get(MetricsQueryResult.class);
 		ObjectMapper jsonMapper = new ObjectMapper();
 		jsonMapper.enable(SerializationFeature.INDENT_OUTPUT);
 		System.err.println(jsonMapper.writeValueAsString(metrics));
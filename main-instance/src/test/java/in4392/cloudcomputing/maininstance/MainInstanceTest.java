@@ -0,0 +1,85 @@
+package in4392.cloudcomputing.maininstance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The restore state is shared by all tests, so every test sends its batches from its own source.
+ */
+public class MainInstanceTest {
+	private final String source = UUID.randomUUID().toString();
+
+	@Test
+	public void batchesAreAppliedInOrder() {
+		assertTrue(MainInstance.applyBackupBatch(batch(1, "i-lb", Arrays.asList("i-a", "i-b"), counters("i-a", 1, "i-b", 2))));
+		assertTrue(MainInstance.applyBackupBatch(batch(2, null, null, counters("i-a", 3))));
+
+		assertEquals("i-lb", MainInstance.getRestoreIdForLoadBalancer());
+		assertEquals(Arrays.asList("i-a", "i-b"), MainInstance.getRestoreIdsForApplications());
+		assertEquals(counters("i-a", 3, "i-b", 2), MainInstance.getRestoreApplicationCounters());
+	}
+
+	@Test
+	public void removedApplicationsLoseTheirCounters() {
+		MainInstance.applyBackupBatch(batch(1, "i-lb", Arrays.asList("i-a", "i-b"), counters("i-a", 1, "i-b", 2)));
+		MainInstance.applyBackupBatch(batch(2, null, Arrays.asList("i-b", "i-c"), counters("i-c", 0)));
+
+		assertEquals(Arrays.asList("i-b", "i-c"), MainInstance.getRestoreIdsForApplications());
+		assertEquals(counters("i-b", 2, "i-c", 0), MainInstance.getRestoreApplicationCounters());
+	}
+
+	@Test
+	public void batchesThatArriveAgainAreIgnored() {
+		ReplicationBatch batch = batch(1, "i-lb", Arrays.asList("i-a"), counters("i-a", 1));
+		assertTrue(MainInstance.applyBackupBatch(batch));
+		MainInstance.applyBackupBatch(batch(2, null, null, counters("i-a", 2)));
+
+		assertFalse(MainInstance.applyBackupBatch(batch));
+
+		assertEquals(counters("i-a", 2), MainInstance.getRestoreApplicationCounters());
+	}
+
+	@Test
+	public void olderBatchesAreIgnored() {
+		MainInstance.applyBackupBatch(batch(5, "i-lb-new", Arrays.asList("i-a"), counters("i-a", 5)));
+
+		assertFalse(MainInstance.applyBackupBatch(batch(4, "i-lb-old", Arrays.asList("i-old"), counters("i-a", 4))));
+
+		assertEquals("i-lb-new", MainInstance.getRestoreIdForLoadBalancer());
+		assertEquals(Arrays.asList("i-a"), MainInstance.getRestoreIdsForApplications());
+		assertEquals(counters("i-a", 5), MainInstance.getRestoreApplicationCounters());
+	}
+
+	@Test
+	public void sequenceNumbersAreCountedPerSource() {
+		MainInstance.applyBackupBatch(batch(5, "i-lb", Arrays.asList("i-a"), counters("i-a", 5)));
+
+		// an app orchestrator that was restarted starts counting from 1 again
+		ReplicationBatch restarted = new ReplicationBatch(UUID.randomUUID().toString(), 1, null, null, counters("i-a", 0));
+		assertTrue(MainInstance.applyBackupBatch(restarted));
+
+		assertEquals(counters("i-a", 0), MainInstance.getRestoreApplicationCounters());
+	}
+
+	private ReplicationBatch batch(long sequence, String loadBalancerId, List<String> applicationIds, Map<String, Integer> applicationCounters) {
+		return new ReplicationBatch(source, sequence, loadBalancerId, applicationIds, applicationCounters);
+	}
+
+	private static Map<String, Integer> counters(Object... idsAndCounters) {
+		Map<String, Integer> counters = new HashMap<>();
+		for (int i = 0; i < idsAndCounters.length; i += 2) {
+			counters.put((String) idsAndCounters[i], (Integer) idsAndCounters[i + 1]);
+		}
+		return Collections.unmodifiableMap(counters);
+	}
+}
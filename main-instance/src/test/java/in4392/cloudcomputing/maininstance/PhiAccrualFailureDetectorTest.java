@@ -0,0 +1,78 @@
+package in4392.cloudcomputing.maininstance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class PhiAccrualFailureDetectorTest {
+	private static final long INTERVAL = 1000;
+	private final PhiAccrualFailureDetector detector = new PhiAccrualFailureDetector(8, 100, 100, 0, INTERVAL);
+
+	@Test
+	public void instancesWithoutHeartbeatsAreNotSuspected() {
+		assertEquals(0, detector.phi(60 * 1000), 0.001);
+		assertTrue(detector.isAvailable(60 * 1000));
+	}
+
+	@Test
+	public void phiGrowsWhileTheHeartbeatIsMissing() {
+		sendRegularHeartbeats(10);
+		long lastHeartbeat = detector.getLastHeartbeat();
+
+		double onTime = detector.phi(lastHeartbeat + INTERVAL);
+		double late = detector.phi(lastHeartbeat + INTERVAL + 250);
+		double later = detector.phi(lastHeartbeat + INTERVAL + 500);
+
+		assertTrue(onTime < late, onTime + " should be lower than " + late);
+		assertTrue(late < later, late + " should be lower than " + later);
+		assertTrue(detector.isAvailable(lastHeartbeat + INTERVAL));
+		assertFalse(detector.isAvailable(lastHeartbeat + 10 * INTERVAL));
+	}
+
+	@Test
+	public void theAcceptablePauseDelaysSuspicion() {
+		PhiAccrualFailureDetector tolerant = new PhiAccrualFailureDetector(8, 100, 100, 3000, INTERVAL);
+		for (int i = 0; i <= 10; i++) {
+			detector.heartbeat(i * INTERVAL);
+			tolerant.heartbeat(i * INTERVAL);
+		}
+
+		assertFalse(detector.isAvailable(13 * INTERVAL));
+		assertTrue(tolerant.isAvailable(13 * INTERVAL));
+	}
+
+	@Test
+	public void regularIntervalsAreLearned() {
+		PhiAccrualFailureDetector detector = new PhiAccrualFailureDetector(8, 10, 100, 0, 5 * INTERVAL);
+		for (int i = 0; i <= 20; i++) {
+			detector.heartbeat(i * INTERVAL);
+		}
+
+		assertEquals(INTERVAL, detector.getMeanInterval(), 0.001);
+		assertEquals(100, detector.getStdDeviation(), 0.001);
+	}
+
+	@Test
+	public void intervalsWhileSuspectedAreNotLearned() {
+		sendRegularHeartbeats(10);
+		double meanInterval = detector.getMeanInterval();
+		long lastHeartbeat = detector.getLastHeartbeat();
+		assertFalse(detector.isAvailable(lastHeartbeat + 60 * INTERVAL));
+
+		detector.heartbeat(lastHeartbeat + 60 * INTERVAL);
+
+		assertEquals(meanInterval, detector.getMeanInterval(), 0.001);
+		assertEquals(lastHeartbeat + 60 * INTERVAL, detector.getLastHeartbeat());
+		assertEquals(12, detector.getHeartbeats());
+		// the instance is available again once it sends heartbeats
+		assertTrue(detector.isAvailable(lastHeartbeat + 61 * INTERVAL));
+	}
+
+	private void sendRegularHeartbeats(int intervals) {
+		for (int i = 0; i <= intervals; i++) {
+			detector.heartbeat(i * INTERVAL);
+		}
+	}
+}